@@ -10,6 +10,13 @@ public abstract class BaseTokenImpl implements BaseToken {
 
     private int row;
     private int col;
+
+    /**
+     * The last {@link ChildList} this token was placed in, and its position in the buffer of
+     * that list.
+     */
+    ChildList childList;
+    int childSlot = -1;
     
     protected BaseTokenImpl(){
     	
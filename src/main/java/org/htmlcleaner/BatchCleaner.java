@@ -0,0 +1,263 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Cleans a batch of documents in parallel. Each worker thread cleans in its own
+ * {@link CleaningSession}, so the cleaning state is reused by all documents of the batch cleaned
+ * by the same worker. Sessions belong to the batch and are dropped with it.</p>
+ *
+ * <p>In a fork-join pool the batch is split in halves down to single documents - idle workers
+ * steal the halves not yet started, so a few large documents don't hold up the rest. With other
+ * executors, a worker per processor is started and each one takes the next document as soon as
+ * it's done with the previous one. The calling thread works the same way while waiting, so the
+ * batch is finished even if none of the workers gets to run, i.e. when called from a worker of
+ * a fully used executor.</p>
+ */
+class BatchCleaner {
+
+    // shared pool for batches without an executor, created on first use; its threads are
+    // daemons, so the idle pool doesn't keep the application running
+    private static ForkJoinPool defaultPool;
+
+    private final HtmlCleaner cleaner;
+    private final Object[] sources;
+    private final CleanResult[] results;
+    private final ConcurrentMap<Thread, CleaningSession> sessions = new ConcurrentHashMap<Thread, CleaningSession>();
+
+    BatchCleaner(HtmlCleaner cleaner, Iterable<?> sources) {
+        this.cleaner = cleaner;
+        List<Object> sourceList = new ArrayList<Object>();
+        for (Object source: sources) {
+            sourceList.add(source);
+        }
+        this.sources = sourceList.toArray();
+        this.results = new CleanResult[this.sources.length];
+    }
+
+    /**
+     * Cleans all the documents and waits for the results.
+     * @param executor executor running the workers, default fork-join pool if null
+     * @return Results in the order of the sources.
+     */
+    List<CleanResult> cleanAll(Executor executor) {
+        if (sources.length == 1) {
+            clean(0, cleaner.createSession());
+        } else if (sources.length > 0) {
+            if (executor == null) {
+                invoke( getDefaultPool(), new CleanTask(0, sources.length) );
+            } else if (executor instanceof ForkJoinPool) {
+                invoke( (ForkJoinPool) executor, new CleanTask(0, sources.length) );
+            } else {
+                runWorkers(executor);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private static void invoke(ForkJoinPool pool, CleanTask task) {
+        if (ForkJoinTask.getPool() == pool) {
+            // already in a worker of the pool, which takes part in the task instead of waiting
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    private static synchronized ForkJoinPool getDefaultPool() {
+        if (defaultPool == null) {
+            ForkJoinPool.ForkJoinWorkerThreadFactory daemonFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {};
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            defaultPool = new ForkJoinPool( Runtime.getRuntime().availableProcessors(), daemonFactory, null, false );
+        }
+        return defaultPool;
+    }
+
+    /**
+     * @return Session of the batch for the current thread.
+     */
+    private CleaningSession getSession() {
+        Thread thread = Thread.currentThread();
+        CleaningSession session = sessions.get(thread);
+        if (session == null) {
+            session = cleaner.createSession();
+            sessions.put(thread, session);
+        }
+        return session;
+    }
+
+    /**
+     * Splits its range of documents in halves, the first half is left to be stolen by other
+     * workers while this one continues with the second.
+     */
+    private class CleanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        CleanTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                clean(from, getSession());
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll( new CleanTask(from, middle), new CleanTask(middle, to) );
+            }
+        }
+    }
+
+    private void runWorkers(Executor executor) {
+        final AtomicInteger next = new AtomicInteger();
+        // workers which took part in the batch and haven't finished yet
+        final AtomicInteger running = new AtomicInteger();
+        // errors are not captured by the results, the first one is thrown to the caller
+        final AtomicReference<Error> error = new AtomicReference<Error>();
+        Runnable worker = new Runnable() {
+            public void run() {
+                running.incrementAndGet();
+                try {
+                    CleaningSession session = null;
+                    int index;
+                    while ( (index = next.getAndIncrement()) < sources.length ) {
+                        if (session == null) {
+                            session = cleaner.createSession();
+                        }
+                        clean(index, session);
+                    }
+                } catch (Error e) {
+                    error.compareAndSet(null, e);
+                    // the others stop as well
+                    next.set(sources.length);
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        synchronized (running) {
+                            running.notifyAll();
+                        }
+                    }
+                }
+            }
+        };
+        int workerCount = Math.min( sources.length, Runtime.getRuntime().availableProcessors() ) - 1;
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            // the rest is cleaned by the workers already started and by this thread
+        }
+        worker.run();
+        // all documents are taken, workers starting from now on find nothing to do
+        synchronized (running) {
+            while (running.get() > 0) {
+                try {
+                    running.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new HtmlCleanerException(e);
+                }
+            }
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    private void clean(int index, CleaningSession session) {
+        Object source = sources[index];
+        try {
+            results[index] = new CleanResult( source, clean(source, session), null );
+        } catch (IOException e) {
+            results[index] = new CleanResult(source, null, e);
+        } catch (RuntimeException e) {
+            results[index] = new CleanResult(source, null, e);
+        }
+    }
+
+    private TagNode clean(Object source, CleaningSession session) throws IOException {
+        String charset = cleaner.getProperties().getCharset();
+        if (source instanceof CharSequence) {
+            return session.clean( source.toString() );
+        } else if (source instanceof Reader) {
+            return session.clean( (Reader) source );
+        } else if (source instanceof File) {
+            File file = (File) source;
+            Reader reader = cleaner.createReader(file, charset);
+            try {
+                return session.clean( reader, null, file.length() );
+            } finally {
+                try{ reader.close(); } catch(IOException e) {}
+            }
+        } else if (source instanceof InputStream) {
+            return session.clean( new InputStreamReader((InputStream) source, charset) );
+        } else if (source instanceof byte[]) {
+            byte[] bytes = (byte[]) source;
+            return session.clean( HtmlCleaner.createReader(ByteBuffer.wrap(bytes), charset), null, bytes.length );
+        } else if (source instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) source).duplicate();
+            return session.clean( HtmlCleaner.createReader(buffer, charset), null, buffer.remaining() );
+        }
+        throw new IllegalArgumentException("Unsupported source of the document: " + (source == null ? null : source.getClass().getName()));
+    }
+
+}
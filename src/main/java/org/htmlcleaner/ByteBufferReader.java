@@ -0,0 +1,136 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * <p>Reader which decodes the content of byte buffer, typically memory mapped file, directly
+ * into the caller's buffer, without intermediate byte or char buffers.</p>
+ *
+ * <p>Malformed input is replaced the same way as {@link java.io.InputStreamReader} does.</p>
+ */
+class ByteBufferReader extends Reader {
+
+    private ByteBuffer bytes;
+    private CharsetDecoder decoder;
+    private boolean flushed;
+    private CharBuffer pending = CharBuffer.allocate(2);
+
+    /**
+     * @param bytes Content to read, from its position to the limit
+     * @param charset Charset of the content
+     */
+    ByteBufferReader(ByteBuffer bytes, String charset) {
+        this.bytes = bytes;
+        this.decoder = Charset.forName(charset).newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Maps the whole file for reading. File is closed before returning - the mapping
+     * stays valid until the buffer is garbage collected.
+     * @param file File to map, must not be larger than 2GB
+     * @return Buffer with the file content
+     * @throws IOException
+     */
+    static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @param file
+     * @return true if file size allows it to be mapped as a single buffer
+     */
+    static boolean canMap(File file) {
+        return file.length() <= Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pending.position() > 0) {
+            // second half of surrogate pair left from the previous read
+            cbuf[off] = pending.get(1);
+            pending.clear();
+            return 1;
+        }
+        if (flushed) {
+            return -1;
+        }
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        decoder.decode(bytes, out, true);
+        if (out.position() == off && bytes.hasRemaining()) {
+            // there is no room for the surrogate pair, so it is decoded aside
+            decoder.decode(bytes, pending, true);
+            cbuf[off] = pending.get(0);
+            if (pending.position() == 1) {
+                pending.clear();
+            }
+            return 1;
+        }
+        if ( !bytes.hasRemaining() && out.hasRemaining() ) {
+            flushed = decoder.flush(out).isUnderflow();
+        }
+
+        int count = out.position() - off;
+        return count == 0 && flushed ? -1 : count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        bytes = null;
+        flushed = true;
+    }
+
+}
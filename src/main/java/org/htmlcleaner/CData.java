@@ -46,7 +46,7 @@ public class CData extends ContentNode implements HtmlNode {
 	}
 	
 	public String getContentWithoutStartAndEndTokens(){
-		return this.content;
+		return super.getContent();
 	}
 
 	/* (non-Javadoc)
@@ -66,7 +66,7 @@ public class CData extends ContentNode implements HtmlNode {
 	}
 	
 	public String getContentWithStartAndEndTokens(){
-		return SAFE_BEGIN_CDATA + this.content + SAFE_END_CDATA;
+		return SAFE_BEGIN_CDATA + super.getContent() + SAFE_END_CDATA;
 	}
 	
 	
@@ -0,0 +1,122 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Token used to stop cleaning which takes too long. Cleaning stops once the token is
+ * cancelled explicitly, or once its deadline passes. Token is checked between the tokens
+ * of content and while building and pruning the tree.</p>
+ *
+ * <p>By default cleaning is aborted with {@link CleaningCancelledException}. If partial result
+ * is requested, the content parsed so far is built into the document, which is closed and
+ * pruned as usual, so that pruning is never skipped.</p>
+ *
+ * <p>Token stays cancelled once it is, so a new one is needed for each cleaning.</p>
+ */
+public class CancellationToken {
+
+    /**
+     * Clock is read only each this many checks, to keep the checks cheap.
+     */
+    private static final int CLOCK_CHECK_INTERVAL = 16;
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private volatile boolean cancelled;
+    private boolean returnPartialResult;
+    private int checkCount;
+
+    /**
+     * Creates token without deadline, which is cancelled by {@link #cancel()} only.
+     */
+    public CancellationToken() {
+        this(false, 0);
+    }
+
+    private CancellationToken(boolean hasDeadline, long deadline) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param timeout
+     * @param unit
+     * @return Token which is cancelled when given time passes from now.
+     */
+    public static CancellationToken withTimeout(long timeout, TimeUnit unit) {
+        return new CancellationToken(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Cancels the cleaning, may be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the token was cancelled or its deadline has passed.
+     */
+    public boolean isCancelled() {
+        if (!cancelled && hasDeadline && System.nanoTime() - deadline >= 0) {
+            cancelled = true;
+        }
+        return cancelled;
+    }
+
+    /**
+     * Cheaper version of {@link #isCancelled()} for the frequent checks during cleaning,
+     * which doesn't read the clock every time.
+     */
+    boolean check() {
+        if (cancelled) {
+            return true;
+        }
+        return hasDeadline && ++checkCount % CLOCK_CHECK_INTERVAL == 0 && isCancelled();
+    }
+
+    public boolean isReturnPartialResult() {
+        return returnPartialResult;
+    }
+
+    /**
+     * @param returnPartialResult if true, cancelled cleaning returns the document built from
+     * the content parsed so far, instead of throwing {@link CleaningCancelledException}
+     */
+    public void setReturnPartialResult(boolean returnPartialResult) {
+        this.returnPartialResult = returnPartialResult;
+    }
+
+}
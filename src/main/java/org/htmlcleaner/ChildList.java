@@ -0,0 +1,253 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * List of node children kept in a gap buffer: insertions and removals are done at the gap, which
+ * is moved to the edited position first, so a sequence of edits near each other costs only the
+ * distance between them and not the width of the parent. Each child token also remembers the slot
+ * it occupies in the buffer, which makes finding the position of a child constant time.
+ * The list compares children by identity, since tokens do not override equals(), and finds the
+ * first occurrence of a child which is in the list more than once, like indexOf(). Changes are
+ * reported to the owning node, which becomes the parent of the added elements and drops the
+ * indexes of its subtree.
+ */
+final class ChildList extends AbstractList<BaseToken> implements RandomAccess {
+
+    private static final BaseToken[] EMPTY = new BaseToken[0];
+
+    private static final int MIN_CAPACITY = 8;
+
+    private final TagNode owner;
+
+    private BaseToken[] items = EMPTY;
+
+    // children are stored in [0, gapStart) and [gapEnd, items.length)
+    private int gapStart;
+    private int gapEnd;
+
+    // set when a child still in the list is placed again, here or elsewhere, after which its
+    // slot doesn't tell the first occurrence - positions are then found by scanning
+    private boolean hasDuplicates;
+
+    /**
+     * @param owner Node which children are in the list, notified of changes
+     */
+    ChildList(TagNode owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public int size() {
+        return items.length - gapEnd + gapStart;
+    }
+
+    @Override
+    public BaseToken get(int index) {
+        if (index < 0 || index >= size()) {
+            throw outOfBounds(index);
+        }
+        return items[index < gapStart ? index : index + gapEnd - gapStart];
+    }
+
+    @Override
+    public BaseToken set(int index, BaseToken token) {
+        if (index < 0 || index >= size()) {
+            throw outOfBounds(index);
+        }
+        int slot = index < gapStart ? index : index + gapEnd - gapStart;
+        BaseToken previous = items[slot];
+        if (previous != token) {
+            checkDuplicate(token);
+        }
+        items[slot] = token;
+        place(token, slot);
+        if (previous != token) {
+            owner.childRemoved(previous);
+        }
+        owner.childAdded(token);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, BaseToken token) {
+        if (index < 0 || index > size()) {
+            throw outOfBounds(index);
+        }
+        checkDuplicate(token);
+        if (gapStart == gapEnd) {
+            grow();
+        }
+        moveGap(index);
+        items[gapStart] = token;
+        place(token, gapStart);
+        gapStart++;
+        modCount++;
+        owner.childAdded(token);
+    }
+
+    @Override
+    public BaseToken remove(int index) {
+        if (index < 0 || index >= size()) {
+            throw outOfBounds(index);
+        }
+        moveGap(index);
+        BaseToken removed = items[gapEnd];
+        items[gapEnd++] = null;
+        modCount++;
+        owner.childRemoved(removed);
+        owner.invalidateIndex();
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        BaseToken[] removed = items;
+        items = new BaseToken[items.length];
+        gapStart = 0;
+        gapEnd = items.length;
+        hasDuplicates = false;
+        modCount++;
+        for (BaseToken token: removed) {
+            if (token != null) {
+                owner.childRemoved(token);
+            }
+        }
+        owner.invalidateIndex();
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] result = new Object[size()];
+        System.arraycopy(items, 0, result, 0, gapStart);
+        System.arraycopy(items, gapEnd, result, gapStart, items.length - gapEnd);
+        return result;
+    }
+
+    /**
+     * @param token
+     * @return Index of the first occurrence of the specified token in this list, -1 if it is not
+     *         there. Unlike indexOf(), takes constant time unless some child was placed in a list
+     *         again without being removed first.
+     */
+    int find(Object token) {
+        if (!hasDuplicates && token instanceof BaseTokenImpl) {
+            BaseTokenImpl tokenImpl = (BaseTokenImpl) token;
+            if ( tokenImpl.childList == this && holds(tokenImpl.childSlot, token) ) {
+                int slot = tokenImpl.childSlot;
+                return slot < gapStart ? slot : slot - gapEnd + gapStart;
+            }
+        }
+        // the token is not in the list at all, or its slot can't be relied on
+        for (int i = 0; i < gapStart; i++) {
+            if (items[i] == token) {
+                return i;
+            }
+        }
+        for (int i = gapEnd; i < items.length; i++) {
+            if (items[i] == token) {
+                return i - gapEnd + gapStart;
+            }
+        }
+        return -1;
+    }
+
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(items, index, items, gapEnd - count, count);
+            Arrays.fill(items, index, Math.min(gapStart, gapEnd - count), null);
+            gapStart = index;
+            gapEnd -= count;
+            placeAll(gapEnd, gapEnd + count);
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            System.arraycopy(items, gapEnd, items, gapStart, count);
+            Arrays.fill(items, Math.max(gapEnd, index), gapEnd + count, null);
+            placeAll(gapStart, index);
+            gapStart = index;
+            gapEnd += count;
+        }
+    }
+
+    private void grow() {
+        int tail = items.length - gapEnd;
+        BaseToken[] grown = new BaseToken[Math.max(MIN_CAPACITY, items.length * 2)];
+        System.arraycopy(items, 0, grown, 0, gapStart);
+        System.arraycopy(items, gapEnd, grown, grown.length - tail, tail);
+        items = grown;
+        gapEnd = grown.length - tail;
+        placeAll(gapEnd, grown.length);
+    }
+
+    private void placeAll(int from, int to) {
+        for (int slot = from; slot < to; slot++) {
+            place(items[slot], slot);
+        }
+    }
+
+    private void place(BaseToken token, int slot) {
+        if (token instanceof BaseTokenImpl) {
+            ((BaseTokenImpl) token).childList = this;
+            ((BaseTokenImpl) token).childSlot = slot;
+        }
+    }
+
+    /**
+     * Marks the list the token is in, if any, as having duplicates, since the token is about
+     * to be placed again.
+     * @param token
+     */
+    private static void checkDuplicate(BaseToken token) {
+        if (token instanceof BaseTokenImpl) {
+            BaseTokenImpl tokenImpl = (BaseTokenImpl) token;
+            ChildList list = tokenImpl.childList;
+            if ( list != null && list.holds(tokenImpl.childSlot, token) ) {
+                list.hasDuplicates = true;
+            }
+        }
+    }
+
+    private boolean holds(int slot, Object token) {
+        return slot >= 0 && slot < items.length && items[slot] == token;
+    }
+
+    private IndexOutOfBoundsException outOfBounds(int index) {
+        return new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+
+}
@@ -0,0 +1,76 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+/**
+ * <p>Result of cleaning one document of the batch, see {@link HtmlCleaner#cleanAll(Iterable)}.
+ * It holds either the cleaned document or the exception which stopped its cleaning.</p>
+ */
+public class CleanResult {
+
+    private final Object source;
+    private final TagNode document;
+    private final Exception exception;
+
+    CleanResult(Object source, TagNode document, Exception exception) {
+        this.source = source;
+        this.document = document;
+        this.exception = exception;
+    }
+
+    /**
+     * @return Source of the document, as given to the batch.
+     */
+    public Object getSource() {
+        return source;
+    }
+
+    /**
+     * @return Root of the cleaned document, or null if cleaning failed.
+     */
+    public TagNode getDocument() {
+        return document;
+    }
+
+    /**
+     * @return Exception which stopped the cleaning, or null if the document was cleaned.
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+
+}
@@ -35,6 +35,7 @@ package org.htmlcleaner;
 
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
@@ -62,7 +63,7 @@ class CleanTimeValues {
 
     Set<ITagNodeCondition> pruneTagSet = new HashSet<ITagNodeCondition>();
     Set<TagNode> pruneNodeSet = new HashSet<TagNode>();
-    Set<ITagNodeCondition> allowTagSet;
+    Set<ITagNodeCondition> allowTagSet = new HashSet<ITagNodeCondition>();
     
     /**
      * A stack of namespaces for currently open tags. Every xmlns declaration
@@ -71,4 +72,76 @@ class CleanTimeValues {
      * belongs to.
      */
     transient Stack<String> namespace = new Stack<String>();
+
+    /**
+     * Names of tags and attributes met by the tokenizer, with their resolved tag infos.
+     */
+    transient SymbolTable symbolTable = new SymbolTable();
+
+    /**
+     * Set for the copy of the values used to build a snapshot of incomplete document,
+     * in which case listeners are not notified about the changes.
+     */
+    boolean isSnapshot;
+
+    /**
+     * Start tags of the elements enclosing the cleaned fragment, if any. They are closed
+     * together at the end without notifying listeners about unclosed tags.
+     */
+    Set<TagNode> contextTags;
+
+    /**
+     * Counters checked against {@link CleanerLimits}
+     */
+    int nodeCount;
+    int copyCount;
+    /**
+     * Number of start tags dropped because of nesting depth limit, by their names,
+     * so that their end tags are dropped as well.
+     */
+    Map<String, Integer> droppedByDepth;
+    /**
+     * Set when the node limit is reached, the rest of the content is ignored then.
+     */
+    boolean isTruncated;
+
+    /**
+     * Token stopping the cleaning, if any.
+     */
+    CancellationToken cancellationToken;
+
+    /**
+     * Interned names are kept for the next document of the session, unless there are more of them.
+     */
+    private static final int MAX_REUSED_SYMBOLS = 4096;
+
+    /**
+     * Prepares the values for cleaning of another document in the same session - collections
+     * are emptied rather than created again, and interned names are kept.
+     */
+    void reset() {
+        _headOpened = false;
+        _bodyOpened = false;
+        _headTags.clear();
+        allTags.clear();
+        nestingStates.clear();
+        htmlNode = null;
+        bodyNode = null;
+        headNode = null;
+        rootNode = null;
+        pruneTagSet.clear();
+        pruneNodeSet.clear();
+        allowTagSet.clear();
+        namespace.clear();
+        if (symbolTable.size() > MAX_REUSED_SYMBOLS) {
+            symbolTable = new SymbolTable();
+        }
+        isSnapshot = false;
+        contextTags = null;
+        nodeCount = 0;
+        copyCount = 0;
+        droppedByDepth = null;
+        isTruncated = false;
+        cancellationToken = null;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+/**
+ * <p>Limits protecting the cleaner from hostile or broken content, which could otherwise
+ * make it build huge trees or hold large amounts of memory. Zero or negative value means the
+ * limit is not set, which is the default for all of them.</p>
+ *
+ * <p>When a limit is reached, the cleaner degrades the result in the defined way:
+ * <ul>
+ * <li>tags nested deeper than {@link #getMaxDepth()} are dropped, so their content is flattened into the deepest allowed tag;</li>
+ * <li>after {@link #getMaxNodes()} tags, the rest of the content is ignored;</li>
+ * <li>attributes over {@link #getMaxAttributesPerTag()} are ignored;</li>
+ * <li>attribute values longer than {@link #getMaxAttributeValueLength()} are truncated;</li>
+ * <li>texts and comments longer than {@link #getMaxTextLength()} are truncated;</li>
+ * <li>after {@link #getMaxCopies()} automatically created copies of formatting or broken tags, no more copies are made.</li>
+ * </ul>
+ * Every such change is reported to the modification listeners as {@link org.htmlcleaner.audit.ErrorType#LimitExceeded}.
+ * If {@link #isFailOnLimit()} is set, cleaning is aborted with {@link CleanerLimitExceededException} instead.</p>
+ */
+public class CleanerLimits {
+
+    /**
+     * Kinds of limits, reported by {@link CleanerLimitExceededException}.
+     */
+    public enum Limit {
+        Depth,
+        Nodes,
+        AttributesPerTag,
+        AttributeValueLength,
+        TextLength,
+        Copies
+    }
+
+    private int maxDepth;
+    private int maxNodes;
+    private int maxAttributesPerTag;
+    private int maxAttributeValueLength;
+    private int maxTextLength;
+    private int maxCopies;
+    private boolean failOnLimit;
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth maximal number of nested open tags
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @param maxNodes maximal number of tags in the document, including the automatically created ones
+     */
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    public int getMaxAttributesPerTag() {
+        return maxAttributesPerTag;
+    }
+
+    /**
+     * @param maxAttributesPerTag maximal number of attributes of a single tag
+     */
+    public void setMaxAttributesPerTag(int maxAttributesPerTag) {
+        this.maxAttributesPerTag = maxAttributesPerTag;
+    }
+
+    public int getMaxAttributeValueLength() {
+        return maxAttributeValueLength;
+    }
+
+    /**
+     * @param maxAttributeValueLength maximal number of characters in attribute value
+     */
+    public void setMaxAttributeValueLength(int maxAttributeValueLength) {
+        this.maxAttributeValueLength = maxAttributeValueLength;
+    }
+
+    public int getMaxTextLength() {
+        return maxTextLength;
+    }
+
+    /**
+     * @param maxTextLength maximal number of characters in a single text or comment node
+     */
+    public void setMaxTextLength(int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+    }
+
+    public int getMaxCopies() {
+        return maxCopies;
+    }
+
+    /**
+     * @param maxCopies maximal number of tags copied by the cleaner, i.e. formatting tags
+     * repeated after the block tags which closed them
+     */
+    public void setMaxCopies(int maxCopies) {
+        this.maxCopies = maxCopies;
+    }
+
+    public boolean isFailOnLimit() {
+        return failOnLimit;
+    }
+
+    /**
+     * @param failOnLimit if true, cleaning is aborted with {@link CleanerLimitExceededException}
+     * when any of the limits is reached, instead of degrading the result
+     */
+    public void setFailOnLimit(boolean failOnLimit) {
+        this.failOnLimit = failOnLimit;
+    }
+
+    /**
+     * @return true if any of the limits is set.
+     */
+    boolean isLimited() {
+        return maxDepth > 0 || maxNodes > 0 || maxAttributesPerTag > 0 || maxAttributeValueLength > 0 || maxTextLength > 0 || maxCopies > 0;
+    }
+
+}
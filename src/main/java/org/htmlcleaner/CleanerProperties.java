@@ -84,6 +84,9 @@ public class CleanerProperties implements HtmlModificationListener{
     private boolean transSpecialEntitiesToNCR;
     private boolean omitCdataOutsideScriptAndStyle;
     private boolean deserializeEntities;
+    private boolean useMemoryMappedFiles;
+    private boolean useSharedContentBuffer;
+    private CleanerLimits limits;
 
     /**
      * "cause the cleaner cannot keep track of whitespace at that level",
@@ -321,6 +324,48 @@ public class CleanerProperties implements HtmlModificationListener{
         return pruneTags;
     }
     
+    public boolean isUseMemoryMappedFiles() {
+        return useMemoryMappedFiles;
+    }
+
+    /**
+     * If set, files given to {@link HtmlCleaner#clean(java.io.File)} are memory mapped and decoded
+     * directly into the tokenizer's buffer, instead of being read through input stream and reader.
+     * It pays off for larger files, especially when many of them are processed in bulk.
+     * @param useMemoryMappedFiles
+     */
+    public void setUseMemoryMappedFiles(boolean useMemoryMappedFiles) {
+        this.useMemoryMappedFiles = useMemoryMappedFiles;
+    }
+
+    public boolean isUseSharedContentBuffer() {
+        return useSharedContentBuffer;
+    }
+
+    /**
+     * If set, text and comment nodes don't hold their own strings, but slices of character
+     * buffers shared by the nodes of the same document. Strings are created only when the
+     * content is asked for, and serializers writing nodes directly don't need them at all.
+     * It reduces allocation for large text bodies which are mostly read or serialized, but
+     * keeps the shared buffers in memory for as long as any node of the document is.
+     * @param useSharedContentBuffer
+     */
+    public void setUseSharedContentBuffer(boolean useSharedContentBuffer) {
+        this.useSharedContentBuffer = useSharedContentBuffer;
+    }
+
+    public CleanerLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Limits protecting the cleaner from hostile content, see {@link CleanerLimits}.
+     * @param limits
+     */
+    public void setLimits(CleanerLimits limits) {
+        this.limits = limits == null ? new CleanerLimits() : limits;
+    }
+
     public boolean isOmitCdataOutsideScriptAndStyle(){
     	return omitCdataOutsideScriptAndStyle;
     }
@@ -455,6 +500,9 @@ public class CleanerProperties implements HtmlModificationListener{
      * booleanAttributeValues = BOOL_ATT_SELF;
      * collapseNullHtml = CollapseHtml.none
      * charset = "UTF-8";
+     * useMemoryMappedFiles = false;
+     * useSharedContentBuffer = false;
+     * limits = no limits;
      */
     public void reset() {
         advancedXmlEscape = true;
@@ -486,6 +534,9 @@ public class CleanerProperties implements HtmlModificationListener{
         tagInfoProvider = DefaultTagProvider.INSTANCE;
         htmlModificationListeners = new ArrayList < HtmlModificationListener >();
         omitCdataOutsideScriptAndStyle = false;
+        useMemoryMappedFiles = false;
+        useSharedContentBuffer = false;
+        limits = new CleanerLimits();
     }
 
     private void resetPruneTagSet() {
@@ -0,0 +1,599 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>
+ * Pipeline reading, cleaning and serializing documents in three stages running at the same
+ * time. Reading and writing are done by I/O threads - virtual threads if the JVM supports
+ * them, platform threads otherwise - while cleaning is done by a fixed number of threads, by
+ * default one per processor. Stages are connected by bounded queues, so a slow stage blocks
+ * the ones feeding it instead of letting the documents pile up in memory.
+ * </p>
+ *
+ * <p>
+ * Sources may be CharSequence, File, Reader or InputStream (closed when read), byte array or
+ * ByteBuffer - bytes are decoded with the charset specified in cleaner properties. Each
+ * cleaning thread cleans in its {@link HtmlCleaner#getThreadSession() thread session}. A
+ * document which can't be read, cleaned or written is counted as failed, and the rest of the
+ * documents go on - errors, like stack overflow on a too deep document, are recorded wrapped
+ * in {@link HtmlCleanerException}. If a stage itself fails, for example because iterator of
+ * the sources throws, the other stages are stopped and the failure is thrown from
+ * {@link #run(Iterable, Output)}. Counters of the running or finished pipeline are available as
+ * {@link #getStatistics() statistics}.
+ * </p>
+ *
+ * <pre>
+ *     CleaningPipeline pipeline = new CleaningPipeline(cleaner, new SimpleXmlSerializer(props));
+ *     CleaningPipeline.Statistics statistics = pipeline.run(files, pipeline.toDirectory(outDir));
+ * </pre>
+ */
+public class CleaningPipeline {
+
+    /**
+     * Destination of the serialized documents.
+     */
+    public interface Output {
+        /**
+         * @param source source of the document, as given to the pipeline
+         * @return Writer receiving the serialized document, closed by the pipeline.
+         * @throws IOException
+         */
+        Writer open(Object source) throws IOException;
+    }
+
+    /**
+     * Counters of the pipeline. Values are read live, while the pipeline is running.
+     */
+    public static class Statistics {
+        private final long startTime = System.nanoTime();
+        private volatile long endTime;
+        private final AtomicLong documentsRead = new AtomicLong();
+        private final AtomicLong charactersRead = new AtomicLong();
+        private final AtomicLong documentsCleaned = new AtomicLong();
+        private final AtomicLong documentsWritten = new AtomicLong();
+        private final AtomicLong documentsFailed = new AtomicLong();
+        private final AtomicInteger maxCleanQueueDepth = new AtomicInteger();
+        private final AtomicInteger maxWriteQueueDepth = new AtomicInteger();
+        private final List<CleanResult> failures = Collections.synchronizedList(new ArrayList<CleanResult>());
+        private volatile BlockingQueue<?> cleanQueue;
+        private volatile BlockingQueue<?> writeQueue;
+
+        public long getDocumentsRead() {
+            return documentsRead.get();
+        }
+
+        /**
+         * @return Number of characters, or bytes for binary sources, read so far.
+         */
+        public long getCharactersRead() {
+            return charactersRead.get();
+        }
+
+        public long getDocumentsCleaned() {
+            return documentsCleaned.get();
+        }
+
+        public long getDocumentsWritten() {
+            return documentsWritten.get();
+        }
+
+        public long getDocumentsFailed() {
+            return documentsFailed.get();
+        }
+
+        /**
+         * @return Failed documents with the exceptions which stopped them.
+         */
+        public List<CleanResult> getFailures() {
+            synchronized (failures) {
+                return new ArrayList<CleanResult>(failures);
+            }
+        }
+
+        /**
+         * @return Number of documents read and waiting to be cleaned.
+         */
+        public int getCleanQueueDepth() {
+            return cleanQueue == null ? 0 : cleanQueue.size();
+        }
+
+        /**
+         * @return Number of documents cleaned and waiting to be written.
+         */
+        public int getWriteQueueDepth() {
+            return writeQueue == null ? 0 : writeQueue.size();
+        }
+
+        public int getMaxCleanQueueDepth() {
+            return maxCleanQueueDepth.get();
+        }
+
+        public int getMaxWriteQueueDepth() {
+            return maxWriteQueueDepth.get();
+        }
+
+        /**
+         * @return Time the pipeline has been running, or did run if finished, in milliseconds.
+         */
+        public long getElapsedMillis() {
+            long end = endTime != 0 ? endTime : System.nanoTime();
+            return (end - startTime) / 1000000;
+        }
+
+        /**
+         * @return Number of documents written per second.
+         */
+        public double getThroughput() {
+            long elapsed = getElapsedMillis();
+            return elapsed == 0 ? 0 : getDocumentsWritten() * 1000.0 / elapsed;
+        }
+
+        private void failed(Object source, Throwable e) {
+            documentsFailed.incrementAndGet();
+            failures.add( new CleanResult(source, null, e instanceof Exception ? (Exception) e : new HtmlCleanerException(e)) );
+        }
+
+        private static void updateMax(AtomicInteger max, int depth) {
+            int current = max.get();
+            while ( depth > current && !max.compareAndSet(current, depth) ) {
+                current = max.get();
+            }
+        }
+    }
+
+    /**
+     * Document passed from one stage to another.
+     */
+    private static class Item {
+        private final Object source;
+        // String or ByteBuffer after reading, TagNode after cleaning
+        private final Object content;
+
+        private Item(Object source, Object content) {
+            this.source = source;
+            this.content = content;
+        }
+    }
+
+    // marks the end of the queue
+    private static final Item END = new Item(null, null);
+
+    private final HtmlCleaner cleaner;
+    private final Serializer serializer;
+    private int cleaningThreads = Runtime.getRuntime().availableProcessors();
+    private int readingThreads = 8;
+    private int writingThreads = 8;
+    private int queueCapacity = 64;
+    private volatile Statistics statistics;
+
+    public CleaningPipeline(HtmlCleaner cleaner, Serializer serializer) {
+        this.cleaner = cleaner;
+        this.serializer = serializer;
+    }
+
+    public int getCleaningThreads() {
+        return cleaningThreads;
+    }
+
+    /**
+     * @param cleaningThreads number of threads cleaning the documents, by default the number of processors
+     */
+    public void setCleaningThreads(int cleaningThreads) {
+        this.cleaningThreads = Math.max(1, cleaningThreads);
+    }
+
+    public int getReadingThreads() {
+        return readingThreads;
+    }
+
+    /**
+     * @param readingThreads number of I/O threads reading the documents, 8 by default
+     */
+    public void setReadingThreads(int readingThreads) {
+        this.readingThreads = Math.max(1, readingThreads);
+    }
+
+    public int getWritingThreads() {
+        return writingThreads;
+    }
+
+    /**
+     * @param writingThreads number of I/O threads writing the documents, 8 by default
+     */
+    public void setWritingThreads(int writingThreads) {
+        this.writingThreads = Math.max(1, writingThreads);
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity maximum number of documents waiting in each of the queues between
+     * the stages, 64 by default. Together with the number of threads it limits the number of
+     * documents held in memory.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * @return Statistics of the running pipeline, or of the last run, or null if not run yet.
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Runs the pipeline for all the sources and waits until all the documents are written.
+     * @param sources documents to clean
+     * @param output destination of the serialized documents
+     * @return Statistics of the run.
+     */
+    public Statistics run(Iterable<?> sources, final Output output) {
+        final Statistics stats = new Statistics();
+        final BlockingQueue<Item> cleanQueue = new ArrayBlockingQueue<Item>(queueCapacity);
+        final BlockingQueue<Item> writeQueue = new ArrayBlockingQueue<Item>(queueCapacity);
+        stats.cleanQueue = cleanQueue;
+        stats.writeQueue = writeQueue;
+        this.statistics = stats;
+
+        final Iterator<?> sourceIterator = sources.iterator();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final Control control = new Control(threads, cleanQueue, writeQueue);
+        ThreadFactory ioThreads = createIoThreadFactory();
+
+        // each stage sends end marks to the next one when its last thread is done
+        final Stage reading = new Stage(readingThreads, cleanQueue, cleaningThreads, control);
+        final Stage cleaning = new Stage(cleaningThreads, writeQueue, writingThreads, control);
+        final Stage writing = new Stage(writingThreads, null, 0, control);
+
+        for (int i = 0; i < readingThreads; i++) {
+            threads.add( ioThreads.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        Object source;
+                        while ( !control.isStopped() && (source = nextSource(sourceIterator)) != END ) {
+                            Item item;
+                            try {
+                                item = new Item( source, read(source, stats) );
+                            } catch (Throwable e) {
+                                stats.failed(source, e);
+                                continue;
+                            }
+                            stats.documentsRead.incrementAndGet();
+                            cleanQueue.put(item);
+                            Statistics.updateMax(stats.maxCleanQueueDepth, cleanQueue.size());
+                        }
+                    } catch (InterruptedException e) {
+                        // pipeline is stopped
+                    } catch (Throwable e) {
+                        control.stop(e);
+                    } finally {
+                        reading.threadDone();
+                    }
+                }
+            }) );
+        }
+
+        for (int i = 0; i < cleaningThreads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        CleaningSession session = cleaner.getThreadSession();
+                        Item item;
+                        while ( !control.isStopped() && (item = cleanQueue.take()) != END ) {
+                            TagNode document;
+                            try {
+                                document = clean(item.content, session);
+                            } catch (Throwable e) {
+                                stats.failed(item.source, e);
+                                continue;
+                            }
+                            stats.documentsCleaned.incrementAndGet();
+                            writeQueue.put( new Item(item.source, document) );
+                            Statistics.updateMax(stats.maxWriteQueueDepth, writeQueue.size());
+                        }
+                    } catch (InterruptedException e) {
+                        // pipeline is stopped
+                    } catch (Throwable e) {
+                        control.stop(e);
+                    } finally {
+                        cleaning.threadDone();
+                    }
+                }
+            }, "htmlcleaner-clean-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        for (int i = 0; i < writingThreads; i++) {
+            threads.add( ioThreads.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        Item item;
+                        while ( !control.isStopped() && (item = writeQueue.take()) != END ) {
+                            try {
+                                write(item, output);
+                                stats.documentsWritten.incrementAndGet();
+                            } catch (Throwable e) {
+                                stats.failed(item.source, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // pipeline is stopped
+                    } catch (Throwable e) {
+                        control.stop(e);
+                    } finally {
+                        writing.threadDone();
+                    }
+                }
+            }) );
+        }
+
+        for (Thread thread: threads) {
+            thread.start();
+        }
+        // threads not yet started when the pipeline was stopped missed the interruption
+        control.interruptIfStopped();
+        try {
+            for (Thread thread: threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            control.stop(e);
+            Thread.currentThread().interrupt();
+        } finally {
+            stats.endTime = System.nanoTime();
+        }
+
+        Throwable failure = control.failure.get();
+        if (failure != null) {
+            // documents put by the threads stopped after the queues were first cleared
+            cleanQueue.clear();
+            writeQueue.clear();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new HtmlCleanerException(failure);
+        }
+        return stats;
+    }
+
+    /**
+     * Stops all the stages when one of them fails, so that none is left blocked on a queue.
+     */
+    private static class Control {
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private final List<Thread> threads;
+        private final BlockingQueue<Item> cleanQueue;
+        private final BlockingQueue<Item> writeQueue;
+
+        private Control(List<Thread> threads, BlockingQueue<Item> cleanQueue, BlockingQueue<Item> writeQueue) {
+            this.threads = threads;
+            this.cleanQueue = cleanQueue;
+            this.writeQueue = writeQueue;
+        }
+
+        private boolean isStopped() {
+            return failure.get() != null;
+        }
+
+        private void stop(Throwable e) {
+            if ( failure.compareAndSet(null, e) ) {
+                interruptIfStopped();
+            }
+        }
+
+        private void interruptIfStopped() {
+            if ( isStopped() ) {
+                cleanQueue.clear();
+                writeQueue.clear();
+                for (Thread thread: threads) {
+                    if (thread != Thread.currentThread()) {
+                        thread.interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Threads of one stage, the last one to finish sends end marks to the threads of the next stage.
+     */
+    private static class Stage {
+        private final AtomicInteger running;
+        private final BlockingQueue<Item> nextQueue;
+        private final int nextThreads;
+        private final Control control;
+
+        private Stage(int threads, BlockingQueue<Item> nextQueue, int nextThreads, Control control) {
+            this.running = new AtomicInteger(threads);
+            this.nextQueue = nextQueue;
+            this.nextThreads = nextThreads;
+            this.control = control;
+        }
+
+        private void threadDone() {
+            // stopped stages don't wait for the end marks
+            if (running.decrementAndGet() == 0 && nextQueue != null && !control.isStopped()) {
+                try {
+                    for (int i = 0; i < nextThreads; i++) {
+                        nextQueue.put(END);
+                    }
+                } catch (InterruptedException e) {
+                    // pipeline is stopped
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static Object nextSource(Iterator<?> sourceIterator) {
+        synchronized (sourceIterator) {
+            return sourceIterator.hasNext() ? sourceIterator.next() : END;
+        }
+    }
+
+    /**
+     * Reads the source into memory, so that cleaning doesn't wait for I/O.
+     * @return String or ByteBuffer with the content.
+     */
+    private Object read(Object source, Statistics stats) throws IOException {
+        Object content;
+        if (source instanceof CharSequence) {
+            content = source.toString();
+            stats.charactersRead.addAndGet( ((String) content).length() );
+        } else if (source instanceof Reader) {
+            StringBuilder result = new StringBuilder();
+            Reader reader = (Reader) source;
+            try {
+                char[] buffer = new char[8192];
+                int count;
+                while ( (count = reader.read(buffer)) >= 0 ) {
+                    result.append(buffer, 0, count);
+                }
+            } finally {
+                try{ reader.close(); } catch(IOException e) {}
+            }
+            content = result.toString();
+            stats.charactersRead.addAndGet( result.length() );
+        } else if (source instanceof byte[]) {
+            content = ByteBuffer.wrap((byte[]) source);
+            stats.charactersRead.addAndGet( ((byte[]) source).length );
+        } else if (source instanceof ByteBuffer) {
+            content = ((ByteBuffer) source).duplicate();
+            stats.charactersRead.addAndGet( ((ByteBuffer) source).remaining() );
+        } else if (source instanceof File || source instanceof InputStream) {
+            InputStream in = source instanceof File ? new FileInputStream((File) source) : (InputStream) source;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ( (count = in.read(buffer)) >= 0 ) {
+                    bytes.write(buffer, 0, count);
+                }
+            } finally {
+                try{ in.close(); } catch(IOException e) {}
+            }
+            content = ByteBuffer.wrap( bytes.toByteArray() );
+            stats.charactersRead.addAndGet( bytes.size() );
+        } else {
+            throw new IllegalArgumentException("Unsupported source of the document: " + (source == null ? null : source.getClass().getName()));
+        }
+        return content;
+    }
+
+    private TagNode clean(Object content, CleaningSession session) throws IOException {
+        if (content instanceof ByteBuffer) {
+            return session.clean( HtmlCleaner.createReader((ByteBuffer) content, cleaner.getProperties().getCharset()) );
+        }
+        return session.clean( new StringReader((String) content) );
+    }
+
+    private void write(Item item, Output output) throws IOException {
+        Writer writer = output.open(item.source);
+        try {
+            serializer.write( (TagNode) item.content, writer, cleaner.getProperties().getCharset() );
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @param directory
+     * @return Output writing each document to the file of the same name in the directory,
+     * encoded with the charset specified in cleaner properties. Sources must be files.
+     */
+    public Output toDirectory(final File directory) {
+        final String charset = cleaner.getProperties().getCharset();
+        return new Output() {
+            public Writer open(Object source) throws IOException {
+                if ( !(source instanceof File) ) {
+                    throw new IllegalArgumentException("File source expected: " + source);
+                }
+                return new OutputStreamWriter( new FileOutputStream(new File(directory, ((File) source).getName())), charset );
+            }
+        };
+    }
+
+    /**
+     * @return Factory of virtual threads if supported by the JVM, of daemon platform threads otherwise.
+     */
+    static ThreadFactory createIoThreadFactory() {
+        try {
+            // Thread.ofVirtual().name("htmlcleaner-io-", 0).factory(), available since Java 21
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "htmlcleaner-io-", Long.valueOf(0));
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            final AtomicInteger count = new AtomicInteger();
+            return new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "htmlcleaner-io-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+    }
+
+}
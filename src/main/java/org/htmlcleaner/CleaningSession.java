@@ -0,0 +1,219 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * Cleaning session reuses the structures needed for cleaning - clean time values, interned
+ * tag and attribute names, the tokenizer's buffers and the rest of the buffer holding the
+ * text of the nodes - from one document to another, so
+ * cleaning of many small documents doesn't allocate them again for each one. Documents
+ * produced by the session are independent of it and of each other.
+ * </p>
+ *
+ * <p>
+ * The session is not thread safe. Use one session per thread, i.e. by
+ * {@link HtmlCleaner#getThreadSession()}, or keep sessions in a pool. If the session is used
+ * again while it is cleaning, i.e. from a listener, that document is cleaned without
+ * reusing anything.
+ * </p>
+ */
+public class CleaningSession {
+
+    // buffers grown over these sizes by large documents are not kept for the next one
+    private static final int MAX_REUSED_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REUSED_TOKENS = 16 * 1024;
+
+    private final HtmlCleaner cleaner;
+    private final CleanTimeValues cleanTimeValues = new CleanTimeValues();
+    private boolean isCleaning;
+
+    // tokenizer's buffers, taken by the tokenizer of each document
+    private char[] working;
+    private StringBuffer saved;
+    private char[] identifier;
+    private List<BaseToken> tokenList;
+    private Set<String> namespacePrefixes;
+    private char[] sharedContent;
+    private int sharedContentPos;
+
+    CleaningSession(HtmlCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * @return Cleaner used by this session.
+     */
+    public HtmlCleaner getCleaner() {
+        return cleaner;
+    }
+
+    public TagNode clean(String htmlContent) {
+        try {
+            return clean( new StringReader(htmlContent), null );
+        } catch (IOException e) {
+            // should never happen because reading from StringReader
+            throw new HtmlCleanerException(e);
+        }
+    }
+
+    public TagNode clean(Reader reader) throws IOException {
+        return clean(reader, null);
+    }
+
+    /**
+     * Cleans HTML content, which may be stopped by the token.
+     * @param reader (not closed)
+     * @param cancellationToken token stopping the cleaning, or null
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     * @throws CleaningCancelledException if cancelled and partial result is not requested
+     */
+    public TagNode clean(Reader reader, CancellationToken cancellationToken) throws IOException {
+        return clean(reader, cancellationToken, 0);
+    }
+
+    /**
+     * Cleans HTML content of known length.
+     * @param reader (not closed)
+     * @param cancellationToken token stopping the cleaning, or null
+     * @param expectedLength expected number of characters, or 0 if unknown
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    TagNode clean(Reader reader, CancellationToken cancellationToken, long expectedLength) throws IOException {
+        if (isCleaning) {
+            return cancellationToken == null ? cleaner.clean(reader) : cleaner.clean(reader, cancellationToken);
+        }
+        isCleaning = true;
+        try {
+            cleanTimeValues.reset();
+            cleanTimeValues.cancellationToken = cancellationToken;
+            return cleaner.clean(reader, cleanTimeValues, expectedLength, this);
+        } finally {
+            release();
+            isCleaning = false;
+        }
+    }
+
+    /**
+     * Drops references to the last document, keeping the structures for the next one.
+     */
+    private void release() {
+        cleanTimeValues.reset();
+        if ( tokenList != null && tokenList.size() > MAX_REUSED_TOKENS ) {
+            tokenList = null;
+        } else if (tokenList != null) {
+            tokenList.clear();
+        }
+        if (namespacePrefixes != null) {
+            namespacePrefixes.clear();
+        }
+        if ( saved != null && saved.capacity() > MAX_REUSED_BUFFER_SIZE ) {
+            saved = null;
+        }
+    }
+
+    /**
+     * @param size
+     * @return Working buffer of exactly the given size, reused if the last one had the same size.
+     */
+    char[] takeWorkingBuffer(int size) {
+        if (working == null || working.length != size) {
+            working = new char[size];
+        }
+        return working;
+    }
+
+    StringBuffer takeSavedBuffer() {
+        if (saved == null) {
+            saved = new StringBuffer(512);
+        }
+        saved.setLength(0);
+        return saved;
+    }
+
+    char[] takeIdentifierBuffer() {
+        if (identifier == null) {
+            identifier = new char[32];
+        }
+        return identifier;
+    }
+
+    /**
+     * Keeps the buffers which the tokenizer may have replaced while cleaning. Text of the
+     * documents is copied to the shared content buffer, its part after the given position is
+     * still free for the next documents - nothing written there before is ever overwritten.
+     * @param identifier
+     * @param sharedContent
+     * @param sharedContentPos
+     */
+    void keepBuffers(char[] identifier, char[] sharedContent, int sharedContentPos) {
+        if (identifier.length <= MAX_REUSED_BUFFER_SIZE) {
+            this.identifier = identifier;
+        }
+        this.sharedContent = sharedContent;
+        this.sharedContentPos = sharedContentPos;
+    }
+
+    char[] getSharedContent() {
+        return sharedContent;
+    }
+
+    int getSharedContentPos() {
+        return sharedContentPos;
+    }
+
+    List<BaseToken> takeTokenList() {
+        if (tokenList == null) {
+            tokenList = new ArrayList<BaseToken>();
+        }
+        return tokenList;
+    }
+
+    Set<String> takeNamespacePrefixes() {
+        if (namespacePrefixes == null) {
+            namespacePrefixes = new HashSet<String>();
+        }
+        return namespacePrefixes;
+    }
+
+}
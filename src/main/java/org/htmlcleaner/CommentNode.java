@@ -47,15 +47,38 @@ public class CommentNode extends BaseTokenImpl implements HtmlNode {
 
     private String content;
 
+    private final char[] chars;
+    private final int offset;
+    private final int length;
+
     public CommentNode(String content) {
         this.content = content;
+        this.chars = null;
+        this.offset = 0;
+        this.length = 0;
+    }
+
+    /**
+     * Constructor - creates comment which content is a slice of the given character array,
+     * shared with other nodes of the same document. The String is created lazily.
+     * @param chars
+     * @param offset
+     * @param length
+     */
+    CommentNode(char[] chars, int offset, int length) {
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
     }
 
     public String getCommentedContent() {
-        return "<!--" + content + "-->";
+        return "<!--" + getContent() + "-->";
     }
 
     public String getContent() {
+        if (content == null && chars != null) {
+            content = new String(chars, offset, length);
+        }
         return content;
     }
 
@@ -65,7 +88,13 @@ public class CommentNode extends BaseTokenImpl implements HtmlNode {
     }
 
     public void serialize(Serializer serializer, Writer writer) throws IOException {
-    	writer.write( getCommentedContent() );
+        if (content == null && chars != null) {
+            writer.write("<!--");
+            writer.write(chars, offset, length);
+            writer.write("-->");
+        } else {
+            writer.write( getCommentedContent() );
+        }
     }
 
 }
\ No newline at end of file
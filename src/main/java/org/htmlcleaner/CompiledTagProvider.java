@@ -0,0 +1,382 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * Immutable tag provider with a fixed set of tag definitions, looked up through a perfect
+ * hash: each tag name is found with a single probe into an array, without collisions or
+ * locking. Relations of the tag infos are kept as bit sets indexed by tag ordinal.
+ * </p>
+ *
+ * <p>
+ * A provider is compiled at runtime from a map of tag infos, i.e. by
+ * <code>new ConfigFileTagProvider(file).compile()</code>, or ahead of time to Java source
+ * with {@link #writeSource(Appendable, String, String)}. The generated class extends this one
+ * and contains the hash parameters, so neither the configuration file nor the hash search is
+ * needed when the application starts.
+ * </p>
+ *
+ * <p>
+ * The table of the provider can't be changed after it is created. Tag infos themselves
+ * should not be changed either, since they are shared by all cleaners using the provider.
+ * </p>
+ */
+public class CompiledTagProvider implements ITagInfoProvider {
+
+    // bucket seeds are searched up to this limit, before trying again with a larger table
+    private static final int MAX_SEED = 1 << 16;
+
+    private final String[] names;
+    private final TagInfo[] tagInfos;
+    private final int[] seeds;
+    private final int slotMask;
+    private final int bucketMask;
+    private final int size;
+
+    /**
+     * Creates provider from the hash table computed earlier by {@link #compile(Map)}, used by
+     * generated providers.
+     * @param names tag names by slot, null for empty slots
+     * @param tagInfos tag infos by slot
+     * @param seeds hash seeds by bucket
+     */
+    protected CompiledTagProvider(String[] names, TagInfo[] tagInfos, int[] seeds) {
+        if ( names.length != tagInfos.length || Integer.bitCount(names.length) != 1 || Integer.bitCount(seeds.length) != 1 ) {
+            throw new IllegalArgumentException("Invalid tag provider table!");
+        }
+        this.names = names;
+        this.tagInfos = tagInfos;
+        this.seeds = seeds;
+        this.slotMask = names.length - 1;
+        this.bucketMask = seeds.length - 1;
+
+        int count = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                if ( slot(names[i]) != i ) {
+                    throw new IllegalArgumentException("Tag " + names[i] + " is not in its slot!");
+                }
+                count++;
+            }
+        }
+        this.size = count;
+    }
+
+    /**
+     * Compiles the tag definitions into a provider.
+     * @param tagInfos tag infos by tag name
+     * @return Provider giving the same tag infos as the map.
+     */
+    public static CompiledTagProvider compile(Map<String, ? extends TagInfo> tagInfos) {
+        List<String> names = new ArrayList<String>();
+        for (Map.Entry<String, ? extends TagInfo> entry: tagInfos.entrySet()) {
+            if ( entry.getKey() != null && entry.getValue() != null ) {
+                names.add( entry.getKey() );
+            }
+        }
+        // sorted, so that the same definitions always give the same table
+        Collections.sort(names);
+
+        int bucketCount = tableSize( Math.max(1, names.size() / 2) );
+        int slotCount = tableSize( names.size() * 2 );
+        while (true) {
+            int[] seeds = findSeeds(names, bucketCount, slotCount);
+            if (seeds != null) {
+                String[] slotNames = new String[slotCount];
+                TagInfo[] slotTagInfos = new TagInfo[slotCount];
+                for (String name: names) {
+                    int slot = hash(name, seeds[bucket(name, bucketCount - 1)]) & (slotCount - 1);
+                    slotNames[slot] = name;
+                    slotTagInfos[slot] = tagInfos.get(name);
+                }
+                return new CompiledTagProvider(slotNames, slotTagInfos, seeds);
+            }
+            slotCount *= 2;
+        }
+    }
+
+    public TagInfo getTagInfo(String tagName) {
+        if (tagName == null) {
+            return null;
+        }
+        int slot = slot(tagName);
+        String name = names[slot];
+        return name != null && name.equals(tagName) ? tagInfos[slot] : null;
+    }
+
+    /**
+     * @return Number of tags defined by this provider.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Names of all tags defined by this provider.
+     */
+    public Set<String> getTagNames() {
+        Set<String> result = new HashSet<String>();
+        for (String name: names) {
+            if (name != null) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes Java source of the class which extends this one and creates the same provider,
+     * without parsing configuration or searching for the hash parameters.
+     * @param out
+     * @param packageName package of the generated class, or null for the default package
+     * @param className simple name of the generated class
+     * @throws IOException
+     */
+    public void writeSource(Appendable out, String packageName, String className) throws IOException {
+        String nl = System.getProperty("line.separator");
+        if (packageName != null && packageName.length() > 0) {
+            out.append("package ").append(packageName).append(';').append(nl).append(nl);
+        }
+        out.append("import java.util.Arrays;").append(nl);
+        out.append("import java.util.HashSet;").append(nl);
+        out.append("import java.util.Set;").append(nl).append(nl);
+        out.append("import org.htmlcleaner.*;").append(nl).append(nl);
+        out.append("/**").append(nl);
+        out.append(" * Tag provider generated by ").append(CompiledTagProvider.class.getName()).append(" - do not edit.").append(nl);
+        out.append(" */").append(nl);
+        out.append("public class ").append(className).append(" extends CompiledTagProvider {").append(nl).append(nl);
+        out.append("    private static final int[] SEEDS = {");
+        for (int i = 0; i < seeds.length; i++) {
+            out.append(i > 0 ? ", " : "").append( Integer.toString(seeds[i]) );
+        }
+        out.append("};").append(nl).append(nl);
+        // created after the tables, which are needed by the constructor
+        out.append("    public final static ").append(className).append(" INSTANCE = new ").append(className).append("();").append(nl).append(nl);
+
+        out.append("    public ").append(className).append("() {").append(nl);
+        out.append("        super(names(), tagInfos(), SEEDS);").append(nl);
+        out.append("    }").append(nl).append(nl);
+
+        out.append("    private static String[] names() {").append(nl);
+        out.append("        String[] names = new String[").append( Integer.toString(names.length) ).append("];").append(nl);
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                out.append("        names[").append( Integer.toString(i) ).append("] = ").append( literal(names[i]) ).append(';').append(nl);
+            }
+        }
+        out.append("        return names;").append(nl);
+        out.append("    }").append(nl).append(nl);
+
+        out.append("    private static TagInfo[] tagInfos() {").append(nl);
+        out.append("        TagInfo[] tagInfos = new TagInfo[").append( Integer.toString(names.length) ).append("];").append(nl);
+        out.append("        TagInfo tagInfo;").append(nl);
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null) {
+                writeTagInfo(out, nl, i);
+            }
+        }
+        out.append("        return tagInfos;").append(nl);
+        out.append("    }").append(nl).append(nl);
+
+        out.append("    private static Set<String> tags(String... tagNames) {").append(nl);
+        out.append("        return new HashSet<String>(Arrays.asList(tagNames));").append(nl);
+        out.append("    }").append(nl).append(nl);
+        out.append('}').append(nl);
+    }
+
+    private void writeTagInfo(Appendable out, String nl, int slot) throws IOException {
+        TagInfo tagInfo = tagInfos[slot];
+        // the same tag info may be registered under several names
+        for (int i = 0; i < slot; i++) {
+            if (tagInfos[i] == tagInfo) {
+                out.append("        tagInfos[").append( Integer.toString(slot) ).append("] = tagInfos[").append( Integer.toString(i) ).append("];").append(nl);
+                return;
+            }
+        }
+
+        out.append("        tagInfo = new TagInfo(").append( literal(tagInfo.getName()) )
+           .append(", ").append( constant(tagInfo.getContentType()) )
+           .append(", ").append( constant(tagInfo.getBelongsTo()) )
+           .append(", ").append( Boolean.toString(tagInfo.isDeprecated()) )
+           .append(", ").append( Boolean.toString(tagInfo.isUnique()) )
+           .append(", ").append( Boolean.toString(tagInfo.isIgnorePermitted()) )
+           .append(", ").append( constant(tagInfo.getCloseTag()) )
+           .append(", ").append( constant(tagInfo.getDisplay()) )
+           .append(");").append(nl);
+        writeTags(out, nl, "setMustCloseTags", tagInfo.getMustCloseTags());
+        writeTags(out, nl, "setHigherTags", tagInfo.getHigherTags());
+        writeTags(out, nl, "setChildTags", tagInfo.getChildTags());
+        writeTags(out, nl, "setPermittedTags", tagInfo.getPermittedTags());
+        writeTags(out, nl, "setCopyTags", tagInfo.getCopyTags());
+        writeTags(out, nl, "setContinueAfterTags", tagInfo.getContinueAfterTags());
+        if (tagInfo.getFatalTag() != null) {
+            out.append("        tagInfo.setFatalTag(").append( literal(tagInfo.getFatalTag()) ).append(");").append(nl);
+        }
+        if (tagInfo.getRequiredParent() != null) {
+            out.append("        tagInfo.setRequiredParent(").append( literal(tagInfo.getRequiredParent()) ).append(");").append(nl);
+        }
+        out.append("        tagInfos[").append( Integer.toString(slot) ).append("] = tagInfo;").append(nl);
+    }
+
+    private static void writeTags(Appendable out, String nl, String setter, Set<String> tagNames) throws IOException {
+        if ( !tagNames.isEmpty() ) {
+            out.append("        tagInfo.").append(setter).append("(tags(");
+            boolean first = true;
+            for (String tagName: new TreeSet<String>(tagNames)) {
+                out.append(first ? "" : ", ").append( literal(tagName) );
+                first = false;
+            }
+            out.append("));").append(nl);
+        }
+    }
+
+    private static String constant(Enum<?> value) {
+        return value == null ? "null" : value.getDeclaringClass().getSimpleName() + "." + value.name();
+    }
+
+    private static String literal(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                result.append('\\').append(ch);
+            } else if (ch < ' ' || ch > '~') {
+                result.append( String.format("\\u%04x", Integer.valueOf(ch)) );
+            } else {
+                result.append(ch);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    private int slot(String name) {
+        return hash(name, seeds[bucket(name, bucketMask)]) & slotMask;
+    }
+
+    /**
+     * Searches for the seed of each bucket, so that all names of the bucket fall into empty slots.
+     * Buckets with the most names are placed first, while most of the slots are still empty.
+     * @return Seeds by bucket, or null if no seeds are found for this number of slots.
+     */
+    private static int[] findSeeds(List<String> names, int bucketCount, int slotCount) {
+        List<List<String>> buckets = new ArrayList<List<String>>();
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add( new ArrayList<String>() );
+        }
+        for (String name: names) {
+            buckets.get( bucket(name, bucketCount - 1) ).add(name);
+        }
+        Integer[] order = new Integer[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        final List<List<String>> bucketList = buckets;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer b1, Integer b2) {
+                return bucketList.get(b2.intValue()).size() - bucketList.get(b1.intValue()).size();
+            }
+        });
+
+        int[] seeds = new int[bucketCount];
+        boolean[] used = new boolean[slotCount];
+        int[] bucketSlots = new int[names.size()];
+        for (Integer bucketIndex: order) {
+            List<String> bucket = buckets.get( bucketIndex.intValue() );
+            if ( bucket.isEmpty() ) {
+                break;
+            }
+            int seed = 0;
+            while ( !placeBucket(bucket, seed, used, bucketSlots, slotCount) ) {
+                if (++seed >= MAX_SEED) {
+                    return null;
+                }
+            }
+            seeds[ bucketIndex.intValue() ] = seed;
+        }
+        return seeds;
+    }
+
+    private static boolean placeBucket(List<String> bucket, int seed, boolean[] used, int[] bucketSlots, int slotCount) {
+        for (int i = 0; i < bucket.size(); i++) {
+            int slot = hash(bucket.get(i), seed) & (slotCount - 1);
+            boolean free = !used[slot];
+            for (int j = 0; free && j < i; j++) {
+                free = bucketSlots[j] != slot;
+            }
+            if (!free) {
+                return false;
+            }
+            bucketSlots[i] = slot;
+        }
+        for (int i = 0; i < bucket.size(); i++) {
+            used[ bucketSlots[i] ] = true;
+        }
+        return true;
+    }
+
+    private static int bucket(String name, int bucketMask) {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & bucketMask;
+    }
+
+    private static int hash(String name, int seed) {
+        int h = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+        for (int i = 0; i < name.length(); i++) {
+            h = (h ^ name.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 15;
+        h *= 0x2c1b3c6d;
+        return h ^ (h >>> 12);
+    }
+
+    private static int tableSize(int count) {
+        int size = 1;
+        while (size < count) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+}
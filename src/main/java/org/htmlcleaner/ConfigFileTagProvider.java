@@ -63,10 +63,6 @@ public class ConfigFileTagProvider extends HashMap implements ITagInfoProvider {
         parserFactory.setNamespaceAware(false);
     }
 
-    // tells whether to generate code of the tag provider class based on XML configuration file
-    // to the standard output
-    private boolean generateCode = false;
-
     private ConfigFileTagProvider() {
     }
 
@@ -102,12 +98,31 @@ public class ConfigFileTagProvider extends HashMap implements ITagInfoProvider {
         return (TagInfo) get(tagName);
     }
 
+    /**
+     * @return Immutable provider with the tag definitions read from the configuration file,
+     * using perfect hash lookup.
+     * @see CompiledTagProvider
+     */
+    public CompiledTagProvider compile() {
+        // the map itself is raw, tag definitions are copied to a typed one
+        Map<String, TagInfo> tagInfos = new HashMap<String, TagInfo>();
+        for (Object item: entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) item;
+            if ( entry.getKey() instanceof String && entry.getValue() instanceof TagInfo ) {
+                tagInfos.put( (String) entry.getKey(), (TagInfo) entry.getValue() );
+            }
+        }
+        return CompiledTagProvider.compile(tagInfos);
+    }
+
     /**
      * Generates code for tag provider class from specified configuration XML file.
      * In order to create custom tag info provider, make config file and call this main method
-     * with the specified file. Output will be generated on the standard output. This way a custom
-     * tag provider (class CustomTagProvider) is generated from an XML file. An example XML file,
-     * "example.xml", can be found in the source distribution.
+     * with the specified file, and optionally with the class and package name. Output will be
+     * generated on the standard output. This way a custom tag provider (by default class
+     * org.htmlcleaner.CustomTagProvider) is generated from an XML file - it is compiled,
+     * see {@link CompiledTagProvider}, so it doesn't parse the file nor hash the names when
+     * created. An example XML file, "example.xml", can be found in the source distribution.
      *
      * @param args
      * @throws IOException
@@ -116,29 +131,19 @@ public class ConfigFileTagProvider extends HashMap implements ITagInfoProvider {
      */
     public static void main(String[] args) throws IOException, SAXException, ParserConfigurationException {
         final ConfigFileTagProvider provider = new ConfigFileTagProvider();
-        provider.generateCode = true;
         
         String fileName = "default.xml";
         if (args != null && args.length>0){
         	fileName = args[0];
         }
+        String className = args != null && args.length > 1 ? args[1] : "CustomTagProvider";
+        String packagePath = args != null && args.length > 2 ? args[2] : "org.htmlcleaner";
 
         File configFile = new File(fileName);
-        String packagePath = "org.htmlcleaner";
-        String className = "CustomTagProvider";
-
         final ConfigParser parser = provider.new ConfigParser(provider);
-        System.out.println("package " + packagePath + ";");
-        System.out.println("import java.util.HashMap;");
-        System.out.println("public class " + className + " extends HashMap implements ITagInfoProvider {");
-        System.out.println("private ConcurrentMap<String, TagInfo> tagInfoMap = new ConcurrentHashMap<String, TagInfo>();");
-        System.out.println("// singleton instance, used if no other TagInfoProvider is specified");
-        System.out.println("public final static "+className+" INSTANCE= new "+className+"();");
-        System.out.println("public " + className + "() {");
-        System.out.println("TagInfo tagInfo;");
         parser.parse( new InputSource(new FileReader(configFile)) );
-        System.out.println("}");
-        System.out.println("}");
+
+        provider.compile().writeSource(System.out, packagePath, className);
     }
 
 
@@ -165,44 +170,20 @@ public class ConfigFileTagProvider extends HashMap implements ITagInfoProvider {
                 String value = new String(ch, start, length).trim();
                 if ( "fatal-tags".equals(dependencyName) ) {
                     tagInfo.defineFatalTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineFatalTags(\"" + value + "\");");
-                    }
                 } else if ( "req-enclosing-tags".equals(dependencyName) ) {
                     tagInfo.defineRequiredEnclosingTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineRequiredEnclosingTags(\"" + value + "\");");
-                    }
                 } else if ( "forbidden-tags".equals(dependencyName) ) {
                     tagInfo.defineForbiddenTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineForbiddenTags(\"" + value + "\");");
-                    }
                 } else if ( "allowed-children-tags".equals(dependencyName) ) {
                     tagInfo.defineAllowedChildrenTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineAllowedChildrenTags(\"" + value + "\");");
-                    }
                 } else if ( "higher-level-tags".equals(dependencyName) ) {
                     tagInfo.defineHigherLevelTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineHigherLevelTags(\"" + value + "\");");
-                    }
                 } else if ( "close-before-copy-inside-tags".equals(dependencyName) ) {
                     tagInfo.defineCloseBeforeCopyInsideTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineCloseBeforeCopyInsideTags(\"" + value + "\");");
-                    }
                 } else if ( "close-inside-copy-after-tags".equals(dependencyName) ) {
                     tagInfo.defineCloseInsideCopyAfterTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineCloseInsideCopyAfterTags(\"" + value + "\");");
-                    }
                 } else if ( "close-before-tags".equals(dependencyName) ) {
                     tagInfo.defineCloseBeforeTags(value);
-                    if (generateCode) {
-                        System.out.println("tagInfo.defineCloseBeforeTags(\"" + value + "\");");
-                    }
                 }
             }
         }
@@ -223,16 +204,6 @@ public class ConfigFileTagProvider extends HashMap implements ITagInfoProvider {
                                       deprecated != null && "true".equals(deprecated),
                                       unique != null && "true".equals(unique),
                                       ignorePermitted != null && "true".equals(ignorePermitted), CloseTag.required, Display.any );
-                if (generateCode) {
-                    String s = "tagInfo = new TagInfo(\"#1\", #2, #3, #4, #5, #6);";
-                    s = s.replaceAll("#1", name);
-                    s = s.replaceAll("#2", ContentType.class.getCanonicalName()+"."+contentType.name());
-                    s = s.replaceAll("#3", BelongsTo.class.getCanonicalName()+"."+belongsTo.name());
-                    s = s.replaceAll("#4", Boolean.toString(deprecated != null && "true".equals(deprecated)));
-                    s = s.replaceAll("#5", Boolean.toString(unique != null && "true".equals(unique)));
-                    s = s.replaceAll("#6", Boolean.toString(ignorePermitted != null && "true".equals(ignorePermitted)));
-                    System.out.println(s);
-                }
             } else if ( !"tags".equals(qName) ) {
                 dependencyName = qName;
             }
@@ -243,9 +214,6 @@ public class ConfigFileTagProvider extends HashMap implements ITagInfoProvider {
             if ( "tag".equals(qName) ) {
                 if (tagInfo != null) {
                     tagInfoMap.put(tagInfo.getName(), tagInfo);
-                    if (generateCode) {
-                        System.out.println("this.put(\"" + tagInfo.getName() + "\", tagInfo);\n");
-                    }
                 }
                 tagInfo = null;
             } else if ( !"tags".equals(qName) ) {
@@ -39,21 +39,54 @@ package org.htmlcleaner;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.CharBuffer;
 
 /**
  * <p>HTML text token.</p>
+ *
+ * <p>Text may either be given as a String, or as a slice of a character array shared with
+ * other nodes of the same document (see {@link CleanerProperties#isUseSharedContentBuffer()}),
+ * in which case the String is created only when the content is first asked for.</p>
  */
 public class ContentNode extends BaseTokenImpl implements HtmlNode {
 
-    protected final String content;
+    /**
+     * Content of this node. If the node is backed by a shared buffer, it is null until
+     * {@link #getContent()} is called, so subclasses should use that method instead.
+     */
+    protected String content;
     protected final boolean blank;
 
+    private final char[] chars;
+    private final int offset;
+    private final int length;
+
     public ContentNode(String content) {
         this.content = content;
-        this.blank = Utils.isEmptyString(this.content);
+        this.chars = null;
+        this.offset = 0;
+        this.length = content == null ? 0 : content.length();
+        this.blank = content == null || isBlank(content);
+    }
+
+    /**
+     * Constructor - creates node which content is a slice of the given character array.
+     * The array must not be modified afterwards in the given range.
+     * @param chars
+     * @param offset
+     * @param length
+     */
+    ContentNode(char[] chars, int offset, int length) {
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+        this.blank = isBlank( CharBuffer.wrap(chars, offset, length) );
     }
 
     public String getContent() {
+        if (content == null && chars != null) {
+            content = new String(chars, offset, length);
+        }
         return content;
     }
 
@@ -63,10 +96,35 @@ public class ContentNode extends BaseTokenImpl implements HtmlNode {
     }
 
     public void serialize(Serializer serializer, Writer writer) throws IOException {
-    	writer.write( content );
+        if (content == null && chars != null) {
+            writer.write(chars, offset, length);
+        } else {
+            writer.write( content );
+        }
     }
 
     public boolean isBlank() {
         return this.blank;
     }
+
+    /**
+     * Decides if the text is blank without escaping it, which is the case for almost all
+     * texts. Only text containing ampersands, or non-breakable spaces and nothing else but
+     * whitespace, is checked by {@link Utils#isEmptyString(Object)}.
+     */
+    static boolean isBlank(CharSequence text) {
+        boolean needsEscaping = false;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '&') {
+                // references like &#32; may stand for whitespace
+                return Utils.isEmptyString(text);
+            } else if (ch == SpecialEntities.NON_BREAKABLE_SPACE) {
+                needsEscaping = true;
+            } else if (ch > ' ') {
+                return false;
+            }
+        }
+        return !needsEscaping || Utils.isEmptyString(text);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Index of the elements in the subtree of a node, mapping ids, tag names, class tokens and
+ * attribute names to the elements having them, in document order. The index is built on the
+ * first query and dropped whenever the subtree changes, to be built again on the next query.</p>
+ *
+ * <p>Like the tree itself, the index is not thread safe.</p>
+ *
+ * @see TagNode#setIndexed(boolean)
+ */
+final class DocumentIndex {
+
+    private final TagNode owner;
+
+    private Map<String, List<TagNode>> byId;
+    private Map<String, List<TagNode>> byName;
+    private Map<String, List<TagNode>> byClass;
+    private Map<String, List<TagNode>> byAttribute;
+
+    DocumentIndex(TagNode owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Drops the index, as the subtree has been changed.
+     */
+    void invalidate() {
+        byId = null;
+        byName = null;
+        byClass = null;
+        byAttribute = null;
+    }
+
+    /**
+     * @param id
+     * @return Elements having the id, compared case sensitively.
+     */
+    List<TagNode> getById(String id) {
+        build();
+        return get(byId, id);
+    }
+
+    /**
+     * @param name
+     * @return Elements which names are the same as the given one in lower case.
+     */
+    List<TagNode> getByName(String name) {
+        build();
+        return get(byName, name.toLowerCase());
+    }
+
+    /**
+     * @param className
+     * @return Elements having the class among the tokens of their class attribute.
+     */
+    List<TagNode> getByClass(String className) {
+        build();
+        return get(byClass, className);
+    }
+
+    /**
+     * @param attName
+     * @return Elements having the attribute, looked up the same way as {@link TagNode#getAttributeByName(String)} does.
+     */
+    List<TagNode> getByAttribute(String attName) {
+        build();
+        return get(byAttribute, attName.toLowerCase());
+    }
+
+    private static List<TagNode> get(Map<String, List<TagNode>> map, String key) {
+        List<TagNode> list = map.get(key);
+        return list != null ? list : Collections.<TagNode>emptyList();
+    }
+
+    private void build() {
+        if (byName != null) {
+            return;
+        }
+        byId = new HashMap<String, List<TagNode>>();
+        byName = new HashMap<String, List<TagNode>>();
+        byClass = new HashMap<String, List<TagNode>>();
+        byAttribute = new HashMap<String, List<TagNode>>();
+
+        // depth first without recursion: children are pushed in reverse, to be taken in document order
+        List<TagNode> stack = new ArrayList<TagNode>();
+        pushChildren(owner, stack);
+        while (!stack.isEmpty()) {
+            TagNode node = stack.remove(stack.size() - 1);
+            String name = node.getName();
+            if (name != null) {
+                add(byName, name.toLowerCase(), node);
+            }
+            for (int i = 0; i < node.getAttributeCount(); i++) {
+                String attName = node.getAttributeName(i);
+                add(byAttribute, attName, node);
+                if ("id".equals(attName)) {
+                    add(byId, node.getAttributeValue(i), node);
+                } else if ("class".equals(attName)) {
+                    addClasses(node.getAttributeValue(i), node);
+                }
+            }
+            pushChildren(node, stack);
+        }
+    }
+
+    private void addClasses(String classes, TagNode node) {
+        if (classes == null) {
+            return;
+        }
+        int start = -1;
+        for (int i = 0; i <= classes.length(); i++) {
+            boolean separator = i == classes.length() || Character.isWhitespace(classes.charAt(i));
+            if (separator && start >= 0) {
+                add(byClass, classes.substring(start, i), node);
+                start = -1;
+            } else if (!separator && start < 0) {
+                start = i;
+            }
+        }
+    }
+
+    private static void add(Map<String, List<TagNode>> map, String key, TagNode node) {
+        List<TagNode> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<TagNode>(2);
+            map.put(key, list);
+        }
+        // the same class may be given more than once
+        if (list.isEmpty() || list.get(list.size() - 1) != node) {
+            list.add(node);
+        }
+    }
+
+    private static void pushChildren(TagNode node, List<TagNode> stack) {
+        List<? extends BaseToken> children = node.getAllChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            BaseToken child = children.get(i);
+            if (child instanceof TagNode) {
+                stack.add((TagNode) child);
+            }
+        }
+    }
+
+}
@@ -42,9 +42,7 @@ import org.w3c.dom.Element;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * <p>DOM serializer - creates xml DOM.</p>
@@ -112,12 +110,9 @@ public class DomSerializer {
         //
         // Copy across root node attributes - see issue 127. Thanks to rasifiel for the patch
         //
-        Map<String, String> attributes =  rootNode.getAttributes();
-        Iterator<Map.Entry<String, String>> entryIterator = attributes.entrySet().iterator();
-        while (entryIterator.hasNext()) {
-            Map.Entry<String, String> entry = entryIterator.next();
-            String attrName = entry.getKey();
-            String attrValue = entry.getValue();
+        for (int i = 0; i < rootNode.getAttributeCount(); i++) {
+            String attrName = rootNode.getAttributeName(i);
+            String attrValue = rootNode.getAttributeValue(i);
             if (escapeXml) {
                 attrValue = Utils.escapeXml(attrValue, props, true);
             }
@@ -195,12 +190,9 @@ public class DomSerializer {
                 } else if (item instanceof TagNode) {
                     TagNode subTagNode = (TagNode) item;
                     Element subelement = document.createElement( subTagNode.getName() );
-                    Map<String, String> attributes =  subTagNode.getAttributes();
-                    Iterator<Map.Entry<String, String>> entryIterator = attributes.entrySet().iterator();
-                    while (entryIterator.hasNext()) {
-                        Map.Entry<String, String> entry = (Map.Entry<String, String>) entryIterator.next();
-                        String attrName = (String) entry.getKey();
-                        String attrValue = (String) entry.getValue();
+                    for (int i = 0; i < subTagNode.getAttributeCount(); i++) {
+                        String attrName = subTagNode.getAttributeName(i);
+                        String attrValue = subTagNode.getAttributeValue(i);
                         if (escapeXml) {
                             attrValue = Utils.escapeXml(attrValue, props, true);
                         }
@@ -0,0 +1,155 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * <p>Reader of the content which is pushed to it piece by piece, used by {@link IncrementalCleaner}.</p>
+ *
+ * <p>Instead of blocking when all the content fed so far is read, it throws
+ * {@link InputExhaustedException}, unless the end of content is declared. Characters are
+ * retained until they are released, so that reading can be repeated from any position after
+ * the released one.</p>
+ */
+class FeedReader extends Reader {
+
+    /**
+     * Thrown when more content is needed, but it has not been fed yet.
+     */
+    static class InputExhaustedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        InputExhaustedException() {
+            super("No more content fed yet");
+        }
+    }
+
+    private char[] buffer = new char[1024];
+
+    // retained characters are buffer[start .. start + length), the first of them is at position base
+    private int start;
+    private int length;
+    private long base;
+    private long position;
+    private boolean finished;
+
+    /**
+     * Appends characters to the end of content.
+     * @param chars
+     * @param offset
+     * @param len
+     */
+    void feed(char[] chars, int offset, int len) {
+        if (finished) {
+            throw new IllegalStateException("End of content was already declared");
+        }
+        if (start + length + len > buffer.length) {
+            // compact, growing the buffer only if it would stay more than half full
+            char[] newBuffer = length + len > buffer.length / 2 ? new char[Math.max(buffer.length * 2, length + len)] : buffer;
+            System.arraycopy(buffer, start, newBuffer, 0, length);
+            buffer = newBuffer;
+            start = 0;
+        }
+        System.arraycopy(chars, offset, buffer, start + length, len);
+        length += len;
+    }
+
+    /**
+     * Declares that no more characters will be fed.
+     */
+    void finish() {
+        finished = true;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return Number of characters fed so far.
+     */
+    long getFedLength() {
+        return base + length;
+    }
+
+    /**
+     * Positions the reader, so that the next character read is the one at the given position.
+     * @param newPosition position counted from the start of content, not before the released one
+     */
+    void rewind(long newPosition) {
+        if (newPosition < base || newPosition > base + length) {
+            throw new IllegalArgumentException("Position " + newPosition + " is not retained");
+        }
+        position = newPosition;
+    }
+
+    /**
+     * Allows characters before the given position to be discarded, as they won't be read again.
+     * @param releasedPosition
+     */
+    void release(long releasedPosition) {
+        int released = (int) (Math.min(releasedPosition, position) - base);
+        if (released > 0) {
+            start += released;
+            length -= released;
+            base += released;
+        }
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int available = (int) (base + length - position);
+        if (available == 0) {
+            if (finished) {
+                return -1;
+            }
+            throw new InputExhaustedException();
+        }
+        int count = Math.min(len, available);
+        System.arraycopy(buffer, start + (int) (position - base), cbuf, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close, content stays retained until released
+    }
+
+}
@@ -0,0 +1,792 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>Read-only and compact form of a cleaned document, created by {@link TagNode#freeze()}.</p>
+ *
+ * <p>Instead of an object per node, the tree is kept as a structure of arrays indexed by node
+ * number. Nodes are numbered in document order, starting with the root element at 0, and for
+ * each node the arrays hold its kind, name, parent and next sibling, together with either its
+ * span in the character pool (text, CDATA and comment nodes) or its range of attributes
+ * (elements). Thanks to the numbering, the first child of a node, if any, is the node right
+ * after it, and all its descendants follow it in a continuous range. Tag and attribute names
+ * are stored once and referred to by their index in the table of names, and all the text and
+ * attribute values share a single character array.</p>
+ *
+ * <p>The document can be navigated by node numbers, or through {@link Element} handles, which
+ * are also what XPath evaluation returns for elements. End tag tokens which cleaning left in
+ * the tree are kept as {@link #END_TAG} nodes, since they are not written but change how
+ * serializers format the content around them. Serializers write the document through
+ * read-only {@link TagNode} views, created for the nodes on the path being written and
+ * sharing the character pool of the document, so the tree is never built as a whole.
+ * Instances are immutable and can be shared between threads.</p>
+ */
+public final class FrozenDocument {
+
+    public static final int ELEMENT = 1;
+    public static final int TEXT = 2;
+    public static final int CDATA = 3;
+    public static final int COMMENT = 4;
+    public static final int END_TAG = 5;
+
+    private static final int KIND_MASK = 0x0F;
+    private static final int FOREIGN_MARKUP = 0x10;
+    private static final int FOREIGN_MARKUP_SET = 0x20;
+
+    private final int nodeCount;
+    private final byte[] kinds;
+    private final int[] names;
+    private final int[] parents;
+    private final int[] nextSiblings;
+    // span in the character pool for content nodes, range of attributes for elements
+    private final int[] starts;
+    private final int[] lengths;
+
+    private final int[] attributeNames;
+    private final int[] valueStarts;
+    // -1 for null values
+    private final int[] valueLengths;
+
+    private final char[] chars;
+    private final String[] nameTable;
+
+    // nodes having namespace declarations, in ascending order, and their declarations
+    private final int[] namespaceNodes;
+    private final List<Map<String, String>> namespaceDeclarations;
+
+    private final DoctypeToken docType;
+
+    /**
+     * Handle of an element of a frozen document. Handles are compared by the document and the
+     * node number they refer to, so any number of them may exist for the same element.
+     */
+    public static final class Element {
+
+        private final FrozenDocument document;
+        private final int node;
+
+        private Element(FrozenDocument document, int node) {
+            this.document = document;
+            this.node = node;
+        }
+
+        public FrozenDocument getDocument() {
+            return document;
+        }
+
+        /**
+         * @return Number of this element's node in the document.
+         */
+        public int getNode() {
+            return node;
+        }
+
+        public String getName() {
+            return document.getName(node);
+        }
+
+        /**
+         * @return Parent element, or null if this is the root element.
+         */
+        public Element getParent() {
+            int parent = document.parents[node];
+            return parent >= 0 ? new Element(document, parent) : null;
+        }
+
+        /**
+         * @param attName
+         * @return Value of the specified attribute, or null if this element doesn't have it.
+         */
+        public String getAttributeByName(String attName) {
+            return document.getAttributeByName(node, attName);
+        }
+
+        /**
+         * @return Map containing all attribute name/value pairs of this element.
+         */
+        public Map<String, String> getAttributes() {
+            Map<String, String> attributes = new LinkedHashMap<String, String>();
+            for (int i = 0; i < document.getAttributeCount(node); i++) {
+                attributes.put( document.getAttributeName(node, i), document.getAttributeValue(node, i) );
+            }
+            return attributes;
+        }
+
+        /**
+         * @return Text content of this element and its subelements.
+         */
+        public CharSequence getText() {
+            return document.getText(node);
+        }
+
+        /**
+         * @return List of child elements.
+         */
+        public List<Element> getChildElements() {
+            return document.getElements(node, null, false);
+        }
+
+        /**
+         * @param isRecursive
+         * @return List of child elements, or of all the descendant elements if recursive.
+         */
+        public List<Element> getAllElements(boolean isRecursive) {
+            return document.getElements(node, null, isRecursive);
+        }
+
+        /**
+         * @param findName
+         * @param isRecursive
+         * @return List of child (or descendant) elements having the name, compared case insensitively.
+         */
+        public List<Element> getElementsByName(String findName, boolean isRecursive) {
+            return findName != null ? document.getElements(node, findName, isRecursive) : Collections.<Element>emptyList();
+        }
+
+        /**
+         * @param xPathExpression
+         * @return Result of XPath evaluation with this element as the context.
+         * @see TagNode#evaluateXPath(String)
+         */
+        public Object[] evaluateXPath(String xPathExpression) throws XPatherException {
+            return new XPather(xPathExpression).evaluateAgainstElement(this);
+        }
+
+        /**
+         * @return New mutable tree, equal to this element and its subtree.
+         */
+        public TagNode toTagNode() {
+            return document.toTagNode(node);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Element && ((Element) obj).document == document && ((Element) obj).node == node;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(document) + node;
+        }
+
+        @Override
+        public String toString() {
+            return getName();
+        }
+    }
+
+    private FrozenDocument(Builder builder) {
+        this.nodeCount = builder.nodeCount;
+        this.kinds = Arrays.copyOf(builder.kinds, nodeCount);
+        this.names = Arrays.copyOf(builder.names, nodeCount);
+        this.parents = Arrays.copyOf(builder.parents, nodeCount);
+        this.nextSiblings = Arrays.copyOf(builder.nextSiblings, nodeCount);
+        this.starts = Arrays.copyOf(builder.starts, nodeCount);
+        this.lengths = Arrays.copyOf(builder.lengths, nodeCount);
+        this.attributeNames = Arrays.copyOf(builder.attributeNames, builder.attributeCount);
+        this.valueStarts = Arrays.copyOf(builder.valueStarts, builder.attributeCount);
+        this.valueLengths = Arrays.copyOf(builder.valueLengths, builder.attributeCount);
+        this.chars = Arrays.copyOf(builder.chars, builder.charCount);
+        this.nameTable = builder.nameList.toArray(new String[builder.nameList.size()]);
+        this.namespaceNodes = Arrays.copyOf(builder.namespaceNodes, builder.namespaceDeclarations.size());
+        this.namespaceDeclarations = builder.namespaceDeclarations;
+        this.docType = builder.docType;
+    }
+
+    /**
+     * @param root
+     * @return Frozen copy of the tree rooted in the specified node.
+     */
+    static FrozenDocument freeze(TagNode root) {
+        Builder builder = new Builder();
+        builder.build(root);
+        return new FrozenDocument(builder);
+    }
+
+    /**
+     * @return Number of nodes in the document.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return Handle of the root element, node number 0.
+     */
+    public Element getRootElement() {
+        return new Element(this, 0);
+    }
+
+    /**
+     * @param node
+     * @return Handle of the element with the specified number.
+     */
+    public Element getElement(int node) {
+        checkElement(node);
+        return new Element(this, node);
+    }
+
+    /**
+     * @return Doctype of the document, if the frozen node had one.
+     */
+    public DoctypeToken getDocType() {
+        return docType;
+    }
+
+    /**
+     * @param node
+     * @return One of {@link #ELEMENT}, {@link #TEXT}, {@link #CDATA}, {@link #COMMENT} and {@link #END_TAG}.
+     */
+    public int getKind(int node) {
+        return kinds[node] & KIND_MASK;
+    }
+
+    /**
+     * @param node
+     * @return Name of the element or end tag, null for other nodes.
+     */
+    public String getName(int node) {
+        return names[node] >= 0 ? nameTable[names[node]] : null;
+    }
+
+    /**
+     * @param node
+     * @return Whether the element belongs to a non-HTML namespace.
+     * @see TagNode#isForeignMarkup()
+     */
+    public boolean isForeignMarkup(int node) {
+        return (kinds[node] & FOREIGN_MARKUP) != 0;
+    }
+
+    /**
+     * @param node
+     * @return Number of the parent element, -1 for the root.
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @param node
+     * @return Number of the first child node, -1 if there are no children.
+     */
+    public int getFirstChild(int node) {
+        return node + 1 < nodeCount && parents[node + 1] == node ? node + 1 : -1;
+    }
+
+    /**
+     * @param node
+     * @return Number of the following node with the same parent, -1 if this is the last one.
+     */
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /**
+     * @param node
+     * @return Number of the first node after the subtree of the specified node, in document order.
+     */
+    int getSubtreeEnd(int node) {
+        for (int curr = node; curr >= 0; curr = parents[curr]) {
+            if (nextSiblings[curr] >= 0) {
+                return nextSiblings[curr];
+            }
+        }
+        return nodeCount;
+    }
+
+    /**
+     * @param node
+     * @return Number of attributes of the element, 0 for other nodes.
+     */
+    public int getAttributeCount(int node) {
+        return getKind(node) == ELEMENT ? lengths[node] : 0;
+    }
+
+    /**
+     * @param node
+     * @param index
+     * @return Name of the element's attribute at the index, in the order of the attributes.
+     */
+    public String getAttributeName(int node, int index) {
+        return nameTable[ attributeNames[attribute(node, index)] ];
+    }
+
+    /**
+     * @param node
+     * @param index
+     * @return Value of the element's attribute at the index, in the order of the attributes.
+     */
+    public String getAttributeValue(int node, int index) {
+        int attribute = attribute(node, index);
+        return valueLengths[attribute] >= 0 ? new String(chars, valueStarts[attribute], valueLengths[attribute]) : null;
+    }
+
+    /**
+     * @param node
+     * @param attName
+     * @return Value of the specified attribute, or null if the element doesn't have it. The name
+     * is looked up the same way as in {@link TagNode#getAttributeByName(String)}.
+     */
+    public String getAttributeByName(int node, String attName) {
+        if (attName == null) {
+            return null;
+        }
+        String lowerCaseName = attName.toLowerCase();
+        for (int i = 0; i < getAttributeCount(node); i++) {
+            if ( lowerCaseName.equals(getAttributeName(node, i)) ) {
+                return getAttributeValue(node, i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param node
+     * @return Map of namespace declarations of the element, or null if it has none.
+     */
+    public Map<String, String> getNamespaceDeclarations(int node) {
+        int index = Arrays.binarySearch(namespaceNodes, node);
+        return index >= 0 ? namespaceDeclarations.get(index) : null;
+    }
+
+    /**
+     * @param node
+     * @return Content of text, CDATA and comment nodes, null for elements and end tags.
+     */
+    public String getContent(int node) {
+        return isContent(node) ? new String(chars, starts[node], lengths[node]) : null;
+    }
+
+    private boolean isContent(int node) {
+        int kind = getKind(node);
+        return kind == TEXT || kind == CDATA || kind == COMMENT;
+    }
+
+    /**
+     * @param node
+     * @return Text content of the node and its descendants.
+     * @see TagNode#getText()
+     */
+    public CharSequence getText(int node) {
+        StringBuilder text = new StringBuilder();
+        int end = getSubtreeEnd(node);
+        for (int curr = node; curr < end; curr++) {
+            int kind = getKind(curr);
+            if (kind == TEXT || kind == CDATA) {
+                text.append(chars, starts[curr], lengths[curr]);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * @param xPathExpression
+     * @return Result of XPath evaluation with the root element as the context.
+     * @see TagNode#evaluateXPath(String)
+     */
+    public Object[] evaluateXPath(String xPathExpression) throws XPatherException {
+        return getRootElement().evaluateXPath(xPathExpression);
+    }
+
+    /**
+     * @return New mutable tree, equal to the tree this document was created from.
+     */
+    public TagNode toTagNode() {
+        TagNode root = toTagNode(0);
+        root.setDocType(docType);
+        return root;
+    }
+
+    /**
+     * @param node
+     * @return New mutable tree, equal to the specified element and its subtree.
+     */
+    public TagNode toTagNode(int node) {
+        checkElement(node);
+        int end = getSubtreeEnd(node);
+        TagNode[] openTags = new TagNode[16];
+        int[] openNodes = new int[16];
+        int depth = 0;
+
+        TagNode root = createTagNode(node);
+        openTags[0] = root;
+        openNodes[0] = node;
+        depth++;
+        for (int curr = node + 1; curr < end; curr++) {
+            while (openNodes[depth - 1] != parents[curr]) {
+                openTags[--depth] = null;
+            }
+            if (getKind(curr) == ELEMENT) {
+                TagNode tagNode = createTagNode(curr);
+                openTags[depth - 1].addChild(tagNode);
+                if (depth == openTags.length) {
+                    openTags = Arrays.copyOf(openTags, depth * 2);
+                    openNodes = Arrays.copyOf(openNodes, depth * 2);
+                }
+                openTags[depth] = tagNode;
+                openNodes[depth] = curr;
+                depth++;
+            } else {
+                openTags[depth - 1].addChild( createToken(curr) );
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return Root of a read-only view of the document, which serializers write instead of
+     * the tree returned by {@link #toTagNode()}.
+     */
+    TagNode toSerializedNode() {
+        TagNode root = new SerializedNode(this, 0);
+        root.setDocType(docType);
+        return root;
+    }
+
+    private TagNode createTagNode(int node) {
+        return initTagNode(new TagNode( getName(node) ), node);
+    }
+
+    /**
+     * @return New token for the node which is not an element.
+     */
+    private BaseToken createToken(int node) {
+        switch (getKind(node)) {
+            case TEXT:
+                return new ContentNode(chars, starts[node], lengths[node]);
+            case CDATA:
+                return new CData( getContent(node) );
+            case COMMENT:
+                return new CommentNode(chars, starts[node], lengths[node]);
+            default:
+                return new EndTagToken( getName(node) );
+        }
+    }
+
+    /**
+     * Sets the flags, attributes and namespace declarations of the element to the tag node.
+     */
+    private TagNode initTagNode(TagNode tagNode, int node) {
+        if ( (kinds[node] & FOREIGN_MARKUP_SET) != 0 ) {
+            tagNode.setForeignMarkup( isForeignMarkup(node) );
+        }
+        for (int i = 0; i < lengths[node]; i++) {
+            tagNode.putAttribute( getAttributeName(node, i), getAttributeValue(node, i) );
+        }
+        Map<String, String> nsDeclarations = getNamespaceDeclarations(node);
+        if (nsDeclarations != null) {
+            for (Map.Entry<String, String> declaration: nsDeclarations.entrySet()) {
+                tagNode.addNamespaceDeclaration( declaration.getKey(), declaration.getValue() );
+            }
+        }
+        return tagNode;
+    }
+
+    /**
+     * @param node
+     * @param findName Name of the elements, any element if null
+     * @param isRecursive
+     * @return Child or descendant elements of the node, in document order.
+     */
+    List<Element> getElements(int node, String findName, boolean isRecursive) {
+        List<Element> result = new ArrayList<Element>();
+        if (isRecursive) {
+            int end = getSubtreeEnd(node);
+            for (int curr = node + 1; curr < end; curr++) {
+                if ( getKind(curr) == ELEMENT && (findName == null || findName.equalsIgnoreCase(getName(curr))) ) {
+                    result.add( new Element(this, curr) );
+                }
+            }
+        } else {
+            for (int curr = getFirstChild(node); curr >= 0; curr = nextSiblings[curr]) {
+                if ( getKind(curr) == ELEMENT && (findName == null || findName.equalsIgnoreCase(getName(curr))) ) {
+                    result.add( new Element(this, curr) );
+                }
+            }
+        }
+        return result;
+    }
+
+    private int attribute(int node, int index) {
+        if (index < 0 || index >= getAttributeCount(node)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + getAttributeCount(node));
+        }
+        return starts[node] + index;
+    }
+
+    /**
+     * Element as seen by serializers. Children are not kept in the node, but created each time
+     * they are asked for and released by the serializer once written, so only the nodes on
+     * the path being written, and their siblings, are in memory at a time. The view has no
+     * parent, and children can't be changed through it.
+     */
+    private static final class SerializedNode extends TagNode {
+
+        private final FrozenDocument document;
+        private final int node;
+
+        private SerializedNode(FrozenDocument document, int node) {
+            super( document.getName(node) );
+            this.document = document;
+            this.node = node;
+            document.initTagNode(this, node);
+        }
+
+        @Override
+        public List<? extends BaseToken> getAllChildren() {
+            List<BaseToken> children = new ArrayList<BaseToken>();
+            for (int child = document.getFirstChild(node); child >= 0; child = document.nextSiblings[child]) {
+                children.add( document.getKind(child) == ELEMENT ? new SerializedNode(document, child) : document.createToken(child) );
+            }
+            return Collections.unmodifiableList(children);
+        }
+
+        @Override
+        public boolean hasChildren() {
+            return document.getFirstChild(node) >= 0;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            for (int child = document.getFirstChild(node); child >= 0; child = document.nextSiblings[child]) {
+                int kind = document.getKind(child);
+                if ( (kind != TEXT && kind != CDATA) ||
+                     !ContentNode.isBlank(CharBuffer.wrap(document.chars, document.starts[child], document.lengths[child])) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public CharSequence getText() {
+            return document.getText(node);
+        }
+    }
+
+    private void checkElement(int node) {
+        if (node < 0 || node >= nodeCount || getKind(node) != ELEMENT) {
+            throw new IllegalArgumentException("Node " + node + " is not an element");
+        }
+    }
+
+    /**
+     * Collects the arrays while walking the tree.
+     */
+    private static final class Builder {
+
+        private int nodeCount;
+        private byte[] kinds = new byte[64];
+        private int[] names = new int[64];
+        private int[] parents = new int[64];
+        private int[] nextSiblings = new int[64];
+        private int[] starts = new int[64];
+        private int[] lengths = new int[64];
+
+        private int attributeCount;
+        private int[] attributeNames = new int[64];
+        private int[] valueStarts = new int[64];
+        private int[] valueLengths = new int[64];
+
+        private int charCount;
+        private char[] chars = new char[1024];
+
+        private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+        private final List<String> nameList = new ArrayList<String>();
+
+        private int[] namespaceNodes = new int[4];
+        private final List<Map<String, String>> namespaceDeclarations = new ArrayList<Map<String, String>>();
+
+        private DoctypeToken docType;
+
+        void build(TagNode root) {
+            docType = root.getDocType();
+            TagNode[] openTags = new TagNode[16];
+            int[] openNodes = new int[16];
+            int[] nextChildren = new int[16];
+            int[] lastChildren = new int[16];
+            int depth = 0;
+
+            openTags[0] = root;
+            openNodes[0] = addElement(root, -1);
+            lastChildren[0] = -1;
+            depth++;
+            while (depth > 0) {
+                int top = depth - 1;
+                List<? extends BaseToken> children = openTags[top].getAllChildren();
+                if (nextChildren[top] == children.size()) {
+                    openTags[top] = null;
+                    nextChildren[top] = 0;
+                    depth--;
+                    continue;
+                }
+                BaseToken child = children.get(nextChildren[top]++);
+                int node;
+                if (child instanceof TagNode) {
+                    node = addElement((TagNode) child, openNodes[top]);
+                } else if (child instanceof CData) {
+                    node = addContent(CDATA, ((CData) child).getContentWithoutStartAndEndTokens(), openNodes[top]);
+                } else if (child instanceof ContentNode) {
+                    node = addContent(TEXT, ((ContentNode) child).getContent(), openNodes[top]);
+                } else if (child instanceof CommentNode) {
+                    node = addContent(COMMENT, ((CommentNode) child).getContent(), openNodes[top]);
+                } else if (child instanceof EndTagToken) {
+                    node = addNode(END_TAG, nameId(((EndTagToken) child).getName()), openNodes[top], 0, 0);
+                } else {
+                    // doctype is kept for the whole document
+                    continue;
+                }
+                if (lastChildren[top] >= 0) {
+                    nextSiblings[ lastChildren[top] ] = node;
+                }
+                lastChildren[top] = node;
+
+                if (child instanceof TagNode) {
+                    if (depth == openTags.length) {
+                        openTags = Arrays.copyOf(openTags, depth * 2);
+                        openNodes = Arrays.copyOf(openNodes, depth * 2);
+                        nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+                        lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+                    }
+                    openTags[depth] = (TagNode) child;
+                    openNodes[depth] = node;
+                    nextChildren[depth] = 0;
+                    lastChildren[depth] = -1;
+                    depth++;
+                }
+            }
+        }
+
+        private int addElement(TagNode tagNode, int parent) {
+            int flags = ELEMENT;
+            if ( tagNode.isForeignMarkupFlagSet() ) {
+                flags |= FOREIGN_MARKUP_SET;
+            }
+            if ( tagNode.isForeignMarkup() ) {
+                flags |= FOREIGN_MARKUP;
+            }
+            int attributes = tagNode.getAttributeCount();
+            int node = addNode(flags, nameId(tagNode.getName()), parent, attributeCount, attributes);
+            for (int i = 0; i < attributes; i++) {
+                addAttribute( tagNode.getAttributeName(i), tagNode.getAttributeValue(i) );
+            }
+            Map<String, String> nsDeclarations = tagNode.getNamespaceDeclarations();
+            if (nsDeclarations != null && !nsDeclarations.isEmpty()) {
+                if (namespaceDeclarations.size() == namespaceNodes.length) {
+                    namespaceNodes = Arrays.copyOf(namespaceNodes, namespaceNodes.length * 2);
+                }
+                namespaceNodes[namespaceDeclarations.size()] = node;
+                namespaceDeclarations.add( Collections.unmodifiableMap(new TreeMap<String, String>(nsDeclarations)) );
+            }
+            return node;
+        }
+
+        private int addContent(int kind, String content, int parent) {
+            int start = charCount;
+            int length = appendChars(content);
+            return addNode(kind, -1, parent, start, Math.max(length, 0));
+        }
+
+        private int addNode(int flags, int name, int parent, int start, int length) {
+            if (nodeCount == kinds.length) {
+                int capacity = nodeCount * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                names = Arrays.copyOf(names, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            kinds[nodeCount] = (byte) flags;
+            names[nodeCount] = name;
+            parents[nodeCount] = parent;
+            nextSiblings[nodeCount] = -1;
+            starts[nodeCount] = start;
+            lengths[nodeCount] = length;
+            return nodeCount++;
+        }
+
+        private void addAttribute(String name, String value) {
+            if (attributeCount == attributeNames.length) {
+                int capacity = attributeCount * 2;
+                attributeNames = Arrays.copyOf(attributeNames, capacity);
+                valueStarts = Arrays.copyOf(valueStarts, capacity);
+                valueLengths = Arrays.copyOf(valueLengths, capacity);
+            }
+            attributeNames[attributeCount] = nameId(name);
+            valueStarts[attributeCount] = charCount;
+            valueLengths[attributeCount] = appendChars(value);
+            attributeCount++;
+        }
+
+        /**
+         * @param text
+         * @return Number of appended characters, -1 for null.
+         */
+        private int appendChars(String text) {
+            if (text == null) {
+                return -1;
+            }
+            int length = text.length();
+            if (charCount + length > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+            }
+            text.getChars(0, length, chars, charCount);
+            charCount += length;
+            return length;
+        }
+
+        private int nameId(String name) {
+            Integer id = nameIds.get(name);
+            if (id == null) {
+                id = Integer.valueOf(nameList.size());
+                nameIds.put(name, id);
+                nameList.add(name);
+            }
+            return id.intValue();
+        }
+    }
+
+}
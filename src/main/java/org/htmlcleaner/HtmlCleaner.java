@@ -41,14 +41,22 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Executor;
 
 import org.htmlcleaner.audit.ErrorType;
 import org.htmlcleaner.conditional.ITagNodeCondition;
@@ -115,10 +123,14 @@ public class HtmlCleaner {
 		private TagInfo info;
 
 		TagPos(int position, String name) {
+			this(position, name, getTagInfoProvider().getTagInfo(name));
+        }
+
+		TagPos(int position, String name, TagInfo info) {
 			this.position = position;
 			this.name = name;
-            this.info = getTagInfoProvider().getTagInfo(name);
-        }
+			this.info = info;
+		}
 	}
     
     /**
@@ -192,86 +204,174 @@ public class HtmlCleaner {
      * but unhandled tags.
      */
     class OpenTags {
-        private List<TagPos> list = new ArrayList<TagPos>();
-        private TagPos last;
+        /**
+         * Open tags are kept in doubly linked list ordered by nesting, each name is indexed with
+         * the stack of its open tags, so finding and removing tags doesn't depend on nesting depth.
+         */
+        private OpenTag first;
+        private OpenTag last;
+        private int size;
+        private int order;
+        private Map<String, OpenTag> lastByName = new HashMap<String, OpenTag>();
+        /**
+         * Last open tag by the ordinal of its name, for names having one. Relations of tags are
+         * kept as bit sets of ordinals, which are matched against this without hashing names.
+         */
+        private OpenTag[] lastByOrdinal = new OpenTag[TagOrdinals.size()];
+        /**
+         * Last open tag allowing anything, tags allowing anything are doubly linked among
+         * themselves, so any of them is unlinked in constant time
+         */
+        private OpenTag lastAllowingAnything;
         private Set<String> set = new HashSet<String>();
 
         private boolean isEmpty() {
-            return list.isEmpty();
+            return size == 0;
         }
 
-        private void addTag(String tagName, int position) {
-            last = new TagPos(position, tagName);
-            list.add(last);
-            set.add(tagName);
+        private int size() {
+            return size;
         }
 
-        private void removeTag(String tagName) {
-            ListIterator<TagPos> it = list.listIterator( list.size() );
-            while ( it.hasPrevious() ) {
-                TagPos currTagPos = it.previous();
-                if (tagName.equals(currTagPos.name)) {
-                    it.remove();
-                    break;
+        private void addTag(String tagName, TagInfo tagInfo, int position) {
+            addTag( new TagPos(position, tagName, tagInfo) );
+        }
+
+        private void addTag(TagPos tagPos) {
+            OpenTag openTag = new OpenTag(tagPos, order++);
+            openTag.prev = last;
+            if (last == null) {
+                first = openTag;
+            } else {
+                last.next = openTag;
+            }
+            last = openTag;
+            if ( openTag.allowsAnything ) {
+                openTag.prevAllowingAnything = lastAllowingAnything;
+                if (lastAllowingAnything != null) {
+                    lastAllowingAnything.nextAllowingAnything = openTag;
                 }
+                lastAllowingAnything = openTag;
             }
+            openTag.prevSameName = lastByName.put(tagPos.name, openTag);
+            if (openTag.ordinal >= 0) {
+                if (openTag.ordinal >= lastByOrdinal.length) {
+                    lastByOrdinal = Arrays.copyOf( lastByOrdinal, Math.max(openTag.ordinal + 1, TagOrdinals.size()) );
+                }
+                lastByOrdinal[openTag.ordinal] = openTag;
+            }
+            size++;
+            set.add(tagPos.name);
+        }
 
-            last =  list.isEmpty() ? null : (TagPos) list.get( list.size() - 1 );
+        private void removeTag(String tagName) {
+            OpenTag openTag = lastByName.get(tagName);
+            if (openTag == null) {
+                return;
+            }
+            if (openTag.prevSameName == null) {
+                lastByName.remove(tagName);
+            } else {
+                lastByName.put(tagName, openTag.prevSameName);
+            }
+            if (openTag.ordinal >= 0) {
+                lastByOrdinal[openTag.ordinal] = openTag.prevSameName;
+            }
+            if (openTag.prev == null) {
+                first = openTag.next;
+            } else {
+                openTag.prev.next = openTag.next;
+            }
+            if (openTag.next == null) {
+                last = openTag.prev;
+            } else {
+                openTag.next.prev = openTag.prev;
+            }
+            if ( openTag.allowsAnything ) {
+                if (openTag.prevAllowingAnything != null) {
+                    openTag.prevAllowingAnything.nextAllowingAnything = openTag.nextAllowingAnything;
+                }
+                if (openTag.nextAllowingAnything == null) {
+                    lastAllowingAnything = openTag.prevAllowingAnything;
+                } else {
+                    openTag.nextAllowingAnything.prevAllowingAnything = openTag.prevAllowingAnything;
+                }
+            }
+            size--;
         }
 
         private TagPos findFirstTagPos() {
-            return list.isEmpty() ? null : (TagPos) list.get(0);
+            return first == null ? null : first.tagPos;
         }
 
         private TagPos getLastTagPos() {
-            return last;
+            return last == null ? null : last.tagPos;
+        }
+
+        private OpenTag findOpenTag(String tagName) {
+            return lastByName.get(tagName);
         }
 
         private TagPos findTag(String tagName) {
-            if (tagName != null) {
-                ListIterator<TagPos> it = list.listIterator(list.size());
-                String fatalTag = null;
-                TagInfo fatalInfo = getTagInfoProvider().getTagInfo(tagName);
-                if (fatalInfo != null) {
-                    fatalTag = fatalInfo.getFatalTag();
-                }
+            return findTag( tagName, getTagInfoProvider().getTagInfo(tagName) );
+        }
 
-                while (it.hasPrevious()) {
-                    TagPos currTagPos = it.previous();
-                    if (tagName.equals(currTagPos.name)) {
-                        return currTagPos;
-                    } else if (fatalTag != null && fatalTag.equals(currTagPos.name)) {
-                        // do not search past a fatal tag for this tag
+        private TagPos findTag(String tagName, TagInfo fatalInfo) {
+            if (tagName != null) {
+                OpenTag openTag = findOpenTag(tagName);
+                if (openTag != null && fatalInfo != null && fatalInfo.getFatalTag() != null) {
+                    // do not search past a fatal tag for this tag
+                    OpenTag fatalTag = findOpenTag( fatalInfo.getFatalTag() );
+                    if (fatalTag != null && fatalTag.order > openTag.order) {
                         return null;
                     }
                 }
+                return openTag == null ? null : openTag.tagPos;
             }
 
             return null;
         }
 
+        /**
+         * @param tagOrdinals
+         * @return Last open tag which name has one of the specified {@link TagOrdinals ordinals},
+         * or null if none of them is open.
+         */
+        private TagPos findLastTag(BitSet tagOrdinals) {
+            OpenTag result = null;
+            if ( tagOrdinals.cardinality() < size ) {
+                for (int ordinal = tagOrdinals.nextSetBit(0); ordinal >= 0 && ordinal < lastByOrdinal.length; ordinal = tagOrdinals.nextSetBit(ordinal + 1)) {
+                    OpenTag openTag = lastByOrdinal[ordinal];
+                    if ( openTag != null && (result == null || openTag.order > result.order) ) {
+                        result = openTag;
+                    }
+                }
+            } else {
+                for (OpenTag openTag = last; openTag != null && result == null; openTag = openTag.prev) {
+                    if ( openTag.ordinal >= 0 && tagOrdinals.get(openTag.ordinal) ) {
+                        result = openTag;
+                    }
+                }
+            }
+            return result == null ? null : result.tagPos;
+        }
+
         private boolean tagExists(String tagName) {
             TagPos tagPos = findTag(tagName);
             return tagPos != null;
         }
 
         private TagPos findTagToPlaceRubbish() {
-            TagPos result = null, prev = null;
-
-            if ( !isEmpty() ) {
-                ListIterator<TagPos> it = list.listIterator( list.size() );
-                while ( it.hasPrevious() ) {
-                    result = it.previous();
-                    if ( result.info == null || result.info.allowsAnything() ) {
-                    	if (prev != null) {
-                            return prev;
-                        }
-                    }
-                    prev = result;
-                }
+            // rubbish goes to the tag following the last tag which allows anything, unless that one is the last
+            OpenTag allowingAnything = lastAllowingAnything;
+            if (allowingAnything != null && allowingAnything == last) {
+                allowingAnything = allowingAnything.prevAllowingAnything;
+            }
+            if (allowingAnything != null) {
+                return allowingAnything.next.tagPos;
             }
 
-            return result;
+            return findFirstTagPos();
         }
 
         private boolean tagEncountered(String tagName) {
@@ -279,16 +379,53 @@ public class HtmlCleaner {
         }
 
         /**
-         * Checks if any of tags specified in the set are already open.
-         * @param tags
+         * Checks if any of tags specified by the {@link TagOrdinals ordinals} are already open.
+         * @param tagOrdinals
+         */
+        private boolean someAlreadyOpen(BitSet tagOrdinals) {
+            return findLastTag(tagOrdinals) != null;
+        }
+
+        /**
+         * @return Positions of all open tags, from the first to the last one.
          */
-        private boolean someAlreadyOpen(Set<String> tags) {
-        	for (TagPos curr : list) {
-            	if ( tags.contains(curr.name) ) {
-            		return true;
-            	}
+        private List<TagPos> getTagPositions() {
+            List<TagPos> result = new ArrayList<TagPos>(size);
+            for (OpenTag openTag = first; openTag != null; openTag = openTag.next) {
+                result.add(openTag.tagPos);
             }
-            return false;
+            return result;
+        }
+
+        private OpenTags copy() {
+            OpenTags copy = new OpenTags();
+            for (OpenTag openTag = first; openTag != null; openTag = openTag.next) {
+                copy.addTag(openTag.tagPos);
+            }
+            copy.set.addAll(set);
+            return copy;
+        }
+    }
+
+    /**
+     * Entry of the open tags list.
+     */
+    private static class OpenTag {
+        private final TagPos tagPos;
+        private final int order;
+        private final boolean allowsAnything;
+        private final int ordinal;
+        private OpenTag prev;
+        private OpenTag next;
+        private OpenTag prevSameName;
+        private OpenTag prevAllowingAnything;
+        private OpenTag nextAllowingAnything;
+
+        OpenTag(TagPos tagPos, int order) {
+            this.tagPos = tagPos;
+            this.order = order;
+            this.allowsAnything = tagPos.info == null || tagPos.info.allowsAnything();
+            this.ordinal = tagPos.info != null && tagPos.name.equals(tagPos.info.getName()) ? tagPos.info.getOrdinal() : TagOrdinals.find(tagPos.name);
         }
     }
 
@@ -296,6 +433,13 @@ public class HtmlCleaner {
 
     private CleanerTransformations transformations;
 
+    private final ThreadLocal<CleaningSession> threadSessions = new ThreadLocal<CleaningSession>() {
+        @Override
+        protected CleaningSession initialValue() {
+            return createSession();
+        }
+    };
+
     /**
      * Constructor - creates cleaner instance with default tag info provider and default properties.
      */
@@ -338,24 +482,96 @@ public class HtmlCleaner {
         }
     }
 
+    /**
+     * Cleans HTML content, which may be stopped by the token.
+     * @param htmlContent
+     * @param cancellationToken
+     * @return An instance of TagNode object which is the root of the XML tree, built from
+     * part of the content if cancelled and partial result is requested by the token.
+     * @throws CleaningCancelledException if cancelled and partial result is not requested
+     */
+    public TagNode clean(String htmlContent, CancellationToken cancellationToken) {
+        try {
+            return clean( new StringReader(htmlContent), cancellationToken );
+        } catch (IOException e) {
+            // should never happen because reading from StringReader
+            throw new HtmlCleanerException(e);
+        }
+    }
+
     public TagNode clean(File file, String charset) throws IOException {
-        FileInputStream in = new FileInputStream(file);
-        Reader reader = null;
+        Reader reader = createReader(file, charset);
         try {
-            reader = new InputStreamReader(in, charset);
-            return clean(reader, new CleanTimeValues());
+            return clean(reader, new CleanTimeValues(), file.length());
         } finally {
-            if ( reader != null) {
-                try{ reader.close(); } catch(IOException e) {}
-            }
-            try{ in.close(); } catch(IOException e) {}
+            try{ reader.close(); } catch(IOException e) {}
+        }
+    }
+
+    /**
+     * Opens the file for cleaning, memory-mapped if enabled in cleaner properties.
+     * @param file
+     * @param charset
+     * @return Reader of the file content, which is to be closed by the caller.
+     * @throws IOException
+     */
+    Reader createReader(File file, String charset) throws IOException {
+        if ( properties.isUseMemoryMappedFiles() && ByteBufferReader.canMap(file) ) {
+            return createReader( ByteBufferReader.map(file), charset );
         }
-     }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new InputStreamReader(in, charset);
+        } catch (IOException e) {
+            try{ in.close(); } catch(IOException closeException) {}
+            throw e;
+        }
+    }
 
     public TagNode clean(File file) throws IOException {
         return clean(file, properties.getCharset());
     }
 
+    /**
+     * Cleans HTML given as bytes, encoded with the charset specified in cleaner properties.
+     * UTF-8 content is decoded with the fast path for ASCII markup, without charset decoder.
+     * @param content
+     * @param offset
+     * @param length
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    public TagNode clean(byte[] content, int offset, int length) {
+        return clean( ByteBuffer.wrap(content, offset, length) );
+    }
+
+    /**
+     * Cleans HTML given as bytes between position and limit of the buffer, encoded with the
+     * charset specified in cleaner properties. Buffer's position is not changed.
+     * UTF-8 content is decoded with the fast path for ASCII markup, without charset decoder.
+     * @param content
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    public TagNode clean(ByteBuffer content) {
+        try {
+            return clean( createReader(content.duplicate(), properties.getCharset()), new CleanTimeValues(), content.remaining() );
+        } catch (IOException e) {
+            // should never happen because reading from memory
+            throw new HtmlCleanerException(e);
+        }
+    }
+
+    /**
+     * Creates reader decoding given bytes directly into the caller's buffer.
+     * @param content
+     * @param charset
+     */
+    static Reader createReader(ByteBuffer content, String charset) {
+        if ( "UTF-8".equals(Charset.forName(charset).name()) ) {
+            return new Utf8ByteReader(content);
+        }
+        return new ByteBufferReader(content, charset);
+    }
+
     /**
      * Deprecated because unmanaged network IO does not handle proxies, slow servers or broken connections well.
      * the htmlcleaner caller should be managing the connections themselves and just providing the htmlcleaner library with a stream.
@@ -394,6 +610,21 @@ public class HtmlCleaner {
     public TagNode clean(Reader reader) throws IOException {
         return clean(reader, new CleanTimeValues());
     }
+
+    /**
+     * Cleans HTML content, which may be stopped by the token.
+     * @param reader (not closed)
+     * @param cancellationToken
+     * @return An instance of TagNode object which is the root of the XML tree, built from
+     * part of the content if cancelled and partial result is requested by the token.
+     * @throws IOException
+     * @throws CleaningCancelledException if cancelled and partial result is not requested
+     */
+    public TagNode clean(Reader reader, CancellationToken cancellationToken) throws IOException {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.cancellationToken = cancellationToken;
+        return clean(reader, cleanTimeValues);
+    }
     
     /**
      * Basic version of the cleaning call.
@@ -402,13 +633,109 @@ public class HtmlCleaner {
      * @throws IOException
      */
     protected TagNode clean(Reader reader, final CleanTimeValues cleanTimeValues) throws IOException {
+        return clean(reader, cleanTimeValues, 0);
+    }
+
+    /**
+     * Cleaning call with known length of the content, used to size the tokenizer's buffers.
+     * @param reader (not closed)
+     * @param cleanTimeValues
+     * @param expectedLength expected number of characters, or 0 if unknown
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    private TagNode clean(Reader reader, final CleanTimeValues cleanTimeValues, long expectedLength) throws IOException {
+        return clean(reader, cleanTimeValues, expectedLength, null);
+    }
+
+    /**
+     * Cleaning call using the buffers of the session, if given.
+     * @param reader (not closed)
+     * @param cleanTimeValues
+     * @param expectedLength expected number of characters, or 0 if unknown
+     * @param session session providing reusable buffers, or null
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    TagNode clean(Reader reader, final CleanTimeValues cleanTimeValues, long expectedLength, CleaningSession session) throws IOException {
+        beginClean(cleanTimeValues);
+
+        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, reader, cleanTimeValues, expectedLength, session);
+
+        try {
+            htmlTokenizer.start();
+        } finally {
+            if (session != null) {
+                htmlTokenizer.keepBuffers(session);
+            }
+        }
+
+        return finishClean(htmlTokenizer, cleanTimeValues);
+    }
+
+    /**
+     * Cleans the documents in parallel, in the shared fork-join pool. See
+     * {@link #cleanAll(Iterable, Executor)}.
+     * @param sources
+     * @return Results in the order of the sources.
+     */
+    public List<CleanResult> cleanAll(Iterable<?> sources) {
+        return cleanAll(sources, null);
+    }
+
+    /**
+     * Cleans the documents in parallel and waits until all of them are cleaned. Each source
+     * may be a CharSequence, Reader (not closed), File, InputStream (not closed), byte array
+     * or ByteBuffer - bytes are decoded with the charset specified in cleaner properties.
+     * Documents are cleaned by the workers of the executor and by the calling thread, each of
+     * them reusing its own {@link CleaningSession} for the documents of the batch, so listeners
+     * of the cleaner are notified from these threads. A fork-join pool balances documents of very
+     * different sizes by work stealing. The shared pool consists of daemon threads, callers
+     * needing control over the threads pass their own executor.
+     * @param sources documents to clean
+     * @param executor executor running the workers, or null for the shared fork-join pool
+     * @return Results in the order of the sources - a document which could not be cleaned
+     * has the exception in its result, while the other documents are cleaned as usual.
+     */
+    public List<CleanResult> cleanAll(Iterable<?> sources, Executor executor) {
+        return new BatchCleaner(this, sources).cleanAll(executor);
+    }
+
+    /**
+     * Creates new session, which reuses the structures needed for cleaning from one document
+     * to another. The session is not thread safe.
+     * @return New session using this cleaner.
+     */
+    public CleaningSession createSession() {
+        return new CleaningSession(this);
+    }
+
+    /**
+     * Session of the thread is kept, together with this cleaner, as long as the thread lives -
+     * in long-lived threads of a pool, sessions of cleaners no longer used are better created by
+     * {@link #createSession()} for the task at hand.
+     * @return Session of the calling thread using this cleaner, created on first use.
+     * @see #createSession()
+     */
+    public CleaningSession getThreadSession() {
+        return threadSessions.get();
+    }
+
+    /**
+     * Prepares clean time values for the new cleaning, which tokens are then passed to
+     * {@link #makeTree(List, ListIterator, CleanTimeValues)} by the tokenizer.
+     * @param cleanTimeValues
+     */
+    void beginClean(final CleanTimeValues cleanTimeValues) {
         pushNesting(cleanTimeValues);
         cleanTimeValues._headOpened = false;
         cleanTimeValues._bodyOpened = false;
         cleanTimeValues._headTags.clear();
         cleanTimeValues.allTags.clear();
-        cleanTimeValues.pruneTagSet = new HashSet<ITagNodeCondition>(this.properties.getPruneTagSet());
-        cleanTimeValues.allowTagSet = new HashSet<ITagNodeCondition>(this.properties.getAllowTagSet());
+        cleanTimeValues.pruneTagSet.clear();
+        cleanTimeValues.pruneTagSet.addAll( this.properties.getPruneTagSet() );
+        cleanTimeValues.allowTagSet.clear();
+        cleanTimeValues.allowTagSet.addAll( this.properties.getAllowTagSet() );
         this.transformations = this.properties.getCleanerTransformations();
         cleanTimeValues.pruneNodeSet.clear();
 
@@ -418,53 +745,187 @@ public class HtmlCleaner {
         cleanTimeValues.rootNode = null;
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.headNode);
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.bodyNode);
+    }
 
-        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, reader, cleanTimeValues);
-
-		htmlTokenizer.start();
+    /**
+     * Closes all tags left open by the tokenizer, builds the document and prunes it.
+     * @param htmlTokenizer tokenizer which has parsed the content
+     * @param cleanTimeValues
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    TagNode finishClean(HtmlTokenizer htmlTokenizer, final CleanTimeValues cleanTimeValues) {
+        return finishClean( htmlTokenizer.getTokenList(), htmlTokenizer.getNamespacePrefixes(), htmlTokenizer.getDocType(), cleanTimeValues );
+    }
 
-        List nodeList = htmlTokenizer.getTokenList();
+    private TagNode finishClean(List<?> nodeList, Set<String> namespacePrefixes, DoctypeToken docType, final CleanTimeValues cleanTimeValues) {
         closeAll(nodeList, cleanTimeValues);
 
         createDocumentNodes(nodeList, cleanTimeValues);
-        calculateRootNode( cleanTimeValues, htmlTokenizer.getNamespacePrefixes() );
+        calculateRootNode(cleanTimeValues, namespacePrefixes);
 
         // Some transitions on resulting html require us to have the tag tree structure.
         // i.e. if we want to clear insignificant <br> tags. Thus this place is best for
         // marking nodes to be pruned.
-        while(markNodesToPrune(nodeList, cleanTimeValues)) {
-			// do them all
-		}
+        pruneNodes(nodeList, cleanTimeValues);
 
-        // if there are some nodes to prune from tree
+        cleanTimeValues.rootNode.setDocType(docType);
+        popNesting(cleanTimeValues);
+        return cleanTimeValues.rootNode;
+    }
+
+    /**
+     * Marks nodes of the list and their descendants to be pruned, and removes the marked
+     * nodes from their parents.
+     * @param nodeList
+     * @param cleanTimeValues
+     */
+    void pruneNodes(List<?> nodeList, CleanTimeValues cleanTimeValues) {
+        markNodesToPrune(nodeList, cleanTimeValues);
+
+        // if there are some nodes to prune from tree, each parent's children are filtered once
         if (cleanTimeValues.pruneNodeSet != null && !cleanTimeValues.pruneNodeSet.isEmpty() ) {
-            Iterator<TagNode> iterator = cleanTimeValues.pruneNodeSet.iterator();
-            while (iterator.hasNext()) {
-                TagNode tagNode = iterator.next();
+            Map<TagNode, Boolean> parents = new IdentityHashMap<TagNode, Boolean>();
+            for (TagNode tagNode: cleanTimeValues.pruneNodeSet) {
                 TagNode parent = tagNode.getParent();
-                if (parent != null) {
-                    parent.removeChild(tagNode);
+                if ( parent != null && parents.put(parent, Boolean.TRUE) == null ) {
+                    parent.removeChildren(cleanTimeValues.pruneNodeSet);
                 }
             }
         }
+    }
 
-        cleanTimeValues.rootNode.setDocType( htmlTokenizer.getDocType() );
-        popNesting(cleanTimeValues);
-        return cleanTimeValues.rootNode;
+    /**
+     * Builds the document from what the tokenizer has parsed so far, as if the content ended
+     * at this point. Nothing of the ongoing cleaning is changed - all the nodes and state
+     * are copied first, and listeners are not notified about the changes made to the copies.
+     * @param htmlTokenizer tokenizer which is in the middle of parsing
+     * @param cleanTimeValues
+     * @return Root of the document built so far.
+     */
+    TagNode snapshotClean(HtmlTokenizer htmlTokenizer, final CleanTimeValues cleanTimeValues) {
+        Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+        List<?> nodeList = (List<?>) copyItem(htmlTokenizer.getTokenList(), copies);
+        CleanTimeValues snapshotValues = copyCleanTimeValues(cleanTimeValues, copies);
+        return finishClean( nodeList, new HashSet<String>(htmlTokenizer.getNamespacePrefixes()), htmlTokenizer.getDocType(), snapshotValues );
+    }
+
+    private Object copyItem(Object item, Map<Object, Object> copies) {
+        if (item instanceof TagNode) {
+            return ((TagNode) item).copyState(copies);
+        } else if (item instanceof List) {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object child: (List<?>) item) {
+                copy.add( copyItem(child, copies) );
+            }
+            return copy;
+        }
+        // other tokens are not changed while cleaning
+        return item;
+    }
+
+    // head tags and tag names are held in raw sets of the clean time values
+    @SuppressWarnings("unchecked")
+    private CleanTimeValues copyCleanTimeValues(CleanTimeValues cleanTimeValues, Map<Object, Object> copies) {
+        CleanTimeValues copy = new CleanTimeValues();
+        copy.isSnapshot = true;
+        copy._headOpened = cleanTimeValues._headOpened;
+        copy._bodyOpened = cleanTimeValues._bodyOpened;
+        for (Object headTag: cleanTimeValues._headTags) {
+            copy._headTags.add( copyItem(headTag, copies) );
+        }
+        copy.allTags.addAll(cleanTimeValues.allTags);
+        for (NestingState nestingState: cleanTimeValues.nestingStates) {
+            NestingState nestingCopy = new NestingState();
+            nestingCopy.openTags = nestingState.openTags.copy();
+            nestingCopy.childBreaks.closedByChildBreak.addAll(nestingState.childBreaks.closedByChildBreak);
+            nestingCopy.childBreaks.breakingTags.addAll(nestingState.childBreaks.breakingTags);
+            copy.nestingStates.push(nestingCopy);
+        }
+        copy.nodeCount = cleanTimeValues.nodeCount;
+        copy.copyCount = cleanTimeValues.copyCount;
+        copy.isTruncated = cleanTimeValues.isTruncated;
+        if (cleanTimeValues.droppedByDepth != null) {
+            copy.droppedByDepth = new HashMap<String, Integer>(cleanTimeValues.droppedByDepth);
+        }
+        copy.htmlNode = (TagNode) copyItem(cleanTimeValues.htmlNode, copies);
+        copy.bodyNode = (TagNode) copyItem(cleanTimeValues.bodyNode, copies);
+        copy.headNode = (TagNode) copyItem(cleanTimeValues.headNode, copies);
+        copy.pruneTagSet = new HashSet<ITagNodeCondition>(cleanTimeValues.pruneTagSet);
+        for (TagNode pruned: cleanTimeValues.pruneNodeSet) {
+            copy.pruneNodeSet.add( (TagNode) copyItem(pruned, copies) );
+        }
+        copy.allowTagSet = new HashSet<ITagNodeCondition>(cleanTimeValues.allowTagSet);
+        copy.namespace.addAll(cleanTimeValues.namespace);
+        copy.symbolTable = cleanTimeValues.symbolTable;
+        return copy;
+    }
+
+    /**
+     * Creates cleaner which is fed with the content piece by piece, as it arrives.
+     * @return Incremental cleaner, using properties of this cleaner
+     * @see IncrementalCleaner
+     */
+    public IncrementalCleaner createIncrementalCleaner() {
+        return new IncrementalCleaner(this);
+    }
+
+    /**
+     * Creates pull based cursor over the cleaned content of specified reader. Unlike
+     * clean methods, no tree is built - cleaned content is delivered as a sequence of events.
+     * @param reader Source of HTML, closed when whole content is read
+     * @return Stream reader instance, positioned before the first event
+     * @see HtmlStreamReader
+     */
+    public HtmlStreamReader createStreamReader(Reader reader) {
+        this.transformations = this.properties.getCleanerTransformations();
+        return new HtmlStreamReader(this, reader);
+    }
+
+    /**
+     * Creates pull based cursor over the cleaned content of specified string.
+     * @param htmlContent
+     * @return Stream reader instance, positioned before the first event
+     * @see HtmlStreamReader
+     */
+    public HtmlStreamReader createStreamReader(String htmlContent) {
+        return createStreamReader( new StringReader(htmlContent) );
     }
 
+    /**
+     * Marks nodes to be pruned in the list of siblings and their descendants, in a single pass.
+     * Conditions may depend on pruned children (i.e. empty nodes) or pruned siblings (i.e.
+     * insignificant br), so the node is checked again when some of its children get pruned,
+     * and the siblings are checked again as long as some of them get pruned. Descendants of
+     * pruned nodes are never checked.
+     * @param nodeList
+     * @param cleanTimeValues
+     * @return true if any node of the list or its descendants got pruned.
+     */
 	private boolean markNodesToPrune(List nodeList, CleanTimeValues cleanTimeValues) {
 	    boolean nodesPruned = false;
 		for (Object next :nodeList) {
+		    checkCancelled(cleanTimeValues);
 			if(next instanceof TagNode && !cleanTimeValues.pruneNodeSet.contains(next)){
     			TagNode node = (TagNode) next;
     			if(addIfNeededToPruneSet(node, cleanTimeValues)) {
 			        nodesPruned = true;
-    			} else if (!node.isEmpty()){
-    				nodesPruned |= markNodesToPrune(node.getAllChildren(), cleanTimeValues);
+    			} else if ( !node.isEmpty() && markNodesToPrune(node.getAllChildren(), cleanTimeValues) ) {
+    			    nodesPruned = true;
+    			    addIfNeededToPruneSet(node, cleanTimeValues);
     			}
     		}
     	}
+
+		boolean siblingsPruned = nodesPruned;
+		while (siblingsPruned) {
+		    siblingsPruned = false;
+		    for (Object next :nodeList) {
+		        checkCancelled(cleanTimeValues);
+		        if ( next instanceof TagNode && !cleanTimeValues.pruneNodeSet.contains(next) && addIfNeededToPruneSet((TagNode) next, cleanTimeValues) ) {
+		            siblingsPruned = true;
+		        }
+		    }
+		}
 		return nodesPruned;
 	}
     /**
@@ -503,7 +964,7 @@ public class HtmlCleaner {
                 }
             }
         }
-        Map<String, String> atts = cleanTimeValues.rootNode.getAttributes();
+        Map<String, String> atts = cleanTimeValues.rootNode.getAttributesView();
 
         
         //
@@ -536,7 +997,7 @@ public class HtmlCleaner {
      */
 	private void addAttributesToTag(TagNode tag, Map<String, String> attributes) {
 		if (attributes != null) {
-			Map<String, String> tagAttributes = tag.getAttributes();
+			Map<String, String> tagAttributes = tag.getAttributesView();
 			for(Map.Entry< String, String > currEntry : attributes.entrySet()) {
 				String attName = currEntry.getKey();
 				if ( !tagAttributes.containsKey(attName) ) {
@@ -579,13 +1040,10 @@ public class HtmlCleaner {
                     }
                 }
 
-	    		// iterates through the list of open tags from the end and check if there is some higher
-	    		ListIterator it = getOpenTags(cleanTimeValues).list.listIterator( getOpenTags(cleanTimeValues).list.size() );
-	            while ( it.hasPrevious() ) {
-	            	TagPos currTagPos = (TagPos) it.previous();
-	            	if (tag.isHigher(currTagPos.name)) {
-	            		return currTagPos.position <= fatalTagPositon;
-	            	}
+	    		// finds the last open tag which is higher
+	            TagPos higherTagPos = getOpenTags(cleanTimeValues).findLastTag( tag.getHigherTagOrdinals() );
+	            if (higherTagPos != null) {
+	            	return higherTagPos.position <= fatalTagPositon;
 	            }
 
 	            return true;
@@ -662,14 +1120,18 @@ public class HtmlCleaner {
 		
 		// process while not reach the end of the list
 	    while ( nodeIterator.hasNext() ) {
+	        checkCancelled(cleanTimeValues);
 	        BaseToken token = nodeIterator.next();
 
             if (token instanceof EndTagToken) {
 				EndTagToken endTagToken = (EndTagToken) token;
 				String tagName = endTagToken.getName();
-                TagInfo tag = getTagInfo(tagName, cleanTimeValues);
+                TagInfo tag = getTagInfo(endTagToken, tagName, cleanTimeValues);
 
-				if ( (tag == null && properties.isOmitUnknownTags()) && !isAllowedAsForeignMarkup(tagName,cleanTimeValues) || (tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags()) ) {
+				if ( isDroppedByDepth(tagName, cleanTimeValues) ) {
+				    //start tag was dropped because of the nesting depth limit, so is its end
+				    nodeIterator.set(null);
+				} else if ( (tag == null && properties.isOmitUnknownTags()) && !isAllowedAsForeignMarkup(tagName,cleanTimeValues) || (tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags()) ) {
 				    //tag is either unknown or deprecated, so we just prune the end token out
 				    nodeIterator.set(null);
 				} else if ( tag != null && !tag.allowsBody() ) {
@@ -677,7 +1139,7 @@ public class HtmlCleaner {
 					nodeIterator.set(null);
 				} else {
 				        //trying to find corresponding opened tag for the end token
-					TagPos matchingPosition = getOpenTags(cleanTimeValues).findTag(tagName);
+					TagPos matchingPosition = getOpenTags(cleanTimeValues).findTag( tagName, endTagToken.getTagInfo(getTagInfoProvider(), tagName) );
 
                     if (matchingPosition != null) {
                         //open tag found.. closing the node.. this will add all
@@ -696,7 +1158,7 @@ public class HtmlCleaner {
                         for (int i = closed.size() - 1; i >= 0; i--) {
                             TagNode closedTag = (TagNode) closed.get(i);
 
-                            if ( i > 0 && tag != null && tag.isContinueAfter(closedTag.getName()) ) {
+                            if ( i > 0 && tag != null && tag.isContinueAfter(closedTag.getOrdinal()) && countCopy(closedTag, cleanTimeValues) ) {
                                 // even if pruned still want to allow a continuation.
                                 // the nested tags that were also closed as part of the wrapping html closing.
                                 // TODO: look at reversing hierarchy ( for example, "<b><i></b></i>" reverse to <i><b></b></i> )
@@ -716,7 +1178,8 @@ public class HtmlCleaner {
                         while( !getChildBreaks(cleanTimeValues).isEmpty() && tagName.equals(getChildBreaks(cleanTimeValues).getLastBreakingTag())
                         		&& matchingPosition.position == getChildBreaks(cleanTimeValues).getLastBreakingTagPosition()){
 
-                        	if(nodeList.get(getChildBreaks(cleanTimeValues).closedByChildBreak.peek().position) != null) {
+                        	int closedPosition = getChildBreaks(cleanTimeValues).closedByChildBreak.peek().position;
+                        	if(closedPosition >= 0 && nodeList.get(closedPosition) != null) {
                         		//this tag has broken it's parent, thus the parent tag should be reopened.
                         		int position = getChildBreaks(cleanTimeValues).pop().position;
                         		Object toReopen = nodeList.get(position);
@@ -759,10 +1222,10 @@ public class HtmlCleaner {
 			} else if ( isStartToken(token) ) {
                 TagNode startTagToken = (TagNode) token;
 				String tagName = startTagToken.getName();
-				TagInfo tag = getTagInfo(tagName, cleanTimeValues);
+				TagInfo tag = getTagInfo(startTagToken, tagName, cleanTimeValues);
 
                 TagPos lastTagPos = getOpenTags(cleanTimeValues).isEmpty() ? null : getOpenTags(cleanTimeValues).getLastTagPos();
-                TagInfo lastTagInfo = lastTagPos == null ? null : getTagInfo(lastTagPos.name, cleanTimeValues);
+                TagInfo lastTagInfo = lastTagPos == null || isAllowedAsForeignMarkup(lastTagPos.name, cleanTimeValues) ? null : lastTagPos.info;
 
                 // add tag to set of all tags
                
@@ -800,40 +1263,48 @@ public class HtmlCleaner {
                 
                 // HTML open tag
                 if ( "html".equals(tagName) ) {
-					addAttributesToTag(cleanTimeValues.htmlNode, startTagToken.getAttributes());
+					addAttributesToTag(cleanTimeValues.htmlNode, startTagToken.getAttributesView());
 					nodeIterator.set(null);
                 // BODY open tag
                 } else if ( "body".equals(tagName) ) {
                 	cleanTimeValues._bodyOpened = true;
-                    addAttributesToTag(cleanTimeValues.bodyNode, startTagToken.getAttributes());
+                    addAttributesToTag(cleanTimeValues.bodyNode, startTagToken.getAttributesView());
 					nodeIterator.set(null);
                 // HEAD open tag
                 } else if ( "head".equals(tagName) ) {
                 	cleanTimeValues._headOpened = true;
-                    addAttributesToTag(cleanTimeValues.headNode, startTagToken.getAttributes());
+                    addAttributesToTag(cleanTimeValues.headNode, startTagToken.getAttributesView());
 					nodeIterator.set(null);
                 // unknown HTML tag and unknown tags are not allowed
 				// unless we have set the namespace-aware option, and the current NS is valid
                 } else if ( tag == null && properties.isOmitUnknownTags() && !isAllowedAsForeignMarkup(tagName, cleanTimeValues)) {
                     nodeIterator.set(null);
-                    properties.fireUglyHtml(true, startTagToken, ErrorType.Unknown);
+                    if (!cleanTimeValues.isSnapshot) {
+                        properties.fireUglyHtml(true, startTagToken, ErrorType.Unknown);
+                    }
                 } else if ( tag != null && tag.isDeprecated() && properties.isOmitDeprecatedTags()) {
                     nodeIterator.set(null);
-                    properties.fireUglyHtml(true, startTagToken, ErrorType.Deprecated);
+                    if (!cleanTimeValues.isSnapshot) {
+                        properties.fireUglyHtml(true, startTagToken, ErrorType.Deprecated);
+                    }
                 // if current tag is unknown and last open tag doesn't allow any other tags in its body
                 } else if ( tag == null && lastTagInfo != null && !lastTagInfo.allowsAnything() ) {
                     closeSnippet(nodeList, lastTagPos, startTagToken, cleanTimeValues);
                     nodeIterator.previous();
-                } else if ( tag != null && tag.hasPermittedTags() && getOpenTags(cleanTimeValues).someAlreadyOpen(tag.getPermittedTags()) ) {
+                } else if ( tag != null && tag.hasPermittedTags() && getOpenTags(cleanTimeValues).someAlreadyOpen(tag.getPermittedTagOrdinals()) ) {
                 	nodeIterator.set(null);
                 // if tag that must be unique, ignore this occurence
                 } else if ( tag != null && tag.isUnique() && getOpenTags(cleanTimeValues).tagEncountered(tagName) ) {
                     nodeIterator.set(null);
-                    properties.fireHtmlError(true, startTagToken, ErrorType.UniqueTagDuplicated);
+                    if (!cleanTimeValues.isSnapshot) {
+                        properties.fireHtmlError(true, startTagToken, ErrorType.UniqueTagDuplicated);
+                    }
                     // if there is no required outer tag without that this open tag is ignored
                 } else if ( !isFatalTagSatisfied(tag, cleanTimeValues) ) {
                     nodeIterator.set(null);
-                    properties.fireHtmlError(true, startTagToken, ErrorType.FatalTagMissing);
+                    if (!cleanTimeValues.isSnapshot) {
+                        properties.fireHtmlError(true, startTagToken, ErrorType.FatalTagMissing);
+                    }
                     // if there is no required parent tag - it must be added before this open tag
                 } else if (mustAddRequiredParent(tag, cleanTimeValues)) {
                     String requiredParent = tag.getRequiredParent();
@@ -842,14 +1313,18 @@ public class HtmlCleaner {
                     nodeIterator.previous();
                     nodeIterator.add(requiredParentStartToken);
                     nodeIterator.previous();
-                    properties.fireHtmlError(true, startTagToken, ErrorType.RequiredParentMissing);
+                    if (!cleanTimeValues.isSnapshot) {
+                        properties.fireHtmlError(true, startTagToken, ErrorType.RequiredParentMissing);
+                    }
                     // if last open tag has lower presidence then this, it must be closed
                 } else if ( tag != null && lastTagPos != null && tag.isMustCloseTag(lastTagInfo) ) {
                                         //since tag is closed earlier due to incorrect child tag, we store this info
                                         //to reopen it later, on the child close.
-                                        getChildBreaks(cleanTimeValues).addBreak(lastTagPos, new TagPos(nodeIterator.previousIndex(), tag.getName()));
+                                        getChildBreaks(cleanTimeValues).addBreak(lastTagPos, new TagPos(nodeIterator.previousIndex(), tag.getName(), tag));
                                         boolean certainty = startTagToken.hasAttribute("id") ? false : true;
-                                        properties.fireHtmlError(certainty, (TagNode)nodeList.get(lastTagPos.position), ErrorType.UnpermittedChild);
+                                        if (!cleanTimeValues.isSnapshot) {
+                                            properties.fireHtmlError(certainty, (TagNode)nodeList.get(lastTagPos.position), ErrorType.UnpermittedChild);
+                                        }
                                         List closed = closeSnippet(nodeList, lastTagPos, startTagToken, cleanTimeValues);
 					int closedCount = closed.size();
 
@@ -861,7 +1336,7 @@ public class HtmlCleaner {
 						List toBeCopied = new ArrayList();
 						while (closedIt.hasPrevious()) {
 							TagNode currStartToken = (TagNode) closedIt.previous();
-							if ( tag.isCopy(currStartToken.getName()) ) {
+							if ( tag.isCopy(currStartToken.getOrdinal()) ) {
 								toBeCopied.add(0, currStartToken);
 							} else {
 								break;
@@ -872,7 +1347,7 @@ public class HtmlCleaner {
 							Iterator copyIt = toBeCopied.iterator();
 							while (copyIt.hasNext()) {
 								TagNode currStartToken = (TagNode) copyIt.next();
-                                if (!isCopiedTokenEqualToNextThreeCopiedTokens(currStartToken, nodeIterator)) {
+                                if (!isCopiedTokenEqualToNextThreeCopiedTokens(currStartToken, nodeIterator) && countCopy(currStartToken, cleanTimeValues)) {
                                     nodeIterator.add(currStartToken.makeCopy());
                                 } else {
                                     copyIt.remove();
@@ -893,12 +1368,23 @@ public class HtmlCleaner {
                     nodeIterator.set(null);
                 } else if ( tag != null && !tag.allowsBody() ) {
                     // if it is known HTML tag but doesn't allow body, it is immediately closed
-					TagNode newTagNode = createTagNode(startTagToken);
-                    addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
-                    nodeIterator.set(newTagNode);
+                    if ( countNode(startTagToken, cleanTimeValues) ) {
+                        TagNode newTagNode = createTagNode(startTagToken);
+                        addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
+                        nodeIterator.set(newTagNode);
+                    } else {
+                        nodeIterator.set(null);
+                    }
+                } else if ( isDepthExceeded(cleanTimeValues) ) {
+                    // tag nested too deep is dropped and its content goes to the last open tag
+                    dropByDepth(startTagToken, cleanTimeValues);
+                    nodeIterator.set(null);
+                } else if ( !countNode(startTagToken, cleanTimeValues) ) {
+                    // node limit is reached, the rest of the content is ignored
+                    nodeIterator.set(null);
 				// default case - just remember this open tag and go further
                 } else {
-                    getOpenTags(cleanTimeValues).addTag( tagName, nodeIterator.previousIndex() );
+                    getOpenTags(cleanTimeValues).addTag( tagName, startTagToken.getTagInfo(getTagInfoProvider(), tagName), nodeIterator.previousIndex() );
                 }
 			} else {
 				if (cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened && properties.isKeepWhitespaceAndCommentsInHead()) {
@@ -951,16 +1437,123 @@ public class HtmlCleaner {
      */
     private static boolean areCopiedTokensEqual(TagNode token1, TagNode token2) {
         return token1.name.equals(token2.name) &&
-                token1.getAttributes().equals(token2.getAttributes());
+                token1.getAttributesView().equals(token2.getAttributesView());
+    }
+
+    /**
+     * Checks if cleaning is stopped by its cancellation token. Partial result is built from
+     * the content parsed so far, so only the tokenizer stops then, while the tree building
+     * and pruning go on for the tokens already parsed.
+     * @param cleanTimeValues
+     * @return true if cleaning is cancelled and partial result is requested.
+     * @throws CleaningCancelledException if cleaning is cancelled and partial result is not requested
+     */
+    boolean checkCancelled(CleanTimeValues cleanTimeValues) {
+        CancellationToken cancellationToken = cleanTimeValues.cancellationToken;
+        if ( cancellationToken != null && cancellationToken.check() ) {
+            if ( !cancellationToken.isReturnPartialResult() ) {
+                throw new CleaningCancelledException("Cleaning cancelled");
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Handles reaching of one of the limits - aborts cleaning if so configured, otherwise
+     * notifies listeners about degraded content.
+     * @param limit
+     * @param tagNode tag which is affected, if any
+     * @param cleanTimeValues
+     */
+    void limitExceeded(CleanerLimits.Limit limit, TagNode tagNode, CleanTimeValues cleanTimeValues) {
+        if ( properties.getLimits().isFailOnLimit() ) {
+            throw new CleanerLimitExceededException(limit, "Limit of " + limit + " exceeded" + (tagNode == null ? "" : " at " + tagNode.getName()));
+        }
+        if (!cleanTimeValues.isSnapshot) {
+            properties.fireHtmlError(false, tagNode, ErrorType.LimitExceeded);
+        }
+    }
+
+    /**
+     * Counts the tag against node limit.
+     * @return false if the limit is reached, in which case the rest of the content is ignored.
+     */
+    private boolean countNode(TagNode tagNode, CleanTimeValues cleanTimeValues) {
+        int maxNodes = properties.getLimits().getMaxNodes();
+        if ( cleanTimeValues.isTruncated || (maxNodes > 0 && cleanTimeValues.nodeCount >= maxNodes) ) {
+            if (!cleanTimeValues.isTruncated) {
+                cleanTimeValues.isTruncated = true;
+                limitExceeded(CleanerLimits.Limit.Nodes, tagNode, cleanTimeValues);
+            }
+            return false;
+        }
+        cleanTimeValues.nodeCount++;
+        return true;
+    }
+
+    /**
+     * Counts the tag copy against copy limit.
+     * @return false if the limit is reached and the copy must not be made.
+     */
+    private boolean countCopy(TagNode tagNode, CleanTimeValues cleanTimeValues) {
+        int maxCopies = properties.getLimits().getMaxCopies();
+        if (maxCopies > 0 && cleanTimeValues.copyCount >= maxCopies) {
+            if (cleanTimeValues.copyCount == maxCopies) {
+                // counted once more, so that the limit is reported only once
+                cleanTimeValues.copyCount++;
+                limitExceeded(CleanerLimits.Limit.Copies, tagNode, cleanTimeValues);
+            }
+            return false;
+        }
+        cleanTimeValues.copyCount++;
+        return true;
+    }
+
+    private boolean isDepthExceeded(CleanTimeValues cleanTimeValues) {
+        int maxDepth = properties.getLimits().getMaxDepth();
+        return maxDepth > 0 && getOpenTags(cleanTimeValues).size() >= maxDepth;
+    }
+
+    private void dropByDepth(TagNode startTagToken, CleanTimeValues cleanTimeValues) {
+        if (cleanTimeValues.droppedByDepth == null) {
+            cleanTimeValues.droppedByDepth = new HashMap<String, Integer>();
+        }
+        Integer count = cleanTimeValues.droppedByDepth.get(startTagToken.getName());
+        cleanTimeValues.droppedByDepth.put(startTagToken.getName(), count == null ? 1 : count + 1);
+        limitExceeded(CleanerLimits.Limit.Depth, startTagToken, cleanTimeValues);
+    }
+
+    /**
+     * Checks if start tag with the specified name was dropped because of the depth limit,
+     * in which case this end tag is consumed by it.
+     */
+    private boolean isDroppedByDepth(String tagName, CleanTimeValues cleanTimeValues) {
+        if (cleanTimeValues.droppedByDepth != null) {
+            Integer count = cleanTimeValues.droppedByDepth.get(tagName);
+            if (count != null) {
+                if (count > 1) {
+                    cleanTimeValues.droppedByDepth.put(tagName, count - 1);
+                } else {
+                    cleanTimeValues.droppedByDepth.remove(tagName);
+                }
+                return true;
+            }
+        }
+        return false;
     }
 
 	private void reopenBrokenNode(ListIterator<BaseToken> nodeIterator, TagNode toReopen, CleanTimeValues cleanTimeValues) {
+		if ( !countCopy(toReopen, cleanTimeValues) ) {
+			return;
+		}
 		TagNode closedByPresidence = toReopen;
 		TagNode copy = closedByPresidence.makeCopy();
 		copy.setAutoGenerated(true);
 		copy.removeAttribute("id");
 		nodeIterator.add(copy);
-		getOpenTags(cleanTimeValues).addTag(closedByPresidence.getName(), nodeIterator.previousIndex());
+		String closedName = closedByPresidence.getName();
+		getOpenTags(cleanTimeValues).addTag(closedName, closedByPresidence.getTagInfo(getTagInfoProvider(), closedName), nodeIterator.previousIndex());
 	}
 
 	/**
@@ -1051,7 +1644,7 @@ public class HtmlCleaner {
                 }
 
                 TagNode newTagNode = createTagNode(startTagToken);
-                TagInfo tag = getTagInfo(newTagNode.getName(), cleanTimeValues);
+                TagInfo tag = getTagInfo(newTagNode, newTagNode.getName(), cleanTimeValues);
                 addPossibleHeadCandidate(tag, newTagNode, cleanTimeValues);
                 if (tagNode != null) {
 					tagNode.addChildren(itemsToMove);
@@ -1089,22 +1682,107 @@ public class HtmlCleaner {
     /**
      * Close all unclosed tags if there are any.
      */
-    private void closeAll(List nodeList, CleanTimeValues cleanTimeValues) {
+    void closeAll(List<?> nodeList, CleanTimeValues cleanTimeValues) {
         TagPos firstTagPos = getOpenTags(cleanTimeValues).findFirstTagPos();
-        for (TagPos pos : getOpenTags(cleanTimeValues).list) {
-            properties.fireHtmlError(true, (TagNode)nodeList.get(pos.position), ErrorType.UnclosedTag);
+        if (!cleanTimeValues.isSnapshot) {
+            for (TagPos pos : getOpenTags(cleanTimeValues).getTagPositions()) {
+                TagNode unclosed = (TagNode) nodeList.get(pos.position);
+                if ( cleanTimeValues.contextTags == null || !cleanTimeValues.contextTags.contains(unclosed) ) {
+                    properties.fireHtmlError(true, unclosed, ErrorType.UnclosedTag);
+                }
+            }
         }
         if (firstTagPos != null) {
             closeSnippet(nodeList, firstTagPos, null, cleanTimeValues);
         }
     }
 
+    /**
+     * Finds the tag which was closed by its still open child, after some items not allowed in
+     * it were placed before it. Such tag and the items are put back to the list of nodes when
+     * the child ends, so they must be left in place until then.
+     * @param nodeList
+     * @param from lowest position of interest
+     * @param cleanTimeValues
+     * @return Position of the first such tag, not lower than specified one, or -1 if there is none.
+     */
+    int findMovableTagPosition(List<?> nodeList, int from, CleanTimeValues cleanTimeValues) {
+        ChildBreaks childBreaks = getChildBreaks(cleanTimeValues);
+        int result = -1;
+        // breaks are ordered by the position of the breaking tag, which follows the closed tag
+        for (int i = childBreaks.breakingTags.size() - 1; i >= 0 && childBreaks.breakingTags.get(i).position > from; i--) {
+            int position = childBreaks.closedByChildBreak.get(i).position;
+            if ( position >= from && (result < 0 || position < result) && nodeList.get(position) instanceof List
+                    && isStartToken(nodeList.get(childBreaks.breakingTags.get(i).position)) ) {
+                result = position;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops the items below specified position which are no longer needed for building the
+     * tree, that is empty places and closed tags, unless they wait for reopening after the
+     * child which has closed them ends. Positions of the remaining items are shifted
+     * accordingly, and breaks by children which are already closed are forgotten.
+     * @param nodeList
+     * @param count number of items to check, from the start of the list
+     * @param cleanTimeValues
+     * @return Number of items kept out of checked ones.
+     */
+    <T> int releaseNodes(List<T> nodeList, int count, CleanTimeValues cleanTimeValues) {
+        ChildBreaks childBreaks = getChildBreaks(cleanTimeValues);
+        Stack<TagPos> closedByChildBreak = new Stack<TagPos>();
+        Stack<TagPos> breakingTags = new Stack<TagPos>();
+        Set<Integer> reopenable = new HashSet<Integer>();
+        for (int i = 0; i < childBreaks.breakingTags.size(); i++) {
+            TagPos breakPos = childBreaks.breakingTags.get(i);
+            if ( isStartToken(nodeList.get(breakPos.position)) ) {
+                TagPos closedPos = childBreaks.closedByChildBreak.get(i);
+                closedByChildBreak.add(closedPos);
+                breakingTags.add(breakPos);
+                reopenable.add(closedPos.position);
+            }
+        }
+
+        int[] positions = new int[count];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            T item = nodeList.get(i);
+            if ( item == null || (item instanceof TagNode && !isStartToken(item) && !reopenable.contains(i)) ) {
+                positions[i] = -1;
+            } else {
+                positions[i] = kept;
+                nodeList.set(kept++, item);
+            }
+        }
+        int size = nodeList.size();
+        for (int i = count; i < size; i++) {
+            nodeList.set(kept + i - count, nodeList.get(i));
+        }
+        nodeList.subList(kept + size - count, size).clear();
+
+        // tag positions may be shared by open tags and breaks, each of them is shifted once
+        Map<TagPos, Boolean> shifted = new IdentityHashMap<TagPos, Boolean>();
+        List<TagPos> tagPositions = getOpenTags(cleanTimeValues).getTagPositions();
+        tagPositions.addAll(closedByChildBreak);
+        tagPositions.addAll(breakingTags);
+        for (TagPos tagPos: tagPositions) {
+            if ( shifted.put(tagPos, Boolean.TRUE) == null && tagPos.position >= 0 ) {
+                tagPos.position = tagPos.position < count ? positions[tagPos.position] : tagPos.position - count + kept;
+            }
+        }
+        childBreaks.closedByChildBreak = closedByChildBreak;
+        childBreaks.breakingTags = breakingTags;
+        return kept;
+    }
+
     /**
      * Checks if specified tag with specified info is candidate for moving to head section.
      * @param tagInfo
      * @param tagNode
      */
-    private void addPossibleHeadCandidate(TagInfo tagInfo, TagNode tagNode, CleanTimeValues cleanTimeValues) {
+    void addPossibleHeadCandidate(TagInfo tagInfo, TagNode tagNode, CleanTimeValues cleanTimeValues) {
         if (tagInfo != null && tagNode != null) {
             if ( tagInfo.isHeadTag() || (tagInfo.isHeadAndBodyTag() && cleanTimeValues._headOpened && !cleanTimeValues._bodyOpened) ) {
             	cleanTimeValues._headTags.add(tagNode);
@@ -1130,17 +1808,20 @@ public class HtmlCleaner {
     }
     
     /**
-     * Returns a TagInfo object for the specified tag name.
+     * Returns a TagInfo object for the specified tag token.
      * If the tag is foreign markup, we leave it as null. This is because we may get
 	 * name clashes, e.g. svg:title
 	 * 
+     * The info is cached on the token, so it is resolved by the provider only once.
+     *
+     * @param token
      * @param tagName
      * @param cleanTimeValues
      * @return a TagInfo object, or null if no matching TagInfo is found
      */
-    private TagInfo getTagInfo(String tagName, CleanTimeValues cleanTimeValues){
+    private TagInfo getTagInfo(TagToken token, String tagName, CleanTimeValues cleanTimeValues){
 		TagInfo tag = null;
-		if (!isAllowedAsForeignMarkup(tagName,cleanTimeValues)) tag = getTagInfoProvider().getTagInfo(tagName);
+		if (!isAllowedAsForeignMarkup(tagName,cleanTimeValues)) tag = token.getTagInfo(getTagInfoProvider(), tagName);
 		return tag;
     }
 
@@ -1149,7 +1830,9 @@ public class HtmlCleaner {
             for(ITagNodeCondition condition: cleanTimeValues.pruneTagSet) {
                 if ( condition.satisfy(tagNode)) {
                     addPruneNode(tagNode, cleanTimeValues);
-                    properties.fireConditionModification(condition, tagNode);
+                    if (!cleanTimeValues.isSnapshot) {
+                        properties.fireConditionModification(condition, tagNode);
+                    }
                     return true;
                 }
             }
@@ -1161,7 +1844,7 @@ public class HtmlCleaner {
                     return false;
                 }
             }
-            if (!tagNode.isAutoGenerated()) {
+            if (!tagNode.isAutoGenerated() && !cleanTimeValues.isSnapshot) {
                 properties.fireUserDefinedModification(true, tagNode, ErrorType.NotAllowedTag);
             }
             addPruneNode(tagNode, cleanTimeValues);
@@ -1192,14 +1875,27 @@ public class HtmlCleaner {
      * For the specified node, returns it's content as string.
      * @param node
      * @return node's content as string
+     * @see #getInnerHtml(TagNode, Appendable)
      */
     public String getInnerHtml(TagNode node) {
+        StringBuilder content = new StringBuilder();
+        getInnerHtml(node, content);
+        return content.toString();
+    }
+
+    /**
+     * For the specified node, writes it's content - children serialized as xml without the
+     * node's own tags - to the output. Content of script and style is written as it is.
+     * @param node
+     * @param out StringBuilder, Writer (not closed) or any other Appendable
+     */
+    public void getInnerHtml(TagNode node, Appendable out) {
         if (node != null) {
-            String content = new SimpleXmlSerializer(properties).getAsString(node);
-            int index1 = content.indexOf("<" + node.getName());
-            index1 = content.indexOf('>', index1 + 1);
-            int index2 = content.lastIndexOf('<');
-            return index1 >= 0 && index1 <= index2 ? content.substring(index1 + 1, index2) : null;
+            try {
+                new SimpleXmlSerializer(properties).writeChildren( node, AppendableWriter.wrap(out) );
+            } catch (IOException e) {
+                throw new HtmlCleanerException(e);
+            }
         } else {
             throw new HtmlCleanerException("Cannot return inner html of the null node!");
         }
@@ -1210,27 +1906,90 @@ public class HtmlCleaner {
      * reclean given html portion and insert it inside the node instead of previous content.
      * @param node
      * @param content
+     * @see #cleanFragment(String, TagNode)
      */
     public void setInnerHtml(TagNode node, String content) {
         if (node != null) {
-            String nodeName = node.getName();
-            StringBuilder html = new StringBuilder();
-            html.append("<").append(nodeName).append(" " +MARKER_ATTRIBUTE +"=''>").append(content).append("</").append(nodeName).append(">");
-            TagNode parent = node.getParent();
-            while (parent != null) {
-                String parentName = parent.getName();
-                html.insert(0, "<" + parentName + ">");
-                html.append("</").append(parentName).append(">");
-                parent = parent.getParent();
+            List<? extends BaseToken> children = cleanFragment(content, node);
+            if (children != null) {
+                node.setChildren(children);
             }
+        }
+    }
 
-            TagNode innerRootNode = clean( html.toString() );
-            TagNode cleanedNode = innerRootNode.findElementHavingAttribute(MARKER_ATTRIBUTE, true);
-            if (cleanedNode != null) {
-                node.setChildren( cleanedNode.getAllChildren() );
+    /**
+     * Cleans the html fragment as the content of the context element. The fragment is parsed
+     * as if it was preceded by the start tags and followed by the end tags of the context
+     * element and its ancestors, so it is cleaned the same way as if it was inside the
+     * document, but only the fragment itself is tokenized. Neither the context element nor
+     * its document is changed.
+     * @param content html fragment
+     * @param context element in which the fragment is placed
+     * @return Cleaned nodes of the fragment, or null if cleaning drops the context element
+     * itself and the fragment has no place.
+     */
+    public List<? extends BaseToken> cleanFragment(String content, TagNode context) {
+        if (context == null) {
+            throw new HtmlCleanerException("Cannot clean fragment in the null context!");
+        }
+        List<String> ancestry = new ArrayList<String>();
+        for (TagNode tagNode = context; tagNode != null; tagNode = tagNode.getParent()) {
+            if (tagNode.getName() != null) {
+                ancestry.add( tagNode.getName() );
+            }
+        }
+
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        beginClean(cleanTimeValues);
+        cleanTimeValues.contextTags = Collections.newSetFromMap( new IdentityHashMap<TagNode, Boolean>() );
+        HtmlTokenizer htmlTokenizer = new HtmlTokenizer(this, new StringReader(content), cleanTimeValues, content.length());
+        TagNode contextToken = null;
+        try {
+            htmlTokenizer.begin();
+            for (int i = ancestry.size() - 1; i > 0; i--) {
+                TagNode ancestorToken = htmlTokenizer.contextTagStart(ancestry.get(i), null);
+                if (ancestorToken != null) {
+                    cleanTimeValues.contextTags.add(ancestorToken);
+                }
+            }
+            if ( !ancestry.isEmpty() ) {
+                // marker finds the context element if cleaning replaces it, like html or body
+                contextToken = htmlTokenizer.contextTagStart( ancestry.get(0), Collections.singletonMap(MARKER_ATTRIBUTE, "") );
+            }
+            while ( htmlTokenizer.advance() ) {
+                // parse the fragment
+            }
+            // ancestors are closed all at once by finishing the cleaning, closing each of them
+            // by its end tag would go through all the content inside it again
+            if ( !ancestry.isEmpty() ) {
+                htmlTokenizer.contextTagEnd( ancestry.get(0) );
+            }
+        } catch (IOException e) {
+            throw new HtmlCleanerException(e);
+        }
+
+        TagNode rootNode = finishClean(htmlTokenizer, cleanTimeValues);
+        if ( ancestry.isEmpty() ) {
+            // context without a name, i.e. the root cleaned without html envelope, holds a document body
+            return properties.isOmitHtmlEnvelope() ? rootNode.getAllChildren() : cleanTimeValues.bodyNode.getAllChildren();
+        }
+        TagNode cleanedNode = contextToken;
+        // context element may be moved out of the document, while its copy remains
+        if ( !isDescendant(cleanedNode, rootNode) ) {
+            cleanedNode = rootNode.findElementHavingAttribute(MARKER_ATTRIBUTE, true);
+        }
+        return cleanedNode != null ? cleanedNode.getAllChildren() : null;
+    }
+
+    private static boolean isDescendant(TagNode tagNode, TagNode ancestor) {
+        for (TagNode parent = tagNode; parent != null; parent = parent.getParent()) {
+            if (parent == ancestor) {
+                return true;
             }
         }
+        return false;
     }
+
     /**
      * @param transInfos
      */
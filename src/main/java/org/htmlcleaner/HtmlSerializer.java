@@ -63,6 +63,24 @@ public abstract class HtmlSerializer extends Serializer {
         return Utils.escapeHtml(content, props);
     }
 
+    /**
+     * Serializes children of the node, escaping the content unless the node is script or style.
+     * @param tagNode Node which children are serialized
+     * @param writer Writer instance
+     * @throws IOException
+     */
+    @Override
+    protected void serializeChildren(TagNode tagNode, Writer writer) throws IOException {
+        for (BaseToken item: tagNode.getAllChildren()) {
+            if (item instanceof ContentNode) {
+                String content = item.toString();
+                writer.write( dontEscape(tagNode) ? content : escapeText(content) );
+            } else if (item != null) {
+                item.serialize(this, writer);
+            }
+        }
+    }
+
     protected void serializeOpenTag(TagNode tagNode, Writer writer, boolean newLine) throws IOException {
         String tagName = tagNode.getName();
 
@@ -77,12 +95,16 @@ public abstract class HtmlSerializer extends Serializer {
         }
 
         writer.write("<" + tagName);
-        for (Map.Entry<String, String> entry: tagNode.getAttributes().entrySet()) {
-            String attName = entry.getKey();
+        for (int i = 0; i < tagNode.getAttributeCount(); i++) {
+            String attName = tagNode.getAttributeName(i);
             if (!nsAware && Utils.getXmlNSPrefix(attName) != null ) {
                 attName = Utils.getXmlName(attName);
             }
-            writer.write(" " + attName + "=\"" + escapeText(entry.getValue()) + "\"");
+            writer.write(' ');
+            writer.write(attName);
+            writer.write("=\"");
+            writer.write( escapeText(tagNode.getAttributeValue(i)) );
+            writer.write('"');
         }
 
         if (nsAware) {
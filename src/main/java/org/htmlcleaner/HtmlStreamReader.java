@@ -0,0 +1,693 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.htmlcleaner.conditional.TagAllCondition;
+import org.htmlcleaner.conditional.TagNodeAttExistsCondition;
+import org.htmlcleaner.conditional.TagNodeAttNameValueRegexCondition;
+import org.htmlcleaner.conditional.TagNodeAttValueCondition;
+import org.htmlcleaner.conditional.TagNodeAutoGeneratedCondition;
+import org.htmlcleaner.conditional.TagNodeClassCondition;
+import org.htmlcleaner.conditional.TagNodeEmptyContentCondition;
+import org.htmlcleaner.conditional.TagNodeInsignificantBrCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+
+/**
+ * <p>Pull based (StAX-like) cursor over cleaned HTML.</p>
+ *
+ * <p>Instead of building the whole tree of nodes, the reader pulls tokens from the
+ * {@link HtmlTokenizer} on demand and delivers the cleaned content as soon as it can't change
+ * any more. Tokens are balanced by the same code as in {@link HtmlCleaner#clean(Reader)}, so the
+ * events describe the same document as the tree would, and the memory used is bounded by the
+ * content which may still be rearranged rather than by the size of the document. Elements
+ * allowing any content are reported as soon as they start, while the others, like tables or
+ * lists, are held back until they are closed. So are the elements which some prune or allow
+ * condition might match depending on their content. Any custom condition may do so, therefore
+ * with a custom prune condition whole document is held in memory, as in the tree.</p>
+ *
+ * <p>Typical usage is the following:</p>
+ *
+ * <xmp>
+ *   HtmlStreamReader reader = cleaner.createStreamReader(in);
+ *   while (reader.hasNext()) {
+ *       switch (reader.next()) {
+ *           case HtmlStreamReader.START_ELEMENT: ... reader.getName(), reader.getAttribute("href") ...
+ *           case HtmlStreamReader.CHARACTERS: ... reader.getText() ...
+ *       }
+ *   }
+ * </xmp>
+ *
+ * <p>Since nothing that was already reported can be revisited, the events still differ from
+ * the tree in few details:</p>
+ * <ul>
+ *  <li>head elements, whitespace and comments found after the body content has started are left in place,</li>
+ *  <li>attributes of html and body tags found after the body content has started are ignored,</li>
+ *  <li>namespace prefixes used in the document are not declared on the root element,</li>
+ *  <li>custom prune conditions depending on siblings see only the siblings which are not
+ *      reported yet at the top level of the body.</li>
+ * </ul>
+ *
+ * <p>Reader instance is not thread-safe.</p>
+ */
+public class HtmlStreamReader {
+
+    /** Start of an element, name and attributes are available. */
+    public static final int START_ELEMENT = 1;
+    /** End of an element, name is available. */
+    public static final int END_ELEMENT = 2;
+    /** Text content, text is available. */
+    public static final int CHARACTERS = 4;
+    /** Comment, comment's content is available as text. */
+    public static final int COMMENT = 5;
+    /** Initial state of the reader, before the first call to {@link #next()}. */
+    public static final int START_DOCUMENT = 7;
+    /** End of the document, no more events follow. */
+    public static final int END_DOCUMENT = 8;
+    /** Content of script or style element given as CDATA section. */
+    public static final int CDATA = 12;
+
+    /**
+     * Number of reported items after which the list of nodes is compacted.
+     */
+    private static final int COMPACTION_THRESHOLD = 4096;
+
+    /**
+     * Prune and allow conditions which inspect only the name and attributes of the node.
+     */
+    private static final Set<Class<?>> CONTENT_INDEPENDENT_CONDITIONS = new HashSet<Class<?>>();
+
+    static {
+        CONTENT_INDEPENDENT_CONDITIONS.add(TagAllCondition.class);
+        CONTENT_INDEPENDENT_CONDITIONS.add(TagNodeNameCondition.class);
+        CONTENT_INDEPENDENT_CONDITIONS.add(TagNodeClassCondition.class);
+        CONTENT_INDEPENDENT_CONDITIONS.add(TagNodeAttExistsCondition.class);
+        CONTENT_INDEPENDENT_CONDITIONS.add(TagNodeAttValueCondition.class);
+        CONTENT_INDEPENDENT_CONDITIONS.add(TagNodeAttNameValueRegexCondition.class);
+    }
+
+    /**
+     * Single event waiting to be pulled.
+     */
+    private static class Event {
+        private int type;
+        private String name;
+        private TagNode tag;
+        private String text;
+        private int depth;
+
+        Event(int type, String name, TagNode tag, String text, int depth) {
+            this.type = type;
+            this.name = name;
+            this.tag = tag;
+            this.text = text;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Reported children of the body or of a started element, as far as insignificant br
+     * condition is concerned.
+     */
+    private static class Siblings {
+        /** Whether some child which is neither br nor pruned is reported already */
+        private boolean significant;
+        /** br elements held back until it is known whether some significant sibling follows them */
+        private List<TagNode> breaks = new ArrayList<TagNode>();
+    }
+
+    private HtmlCleaner cleaner;
+    private CleanerProperties properties;
+    private CleanTimeValues cleanTimeValues = new CleanTimeValues();
+    private HtmlTokenizer tokenizer;
+
+    private LinkedList<Event> events = new LinkedList<Event>();
+    private Event current = new Event(START_DOCUMENT, null, null, null, 0);
+    private boolean tokenizerDone;
+    private boolean finished;
+
+    /** Position in the list of nodes of the first item which is not reported yet */
+    private int position;
+    /** Number of items kept in the list of nodes by the last compaction */
+    private int compactedCount;
+    /** Elements which start is reported, but which are not closed yet, from the outermost one */
+    private List<TagNode> openElements = new ArrayList<TagNode>();
+    /** Reported nodes which are still kept in the list of nodes, since the cleaner may need them */
+    private Set<Object> retained = newIdentitySet();
+
+    private boolean bodyStarted;
+    /** Items at the top level, which are reported in head or in body once the body starts */
+    private List<Object> headItems = new ArrayList<Object>();
+    private Set<Object> movedToHead = newIdentitySet();
+
+    /** Whether insignificant br elements are pruned */
+    private boolean pruneInsignificantBr;
+    /** Reported children of the body and of the started elements, from the outermost one */
+    private List<Siblings> siblings = new ArrayList<Siblings>();
+
+    /**
+     * Constructor - creates reader over specified content. Instances are created by
+     * {@link HtmlCleaner#createStreamReader(Reader)}.
+     * @param cleaner Cleaner which properties and tag info provider are used
+     * @param reader Source of HTML, closed when whole content is read
+     */
+    HtmlStreamReader(HtmlCleaner cleaner, Reader reader) {
+        this.cleaner = cleaner;
+        this.properties = cleaner.getProperties();
+        this.tokenizer = new HtmlTokenizer(cleaner, reader, cleanTimeValues);
+        for (ITagNodeCondition condition: properties.getPruneTagSet()) {
+            if (condition.getClass() == TagNodeInsignificantBrCondition.class) {
+                pruneInsignificantBr = true;
+            }
+        }
+        siblings.add( new Siblings() );
+    }
+
+    /**
+     * @return true if there are more events, that is if END_DOCUMENT is not yet reached.
+     */
+    public boolean hasNext() {
+        return current.type != END_DOCUMENT;
+    }
+
+    /**
+     * Moves the cursor to the next event.
+     * @return type of the event
+     * @throws IOException
+     */
+    public int next() throws IOException {
+        if (current.type == END_DOCUMENT) {
+            throw new NoSuchElementException("End of the document is already reached!");
+        }
+        if (current.type == START_DOCUMENT) {
+            cleaner.beginClean(cleanTimeValues);
+            tokenizer.begin();
+        }
+        while (events.isEmpty()) {
+            if ( !tokenizerDone ) {
+                tokenizerDone = !tokenizer.advance();
+                flush();
+            } else if (!finished) {
+                finish();
+            }
+        }
+        current = events.removeFirst();
+        return current.type;
+    }
+
+    /**
+     * @return type of the current event
+     */
+    public int getEventType() {
+        return current.type;
+    }
+
+    /**
+     * @return name of the element for START_ELEMENT and END_ELEMENT events, null otherwise
+     */
+    public String getName() {
+        return current.name;
+    }
+
+    /**
+     * @param attName
+     * @return value of the specified attribute of the current element, or null if
+     * there is no such attribute or current event is not START_ELEMENT.
+     */
+    public String getAttribute(String attName) {
+        return current.type == START_ELEMENT ? current.tag.getAttributeByName(attName) : null;
+    }
+
+    /**
+     * @return attributes of the current element, or null if current event is not START_ELEMENT
+     */
+    public Map<String, String> getAttributes() {
+        return current.type == START_ELEMENT ? current.tag.getAttributes() : null;
+    }
+
+    /**
+     * @return Tag node carrying name and attributes of the current element. It should be
+     * considered read-only, and its children, if any, ignored. Null if current event is not
+     * START_ELEMENT.
+     */
+    public TagNode getTagNode() {
+        return current.type == START_ELEMENT ? current.tag : null;
+    }
+
+    /**
+     * @return text for CHARACTERS, CDATA and COMMENT events, null otherwise
+     */
+    public String getText() {
+        return current.text;
+    }
+
+    /**
+     * @return nesting depth of the current event, 1 for the root element
+     */
+    public int getDepth() {
+        return current.depth;
+    }
+
+    /**
+     * @return doctype of the document if it is already read, null otherwise
+     */
+    public DoctypeToken getDocType() {
+        return tokenizer.getDocType();
+    }
+
+    /**
+     * Reports the items from the list of nodes which can't be changed by the cleaner any more,
+     * that is all the items up to the first open element which is not started early, or the
+     * first tag which may still be moved.
+     */
+    private void flush() {
+        List<BaseToken> nodeList = tokenizer.getTokenList();
+        closeElements();
+
+        int movablePosition = cleaner.findMovableTagPosition(nodeList, position, cleanTimeValues);
+        int end = movablePosition < 0 ? nodeList.size() : movablePosition;
+        while (position < end) {
+            Object item = nodeList.get(position);
+            if ( item instanceof TagNode && !((TagNode) item).isFormed() ) {
+                TagNode element = (TagNode) item;
+                if ( !isStartedEarly(element) ) {
+                    break;
+                }
+                startBody();
+                addSignificantSibling();
+                events.add( new Event(START_ELEMENT, element.getName(), element, null, depth()) );
+                openElements.add(element);
+                siblings.add( new Siblings() );
+                retained.add(element);
+            } else if (item != null) {
+                if ( openElements.isEmpty() ) {
+                    addTopLevelItem(item);
+                } else {
+                    addNestedItem(item);
+                }
+                // closed tags are kept, as the cleaner reopens them after the child which has closed them
+                if (item instanceof TagNode) {
+                    retained.add(item);
+                } else {
+                    nodeList.set(position, null);
+                }
+            }
+            position++;
+        }
+
+        if (bodyStarted) {
+            cleanTimeValues._headTags.clear();
+        }
+        if ( position >= COMPACTION_THRESHOLD && position >= 2 * compactedCount ) {
+            position = cleaner.releaseNodes(nodeList, position, cleanTimeValues);
+            compactedCount = position;
+            retained.clear();
+            retained.addAll( nodeList.subList(0, position) );
+        }
+    }
+
+    /**
+     * Reports the content and the end of started elements which got closed by the cleaner.
+     */
+    private void closeElements() {
+        int closedLevel = 0;
+        while ( closedLevel < openElements.size() && !openElements.get(closedLevel).isFormed() ) {
+            closedLevel++;
+        }
+        for (int level = openElements.size() - 1; level >= closedLevel; level--) {
+            TagNode element = openElements.get(level);
+            Siblings reported = siblings.get(level + 1);
+            List<BaseToken> children = new ArrayList<BaseToken>(reported.breaks);
+            for (BaseToken child: element.getAllChildren()) {
+                if ( !retained.remove(child) ) {
+                    children.add(child);
+                }
+            }
+            // held back br elements are pruned together with the rest of children, after the reported ones
+            element.removeAllChildren();
+            if (reported.significant) {
+                element.addChild( new ContentNode("") );
+            }
+            element.addChildren(children);
+            cleaner.pruneNodes(children, cleanTimeValues);
+            cleanTimeValues.pruneNodeSet.clear();
+            for (BaseToken child: children) {
+                if ( !isDropped(child) ) {
+                    addTree(child, depth());
+                }
+            }
+            element.removeAllChildren();
+            openElements.remove(level);
+            siblings.remove(level + 1);
+            events.add( new Event(END_ELEMENT, element.getName(), null, null, depth()) );
+        }
+    }
+
+    /**
+     * Handles the item at the top level of the body. Until the body content starts, the items
+     * which may end up in the head are held back.
+     */
+    private void addTopLevelItem(Object item) {
+        if ( item instanceof EndTagToken || (item instanceof ContentNode && "".equals(item.toString())) ) {
+            return;
+        } else if ( isBreakToHold(item) ) {
+            startBody();
+            holdBreak((TagNode) item);
+            return;
+        }
+        cleanTimeValues.bodyNode.addChild(item);
+        if (item instanceof TagNode) {
+            cleaner.pruneNodes( Collections.singletonList(item), cleanTimeValues );
+            cleanTimeValues.pruneNodeSet.clear();
+        }
+        if ( !bodyStarted && isHeadItem(item) ) {
+            headItems.add(item);
+        } else {
+            startBody();
+            addBodyItem(item);
+            cleanTimeValues.bodyNode.removeAllChildren();
+        }
+    }
+
+    private void addBodyItem(Object item) {
+        if ( !movedToHead.contains(item) && !isDropped(item) ) {
+            addSignificantSibling();
+            addTree(item, depth());
+            if (item instanceof TagNode) {
+                ((TagNode) item).removeAllChildren();
+            }
+        }
+    }
+
+    private void addNestedItem(Object item) {
+        if (item instanceof List) {
+            for (Object child: (List<?>) item) {
+                addNestedItem(child);
+            }
+            return;
+        } else if ( isBreakToHold(item) ) {
+            holdBreak((TagNode) item);
+            return;
+        } else if (item instanceof TagNode) {
+            cleaner.pruneNodes( Collections.singletonList(item), cleanTimeValues );
+            cleanTimeValues.pruneNodeSet.clear();
+        }
+        if ( !isDropped(item) ) {
+            if ( !(item instanceof EndTagToken) ) {
+                addSignificantSibling();
+            }
+            addTree(item, depth());
+            if (item instanceof TagNode) {
+                ((TagNode) item).removeAllChildren();
+            }
+        }
+    }
+
+    private boolean isBreakToHold(Object item) {
+        return pruneInsignificantBr && item instanceof TagNode && "br".equals( ((TagNode) item).getName() );
+    }
+
+    /**
+     * Holds back the br, which is insignificant if all the siblings before it or all the siblings
+     * after it are br or pruned. Other prune conditions are evaluated at once, with significant
+     * siblings put around it.
+     */
+    private void holdBreak(TagNode br) {
+        TagNode parent = new TagNode("");
+        parent.addChild( new ContentNode("") );
+        parent.addChild(br);
+        parent.addChild( new ContentNode("") );
+        cleaner.pruneNodes( Collections.singletonList(br), cleanTimeValues );
+        cleanTimeValues.pruneNodeSet.clear();
+        parent.removeAllChildren();
+        if ( !br.isPruned() ) {
+            siblings.get( openElements.size() ).breaks.add(br);
+        }
+    }
+
+    /**
+     * Reports the br elements held back at the current level before the sibling which is neither
+     * br nor pruned. They are significant unless all the siblings before them are such too.
+     */
+    private void addSignificantSibling() {
+        Siblings reported = siblings.get( openElements.size() );
+        if (reported.significant) {
+            for (TagNode br: reported.breaks) {
+                addTree(br, depth());
+            }
+        }
+        reported.breaks.clear();
+        reported.significant = true;
+    }
+
+    /**
+     * @return true if the item is a pruned tag, or a tag moved to head. Whitespace and comments
+     * moved to head are dropped only at the top level, the same as in the tree.
+     */
+    private boolean isDropped(Object item) {
+        return item instanceof TagNode && ( ((TagNode) item).isPruned() || movedToHead.contains(item) );
+    }
+
+    /**
+     * @return true if the item at the top level may still be moved to head, or it is a whitespace
+     * or a comment which is reported in the head or in the body together with such items.
+     */
+    private boolean isHeadItem(Object item) {
+        if (item instanceof CommentNode) {
+            return true;
+        } else if (item instanceof ContentNode) {
+            return !(item instanceof CData) && ((ContentNode) item).isBlank();
+        } else if (item instanceof TagNode) {
+            TagNode tagNode = (TagNode) item;
+            cleaner.addPossibleHeadCandidate( cleaner.getTagInfoProvider().getTagInfo(tagNode.getName()), tagNode, cleanTimeValues );
+            return cleanTimeValues._headTags.contains(tagNode);
+        }
+        return false;
+    }
+
+    /**
+     * Reports the html envelope with the head, and the items held back at the top level.
+     */
+    private void startBody() {
+        if (bodyStarted) {
+            return;
+        }
+        bodyStarted = true;
+        boolean envelope = !properties.isOmitHtmlEnvelope();
+        if (envelope) {
+            events.add( new Event(START_ELEMENT, "html", cleanTimeValues.htmlNode, null, 1) );
+            events.add( new Event(START_ELEMENT, "head", cleanTimeValues.headNode, null, 2) );
+        }
+        for (Object headTag: cleanTimeValues._headTags) {
+            TagNode candidate = (TagNode) headTag;
+            Object moved = candidate instanceof ProxyTagNode ? ((ProxyTagNode) candidate).getToken() : candidate;
+            if ( !isInHeadCandidate(candidate) && movedToHead.add(moved) ) {
+                candidate.removeFromTree();
+                if ( envelope && !candidate.isPruned() ) {
+                    addTree(moved, 3);
+                }
+            }
+        }
+        cleanTimeValues._headTags.clear();
+        if (envelope) {
+            events.add( new Event(END_ELEMENT, "head", null, null, 2) );
+            events.add( new Event(START_ELEMENT, "body", cleanTimeValues.bodyNode, null, 2) );
+        }
+
+        for (Object item: headItems) {
+            addBodyItem(item);
+        }
+        headItems.clear();
+        cleanTimeValues.bodyNode.removeAllChildren();
+    }
+
+    /**
+     * @return true if some ancestor of the node is moved to head as well.
+     */
+    private boolean isInHeadCandidate(TagNode tagNode) {
+        for (TagNode parent = tagNode.getParent(); parent != null; parent = parent.getParent()) {
+            if ( cleanTimeValues._headTags.contains(parent) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds events for the item and all its descendants.
+     * @param item Node, or list of nodes
+     * @param depth depth of the item
+     */
+    private void addTree(Object item, int depth) {
+        if (item instanceof List) {
+            for (Object child: (List) item) {
+                if ( !isDropped(child) ) {
+                    addTree(child, depth);
+                }
+            }
+            return;
+        } else if ( !(item instanceof TagNode) ) {
+            addContent(item, depth);
+            return;
+        }
+
+        // descendants are visited without recursion, since the nesting may be very deep
+        TagNode tagNode = (TagNode) item;
+        events.add( new Event(START_ELEMENT, tagNode.getName(), tagNode, null, depth) );
+        List<TagNode> tagNodes = new ArrayList<TagNode>();
+        List<Iterator<? extends BaseToken>> iterators = new ArrayList<Iterator<? extends BaseToken>>();
+        tagNodes.add(tagNode);
+        iterators.add( tagNode.getAllChildren().iterator() );
+        while ( !iterators.isEmpty() ) {
+            int last = iterators.size() - 1;
+            Iterator<? extends BaseToken> iterator = iterators.get(last);
+            if ( iterator.hasNext() ) {
+                BaseToken child = iterator.next();
+                if (child instanceof TagNode) {
+                    if ( !movedToHead.contains(child) ) {
+                        TagNode childNode = (TagNode) child;
+                        events.add( new Event(START_ELEMENT, childNode.getName(), childNode, null, depth + last + 1) );
+                        tagNodes.add(childNode);
+                        iterators.add( childNode.getAllChildren().iterator() );
+                    }
+                } else {
+                    addContent(child, depth + last + 1);
+                }
+            } else {
+                iterators.remove(last);
+                events.add( new Event(END_ELEMENT, tagNodes.remove(last).getName(), null, null, depth + last) );
+            }
+        }
+    }
+
+    private void addContent(Object token, int depth) {
+        if (token instanceof CommentNode) {
+            events.add( new Event(COMMENT, null, null, ((CommentNode) token).getContent(), depth) );
+        } else if (token instanceof CData) {
+            events.add( new Event(CDATA, null, null, ((CData) token).getContentWithoutStartAndEndTokens(), depth) );
+        } else if (token instanceof ContentNode) {
+            events.add( new Event(CHARACTERS, null, null, ((ContentNode) token).getContent(), depth) );
+        }
+    }
+
+    /**
+     * @return depth of the content of the innermost started element, including html envelope
+     */
+    private int depth() {
+        return (properties.isOmitHtmlEnvelope() ? 1 : 3) + openElements.size();
+    }
+
+    /**
+     * Closes all open elements and html envelope when whole content is read.
+     */
+    private void finish() {
+        cleaner.closeAll(tokenizer.getTokenList(), cleanTimeValues);
+        flush();
+        startBody();
+        if ( !properties.isOmitHtmlEnvelope() ) {
+            events.add( new Event(END_ELEMENT, "body", null, null, 2) );
+            events.add( new Event(END_ELEMENT, "html", null, null, 1) );
+        }
+        events.add( new Event(END_DOCUMENT, null, null, null, 0) );
+        finished = true;
+    }
+
+    /**
+     * Element may be reported when it starts if it accepts any content, so nothing is moved
+     * out of it, and if it is known already that it stays in the body and is not pruned.
+     */
+    private boolean isStartedEarly(TagNode element) {
+        TagInfo info = cleaner.getTagInfoProvider().getTagInfo( element.getName().toLowerCase() );
+        if ( info != null && (!info.allowsAnything() || info.hasPermittedTags() || info.isHeadTag() || info.isHeadAndBodyTag()) ) {
+            return false;
+        }
+        for (ITagNodeCondition condition: cleanTimeValues.pruneTagSet) {
+            if ( maySatisfy(condition, element) ) {
+                return false;
+            }
+        }
+        if ( !cleanTimeValues.allowTagSet.isEmpty() ) {
+            for (ITagNodeCondition condition: cleanTimeValues.allowTagSet) {
+                if ( isContentIndependent(condition) && condition.satisfy(element) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if it is known already that the element, which has just started, won't
+     * satisfy the condition when it is closed. Conditions not known to the reader may inspect
+     * anything, so any element may satisfy them.
+     */
+    private boolean maySatisfy(ITagNodeCondition condition, TagNode element) {
+        if (condition.getClass() == TagNodeAutoGeneratedCondition.class) {
+            return element.isAutoGenerated();
+        } else if (condition.getClass() == TagNodeInsignificantBrCondition.class) {
+            return "br".equals( element.getName() );
+        } else if (condition.getClass() == TagNodeEmptyContentCondition.class) {
+            // content which comes later may only make the element non-empty
+            return element.hasChildren() || condition.satisfy(element);
+        }
+        return !isContentIndependent(condition) || condition.satisfy(element);
+    }
+
+    /**
+     * @return true if the condition is one of the known conditions, which inspect only the name
+     * and attributes of the node, and so may be evaluated at the moment when element starts.
+     */
+    private static boolean isContentIndependent(ITagNodeCondition condition) {
+        return CONTENT_INDEPENDENT_CONDITIONS.contains( condition.getClass() );
+    }
+
+    private static Set<Object> newIdentitySet() {
+        return Collections.newSetFromMap( new IdentityHashMap<Object, Boolean>() );
+    }
+
+}
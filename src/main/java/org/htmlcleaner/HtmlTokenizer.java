@@ -54,34 +54,50 @@ import java.util.*;
 public class HtmlTokenizer {
 
 	private final static int WORKING_BUFFER_SIZE = 1024;
+	private final static int MAX_WORKING_BUFFER_SIZE = 64 * 1024;
+	private final static int SHARED_CONTENT_CHUNK_SIZE = 8 * 1024;
 
-    private BufferedReader _reader;
-    private char[] _working = new char[WORKING_BUFFER_SIZE];
+    private Reader _reader;
+    private final int _bufferSize;
+    private char[] _working;
 
     private transient int _pos;
     private transient int _len = -1;
     private transient int _row = 1;
     private transient int _col = 1;
+    private transient long _consumed;
+    private transient Mark _mark;
     
 
-    private transient StringBuffer _saved = new StringBuffer(512);
+    private transient StringBuffer _saved;
 
     private transient boolean _isLateForDoctype;
     private transient DoctypeToken _docType;
     private transient TagToken _currentTagToken;
-    private transient List<BaseToken> _tokenList = new ArrayList<BaseToken>();
-    private transient Set<String> _namespacePrefixes = new HashSet<String>();
+    private transient List<BaseToken> _tokenList;
+    private transient BaseToken _lastToken;
+    private transient Set<String> _namespacePrefixes;
+    private transient char[] _identifier;
+    private transient char[] _sharedContent;
+    private transient int _sharedContentPos;
 
     private boolean _asExpected = true;
 
     private boolean _isScriptContext;
     private boolean _isStyleContext;
+    private boolean _isScriptEmpty;
+    private boolean _isStyleEmpty;
 
     private HtmlCleaner cleaner;
     private CleanerProperties props;
     private CleanerTransformations transformations;
     private CleanTimeValues cleanTimeValues;
 
+    // limits of the content, Integer.MAX_VALUE if not set
+    private final int _maxTextLength;
+    private final int _maxAttributesPerTag;
+    private final int _maxAttributeValueLength;
+
 
     /**
      * Constructor - creates instance of the parser with specified content.
@@ -89,33 +105,112 @@ public class HtmlTokenizer {
      * @param reader
      */
     public HtmlTokenizer(HtmlCleaner cleaner, Reader reader, final CleanTimeValues cleanTimeValues) {
-        this._reader = new BufferedReader(reader);
+        this(cleaner, reader, cleanTimeValues, 0);
+    }
+
+    /**
+     * Constructor - creates instance of the parser with specified content, sizing the working
+     * buffer after the expected length of the content.
+     * @param cleaner
+     * @param reader
+     * @param cleanTimeValues
+     * @param expectedLength expected number of characters in the content, or 0 if unknown
+     */
+    HtmlTokenizer(HtmlCleaner cleaner, Reader reader, final CleanTimeValues cleanTimeValues, long expectedLength) {
+        this(cleaner, reader, cleanTimeValues, expectedLength, null);
+    }
+
+    /**
+     * Constructor - creates instance of the parser with specified content, using the buffers
+     * of the session if given.
+     * @param cleaner
+     * @param reader
+     * @param cleanTimeValues
+     * @param expectedLength expected number of characters in the content, or 0 if unknown
+     * @param session session providing reusable buffers, or null
+     */
+    HtmlTokenizer(HtmlCleaner cleaner, Reader reader, final CleanTimeValues cleanTimeValues, long expectedLength, CleaningSession session) {
+        // readers working on the content which is already in memory don't need another buffer
+        boolean isBuffered = reader instanceof BufferedReader || reader instanceof StringReader
+                || reader instanceof ByteBufferReader || reader instanceof Utf8ByteReader || reader instanceof FeedReader;
+        this._reader = isBuffered ? reader : new BufferedReader(reader);
+        this._bufferSize = (int) Math.max(WORKING_BUFFER_SIZE, Math.min(expectedLength, MAX_WORKING_BUFFER_SIZE));
+        if (session != null) {
+            this._working = session.takeWorkingBuffer(_bufferSize);
+            this._saved = session.takeSavedBuffer();
+            this._identifier = session.takeIdentifierBuffer();
+            this._tokenList = session.takeTokenList();
+            this._namespacePrefixes = session.takeNamespacePrefixes();
+            this._sharedContent = session.getSharedContent();
+            this._sharedContentPos = session.getSharedContentPos();
+        } else {
+            this._working = new char[_bufferSize];
+            this._saved = new StringBuffer(512);
+            this._identifier = new char[32];
+            this._tokenList = new ArrayList<BaseToken>();
+            this._namespacePrefixes = new HashSet<String>();
+        }
+        this._pos = _bufferSize;
         this.cleaner = cleaner;
         this.props = cleaner.getProperties();
         this.transformations = cleaner.getTransformations();
         this.cleanTimeValues = cleanTimeValues;
+        CleanerLimits limits = props.getLimits();
+        this._maxTextLength = limits.getMaxTextLength() > 0 ? limits.getMaxTextLength() : Integer.MAX_VALUE;
+        this._maxAttributesPerTag = limits.getMaxAttributesPerTag() > 0 ? limits.getMaxAttributesPerTag() : Integer.MAX_VALUE;
+        this._maxAttributeValueLength = limits.getMaxAttributeValueLength() > 0 ? limits.getMaxAttributeValueLength() : Integer.MAX_VALUE;
     }
 
     private void addToken(BaseToken token) {
         token.setRow(_row);
         token.setCol(_col);
+        _lastToken = token;
+        handleToken(token);
+    }
+
+    /**
+     * Passes newly recognized token further. By default token is added to the token list and
+     * cleaner is invoked to balance it. Streaming consumers override this in order to process
+     * tokens one by one without keeping the whole list.
+     * @param token
+     */
+    void handleToken(BaseToken token) {
         _tokenList.add(token);
         cleaner.makeTree( _tokenList, _tokenList.listIterator(_tokenList.size() - 1), this.cleanTimeValues );
     }
 
+    /**
+     * Reports exceeded limit of the content to the cleaner. Tokenizers which may parse the
+     * same content again override this in order to report it only once.
+     * @param limit
+     * @param tagNode tag which is affected, if any
+     */
+    void limitExceeded(CleanerLimits.Limit limit, TagNode tagNode) {
+        cleaner.limitExceeded(limit, tagNode, cleanTimeValues);
+    }
+
+    /**
+     * Registers namespace prefix used by a tag name.
+     * @param prefix
+     */
+    void addNamespacePrefix(String prefix) {
+        _namespacePrefixes.add(prefix);
+    }
+
     private void readIfNeeded(int neededChars) throws IOException {
-        if (_len == -1 && _pos + neededChars >= WORKING_BUFFER_SIZE) {
-            int numToCopy = WORKING_BUFFER_SIZE - _pos;
+        if (_len == -1 && _pos + neededChars >= _bufferSize) {
+            int numToCopy = _bufferSize - _pos;
             System.arraycopy(_working, _pos, _working, 0, numToCopy);
             _pos = 0;
 
-            int expected = WORKING_BUFFER_SIZE - numToCopy;
+            int expected = _bufferSize - numToCopy;
             int size = 0;
             int charsRead = 0;
             int offset = numToCopy;
             do {
                 charsRead = _reader.read(_working, offset, expected);
                 if (charsRead >= 0) {
+                    _consumed += charsRead;
                     size += charsRead;
                     offset += charsRead;
                     expected -= charsRead;
@@ -127,8 +222,9 @@ public class HtmlTokenizer {
     		
             }
 
-            // convert invalid XML characters to spaces
-            for (int i = 0; i < (_len >= 0 ? _len : WORKING_BUFFER_SIZE); i++) {
+            // convert invalid XML characters to spaces - copied part is already converted
+            int limit = _len >= 0 ? _len : _bufferSize;
+            for (int i = numToCopy; i < limit; i++) {
                 int ch = _working[i];
                 if (ch >= 1 && ch <= 32 && ch != 10 && ch != 13) {
                     _working[i] = ' ';
@@ -137,6 +233,14 @@ public class HtmlTokenizer {
         }
     }
 
+    /**
+     * Hands the buffers which may have been replaced while tokenizing back to the session.
+     * @param session
+     */
+    void keepBuffers(CleaningSession session) {
+        session.keepBuffers(_identifier, _sharedContent, _sharedContentPos);
+    }
+
     List<BaseToken> getTokenList() {
     	return this._tokenList;
     }
@@ -168,9 +272,9 @@ public class HtmlTokenizer {
         }
 
         for (int i = 0; i < valueLen; i++) {
-        	char ch1 = Character.toLowerCase( value.charAt(i) );
-        	char ch2 = Character.toLowerCase( _working[_pos + i] );
-        	if (ch1 != ch2) {
+        	char ch1 = value.charAt(i);
+        	char ch2 = _working[_pos + i];
+        	if ( ch1 != ch2 && Character.toLowerCase(ch1) != Character.toLowerCase(ch2) ) {
         		return false;
         	}
         }
@@ -288,6 +392,56 @@ public class HtmlTokenizer {
         }
     }
 
+    /**
+     * Saves the run of characters starting at current runtime position, up to the first
+     * character which could start a tag, comment or CDATA section ('&lt;' or '/'), to the
+     * temporary buffer in one step. Coordinates are updated for the whole run and the
+     * working buffer is refilled as needed.
+     * @throws IOException
+     */
+    private void saveTextRun() throws IOException {
+        while (true) {
+            final char[] working = _working;
+            final int limit = _len >= 0 ? _len : _bufferSize;
+            final int start = _pos;
+            int end = start;
+            int lastLineBreak = -1;
+            int lineBreaks = 0;
+            while (end < limit) {
+                char ch = working[end];
+                if (ch == '<' || ch == '/') {
+                    break;
+                }
+                if (ch == '\n') {
+                    lineBreaks++;
+                    lastLineBreak = end;
+                }
+                end++;
+            }
+
+            if (end > start) {
+                int length = end - start;
+                if (length > _maxTextLength - _saved.length()) {
+                    // text over the length limit is skipped, one more character marks it as truncated
+                    length = Math.max(0, _maxTextLength - _saved.length() + 1);
+                }
+                _saved.append(working, start, length);
+                if (lineBreaks > 0) {
+                    _row += lineBreaks;
+                    _col = end - lastLineBreak;
+                } else {
+                    _col += end - start;
+                }
+                _pos = end;
+            }
+
+            if (end < limit || _len >= 0) {
+                return;
+            }
+            readIfNeeded(0);
+        }
+    }
+
     /**
      * Saves character at current runtime position to the temporary buffer.
      */
@@ -325,7 +479,12 @@ public class HtmlTokenizer {
 
     private boolean addSavedAsContent() {
         if (_saved.length() > 0) {
-            addToken( new ContentNode(props.isDeserializeEntities() ? deserializeEntitiesInSaved() : _saved.toString()) );
+            truncateSaved();
+            if ( props.isUseSharedContentBuffer() && !(props.isDeserializeEntities() && _saved.indexOf("&") >= 0) ) {
+                addToken( createSharedNode(false) );
+            } else {
+                addToken( new ContentNode(props.isDeserializeEntities() ? deserializeEntitiesInSaved() : _saved.toString()) );
+            }
             _saved.delete(0, _saved.length());
             return true;
         }
@@ -333,27 +492,71 @@ public class HtmlTokenizer {
         return false;
     }
 
+    /**
+     * Truncates saved text or comment if it is longer than the limit.
+     */
+    private void truncateSaved() {
+        if (_saved.length() > _maxTextLength) {
+            _saved.setLength(_maxTextLength);
+            limitExceeded(CleanerLimits.Limit.TextLength, null);
+        }
+    }
+
+    /**
+     * Copies saved characters to the buffer shared by text and comment nodes of the
+     * document, and creates the node backed by that copy. Buffers are allocated in chunks,
+     * while longer texts get a buffer of their own.
+     * @param isComment
+     * @return Comment node if isComment is true, content node otherwise.
+     */
+    private BaseToken createSharedNode(boolean isComment) {
+        int length = _saved.length();
+        char[] chars;
+        int offset;
+        if (length > SHARED_CONTENT_CHUNK_SIZE / 4) {
+            chars = new char[length];
+            offset = 0;
+        } else {
+            if (_sharedContent == null || _sharedContentPos + length > _sharedContent.length) {
+                _sharedContent = new char[SHARED_CONTENT_CHUNK_SIZE];
+                _sharedContentPos = 0;
+            }
+            chars = _sharedContent;
+            offset = _sharedContentPos;
+            _sharedContentPos += length;
+        }
+        _saved.getChars(0, length, chars, offset);
+        return isComment ? new CommentNode(chars, offset, length) : new ContentNode(chars, offset, length);
+    }
+
     private String deserializeEntitiesInSaved() {
+        String saved = _saved.toString();
+        if (saved.indexOf('&') < 0) {
+            return saved;
+        }
         SpecialEntities entities = SpecialEntities.INSTANCE;
+        // decoded text is built only once the first entity is found, up to then saved content is used as is
+        StringBuilder decoded = null;
+        int copied = 0;
         int entityStart = -1;
         boolean numericEntity = false;
         boolean hexEntity = false;
         int maxEntityLength = entities.getMaxEntityLength();
         int i = 0;
-        int length = _saved.length();
+        int length = saved.length();
         while (i < length) {
-            if (_saved.charAt(i) == '&') {
+            char ch = saved.charAt(i);
+            if (ch == '&') {
                 entityStart = i;
                 numericEntity = false;
                 hexEntity = false;
-                ++i;
             } else if (entityStart != -1) {
-                if (_saved.charAt(i) == ';') {
+                if (ch == ';') {
                     SpecialEntity entity;
                     if (numericEntity) {
                         try {
                             entity = entities.getSpecialEntityByUnicode(Integer.parseInt(
-                                    _saved.substring(
+                                    saved.substring(
                                             entityStart + (hexEntity ? 3 : 2),
                                             i
                                     ),
@@ -363,32 +566,30 @@ public class HtmlTokenizer {
                             entity = null;
                         }
                     } else {
-                        entity = entities.getSpecialEntity(_saved.substring(entityStart + 1, i));
+                        entity = entities.getSpecialEntity(saved, entityStart + 1, i);
                     }
                     if (entity != null) {
-                        char[] decodedEntity = Character.toChars(entity.intValue());
-                        _saved.replace(entityStart, i + 1, new String(decodedEntity));
-                        length = _saved.length();
-                        i = entityStart + decodedEntity.length;
-                    } else {
-                        ++i;
+                        if (decoded == null) {
+                            decoded = new StringBuilder(length);
+                        }
+                        decoded.append(saved, copied, entityStart).appendCodePoint(entity.intValue());
+                        copied = i + 1;
                     }
                     entityStart = -1;
-                } else {
-                    if (i == entityStart + 1 && _saved.charAt(i) == '#') {
-                        numericEntity = true;
-                    } else if (i == entityStart + 2 && numericEntity && _saved.charAt(i) == 'x') {
-                        hexEntity = true;
-                    } else if (i - entityStart > maxEntityLength) {
-                        entityStart = -1;
-                    }
-                    ++i;
+                } else if (i == entityStart + 1 && ch == '#') {
+                    numericEntity = true;
+                } else if (i == entityStart + 2 && numericEntity && ch == 'x') {
+                    hexEntity = true;
+                } else if (i - entityStart > maxEntityLength) {
+                    entityStart = -1;
                 }
-            } else {
-                ++i;
             }
+            ++i;
+        }
+        if (decoded == null) {
+            return saved;
         }
-        return _saved.toString();
+        return decoded.append(saved, copied, length).toString();
     }
 
     /**
@@ -396,8 +597,145 @@ public class HtmlTokenizer {
      * @throws IOException
      */
     void start() throws IOException {
+        begin();
+        while ( advance() ) {
+            // parse everything
+        }
+    }
+
+    /**
+     * Adds start tag of an element enclosing the parsed fragment, as if the tag preceded the
+     * content. Tag name is transformed and its namespace prefix registered like the names of
+     * the parsed tags, and content following script or style tag is parsed as script or style.
+     * @param originalTagName name of the enclosing element
+     * @param attributes attributes of the added tag, or null
+     * @return Added start tag token, or null if the tag is removed by transformations.
+     */
+    TagNode contextTagStart(String originalTagName, Map<String, String> attributes) {
+        String tagName = transformations.getTagName( contextTagName(originalTagName) );
+        if (tagName == null) {
+            return null;
+        }
+        SymbolTable.Symbol symbol = cleanTimeValues.symbolTable.lookup(tagName);
+        ITagInfoProvider tagInfoProvider = cleaner.getTagInfoProvider();
+        TagNode tagNode = new TagNode(tagName);
+        tagNode.setTagInfo(tagInfoProvider, symbol.lowerCase.name, symbol.lowerCase.getTagInfo(tagInfoProvider));
+        if (attributes != null) {
+            tagNode.setAttributes(attributes);
+        }
+        addToken(tagNode);
+        _isScriptContext = "script".equalsIgnoreCase(tagName);
+        _isStyleContext = "style".equalsIgnoreCase(tagName);
+        return tagNode;
+    }
+
+    /**
+     * Adds end tag of an element enclosing the parsed fragment, as if the tag followed the content.
+     * @param originalTagName name of the enclosing element
+     */
+    void contextTagEnd(String originalTagName) {
+        String tagName = transformations.getTagName( contextTagName(originalTagName) );
+        if (tagName != null) {
+            addToken( new EndTagToken(tagName) );
+        }
+        _isScriptContext = false;
+        _isStyleContext = false;
+    }
+
+    private String contextTagName(String tagName) {
+        int columnIndex = tagName.indexOf(':');
+        if (columnIndex >= 0) {
+            int suffixEnd = tagName.indexOf(':', columnIndex + 1);
+            if (suffixEnd < 0) {
+                suffixEnd = tagName.length();
+            }
+            if (props.isNamespacesAware()) {
+                String prefix = tagName.substring(0, columnIndex);
+                if ( !"xmlns".equalsIgnoreCase(prefix) ) {
+                    addNamespacePrefix( prefix.toLowerCase() );
+                }
+                return tagName.substring(0, suffixEnd);
+            } else {
+                return tagName.substring(columnIndex + 1, suffixEnd);
+            }
+        }
+        return tagName;
+    }
+
+    /**
+     * Runtime values remembered by {@link HtmlTokenizer#mark()}.
+     */
+    private static class Mark {
+        long position;
+        int row;
+        int col;
+        boolean isLateForDoctype;
+        DoctypeToken docType;
+        BaseToken lastToken;
+        boolean isScriptContext;
+        boolean isStyleContext;
+        boolean isScriptEmpty;
+        boolean isStyleEmpty;
+        char[] sharedContent;
+        int sharedContentPos;
+    }
+
+    /**
+     * Remembers runtime values between the tokens, so that parsing can be repeated from this
+     * point after {@link #reset()}.
+     * @return Position of the next character to parse, counted from the start of content.
+     */
+    long mark() {
+        if (_mark == null) {
+            _mark = new Mark();
+        }
+        _mark.position = _consumed - ((_len >= 0 ? _len : _bufferSize) - _pos);
+        _mark.row = _row;
+        _mark.col = _col;
+        _mark.isLateForDoctype = _isLateForDoctype;
+        _mark.docType = _docType;
+        _mark.lastToken = _lastToken;
+        _mark.isScriptContext = _isScriptContext;
+        _mark.isStyleContext = _isStyleContext;
+        _mark.isScriptEmpty = _isScriptEmpty;
+        _mark.isStyleEmpty = _isStyleEmpty;
+        _mark.sharedContent = _sharedContent;
+        _mark.sharedContentPos = _sharedContentPos;
+        return _mark.position;
+    }
+
+    /**
+     * Restores runtime values remembered by last {@link #mark()}. Working buffer is
+     * emptied, so the reader must be positioned back to the marked position by the caller,
+     * in order to serve the same characters again.
+     */
+    void reset() {
+        _consumed = _mark.position;
+        _pos = _bufferSize;
+        _len = -1;
+        _row = _mark.row;
+        _col = _mark.col;
+        _isLateForDoctype = _mark.isLateForDoctype;
+        _docType = _mark.docType;
+        _lastToken = _mark.lastToken;
+        _isScriptContext = _mark.isScriptContext;
+        _isStyleContext = _mark.isStyleContext;
+        _isScriptEmpty = _mark.isScriptEmpty;
+        _isStyleEmpty = _mark.isStyleEmpty;
+        // nodes sharing the content copied since the mark are dropped, so the space is reused
+        _sharedContent = _mark.sharedContent;
+        _sharedContentPos = _mark.sharedContentPos;
+        _saved.delete(0, _saved.length());
+    }
+
+    /**
+     * Initializes runtime values and reads the first chunk of the content.
+     * @throws IOException
+     */
+    void begin() throws IOException {
     	// initialize runtime values
         _currentTagToken = null;
+        _lastToken = null;
         _tokenList.clear();
         _asExpected = true;
         _isScriptContext = false;
@@ -405,100 +743,115 @@ public class HtmlTokenizer {
         _isLateForDoctype = false;
         _namespacePrefixes.clear();
 
-        this._pos = WORKING_BUFFER_SIZE;
+        this._pos = _bufferSize;
         readIfNeeded(0);
 
-        boolean isScriptEmpty = true;
-        boolean isStyleEmpty = true;
+        _isScriptEmpty = true;
+        _isStyleEmpty = true;
+    }
 
-        while ( !isAllRead() ) {
-            // resets all the runtime values
-            _saved.delete(0, _saved.length());
-            _currentTagToken = null;
-            _asExpected = true;
-
-            // this is enough for making decision
-            readIfNeeded(10);
-
-            if (_isScriptContext) {
-            	if ( startsWith("</script") && (isWhitespace(_pos + 8) || isChar(_pos + 8, '>')) ) {
-            		tagEnd();
-            	} else if ( isScriptEmpty && startsWith("<!--") ) {
-            		comment();
-            	} else if ( startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) { 
-            		cdata();
-            	} else {
-            		boolean isTokenAdded = content();
-            		if (isScriptEmpty && isTokenAdded) {
-            			final BaseToken lastToken = (BaseToken) _tokenList.get(_tokenList.size() - 1);
-            			if (lastToken != null) {
-            				final String lastTokenAsString = lastToken.toString();
-            				if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
-            					isScriptEmpty = false;
-            				}
-            			}
-            		}
-            	}
-            	if (!_isScriptContext) {
-            		isScriptEmpty = true;
-            	}
-            } else {
-            	if (_isStyleContext) {
-            		if ( startsWith("</style") && (isWhitespace(_pos + 7) || isChar(_pos + 7, '>')) ) {
-            			tagEnd();
-            		} else if ( isStyleEmpty && startsWith("<!--") ) {
-            			comment();
-            		} else if ( startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) { 
-            			cdata();
-            		} else {
-            			boolean isTokenAdded = content();
-            			if (isStyleEmpty && isTokenAdded) {
-            				final BaseToken lastToken = (BaseToken) _tokenList.get(_tokenList.size() - 1);
-            				if (lastToken != null) {
-            					final String lastTokenAsString = lastToken.toString();
-            					if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
-            						isStyleEmpty = false;
-            					}
-            				}
-            			}
-            		}
-            		if (!_isStyleContext) {
-            			isStyleEmpty = true;
-            		}
-
-            	} else {
-            		if ( startsWith("<!doctype") ) {
-            			if ( !_isLateForDoctype ) {
-            				doctype();
-            				_isLateForDoctype = true;
-            			} else {
-            				ignoreUntil('<');
-            			}
-            		} else if ( startsWith("</") && isIdentifierStartChar(_pos + 2) ) {
-            			_isLateForDoctype = true;
-            			tagEnd();
-            		} else if ( startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) { 
-            			cdata();
-            		} else if ( startsWith("<!--") ) {
-            			comment();
-            		} else if ( startsWith("<") && isIdentifierStartChar(_pos + 1) ) {
-            			_isLateForDoctype = true;
-            			tagStart();
-            		} else if ( props.isIgnoreQuestAndExclam() && (startsWith("<!") || startsWith("<?")) ) {
-            			ignoreUntil('<');
-            			if (isChar('>')) {
-            				go();
-            			}
-            		} else if ( startsWith("<?xml")){
-            			ignoreUntil('<');
-            		} else {
-            			content();
-            		}
-            	}
-            }
-        }
-
-        _reader.close();
+    /**
+     * Parses next piece of the content, producing at least one token unless the end of content is reached.
+     * @return false if there is nothing more to parse, true otherwise.
+     * @throws IOException
+     */
+    boolean advance() throws IOException {
+        // content after the node limit is reached or after cancellation is ignored
+        if ( isAllRead() || cleanTimeValues.isTruncated || cleaner.checkCancelled(cleanTimeValues) ) {
+            _reader.close();
+            return false;
+        }
+
+        // resets all the runtime values
+        _saved.delete(0, _saved.length());
+        _currentTagToken = null;
+        _asExpected = true;
+
+        // this is enough for making decision
+        readIfNeeded(10);
+
+        if (_isScriptContext) {
+        	if ( startsWith("</script") && (isWhitespace(_pos + 8) || isChar(_pos + 8, '>')) ) {
+        		tagEnd();
+        	} else if ( _isScriptEmpty && startsWith("<!--") ) {
+        		comment();
+        	} else if ( startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) { 
+        		cdata();
+        	} else {
+        		boolean isTokenAdded = content();
+        		if (_isScriptEmpty && isTokenAdded) {
+        			final BaseToken lastToken = _lastToken;
+        			if (lastToken != null) {
+        				final String lastTokenAsString = lastToken.toString();
+        				if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
+        					_isScriptEmpty = false;
+        				}
+        			}
+        		}
+        	}
+        	if (!_isScriptContext) {
+        		_isScriptEmpty = true;
+        	}
+        } else {
+        	if (_isStyleContext) {
+        		if ( startsWith("</style") && (isWhitespace(_pos + 7) || isChar(_pos + 7, '>')) ) {
+        			tagEnd();
+        		} else if ( _isStyleEmpty && startsWith("<!--") ) {
+        			comment();
+        		} else if ( startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) { 
+        			cdata();
+        		} else {
+        			boolean isTokenAdded = content();
+        			if (_isStyleEmpty && isTokenAdded) {
+        				final BaseToken lastToken = _lastToken;
+        				if (lastToken != null) {
+        					final String lastTokenAsString = lastToken.toString();
+        					if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
+        						_isStyleEmpty = false;
+        					}
+        				}
+        			}
+        		}
+        		if (!_isStyleContext) {
+        			_isStyleEmpty = true;
+        		}
+
+        	} else {
+        		final char ch = _working[_pos];
+        		if ( ch != '<' && ch != '/' ) {
+        			// only '<' or '/' may start markup, anything else begins text
+        			content();
+        		} else if ( startsWith("<!doctype") ) {
+        			if ( !_isLateForDoctype ) {
+        				doctype();
+        				_isLateForDoctype = true;
+        			} else {
+        				ignoreUntil('<');
+        			}
+        		} else if ( startsWith("</") && isIdentifierStartChar(_pos + 2) ) {
+        			_isLateForDoctype = true;
+        			tagEnd();
+        		} else if ( startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) { 
+        			cdata();
+        		} else if ( startsWith("<!--") ) {
+        			comment();
+        		} else if ( startsWith("<") && isIdentifierStartChar(_pos + 1) ) {
+        			_isLateForDoctype = true;
+        			tagStart();
+        		} else if ( props.isIgnoreQuestAndExclam() && (startsWith("<!") || startsWith("<?")) ) {
+        			ignoreUntil('<');
+        			if (isChar('>')) {
+        				go();
+        			}
+        		} else if ( startsWith("<?xml")){
+        			ignoreUntil('<');
+        		} else {
+        			content();
+        		}
+        	}
+        }
+
+        return true;
     }
 
     /**
@@ -524,12 +877,13 @@ public class HtmlTokenizer {
             return;
         }
 
-        String originalTagName = identifier();
+        SymbolTable.Symbol symbol = identifierSymbol();
+        String originalTagName = symbol == null ? null : symbol.name;
         String tagName = transformations.getTagName(originalTagName);
+        ITagInfoProvider tagInfoProvider = cleaner.getTagInfoProvider();
 
         if (tagName != null) {
-            ITagInfoProvider tagInfoProvider = cleaner.getTagInfoProvider();
-            TagInfo tagInfo = tagInfoProvider.getTagInfo(tagName);
+            TagInfo tagInfo = tagName == originalTagName ? symbol.getTagInfo(tagInfoProvider) : tagInfoProvider.getTagInfo(tagName);
             if ( (tagInfo == null && !props.isOmitUnknownTags() && props.isTreatUnknownTagsAsContent() && !isReservedTag(tagName) && !props.isNamespacesAware()) ||
                  (tagInfo != null && tagInfo.isDeprecated() && !props.isOmitDeprecatedTags() && props.isTreatDeprecatedTagsAsContent()) ) {
                 content();
@@ -538,6 +892,9 @@ public class HtmlTokenizer {
         }
 
         TagNode tagNode = new TagNode(tagName);
+        if (tagName != null && tagName == originalTagName) {
+            tagNode.setTagInfo(tagInfoProvider, symbol.lowerCase.name, symbol.lowerCase.getTagInfo(tagInfoProvider));
+        }
         _currentTagToken = tagNode;
 
         if (_asExpected) {
@@ -590,17 +947,19 @@ public class HtmlTokenizer {
             return;
         }
 
-        String tagName = identifier();
+        SymbolTable.Symbol symbol = identifierSymbol();
+        String tagName = symbol == null ? null : symbol.name;
         if (transformations != null && transformations.hasTransformationForTag(tagName)) {
             TagTransformation tagTransformation = transformations.getTransformation(tagName);
             if (tagTransformation != null) {
                 tagName = tagTransformation.getDestTag();
+                symbol = null;
             }
         }
+        ITagInfoProvider tagInfoProvider = cleaner.getTagInfoProvider();
 
         if (tagName != null) {
-            ITagInfoProvider tagInfoProvider = cleaner.getTagInfoProvider();
-            TagInfo tagInfo = tagInfoProvider.getTagInfo(tagName);
+            TagInfo tagInfo = symbol != null ? symbol.getTagInfo(tagInfoProvider) : tagInfoProvider.getTagInfo(tagName);
         	if ( (tagInfo == null && !props.isOmitUnknownTags() && props.isTreatUnknownTagsAsContent() && !isReservedTag(tagName) &&!props.isNamespacesAware()) ||
                  (tagInfo != null && tagInfo.isDeprecated() && !props.isOmitDeprecatedTags() && props.isTreatDeprecatedTagsAsContent()) ) {
                 content();
@@ -609,6 +968,9 @@ public class HtmlTokenizer {
         }
 
         _currentTagToken = new EndTagToken(tagName);
+        if (symbol != null) {
+            _currentTagToken.setTagInfo(tagInfoProvider, symbol.lowerCase.name, symbol.lowerCase.getTagInfo(tagInfoProvider));
+        }
 
         if (_asExpected) {
             skipWhitespaces();
@@ -654,6 +1016,17 @@ public class HtmlTokenizer {
      * @throws IOException
      */
     private String identifier() throws IOException {
+        SymbolTable.Symbol symbol = identifierSymbol();
+        return symbol == null ? null : symbol.name;
+    }
+
+    /**
+     * Parses an identifier from the current position and interns it in the symbol table,
+     * without creating any intermediate strings.
+     * @return Symbol of the identifier, or null if there is no valid identifier at current position.
+     * @throws IOException
+     */
+    private SymbolTable.Symbol identifierSymbol() throws IOException {
         _asExpected = true;
 
         if ( !isIdentifierStartChar() ) {
@@ -661,44 +1034,55 @@ public class HtmlTokenizer {
             return null;
         }
 
-        StringBuffer identifierValue = new StringBuffer();
-
+        char[] chars = _identifier;
+        int length = 0;
         while ( !isAllRead() && isIdentifierChar() ) {
             saveCurrent();
-            identifierValue.append( _working[_pos] );
+            if (length == chars.length) {
+                chars = _identifier = Arrays.copyOf(chars, length * 2);
+            }
+            chars[length++] = _working[_pos];
             go();
         }
 
         // strip invalid characters from the end
-        while ( identifierValue.length() > 0 && Utils.isIdentifierHelperChar(identifierValue.charAt(identifierValue.length() - 1)) ) {
-            identifierValue.deleteCharAt( identifierValue.length() - 1 );
+        while ( length > 0 && Utils.isIdentifierHelperChar(chars[length - 1]) ) {
+            length--;
         }
 
-        if ( identifierValue.length() == 0 ) {
+        if (length == 0) {
             return null;
         }
 
-        String id = identifierValue.toString();
+        SymbolTable symbolTable = cleanTimeValues.symbolTable;
 
-        int columnIndex = id.indexOf(':');
+        int columnIndex = indexOf(chars, ':', 0, length);
         if (columnIndex >= 0) {
-            String prefix = id.substring(0, columnIndex);
-            String suffix = id.substring(columnIndex + 1);
-            int nextColumnIndex = suffix.indexOf(':');
-            if (nextColumnIndex >= 0) {
-                suffix = suffix.substring(0, nextColumnIndex);
+            int suffixEnd = indexOf(chars, ':', columnIndex + 1, length);
+            if (suffixEnd < 0) {
+                suffixEnd = length;
             }
             if (props.isNamespacesAware()) {
-                id = prefix + ":" + suffix;
-                if ( !"xmlns".equalsIgnoreCase(prefix) ) {
-                    _namespacePrefixes.add( prefix.toLowerCase() );
+                SymbolTable.Symbol prefix = symbolTable.lookup(chars, 0, columnIndex);
+                if ( !"xmlns".equalsIgnoreCase(prefix.name) ) {
+                    addNamespacePrefix(prefix.lowerCase.name);
                 }
+                return symbolTable.lookup(chars, 0, suffixEnd);
             } else {
-                id = suffix;
+                return symbolTable.lookup(chars, columnIndex + 1, suffixEnd - columnIndex - 1);
             }
         }
 
-        return id;
+        return symbolTable.lookup(chars, 0, length);
+    }
+
+    private static int indexOf(char[] chars, char ch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (chars[i] == ch) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -706,6 +1090,7 @@ public class HtmlTokenizer {
      * @throws IOException
      */
     private void tagAttributes() throws IOException {
+        int attributeCount = 0;
         while( !isAllRead() && _asExpected && !isChar('>') && !startsWith("/>") ) {
             skipWhitespaces();
             String attName = identifier();
@@ -739,7 +1124,16 @@ public class HtmlTokenizer {
             }
 
             if (_asExpected) {
-                _currentTagToken.addAttribute(attName, attValue);
+                if (attributeCount == _maxAttributesPerTag) {
+                    limitExceeded(CleanerLimits.Limit.AttributesPerTag, _currentTagToken instanceof TagNode ? (TagNode) _currentTagToken : null);
+                }
+                if (attributeCount++ < _maxAttributesPerTag) {
+                    if (attValue.length() > _maxAttributeValueLength) {
+                        attValue = attValue.substring(0, _maxAttributeValueLength);
+                        limitExceeded(CleanerLimits.Limit.AttributeValueLength, _currentTagToken instanceof TagNode ? (TagNode) _currentTagToken : null);
+                    }
+                    _currentTagToken.addAttribute(attName, attValue);
+                }
             }
         }
     }
@@ -805,9 +1199,12 @@ public class HtmlTokenizer {
         while ( !isAllRead() ) {
 
 
-            saveCurrent();
+            if (_saved.length() <= _maxTextLength) {
+                saveCurrent();
+            }
             go();
-            
+            saveTextRun();
+
             if (startsWith(CData.SAFE_BEGIN_CDATA) || startsWith(CData.BEGIN_CDATA) || startsWith(CData.SAFE_BEGIN_CDATA_ALT)) {
             	break;
             }
@@ -849,7 +1246,9 @@ public class HtmlTokenizer {
     private void comment() throws IOException {
     	go(4);
         while ( !isAllRead() && !startsWith("-->") ) {
-            saveCurrent();
+            if (_saved.length() <= _maxTextLength) {
+                saveCurrent();
+            }
             go();
         }
 
@@ -859,6 +1258,13 @@ public class HtmlTokenizer {
 
         if (_saved.length() > 0) {
             if ( !props.isOmitComments() ) {
+                truncateSaved();
+            }
+            if ( !props.isOmitComments() && props.isUseSharedContentBuffer() && _saved.indexOf("--") < 0
+                    && _saved.charAt(0) != '-' && _saved.charAt(_saved.length() - 1) != '-' ) {
+                // nothing to replace, comment is shared as it is
+                addToken( createSharedNode(true) );
+            } else if ( !props.isOmitComments() ) {
                 String hyphenRepl = props.getHyphenReplacementInComment();
                 String comment = _saved.toString().replaceAll("--", hyphenRepl + hyphenRepl);
 
@@ -0,0 +1,378 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.htmlcleaner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.Map;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * <p>SAX2 {@link XMLReader} which parses HTML and reports cleaned content to the
+ * {@link ContentHandler}.</p>
+ *
+ * <p>Events are produced by {@link HtmlStreamReader}, so they are pushed as soon as
+ * the tokenizer and balancing rules allow, without building the tree of nodes. This
+ * makes the reader usable as a source for XSLT (via <code>SAXSource</code>) or any
+ * other SAX based pipeline:</p>
+ *
+ * <xmp>
+ *   XMLReader reader = new HtmlXmlReader(new HtmlCleaner(props));
+ *   Source source = new SAXSource(reader, new InputSource(in));
+ *   transformer.transform(source, result);
+ * </xmp>
+ *
+ * <p>Comments and CDATA sections are reported to the lexical handler, if one is set with
+ * property <code>http://xml.org/sax/properties/lexical-handler</code>. Elements and
+ * attributes which names are not valid XML names are not reported, but the content of
+ * such elements is. If html envelope is omitted by cleaner properties, the events may
+ * describe more than one root element.</p>
+ *
+ * <p>Input given only by system id is first passed to the entity resolver, if one is set,
+ * and read from the URL otherwise. Streams opened by the reader are closed also when
+ * parsing fails. I/O and cleaner failures are reported to the error handler as fatal
+ * errors before they are thrown. HTML has no DTD, so the DTD handler is kept only to
+ * satisfy the interface and never receives events.</p>
+ */
+public class HtmlXmlReader implements XMLReader {
+
+    private static final String FEATURE_NAMESPACES = "http://xml.org/sax/features/namespaces";
+    private static final String FEATURE_NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+    private static final String PROPERTY_LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    private HtmlCleaner cleaner;
+
+    private ContentHandler contentHandler;
+    private DTDHandler dtdHandler;
+    private EntityResolver entityResolver;
+    private ErrorHandler errorHandler;
+    private LexicalHandler lexicalHandler;
+
+    private boolean namespaces = true;
+    private boolean namespacePrefixes = false;
+
+    /**
+     * Constructor - creates reader which uses cleaner with default properties.
+     */
+    public HtmlXmlReader() {
+        this(new HtmlCleaner());
+    }
+
+    /**
+     * Constructor - creates reader which uses properties and tag info provider of the given cleaner.
+     * @param cleaner
+     */
+    public HtmlXmlReader(HtmlCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    public boolean getFeature(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (FEATURE_NAMESPACES.equals(name)) {
+            return namespaces;
+        } else if (FEATURE_NAMESPACE_PREFIXES.equals(name)) {
+            return namespacePrefixes;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (FEATURE_NAMESPACES.equals(name)) {
+            namespaces = value;
+        } else if (FEATURE_NAMESPACE_PREFIXES.equals(name)) {
+            namespacePrefixes = value;
+        } else {
+            throw new SAXNotRecognizedException(name);
+        }
+    }
+
+    public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (PROPERTY_LEXICAL_HANDLER.equals(name)) {
+            return lexicalHandler;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (PROPERTY_LEXICAL_HANDLER.equals(name)) {
+            if (value != null && !(value instanceof LexicalHandler)) {
+                throw new SAXNotSupportedException("Lexical handler must implement " + LexicalHandler.class.getName());
+            }
+            lexicalHandler = (LexicalHandler) value;
+        } else {
+            throw new SAXNotRecognizedException(name);
+        }
+    }
+
+    public void setEntityResolver(EntityResolver resolver) {
+        this.entityResolver = resolver;
+    }
+
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    public void setDTDHandler(DTDHandler handler) {
+        this.dtdHandler = handler;
+    }
+
+    public DTDHandler getDTDHandler() {
+        return dtdHandler;
+    }
+
+    public void setContentHandler(ContentHandler handler) {
+        this.contentHandler = handler;
+    }
+
+    public ContentHandler getContentHandler() {
+        return contentHandler;
+    }
+
+    public void setErrorHandler(ErrorHandler handler) {
+        this.errorHandler = handler;
+    }
+
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    public void parse(String systemId) throws IOException, SAXException {
+        parse( new InputSource(systemId) );
+    }
+
+    public void parse(InputSource input) throws IOException, SAXException {
+        Closeable opened = null;
+        try {
+            Reader reader = input.getCharacterStream();
+            if (reader == null) {
+                InputStream in = input.getByteStream();
+                String encoding = input.getEncoding();
+                if (in == null) {
+                    String systemId = input.getSystemId();
+                    if (systemId == null) {
+                        throw new SAXException("Input source has no character stream, byte stream or system id!");
+                    }
+                    InputSource resolved = entityResolver != null ? entityResolver.resolveEntity(input.getPublicId(), systemId) : null;
+                    if (resolved != null) {
+                        reader = resolved.getCharacterStream();
+                        in = resolved.getByteStream();
+                        if (resolved.getEncoding() != null) {
+                            encoding = resolved.getEncoding();
+                        }
+                        if (resolved.getSystemId() != null) {
+                            systemId = resolved.getSystemId();
+                        }
+                    }
+                    if (reader != null) {
+                        opened = reader;
+                    } else {
+                        in = in != null ? in : new URL(systemId).openStream();
+                        opened = in;
+                    }
+                }
+                if (reader == null) {
+                    reader = new InputStreamReader(in, encoding != null ? encoding : cleaner.getProperties().getCharset());
+                }
+            }
+            parse(reader, input);
+        } catch (IOException e) {
+            fatalError(input, e);
+            throw e;
+        } finally {
+            if (opened != null) {
+                opened.close();
+            }
+        }
+    }
+
+    private void parse(Reader reader, InputSource input) throws IOException, SAXException {
+        ContentHandler handler = contentHandler != null ? contentHandler : new DefaultHandler();
+        HtmlStreamReader streamReader = cleaner.createStreamReader(reader);
+        NamespaceSupport namespaceSupport = new NamespaceSupport();
+        String[] nameParts = new String[3];
+        // depths of the elements which are not reported because of invalid names
+        BitSet skippedElements = new BitSet();
+        int depth = 0;
+
+        handler.startDocument();
+        while ( nextEvent(streamReader, input) ) {
+            switch ( streamReader.getEventType() ) {
+                case HtmlStreamReader.START_ELEMENT:
+                    depth++;
+                    String qName = streamReader.getName();
+                    if ( !Utils.isValidXmlIdentifier(qName) ) {
+                        skippedElements.set(depth);
+                        break;
+                    }
+                    namespaceSupport.pushContext();
+                    AttributesImpl attributes = new AttributesImpl();
+                    Map<String, String> tagAttributes = streamReader.getAttributes();
+                    if (namespaces) {
+                        for (Map.Entry<String, String> entry: tagAttributes.entrySet()) {
+                            String attName = entry.getKey();
+                            if ( "xmlns".equals(attName) || attName.startsWith("xmlns:") ) {
+                                String prefix = attName.length() > 5 ? attName.substring(6) : "";
+                                namespaceSupport.declarePrefix(prefix, entry.getValue());
+                                handler.startPrefixMapping(prefix, entry.getValue());
+                            }
+                        }
+                    }
+                    for (Map.Entry<String, String> entry: tagAttributes.entrySet()) {
+                        String attName = entry.getKey();
+                        if ( !Utils.isValidXmlIdentifier(attName) ) {
+                            continue;
+                        }
+                        boolean isDeclaration = "xmlns".equals(attName) || attName.startsWith("xmlns:");
+                        if (namespaces && isDeclaration && !namespacePrefixes) {
+                            continue;
+                        }
+                        if (namespaces && !isDeclaration && processName(namespaceSupport, attName, true, nameParts)) {
+                            attributes.addAttribute(nameParts[0], nameParts[1], attName, "CDATA", entry.getValue());
+                        } else {
+                            attributes.addAttribute("", namespaces ? "" : attName, attName, "CDATA", entry.getValue());
+                        }
+                    }
+                    if (namespaces && processName(namespaceSupport, qName, false, nameParts)) {
+                        handler.startElement(nameParts[0], nameParts[1], qName, attributes);
+                    } else {
+                        handler.startElement("", namespaces ? qName : "", qName, attributes);
+                    }
+                    break;
+                case HtmlStreamReader.END_ELEMENT:
+                    if ( skippedElements.get(depth) ) {
+                        skippedElements.clear(depth--);
+                        break;
+                    }
+                    depth--;
+                    String endName = streamReader.getName();
+                    if (namespaces && processName(namespaceSupport, endName, false, nameParts)) {
+                        handler.endElement(nameParts[0], nameParts[1], endName);
+                    } else {
+                        handler.endElement("", namespaces ? endName : "", endName);
+                    }
+                    if (namespaces) {
+                        Enumeration<?> prefixes = namespaceSupport.getDeclaredPrefixes();
+                        while ( prefixes.hasMoreElements() ) {
+                            handler.endPrefixMapping( (String) prefixes.nextElement() );
+                        }
+                    }
+                    namespaceSupport.popContext();
+                    break;
+                case HtmlStreamReader.CHARACTERS:
+                    char[] text = streamReader.getText().toCharArray();
+                    handler.characters(text, 0, text.length);
+                    break;
+                case HtmlStreamReader.CDATA:
+                    char[] cdata = streamReader.getText().toCharArray();
+                    if (lexicalHandler != null) {
+                        lexicalHandler.startCDATA();
+                    }
+                    handler.characters(cdata, 0, cdata.length);
+                    if (lexicalHandler != null) {
+                        lexicalHandler.endCDATA();
+                    }
+                    break;
+                case HtmlStreamReader.COMMENT:
+                    if (lexicalHandler != null) {
+                        char[] comment = streamReader.getText().toCharArray();
+                        lexicalHandler.comment(comment, 0, comment.length);
+                    }
+                    break;
+            }
+        }
+        handler.endDocument();
+    }
+
+    /**
+     * Moves the stream reader to the next event, reporting cleaner failures as fatal errors.
+     * @return false if the end of the document is reached
+     */
+    private boolean nextEvent(HtmlStreamReader streamReader, InputSource input) throws IOException, SAXException {
+        if ( !streamReader.hasNext() ) {
+            return false;
+        }
+        try {
+            return streamReader.next() != HtmlStreamReader.END_DOCUMENT;
+        } catch (HtmlCleanerException e) {
+            SAXParseException exception = new SAXParseException(e.getMessage(), input.getPublicId(), input.getSystemId(), -1, -1, e);
+            if (errorHandler != null) {
+                errorHandler.fatalError(exception);
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * Reports I/O failure to the error handler before it is thrown from parse method.
+     */
+    private void fatalError(InputSource input, IOException e) throws SAXException {
+        if (errorHandler != null) {
+            errorHandler.fatalError( new SAXParseException(e.getMessage(), input.getPublicId(), input.getSystemId(), -1, -1, e) );
+        }
+    }
+
+    /**
+     * Resolves namespace URI and local name of the qualified name.
+     * @return true if name is resolved, false if it uses undeclared prefix
+     */
+    private boolean processName(NamespaceSupport namespaceSupport, String qName, boolean isAttribute, String[] parts) {
+        if (namespaceSupport.processName(qName, parts, isAttribute) == null) {
+            return false;
+        }
+        if (parts[0] == null) {
+            parts[0] = "";
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,248 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Cleaner which is fed with the content piece by piece, as it arrives - i.e. from
+ * non-blocking channel. Each piece is parsed and balanced right away, so that parsing
+ * overlaps with receiving the rest of content, and the document built so far can be
+ * inspected at any time:</p>
+ *
+ * <xmp>
+ *   IncrementalCleaner incremental = cleaner.createIncrementalCleaner();
+ *   while (...) {
+ *       incremental.feed(chars, 0, count);
+ *       TagNode partial = incremental.snapshot();
+ *   }
+ *   TagNode document = incremental.finish();
+ * </xmp>
+ *
+ * <p>Tokenizer needs some lookahead, so up to one working buffer (1K characters) of the
+ * content fed so far may wait for the next piece, or for {@link #finish()}. A token which is
+ * cut between two pieces is parsed again from its start, but only once the content fed after
+ * its start has grown by half. Parsing a long token fed in many small pieces thus takes time
+ * linear in its length, while the token waits for at most half of its length more.</p>
+ *
+ * <p>Instances are not thread safe - the content must be fed from one thread at a time.
+ * The cleaner that created the instance may be used for other cleanings meanwhile.</p>
+ */
+public class IncrementalCleaner {
+
+    /**
+     * Exceeded limit reported by the tokenizer.
+     */
+    private static class LimitEvent {
+        private final CleanerLimits.Limit limit;
+        private final TagNode tagNode;
+
+        private LimitEvent(CleanerLimits.Limit limit, TagNode tagNode) {
+            this.limit = limit;
+            this.tagNode = tagNode;
+        }
+    }
+
+    /**
+     * Tokenizer which holds back the tokens and limit events of the current step, and
+     * remembers namespace prefixes registered by it, so that the step can be undone if the
+     * content runs out in the middle of it.
+     */
+    private static class StepTokenizer extends HtmlTokenizer {
+
+        private final HtmlCleaner cleaner;
+        // tokens and limit events, in the order they were produced
+        private final List<Object> pendingEvents = new ArrayList<Object>();
+        private final List<String> addedPrefixes = new ArrayList<String>();
+
+        StepTokenizer(HtmlCleaner cleaner, FeedReader reader, CleanTimeValues cleanTimeValues) {
+            super(cleaner, reader, cleanTimeValues);
+            this.cleaner = cleaner;
+        }
+
+        @Override
+        void handleToken(BaseToken token) {
+            pendingEvents.add(token);
+        }
+
+        @Override
+        void limitExceeded(CleanerLimits.Limit limit, TagNode tagNode) {
+            if ( cleaner.getProperties().getLimits().isFailOnLimit() ) {
+                // content read so far is over the limit whatever follows it
+                super.limitExceeded(limit, tagNode);
+            } else {
+                pendingEvents.add( new LimitEvent(limit, tagNode) );
+            }
+        }
+
+        @Override
+        void addNamespacePrefix(String prefix) {
+            if ( !getNamespacePrefixes().contains(prefix) ) {
+                addedPrefixes.add(prefix);
+                super.addNamespacePrefix(prefix);
+            }
+        }
+
+        void commit() {
+            for (Object event: pendingEvents) {
+                if (event instanceof LimitEvent) {
+                    super.limitExceeded( ((LimitEvent) event).limit, ((LimitEvent) event).tagNode );
+                } else {
+                    super.handleToken( (BaseToken) event );
+                }
+            }
+            pendingEvents.clear();
+            addedPrefixes.clear();
+        }
+
+        void rollback() {
+            pendingEvents.clear();
+            getNamespacePrefixes().removeAll(addedPrefixes);
+            addedPrefixes.clear();
+            reset();
+        }
+    }
+
+    private final HtmlCleaner cleaner;
+    private final CleanTimeValues cleanTimeValues = new CleanTimeValues();
+    private final FeedReader reader = new FeedReader();
+    private final StepTokenizer tokenizer;
+
+    private boolean begun;
+    private TagNode result;
+
+    // start of the token cut at the end of the content, and the length the content after it
+    // must exceed before the token is parsed again
+    private long pendingPosition;
+    private long retryLength = -1;
+
+    IncrementalCleaner(HtmlCleaner cleaner) {
+        this.cleaner = cleaner;
+        cleaner.beginClean(cleanTimeValues);
+        this.tokenizer = new StepTokenizer(cleaner, reader, cleanTimeValues);
+    }
+
+    /**
+     * Appends the characters to the content and parses as much of it as possible.
+     * @param chars
+     * @param offset
+     * @param length
+     * @throws IllegalStateException if cleaning is already finished
+     */
+    public void feed(char[] chars, int offset, int length) {
+        if (result != null) {
+            throw new IllegalStateException("Cleaning is already finished");
+        }
+        if (cleanTimeValues.isTruncated) {
+            // node limit is reached, so the rest of the content is ignored
+            return;
+        }
+        reader.feed(chars, offset, length);
+        if (reader.getFedLength() - pendingPosition > retryLength) {
+            process();
+        }
+    }
+
+    /**
+     * Appends the string to the content and parses as much of it as possible.
+     * @param content
+     * @throws IllegalStateException if cleaning is already finished
+     */
+    public void feed(String content) {
+        char[] chars = content.toCharArray();
+        feed(chars, 0, chars.length);
+    }
+
+    /**
+     * Declares the end of content, parses the rest of it and builds the document, exactly as
+     * {@link HtmlCleaner#clean(String)} would do for the whole content.
+     * @return Root of the cleaned document. Subsequent calls return the same node.
+     */
+    public TagNode finish() {
+        if (result == null) {
+            reader.finish();
+            process();
+            result = cleaner.finishClean(tokenizer, cleanTimeValues);
+        }
+        return result;
+    }
+
+    /**
+     * Builds the document from the content parsed so far, as if the content ended there.
+     * Cleaning goes on unaffected, and the returned tree is independent of it.
+     * @return Root of the document built so far, or the final document if cleaning is finished.
+     */
+    public TagNode snapshot() {
+        if (result != null) {
+            return result;
+        }
+        return cleaner.snapshotClean(tokenizer, cleanTimeValues);
+    }
+
+    /**
+     * @return true if {@link #finish()} was already called.
+     */
+    public boolean isFinished() {
+        return result != null;
+    }
+
+    private void process() {
+        long position = 0;
+        try {
+            while (true) {
+                position = tokenizer.mark();
+                reader.release(position);
+                if (!begun) {
+                    tokenizer.begin();
+                    begun = true;
+                } else if ( !tokenizer.advance() ) {
+                    break;
+                }
+                tokenizer.commit();
+            }
+        } catch (FeedReader.InputExhaustedException e) {
+            tokenizer.rollback();
+            reader.rewind(position);
+            long pendingLength = reader.getFedLength() - position;
+            pendingPosition = position;
+            retryLength = pendingLength + pendingLength / 2;
+        } catch (IOException e) {
+            // should never happen because reading from memory
+            throw new HtmlCleanerException(e);
+        }
+    }
+
+}
@@ -108,9 +108,9 @@ public class JDomSerializer {
     }
 
     private void setAttributes(TagNode node, Element element) {
-        for (Map.Entry<String, String> entry : node.getAttributes().entrySet()) {
-            String attrName = entry.getKey();
-            String attrValue = entry.getValue();
+        for (int i = 0; i < node.getAttributeCount(); i++) {
+            String attrName = node.getAttributeName(i);
+            String attrValue = node.getAttributeValue(i);
             if (escapeXml) {
                 attrValue = Utils.escapeXml(attrValue, props, true);
             }
@@ -209,6 +209,15 @@ public abstract class Serializer {
         return getAsString(tagNode, false);
     }
 
+    /**
+     * @param document Frozen document to serialize to string
+     * @return Output as string
+     * @see #write(FrozenDocument, Writer, String)
+     */
+    public String getAsString(FrozenDocument document) {
+        return getAsString(document.toSerializedNode());
+    }
+
     public String getAsString(String htmlContent) {
         HtmlCleaner htmlCleaner = new HtmlCleaner(this.props);
         TagNode tagNode = htmlCleaner.clean(htmlContent);
@@ -263,6 +272,49 @@ public abstract class Serializer {
     }
 
 
+    /**
+     * Writes frozen document using specified writer. Output is the same as for the tree the
+     * document was frozen from, but the tree is not rebuilt: {@link #serialize(TagNode, Writer)}
+     * gets read-only views of the elements, which create their children when asked for them by
+     * {@link TagNode#getAllChildren()} and have no parent.
+     * @param document Frozen document to serialize.
+     * @param writer Writer instance
+     * @param charset Charset of the output
+     * @throws IOException
+     */
+    public void write(FrozenDocument document, Writer writer, String charset) throws IOException {
+        write(document.toSerializedNode(), writer, charset, false);
+    }
+
+    /**
+     * Writes children of the specified node using specified writer, without the node's own
+     * open and close tags. Children are serialized in the context of the node, the same way
+     * as when the whole node is written, and neither xml declaration nor doctype is written.
+     * Writer is flushed but not closed.
+     * @param tagNode Node which children are serialized
+     * @param writer Writer instance
+     * @throws IOException
+     */
+    public void writeChildren(TagNode tagNode, Writer writer) throws IOException {
+        serializeChildren(tagNode, writer);
+        writer.flush();
+    }
+
+    /**
+     * Serializes children of the node. Descendants escaping the content override this to
+     * escape it according to the node in which it is.
+     * @param tagNode Node which children are serialized
+     * @param writer Writer instance
+     * @throws IOException
+     */
+    protected void serializeChildren(TagNode tagNode, Writer writer) throws IOException {
+        for (BaseToken item: tagNode.getAllChildren()) {
+            if (item != null) {
+                item.serialize(this, writer);
+            }
+        }
+    }
+
     protected boolean isScriptOrStyle(TagNode tagNode) {
         String tagName = tagNode.getName();
         return "script".equalsIgnoreCase(tagName) || "style".equalsIgnoreCase(tagName);
@@ -52,15 +52,7 @@ public class SimpleHtmlSerializer extends HtmlSerializer {
         serializeOpenTag(tagNode, writer, false);
 
         if ( !isMinimizedTagSyntax(tagNode) ) {
-            for (Object item: tagNode.getAllChildren()) {
-                if ( item instanceof ContentNode) {
-                    String content = item.toString();
-                    writer.write( dontEscape(tagNode) ? content : escapeText(content) );
-                } else if (item instanceof BaseToken) {
-                    ((BaseToken)item).serialize(this, writer);
-                }
-            }
-
+            serializeChildren(tagNode, writer);
             serializeEndTag(tagNode, writer, false);
         }
     }
@@ -39,8 +39,6 @@ package org.htmlcleaner;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Iterator;
-import java.util.List;
 
 /**
  * <p>Simple XML serializer - creates resulting XML without indenting lines.</p>
@@ -54,24 +52,9 @@ public class SimpleXmlSerializer extends XmlSerializer {
     @Override
     protected void serialize(TagNode tagNode, Writer writer) throws IOException {
         serializeOpenTag(tagNode, writer, false);
-        
-        List<? extends BaseToken> tagChildren = tagNode.getAllChildren();
-        if ( !isMinimizedTagSyntax(tagNode) ) {
-            Iterator<? extends BaseToken> childrenIt = tagChildren.iterator();
-            while ( childrenIt.hasNext() ) {
-                Object item = childrenIt.next();
-                   	
-                if (item != null) {
-                	if (item instanceof CData) {
-                		serializeCData((CData)item, tagNode, writer);
-                	} else if ( item instanceof ContentNode ) {
-                        serializeContentToken((ContentNode)item, tagNode, writer);
-                    } else {
-                        ((BaseToken)item).serialize(this, writer);
-                    }
-                }
-            }
 
+        if ( !isMinimizedTagSyntax(tagNode) ) {
+            serializeChildren(tagNode, writer);
             serializeEndTag(tagNode, writer, false);
         }
     }
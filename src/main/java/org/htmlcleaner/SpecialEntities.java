@@ -64,6 +64,10 @@ public class SpecialEntities {
 	 * Key is the Integer returned by {@link SpecialEntity#intValue()}
 	 */
 	private Map<Integer, SpecialEntity> entitiesByUnicodeCharcode = new HashMap<Integer, SpecialEntity>();
+	/**
+	 * Character trie of the entity keys, used to match entities directly in the text
+	 */
+	private final TrieNode trie = new TrieNode();
 	private boolean greek;
 	private boolean math;
 	private int maxEntityLength;
@@ -465,6 +469,44 @@ public class SpecialEntities {
 	    return specialEntity;
 	}
 
+	/**
+	 * Finds entity which key is exactly the given part of the text, without creating substrings.
+	 * @param text text containing entity key
+	 * @param start index of the first character of the key (the one after &)
+	 * @param end index after the last character of the key
+	 * @return {@link SpecialEntity} if found.
+	 */
+	public SpecialEntity getSpecialEntity(CharSequence text, int start, int end) {
+	    TrieNode node = trie;
+	    for (int i = start; i < end && node != null; i++) {
+	        node = node.getChild(text.charAt(i));
+	    }
+	    return node != null ? node.entity : null;
+	}
+
+	/**
+	 * Matches entity key starting at the given position of the text. Key has to be terminated
+	 * by ; or by the end of the text, as with {@link #getSpecialEntity(String)}.
+	 * @param text text containing entity
+	 * @param start index of the first character of the key (the one after &)
+	 * @return {@link SpecialEntity} if found.
+	 */
+	public SpecialEntity matchSpecialEntity(CharSequence text, int start) {
+	    int length = text.length();
+	    TrieNode node = trie;
+	    for (int i = start; i < length; i++) {
+	        char ch = text.charAt(i);
+	        if (ch == ';') {
+	            break;
+	        }
+	        node = node.getChild(ch);
+	        if (node == null) {
+	            return null;
+	        }
+	    }
+	    return node.entity;
+	}
+
 	public SpecialEntity getSpecialEntityByUnicode(int unicodeCharcode) {
 	    return this.entitiesByUnicodeCharcode.get(unicodeCharcode);
 	}
@@ -487,8 +529,51 @@ public class SpecialEntities {
             throw new HtmlCleanerException("replaced "+old+" with "+specialEntity);
         }
         this.maxEntityLength = Math.max(this.maxEntityLength,specialEntity.getKey().length());
+        String key = specialEntity.getKey();
+        TrieNode node = trie;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.addChild(key.charAt(i));
+        }
+        node.entity = specialEntity;
     }
     public int getMaxEntityLength() {
         return maxEntityLength;
     }
-}
\ No newline at end of file
+
+    /**
+     * Node of the entity key trie. Children are kept in small parallel arrays since entity keys
+     * use only letters and digits, so nodes have few children.
+     */
+    private static class TrieNode {
+        private char[] chars = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private SpecialEntity entity;
+
+        TrieNode getChild(char ch) {
+            char[] chars = this.chars;
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == ch) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        TrieNode addChild(char ch) {
+            TrieNode child = getChild(ch);
+            if (child == null) {
+                int count = chars.length;
+                char[] newChars = new char[count + 1];
+                TrieNode[] newChildren = new TrieNode[count + 1];
+                System.arraycopy(chars, 0, newChars, 0, count);
+                System.arraycopy(children, 0, newChildren, 0, count);
+                child = new TrieNode();
+                newChars[count] = ch;
+                newChildren[count] = child;
+                chars = newChars;
+                children = newChildren;
+            }
+            return child;
+        }
+    }
+}
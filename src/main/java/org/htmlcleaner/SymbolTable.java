@@ -0,0 +1,193 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.htmlcleaner;
+
+/**
+ * <p>Table of tag and attribute names met during parsing.</p>
+ *
+ * <p>Names are interned straight from the tokenizer's character buffer, so every repeated
+ * name resolves to the same String instance without allocating. Each symbol also keeps its
+ * lower case variant and lazily resolved tag info for both spellings, so consumers of the
+ * symbol don't need to consult the tag info provider again. Hashing folds ASCII letters, which
+ * puts all spellings of the same name into the same bucket.</p>
+ *
+ * <p>The table is not thread safe - it belongs to a single {@link CleanTimeValues} instance.</p>
+ */
+class SymbolTable {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Interned name, together with its lower case variant and resolved tag infos.
+     */
+    static final class Symbol {
+
+        final String name;
+        final int hash;
+        Symbol lowerCase;
+        Symbol next;
+
+        private ITagInfoProvider tagInfoProvider;
+        private TagInfo tagInfo;
+
+        private Symbol(String name, int hash, Symbol next) {
+            this.name = name;
+            this.hash = hash;
+            this.next = next;
+        }
+
+        /**
+         * @param provider
+         * @return Info of the tag with exactly this name, as given by the provider. It is
+         * resolved once, and again only if a different provider is used.
+         */
+        TagInfo getTagInfo(ITagInfoProvider provider) {
+            if (provider != tagInfoProvider) {
+                tagInfo = provider.getTagInfo(name);
+                tagInfoProvider = provider;
+            }
+            return tagInfo;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private Symbol[] buckets = new Symbol[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param chars
+     * @param offset
+     * @param length
+     * @return Symbol for the name given by the characters, created if the name is not yet in the table.
+     */
+    Symbol lookup(char[] chars, int offset, int length) {
+        int hash = hash(chars, offset, length);
+        Symbol symbol = find(chars, offset, length, hash);
+        if (symbol == null) {
+            symbol = add(new String(chars, offset, length), hash);
+        }
+        return symbol;
+    }
+
+    /**
+     * @param name
+     * @return Symbol for the name, created if the name is not yet in the table.
+     */
+    Symbol lookup(String name) {
+        return lookup( name.toCharArray(), 0, name.length() );
+    }
+
+    /**
+     * @return Number of symbols in the table.
+     */
+    int size() {
+        return size;
+    }
+
+    private Symbol find(char[] chars, int offset, int length, int hash) {
+        Symbol symbol = buckets[hash & (buckets.length - 1)];
+        while (symbol != null) {
+            if (symbol.hash == hash && equals(symbol.name, chars, offset, length)) {
+                return symbol;
+            }
+            symbol = symbol.next;
+        }
+        return null;
+    }
+
+    private Symbol add(String name, int hash) {
+        if (size >= buckets.length * 3 / 4) {
+            rehash();
+        }
+        int index = hash & (buckets.length - 1);
+        Symbol symbol = new Symbol(name, hash, buckets[index]);
+        buckets[index] = symbol;
+        size++;
+
+        String lowerCaseName = name.toLowerCase();
+        if (lowerCaseName.equals(name)) {
+            symbol.lowerCase = symbol;
+        } else {
+            char[] lowerCaseChars = lowerCaseName.toCharArray();
+            int lowerCaseHash = hash(lowerCaseChars, 0, lowerCaseChars.length);
+            Symbol lowerCase = find(lowerCaseChars, 0, lowerCaseChars.length, lowerCaseHash);
+            symbol.lowerCase = lowerCase != null ? lowerCase : add(lowerCaseName, lowerCaseHash);
+        }
+        return symbol;
+    }
+
+    private void rehash() {
+        Symbol[] newBuckets = new Symbol[buckets.length * 2];
+        for (Symbol symbol: buckets) {
+            while (symbol != null) {
+                Symbol next = symbol.next;
+                int index = symbol.hash & (newBuckets.length - 1);
+                symbol.next = newBuckets[index];
+                newBuckets[index] = symbol;
+                symbol = next;
+            }
+        }
+        buckets = newBuckets;
+    }
+
+    private static int hash(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char ch = chars[i];
+            if (ch >= 'A' && ch <= 'Z') {
+                ch += 'a' - 'A';
+            }
+            hash = 31 * hash + ch;
+        }
+        // spread higher bits, since the table uses power of two sizes
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String name, char[] chars, int offset, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,296 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * Attributes of a tag node, kept in insertion order as names and values in one array. Most
+ * tags have only a few attributes, which are found by comparing the names one by one; above
+ * {@link #LINEAR_LIMIT} attributes an open addressing index with linear probing is built, so
+ * that tags with very many attributes are not parsed in quadratic time. Tags without
+ * attributes share the same empty array.
+ * </p>
+ */
+final class TagAttributes {
+
+    private static final String[] EMPTY = new String[0];
+
+    // up to this number of attributes names are searched linearly
+    static final int LINEAR_LIMIT = 8;
+
+    // names at even and values at odd positions
+    private String[] entries = EMPTY;
+    private int size;
+    // positions of the attributes plus one by the hash of the name, or null for few attributes
+    private int[] index;
+
+    int size() {
+        return size;
+    }
+
+    String getName(int position) {
+        checkPosition(position);
+        return entries[position << 1];
+    }
+
+    String getValue(int position) {
+        checkPosition(position);
+        return entries[(position << 1) + 1];
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Attribute index: " + position + ", count: " + size);
+        }
+    }
+
+    /**
+     * @param name
+     * @return Position of the attribute with exactly the same name, or -1 if there is no such attribute.
+     */
+    int indexOf(String name) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                String current = entries[i << 1];
+                if (current == name || current.equals(name)) {
+                    return i;
+                }
+            }
+        } else if (name != null) {
+            int mask = index.length - 1;
+            for (int slot = hash(name) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+                int position = index[slot] - 1;
+                String current = entries[position << 1];
+                if (current == name || current.equals(name)) {
+                    return position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    String get(String name) {
+        int position = indexOf(name);
+        return position >= 0 ? entries[(position << 1) + 1] : null;
+    }
+
+    /**
+     * Sets the value of the existing attribute, keeping its position, or adds new attribute at the end.
+     */
+    void put(String name, String value) {
+        int position = indexOf(name);
+        if (position >= 0) {
+            entries[(position << 1) + 1] = value;
+            return;
+        }
+        if ( (size << 1) == entries.length ) {
+            String[] grown = new String[Math.max(4, entries.length << 1)];
+            System.arraycopy(entries, 0, grown, 0, size << 1);
+            entries = grown;
+        }
+        entries[size << 1] = name;
+        entries[(size << 1) + 1] = value;
+        size++;
+        if (index != null && (size << 1) <= index.length) {
+            addToIndex(size - 1);
+        } else if (size > LINEAR_LIMIT) {
+            buildIndex();
+        }
+    }
+
+    void putAll(TagAttributes attributes) {
+        for (int i = 0; i < attributes.size; i++) {
+            put( attributes.entries[i << 1], attributes.entries[(i << 1) + 1] );
+        }
+    }
+
+    void putAll(Map<String, String> attributes) {
+        for (Map.Entry<String, String> entry: attributes.entrySet()) {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    void remove(String name) {
+        int position = indexOf(name);
+        if (position >= 0) {
+            int from = (position + 1) << 1;
+            System.arraycopy(entries, from, entries, position << 1, (size << 1) - from);
+            size--;
+            entries[size << 1] = null;
+            entries[(size << 1) + 1] = null;
+            index = null;
+            if (size > LINEAR_LIMIT) {
+                buildIndex();
+            }
+        }
+    }
+
+    void clear() {
+        entries = EMPTY;
+        size = 0;
+        index = null;
+    }
+
+    /**
+     * Changes all the names to lower case. Like in a map, value of a later attribute which
+     * name differs only in case replaces value of the first one.
+     */
+    void toLowerCase() {
+        for (int i = 0; i < size; i++) {
+            String name = entries[i << 1];
+            if ( !name.equals(name.toLowerCase()) ) {
+                String[] oldEntries = entries;
+                int oldSize = size;
+                clear();
+                for (int j = 0; j < oldSize; j++) {
+                    put( oldEntries[j << 1].toLowerCase(), oldEntries[(j << 1) + 1] );
+                }
+                return;
+            }
+        }
+    }
+
+    private void buildIndex() {
+        int capacity = 16;
+        while (capacity < (size << 1)) {
+            capacity <<= 1;
+        }
+        index = new int[capacity << 1];
+        for (int i = 0; i < size; i++) {
+            addToIndex(i);
+        }
+    }
+
+    private void addToIndex(int position) {
+        int mask = index.length - 1;
+        int slot = hash(entries[position << 1]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return Copy of the attributes in a new modifiable map.
+     */
+    Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            map.put( entries[i << 1], entries[(i << 1) + 1] );
+        }
+        return map;
+    }
+
+    /**
+     * @return Read-only map backed by these attributes, reflecting their later changes.
+     */
+    Map<String, String> asMap() {
+        return new View(this);
+    }
+
+    private static class View extends AbstractMap<String, String> {
+        private final TagAttributes attributes;
+        private Set<Map.Entry<String, String>> entrySet;
+
+        private View(TagAttributes attributes) {
+            this.attributes = attributes;
+        }
+
+        @Override
+        public int size() {
+            return attributes.size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && attributes.indexOf((String) key) >= 0;
+        }
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? attributes.get((String) key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Map.Entry<String, String>>() {
+                    @Override
+                    public int size() {
+                        return attributes.size;
+                    }
+
+                    @Override
+                    public Iterator<Map.Entry<String, String>> iterator() {
+                        return new Iterator<Map.Entry<String, String>>() {
+                            private int position;
+
+                            public boolean hasNext() {
+                                return position < attributes.size;
+                            }
+
+                            public Map.Entry<String, String> next() {
+                                if (position >= attributes.size) {
+                                    throw new NoSuchElementException();
+                                }
+                                Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(
+                                        attributes.entries[position << 1], attributes.entries[(position << 1) + 1]);
+                                position++;
+                                return entry;
+                            }
+
+                            public void remove() {
+                                throw new UnsupportedOperationException("Attributes view is read-only");
+                            }
+                        };
+                    }
+                };
+            }
+            return entrySet;
+        }
+    }
+
+}
@@ -104,6 +104,7 @@ import java.util.*;
 public class TagInfo {
 
     private String name;
+    private int ordinal;
     private ContentType contentType;
     private Set<String> mustCloseTags = new HashSet<String>();
     private Set<String> higherTags = new HashSet<String>();
@@ -120,8 +121,112 @@ public class TagInfo {
     private CloseTag closeTag;
     private Display display;
 
+    /**
+     * Relations compiled to bit sets, created again whenever relations are defined or set, and
+     * dropped when changed through the sets returned by the getters, to be compiled again on next
+     * use. Changes made to a set after it was passed to a setter are not seen by the cleaner.
+     */
+    private volatile Relations relations;
+
+    /**
+     * Relations to other tags as bit sets indexed by {@link TagOrdinals tag ordinal}. Each of them
+     * is a row of the decision table for this tag: a single bit tells how to treat another
+     * open or incoming tag, without hashing its name.
+     */
+    private static final class Relations {
+        private final BitSet mustClose;
+        private final BitSet higher;
+        private final BitSet children;
+        private final BitSet permitted;
+        private final BitSet copy;
+        private final BitSet continueAfter;
+
+        private Relations(TagInfo tagInfo) {
+            this.mustClose = toBitSet(tagInfo.mustCloseTags);
+            this.higher = toBitSet(tagInfo.higherTags);
+            this.children = toBitSet(tagInfo.childTags);
+            this.permitted = toBitSet(tagInfo.permittedTags);
+            this.copy = toBitSet(tagInfo.copyTags);
+            this.continueAfter = toBitSet(tagInfo.continueAfterTags);
+        }
+
+        private static BitSet toBitSet(Set<String> tagNames) {
+            BitSet bitSet = new BitSet();
+            for (String tagName: tagNames) {
+                if (tagName != null) {
+                    bitSet.set( TagOrdinals.register(tagName) );
+                }
+            }
+            return bitSet;
+        }
+    }
+
+    /**
+     * Live view of one of the relation sets, which drops the compiled relations when the set is
+     * changed through it.
+     */
+    private final class RelationSet extends AbstractSet<String> {
+        private final Set<String> tagNames;
+
+        private RelationSet(Set<String> tagNames) {
+            this.tagNames = tagNames;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            final Iterator<String> iterator = tagNames.iterator();
+            return new Iterator<String>() {
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                public String next() {
+                    return iterator.next();
+                }
+                public void remove() {
+                    iterator.remove();
+                    relations = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return tagNames.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return tagNames.contains(o);
+        }
+
+        @Override
+        public boolean add(String tagName) {
+            boolean added = tagNames.add(tagName);
+            // the name gets its ordinal right away, like when defined, so that open tags have it
+            if (tagName != null) {
+                TagOrdinals.register(tagName);
+            }
+            relations = null;
+            return added;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            boolean removed = tagNames.remove(o);
+            relations = null;
+            return removed;
+        }
+
+        @Override
+        public void clear() {
+            tagNames.clear();
+            relations = null;
+        }
+    }
+
     public TagInfo(String name, ContentType contentType, BelongsTo belongsTo, boolean deprecated, boolean unique, boolean ignorePermitted, CloseTag closeTag, Display display) {
         this.name = name;
+        this.ordinal = name == null ? -1 : TagOrdinals.register(name);
         this.contentType = contentType;
         this.belongsTo = belongsTo;
         this.deprecated = deprecated;
@@ -138,6 +243,7 @@ public class TagInfo {
             this.fatalTag = currTag;
             this.higherTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     public void defineRequiredEnclosingTags(String commaSeparatedListOfTags) {
@@ -147,6 +253,7 @@ public class TagInfo {
             this.requiredParent = currTag;
             this.higherTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     public void defineForbiddenTags(String commaSeparatedListOfTags) {
@@ -155,6 +262,7 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.permittedTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     public void defineAllowedChildrenTags(String commaSeparatedListOfTags) {
@@ -163,6 +271,7 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.childTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     public void defineHigherLevelTags(String commaSeparatedListOfTags) {
@@ -171,6 +280,7 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.higherTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     public void defineCloseBeforeCopyInsideTags(String commaSeparatedListOfTags) {
@@ -180,6 +290,7 @@ public class TagInfo {
             this.copyTags.add(currTag);
             this.mustCloseTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     public void defineCloseInsideCopyAfterTags(String commaSeparatedListOfTags) {
@@ -188,6 +299,7 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.continueAfterTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     public void defineCloseBeforeTags(String commaSeparatedListOfTags) {
@@ -196,6 +308,7 @@ public class TagInfo {
             String currTag = tokenizer.nextToken();
             this.mustCloseTags.add(currTag);
         }
+        this.relations = new Relations(this);
     }
 
     // getters and setters
@@ -215,6 +328,14 @@ public class TagInfo {
 
 	public void setName(String name) {
         this.name = name;
+        this.ordinal = name == null ? -1 : TagOrdinals.register(name);
+    }
+
+    /**
+     * @return Ordinal of this tag's name, used to index the relations of other tags.
+     */
+    int getOrdinal() {
+        return ordinal;
     }
 
     public ContentType getContentType() {
@@ -222,51 +343,57 @@ public class TagInfo {
     }
 
     public Set<String> getMustCloseTags() {
-        return mustCloseTags;
+        return new RelationSet(mustCloseTags);
     }
 
     public void setMustCloseTags(Set<String> mustCloseTags) {
         this.mustCloseTags = mustCloseTags;
+        this.relations = new Relations(this);
     }
 
     public Set<String> getHigherTags() {
-        return higherTags;
+        return new RelationSet(higherTags);
     }
 
     public void setHigherTags(Set<String> higherTags) {
         this.higherTags = higherTags;
+        this.relations = new Relations(this);
     }
 
     public Set<String> getChildTags() {
-        return childTags;
+        return new RelationSet(childTags);
     }
 
     public void setChildTags(Set<String> childTags) {
         this.childTags = childTags;
+        this.relations = new Relations(this);
     }
 
     public Set<String> getPermittedTags() {
-        return permittedTags;
+        return new RelationSet(permittedTags);
     }
 
     public void setPermittedTags(Set<String> permittedTags) {
         this.permittedTags = permittedTags;
+        this.relations = new Relations(this);
     }
 
     public Set<String> getCopyTags() {
-        return copyTags;
+        return new RelationSet(copyTags);
     }
 
     public void setCopyTags(Set<String> copyTags) {
         this.copyTags = copyTags;
+        this.relations = new Relations(this);
     }
 
     public Set<String> getContinueAfterTags() {
-        return continueAfterTags;
+        return new RelationSet(continueAfterTags);
     }
 
     public void setContinueAfterTags(Set<String> continueAfterTags) {
         this.continueAfterTags = continueAfterTags;
+        this.relations = new Relations(this);
     }
 
     public String getRequiredParent() {
@@ -321,18 +448,56 @@ public class TagInfo {
         this.ignorePermitted = ignorePermitted;
     }
 
+    public CloseTag getCloseTag() {
+        return closeTag;
+    }
+
     // other functionality
 
+    /**
+     * @return Relations compiled from the current relation sets.
+     */
+    private Relations relations() {
+        Relations compiled = relations;
+        if (compiled == null) {
+            compiled = new Relations(this);
+            relations = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * @return Ordinals of the higher level tags, not to be changed.
+     */
+    BitSet getHigherTagOrdinals() {
+        return relations().higher;
+    }
+
+    /**
+     * @return Ordinals of the forbidden tags, not to be changed.
+     */
+    BitSet getPermittedTagOrdinals() {
+        return relations().permitted;
+    }
+
     boolean allowsBody() {
     	return ContentType.none != contentType;
     }
 
     boolean isHigher(String tagName) {
-    	return higherTags.contains(tagName);
+    	return isHigher( TagOrdinals.find(tagName) );
+    }
+
+    boolean isHigher(int tagOrdinal) {
+        return tagOrdinal >= 0 && relations().higher.get(tagOrdinal);
     }
 
     boolean isCopy(String tagName) {
-    	return copyTags.contains(tagName);
+    	return isCopy( TagOrdinals.find(tagName) );
+    }
+
+    boolean isCopy(int tagOrdinal) {
+        return tagOrdinal >= 0 && relations().copy.get(tagOrdinal);
     }
 
     boolean hasCopyTags() {
@@ -340,7 +505,11 @@ public class TagInfo {
     }
 
     boolean isContinueAfter(String tagName) {
-    	return continueAfterTags.contains(tagName);
+    	return isContinueAfter( TagOrdinals.find(tagName) );
+    }
+
+    boolean isContinueAfter(int tagOrdinal) {
+        return tagOrdinal >= 0 && relations().continueAfter.get(tagOrdinal);
     }
 
     boolean hasPermittedTags() {
@@ -357,7 +526,7 @@ public class TagInfo {
 
     boolean isMustCloseTag(TagInfo tagInfo) {
         if (tagInfo != null) {
-            return mustCloseTags.contains( tagInfo.getName() ) || tagInfo.contentType == ContentType.text;
+            return ( tagInfo.ordinal >= 0 && relations().mustClose.get(tagInfo.ordinal) ) || tagInfo.contentType == ContentType.text;
         }
 
         return false;
@@ -381,11 +550,13 @@ public class TagInfo {
         case all:
             if ( !childTags.isEmpty() ) {
                 if ( token instanceof TagToken) {
-                    return childTags.contains( ((TagToken)token).getName() );
+                    int tagOrdinal = ((TagToken)token).getOrdinal();
+                    return tagOrdinal >= 0 && relations().children.get(tagOrdinal);
                 }
     		} else if ( !permittedTags.isEmpty() ) {
                 if ( token instanceof TagToken) {
-                    return !permittedTags.contains( ((TagToken)token).getName() );
+                    int tagOrdinal = ((TagToken)token).getOrdinal();
+                    return tagOrdinal < 0 || !relations().permitted.get(tagOrdinal);
                 }
     		}
             return true;
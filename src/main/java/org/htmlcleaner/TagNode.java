@@ -41,6 +41,7 @@ import java.util.*;
 
 import org.htmlcleaner.conditional.ITagNodeCondition;
 import org.htmlcleaner.conditional.TagAllCondition;
+import org.htmlcleaner.conditional.TagNodeClassCondition;
 import org.htmlcleaner.conditional.TagNodeAttExistsCondition;
 import org.htmlcleaner.conditional.TagNodeAttValueCondition;
 import org.htmlcleaner.conditional.TagNodeNameCondition;
@@ -55,11 +56,18 @@ import org.htmlcleaner.conditional.TagNodeNameCondition;
  */
 public class TagNode extends TagToken implements HtmlNode {
     private TagNode parent;
-    private final Map<String, String> attributes = new LinkedHashMap<String, String>();
-    private final List<BaseToken> children = new ArrayList<BaseToken>();
+    private final TagAttributes attributes = new TagAttributes();
+    private final ChildList children = new ChildList(this);
     private DoctypeToken docType;
     private List<BaseToken> itemsToMove;
     private Map<String, String> nsDeclarations;
+    private DocumentIndex index;
+
+    /**
+     * Set for the nodes in the subtree of a node having an index, which have to report their
+     * changes up the tree. Changes of other nodes are not reported at all.
+     */
+    private boolean inIndexedSubtree;
 
     private transient boolean isFormed;
 
@@ -135,16 +143,64 @@ public class TagNode extends TagToken implements HtmlNode {
     	//
     	// We have to do case-insensitive comparisons
     	//	
-        return attName != null ? (String) attributes.get(attName.toLowerCase()) : null;
+        return attributes.get( toLowerCase(attName) );
+    }
+
+    /**
+     * @param name
+     * @return Name in lower case, the same instance if it has no upper case letters.
+     */
+    private static String toLowerCase(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if ( ch >= 128 || (ch >= 'A' && ch <= 'Z') ) {
+                return name.toLowerCase();
+            }
+        }
+        return name;
     }
 
     /**
      * Returns the attributes of the tagnode. 
      * 
      * @return Map instance containing all attribute name/value pairs.
+     * @see #getAttributesView()
      */
     public Map<String, String> getAttributes() {
-    	return new LinkedHashMap<String, String>(this.attributes);
+    	return attributes.toMap();
+    }
+
+    /**
+     * Returns read-only view of the attributes, which reflects their later changes. Unlike
+     * {@link #getAttributes()} it doesn't copy them, so it is cheaper for reading.
+     *
+     * @return Unmodifiable map of attribute name/value pairs, in the order of the attributes.
+     */
+    public Map<String, String> getAttributesView() {
+        return attributes.asMap();
+    }
+
+    /**
+     * @return Number of attributes of the tagnode.
+     */
+    public int getAttributeCount() {
+        return attributes.size();
+    }
+
+    /**
+     * @param index index of the attribute, from 0 to {@link #getAttributeCount()} - 1
+     * @return Name of the attribute at the specified index.
+     */
+    public String getAttributeName(int index) {
+        return attributes.getName(index);
+    }
+
+    /**
+     * @param index index of the attribute, from 0 to {@link #getAttributeCount()} - 1
+     * @return Value of the attribute at the specified index.
+     */
+    public String getAttributeValue(int index) {
+        return attributes.getValue(index);
     }
     
     /**
@@ -202,7 +258,8 @@ public class TagNode extends TagToken implements HtmlNode {
     			// with different casing. If so, we keep the casing
     			//
     			if (!foreignMarkupFlagSet){
-    				for (String existingKey: this.attributes.keySet()){
+    				for (int i = 0; i < this.attributes.size(); i++){
+    					String existingKey = this.attributes.getName(i);
     					if (existingKey.equalsIgnoreCase(key)){
     						keyToSet = existingKey;
     					}
@@ -221,8 +278,22 @@ public class TagNode extends TagToken implements HtmlNode {
      */
     private void replaceAttributes(Map<String, String> attributes){
 
+    	// copied first, the map may be a view of these attributes
+    	TagAttributes replacement = new TagAttributes();
+    	replacement.putAll(attributes);
     	this.attributes.clear();
-    	this.attributes.putAll(attributes);    	
+    	this.attributes.putAll(replacement);
+    	invalidateIndex();
+    }
+
+    /**
+     * Puts the attribute as it is, without the normalization done by {@link #addAttribute(String, String)}.
+     * @param attName
+     * @param attValue
+     */
+    void putAttribute(String attName, String attValue) {
+        attributes.put(attName, attValue);
+        invalidateIndex();
     }
 
     /**
@@ -237,8 +308,8 @@ public class TagNode extends TagToken implements HtmlNode {
     	//
     	// We have to do case-insensitive comparisons
     	//
-    	for (String key: attributes.keySet()){
-    		if (key.equalsIgnoreCase(attName)) return true;
+    	for (int i = 0; i < attributes.size(); i++){
+    		if (attributes.getName(i).equalsIgnoreCase(attName)) return true;
     	}
     	
     	return false;
@@ -258,6 +329,7 @@ public class TagNode extends TagToken implements HtmlNode {
             String value = attValue == null ? "" : attValue.trim().replaceAll("\\p{Cntrl}", " ");
             if (trim.length() != 0) {
                 attributes.put(trim, value);
+                invalidateIndex();
             }
         }
     }
@@ -269,7 +341,8 @@ public class TagNode extends TagToken implements HtmlNode {
      */
     public void removeAttribute(String attName) {
         if (attName != null && !"".equals(attName.trim())) {
-            attributes.remove(attName.toLowerCase());
+            attributes.remove( toLowerCase(attName) );
+            invalidateIndex();
         }
     }
 
@@ -350,14 +423,7 @@ public class TagNode extends TagToken implements HtmlNode {
      *         child
      */
     public int getChildIndex(HtmlNode child) {
-        int index = 0;
-        for (Object curr : children) {
-            if (curr == child) {
-                return index;
-            }
-            index++;
-        }
-        return -1;
+        return children.find(child);
     }
 
     /**
@@ -403,6 +469,24 @@ public class TagNode extends TagToken implements HtmlNode {
         return parent;
     }
 
+    /**
+     * @return Node following this one in the children of its parent, or null if this node is the
+     *         last child or the root node.
+     */
+    public BaseToken getNextSibling() {
+        int index = parent != null ? parent.children.find(this) : -1;
+        return index >= 0 && index + 1 < parent.children.size() ? parent.children.get(index + 1) : null;
+    }
+
+    /**
+     * @return Node preceding this one in the children of its parent, or null if this node is the
+     *         first child or the root node.
+     */
+    public BaseToken getPreviousSibling() {
+        int index = parent != null ? parent.children.find(this) : -1;
+        return index > 0 ? parent.children.get(index - 1) : null;
+    }
+
     public DoctypeToken getDocType() {
         return docType;
     }
@@ -420,11 +504,8 @@ public class TagNode extends TagToken implements HtmlNode {
         } else if (child instanceof ProxyTagNode) {
             children.add(((ProxyTagNode) child).getToken());
         } else if (child instanceof BaseToken){
+            // the list sets this node as the parent of the child
             children.add((BaseToken)child);
-            if (child instanceof TagNode) {
-                TagNode childTagNode = (TagNode) child;
-                childTagNode.parent = this;
-            }
         } else {
         	throw new RuntimeException("Attempted to add invalid child object to TagNode; class="+child.getClass());
         }
@@ -469,6 +550,27 @@ public class TagNode extends TagToken implements HtmlNode {
         return null;
     }
     
+    /**
+     * Finds first element that satisfies specified condition among the elements taken from the
+     * index, or in the tree if the query can't use the index.
+     *
+     * @param condition
+     * @param isRecursive
+     * @param indexed Elements from the index that may satisfy the condition, null if not indexed
+     * @return First TagNode found, or null if no such elements.
+     */
+    private TagNode findElement(ITagNodeCondition condition, boolean isRecursive, List<TagNode> indexed) {
+        if (indexed == null) {
+            return findElement(condition, isRecursive);
+        }
+        for (TagNode node: indexed) {
+            if (condition.satisfy(node)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
     /**
      * Get all elements in the tree that satisfy specified condition.
      * @param condition
@@ -476,22 +578,20 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return List of TagNode instances.
      */
     private List<TagNode> findMatchingTagNodes(ITagNodeCondition condition, boolean isRecursive){
-        List<TagNode> result = new LinkedList<TagNode>();
+        List<TagNode> result = new ArrayList<TagNode>();
         if (condition == null) {
             return result;
         }
 
-        for (Object item : children) {
-            if (item instanceof TagNode) {
-                TagNode currNode = (TagNode) item;
-                if (condition.satisfy(currNode)) {
-                    result.add(currNode);
-                }
-                if (isRecursive) {
-                    List<TagNode> innerList = currNode.findMatchingTagNodes(condition, isRecursive);
-                    if (innerList != null && innerList.size() > 0) {
-                        result.addAll(innerList);
-                    }
+        if (isRecursive) {
+            TagNodeIterator iterator = new TagNodeIterator(this, condition);
+            while (iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+        } else {
+            for (Object item : children) {
+                if (item instanceof TagNode && condition.satisfy((TagNode) item)) {
+                    result.add((TagNode) item);
                 }
             }
         }
@@ -499,6 +599,54 @@ public class TagNode extends TagToken implements HtmlNode {
         return result;	
     }
 
+    /**
+     * Iterates the descendant elements of this node that satisfy specified condition, in
+     * document order. Unlike {@link #getElementList(ITagNodeCondition, boolean)}, elements are
+     * found only as they are requested, so the search stops as soon as the caller does.
+     *
+     * @param condition Condition elements must satisfy, or null for all the elements
+     * @return Lazy iterable over the matching elements
+     * @see TagNodeIterator
+     */
+    public Iterable<TagNode> elements(final ITagNodeCondition condition) {
+        return new Iterable<TagNode>() {
+            public Iterator<TagNode> iterator() {
+                return elementIterator(condition);
+            }
+        };
+    }
+
+    /**
+     * @param condition Condition elements must satisfy, or null for all the elements
+     * @return Iterator over the descendant elements of this node that satisfy the condition,
+     *         in document order, which can be split by subtrees.
+     * @see #elements(ITagNodeCondition)
+     */
+    public TagNodeIterator elementIterator(ITagNodeCondition condition) {
+        return new TagNodeIterator(this, condition);
+    }
+
+    /**
+     * Gets elements that satisfy specified condition among the elements taken from the index,
+     * or in the tree if the query can't use the index.
+     * @param condition
+     * @param isRecursive
+     * @param indexed Elements from the index that may satisfy the condition, null if not indexed
+     * @return List of TagNode instances.
+     */
+    private List<TagNode> findMatchingTagNodes(ITagNodeCondition condition, boolean isRecursive, List<TagNode> indexed) {
+        if (indexed == null) {
+            return findMatchingTagNodes(condition, isRecursive);
+        }
+        List<TagNode> result = new ArrayList<TagNode>();
+        for (TagNode node: indexed) {
+            if (condition.satisfy(node)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
     /**
      * Get all elements in the tree that satisfy specified condition.
      *
@@ -516,7 +664,11 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return The array of all subelements that satisfy specified condition.
      */
     private TagNode[] getElements(ITagNodeCondition condition, boolean isRecursive) {
-        final List<TagNode> list = findMatchingTagNodes(condition, isRecursive);
+        return getElements(condition, isRecursive, null);
+    }
+
+    private TagNode[] getElements(ITagNodeCondition condition, boolean isRecursive, List<TagNode> indexed) {
+        final List<TagNode> list = findMatchingTagNodes(condition, isRecursive, indexed);
         TagNode array[];
         if (list == null) {
             array = new TagNode[0];
@@ -535,39 +687,204 @@ public class TagNode extends TagToken implements HtmlNode {
     }
 
     public TagNode findElementByName(String findName, boolean isRecursive) {
-        return findElement(new TagNodeNameCondition(findName), isRecursive);
+        return findElement(new TagNodeNameCondition(findName), isRecursive, indexedByName(findName, isRecursive));
     }
 
     public List<? extends TagNode> getElementListByName(String findName, boolean isRecursive) {
-        return getElementList(new TagNodeNameCondition(findName), isRecursive);
+        return findMatchingTagNodes(new TagNodeNameCondition(findName), isRecursive, indexedByName(findName, isRecursive));
     }
 
     public TagNode[] getElementsByName(String findName, boolean isRecursive) {
-        return getElements(new TagNodeNameCondition(findName), isRecursive);
+        return getElements(new TagNodeNameCondition(findName), isRecursive, indexedByName(findName, isRecursive));
     }
 
     public TagNode findElementHavingAttribute(String attName, boolean isRecursive) {
-        return findElement(new TagNodeAttExistsCondition(attName), isRecursive);
+        return findElement(new TagNodeAttExistsCondition(attName), isRecursive, indexedByAttribute(attName, isRecursive));
     }
 
     public List<? extends TagNode> getElementListHavingAttribute(String attName, boolean isRecursive) {
-        return getElementList(new TagNodeAttExistsCondition(attName), isRecursive);
+        return findMatchingTagNodes(new TagNodeAttExistsCondition(attName), isRecursive, indexedByAttribute(attName, isRecursive));
     }
 
     public TagNode[] getElementsHavingAttribute(String attName, boolean isRecursive) {
-        return getElements(new TagNodeAttExistsCondition(attName), isRecursive);
+        return getElements(new TagNodeAttExistsCondition(attName), isRecursive, indexedByAttribute(attName, isRecursive));
     }
 
     public TagNode findElementByAttValue(String attName, String attValue, boolean isRecursive, boolean isCaseSensitive) {
-        return findElement(new TagNodeAttValueCondition(attName, attValue, isCaseSensitive), isRecursive);
+        return findElement(new TagNodeAttValueCondition(attName, attValue, isCaseSensitive), isRecursive,
+                indexedByAttValue(attName, attValue, isRecursive, isCaseSensitive));
     }
 
     public List<? extends TagNode> getElementListByAttValue(String attName, String attValue, boolean isRecursive, boolean isCaseSensitive) {
-        return getElementList(new TagNodeAttValueCondition(attName, attValue, isCaseSensitive), isRecursive);
+        return findMatchingTagNodes(new TagNodeAttValueCondition(attName, attValue, isCaseSensitive), isRecursive,
+                indexedByAttValue(attName, attValue, isRecursive, isCaseSensitive));
     }
 
     public TagNode[] getElementsByAttValue(String attName, String attValue, boolean isRecursive, boolean isCaseSensitive) {
-        return getElements(new TagNodeAttValueCondition(attName, attValue, isCaseSensitive), isRecursive);
+        return getElements(new TagNodeAttValueCondition(attName, attValue, isCaseSensitive), isRecursive,
+                indexedByAttValue(attName, attValue, isRecursive, isCaseSensitive));
+    }
+
+    /**
+     * @param className
+     * @param isRecursive
+     * @return First element having specified class in its class attribute, or null if no such elements.
+     * @see TagNodeClassCondition
+     */
+    public TagNode findElementByClass(String className, boolean isRecursive) {
+        return findElement(new TagNodeClassCondition(className), isRecursive, indexedByClass(className, isRecursive));
+    }
+
+    /**
+     * @param className
+     * @param isRecursive
+     * @return List of elements having specified class in their class attribute.
+     * @see TagNodeClassCondition
+     */
+    public List<? extends TagNode> getElementListByClass(String className, boolean isRecursive) {
+        return findMatchingTagNodes(new TagNodeClassCondition(className), isRecursive, indexedByClass(className, isRecursive));
+    }
+
+    /**
+     * @param className
+     * @param isRecursive
+     * @return Array of elements having specified class in their class attribute.
+     * @see TagNodeClassCondition
+     */
+    public TagNode[] getElementsByClass(String className, boolean isRecursive) {
+        return getElements(new TagNodeClassCondition(className), isRecursive, indexedByClass(className, isRecursive));
+    }
+
+    /**
+     * Turns on or off the index of the elements in this node's subtree. When it is on, recursive
+     * queries on this node by tag name, attribute, attribute value and class take the elements
+     * from the index instead of searching the whole subtree, and so do XPath steps like
+     * <code>//name</code> evaluated against this node. The index is built on the first such
+     * query and is built again after any change in the subtree, so it pays off for documents
+     * which are queried many times between changes, typically for the root node of a document
+     * which is only read after cleaning.
+     *
+     * @param indexed
+     */
+    public void setIndexed(boolean indexed) {
+        if (!indexed) {
+            index = null;
+        } else if (index == null) {
+            index = new DocumentIndex(this);
+            for (BaseToken child: children) {
+                if (child instanceof TagNode) {
+                    ((TagNode) child).markIndexedSubtree();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether recursive queries on this node use the index.
+     * @see #setIndexed(boolean)
+     */
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Drops indexes of this node and its ancestors, as the content of their subtrees changed.
+     */
+    void invalidateIndex() {
+        if (index == null && !inIndexedSubtree) {
+            return;
+        }
+        for (TagNode node = this; node != null; node = node.parent) {
+            if (node.index != null) {
+                node.index.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Called when the child is added to this node's children, however it was added, to become
+     * its parent, to drop the indexes and to include the child's subtree in them.
+     * @param child
+     */
+    void childAdded(BaseToken child) {
+        if (child instanceof TagNode) {
+            ((TagNode) child).parent = this;
+        }
+        if (index != null || inIndexedSubtree) {
+            if (child instanceof TagNode) {
+                ((TagNode) child).markIndexedSubtree();
+            }
+            invalidateIndex();
+        }
+    }
+
+    /**
+     * Called when the child is removed from this node's children, to leave the child's subtree
+     * out of the indexes, unless the child is still in the tree. Indexes are dropped separately.
+     * @param child
+     */
+    void childRemoved(BaseToken child) {
+        if ( (index != null || inIndexedSubtree) && child instanceof TagNode ) {
+            TagNode childTagNode = (TagNode) child;
+            if ( childTagNode.parent == this && children.find(child) < 0 ) {
+                childTagNode.unmarkIndexedSubtree();
+            }
+        }
+    }
+
+    private void unmarkIndexedSubtree() {
+        List<TagNode> stack = new ArrayList<TagNode>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            TagNode node = stack.remove(stack.size() - 1);
+            if (node.inIndexedSubtree) {
+                node.inIndexedSubtree = false;
+                // descendants of a node with its own index stay in an indexed subtree
+                if (node.index == null) {
+                    for (BaseToken child: node.children) {
+                        if (child instanceof TagNode) {
+                            stack.add((TagNode) child);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void markIndexedSubtree() {
+        List<TagNode> stack = new ArrayList<TagNode>();
+        stack.add(this);
+        while (!stack.isEmpty()) {
+            TagNode node = stack.remove(stack.size() - 1);
+            // descendants of marked nodes are already marked
+            if (!node.inIndexedSubtree) {
+                node.inIndexedSubtree = true;
+                for (BaseToken child: node.children) {
+                    if (child instanceof TagNode) {
+                        stack.add((TagNode) child);
+                    }
+                }
+            }
+        }
+    }
+
+    private List<TagNode> indexedByName(String name, boolean isRecursive) {
+        return isRecursive && index != null && name != null ? index.getByName(name) : null;
+    }
+
+    private List<TagNode> indexedByAttribute(String attName, boolean isRecursive) {
+        return isRecursive && index != null && attName != null ? index.getByAttribute(attName) : null;
+    }
+
+    private List<TagNode> indexedByAttValue(String attName, String attValue, boolean isRecursive, boolean isCaseSensitive) {
+        if (isRecursive && index != null && attName != null && attValue != null && isCaseSensitive && "id".equals(toLowerCase(attName))) {
+            return index.getById(attValue);
+        }
+        return indexedByAttribute(attName, isRecursive);
+    }
+
+    private List<TagNode> indexedByClass(String className, boolean isRecursive) {
+        return isRecursive && index != null && className != null ? index.getByClass(className) : null;
     }
 
     /**
@@ -614,7 +931,25 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return True if child object existed in the children list.
      */
     public boolean removeChild(Object child) {
-        return this.children.remove(child);
+        int index = children.find(child);
+        if (index < 0) {
+            return false;
+        }
+        children.remove(index);
+        return true;
+    }
+
+    /**
+     * Removes all the children contained in the specified set, in a single pass over the children.
+     * @param toRemove
+     */
+    void removeChildren(Set<? extends BaseToken> toRemove) {
+        Iterator<BaseToken> iterator = this.children.iterator();
+        while (iterator.hasNext()) {
+            if ( toRemove.contains(iterator.next()) ) {
+                iterator.remove();
+            }
+        }
     }
 
     /**
@@ -771,6 +1106,65 @@ public class TagNode extends TagToken implements HtmlNode {
         return isCopy;
     }
 
+    /**
+     * Creates read-only compact copy of the tree rooted in this node, meant for documents which
+     * are only queried and serialized after cleaning, and possibly kept in memory for a long time.
+     *
+     * @return Frozen copy of this node and its subtree.
+     * @see FrozenDocument
+     */
+    public FrozenDocument freeze() {
+        return FrozenDocument.freeze(this);
+    }
+
+    /**
+     * Copies this node together with its whole state used while cleaning - children, items to
+     * move, parent and flags. Nodes reachable from this one are copied as well, unless they
+     * are already in the map of copies. Other tokens are shared, since they are immutable.
+     * @param copies map of already copied nodes to their copies, by identity
+     * @return Copy of this node
+     */
+    TagNode copyState(Map<Object, Object> copies) {
+        TagNode copy = (TagNode) copies.get(this);
+        if (copy == null) {
+            copy = new TagNode(name, isCopy);
+            copies.put(this, copy);
+            copy.setRow( getRow() );
+            copy.setCol( getCol() );
+            copy.attributes.putAll(attributes);
+            if (nsDeclarations != null) {
+                copy.nsDeclarations = new TreeMap<String, String>(nsDeclarations);
+            }
+            copy.docType = docType;
+            copy.isFormed = isFormed;
+            copy.autoGenerated = autoGenerated;
+            copy.isForeignMarkup = isForeignMarkup;
+            copy.foreignMarkupFlagSet = foreignMarkupFlagSet;
+            copy.pruned = pruned;
+            for (BaseToken child: children) {
+                if (child instanceof TagNode) {
+                    TagNode childCopy = ((TagNode) child).copyState(copies);
+                    copy.children.add(childCopy);
+                    // the parent is copied as it is, even if the child was moved in the meantime
+                    TagNode childParent = ((TagNode) child).parent;
+                    childCopy.parent = childParent == null ? null : childParent.copyState(copies);
+                } else {
+                    copy.children.add(child);
+                }
+            }
+            if (itemsToMove != null) {
+                copy.itemsToMove = new ArrayList<BaseToken>();
+                for (BaseToken item: itemsToMove) {
+                    copy.itemsToMove.add( item instanceof TagNode ? ((TagNode) item).copyState(copies) : item );
+                }
+            }
+            if (parent != null) {
+                copy.parent = parent.copyState(copies);
+            }
+        }
+        return copy;
+    }
+
     /**
      * Traverses the tree and performs visitor's action on each node. It stops when it finishes all
      * the tree or when visitor returns false.
@@ -814,6 +1208,13 @@ public class TagNode extends TagToken implements HtmlNode {
 		return isForeignMarkup;
 	}
 
+	/**
+	 * @return whether the isForeignMarkup flag has been set
+	 */
+	boolean isForeignMarkupFlagSet() {
+		return foreignMarkupFlagSet;
+	}
+
 	/**
 	 * @param isForeignMarkup the isForeignMarkup to set
 	 */
@@ -826,8 +1227,9 @@ public class TagNode extends TagToken implements HtmlNode {
 		// element to lowercase.
 		//
 		if (!isForeignMarkup){
-			this.replaceAttributes(getAttributesInLowerCase());
+			attributes.toLowerCase();
 		}
+		invalidateIndex();
 	}
 	
 	/**
@@ -837,8 +1239,8 @@ public class TagNode extends TagToken implements HtmlNode {
 	 */
 	private Map<String, String> attributesToLowerCase(){
 		Map<String, String> lowerCaseAttributes = new LinkedHashMap<String, String>();
-		for (String key: attributes.keySet()){
-			lowerCaseAttributes.put(key.toLowerCase(), attributes.get(key));
+		for (int i = 0; i < attributes.size(); i++){
+			lowerCaseAttributes.put(attributes.getName(i).toLowerCase(), attributes.getValue(i));
 		}
 		return lowerCaseAttributes;
 	}
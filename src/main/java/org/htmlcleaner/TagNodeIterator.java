@@ -0,0 +1,208 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+
+/**
+ * <p>Iterator over the descendant elements of a node which satisfy a condition, in document
+ * order. Elements are found lazily, one at a time, so iteration that stops early visits only
+ * the part of the tree before the last returned element. The tree is walked with an explicit
+ * stack instead of recursion, so deep documents don't exhaust the thread's stack.</p>
+ *
+ * <p>The iterator can be split by subtrees with {@link #trySplit()}, following the contract of
+ * Spliterator.trySplit() of Java 8, so that parts of a large document can be processed by
+ * different threads, or wrapped into a spliterator where streams are available.</p>
+ *
+ * <p>The tree must not be changed during the iteration other than through {@link #remove()}.</p>
+ *
+ * @see TagNode#elementIterator(ITagNodeCondition)
+ */
+public class TagNodeIterator implements Iterator<TagNode> {
+
+    private final ITagNodeCondition condition;
+
+    // stack of nodes which children are being visited, with the index of the next child to
+    // visit and the index to stop at, or -1 for all the children
+    private TagNode[] parents;
+    private int[] nextChildren;
+    private int[] ends;
+    private int depth;
+
+    private TagNode next;
+    private TagNode lastReturned;
+    // stack index of the frame of the last returned element's parent, and the element's index
+    // among the children
+    private int lastParentFrame;
+    private int lastChildIndex;
+
+    /**
+     * @param root Node which descendants are iterated, not included itself
+     * @param condition Condition elements must satisfy, or null for all the elements
+     */
+    public TagNodeIterator(TagNode root, ITagNodeCondition condition) {
+        this(condition, 8);
+        push(root, 0, -1);
+    }
+
+    private TagNodeIterator(ITagNodeCondition condition, int capacity) {
+        this.condition = condition;
+        this.parents = new TagNode[capacity];
+        this.nextChildren = new int[capacity];
+        this.ends = new int[capacity];
+    }
+
+    public boolean hasNext() {
+        if (next == null) {
+            next = findNext();
+        }
+        return next != null;
+    }
+
+    public TagNode next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        lastReturned = next;
+        lastParentFrame = depth - 2;
+        lastChildIndex = nextChildren[depth - 2] - 1;
+        next = null;
+        return lastReturned;
+    }
+
+    /**
+     * Removes the last returned element from the tree, together with its subtree which is then
+     * not iterated. May be called after {@link #hasNext()}, in which case the element found
+     * ahead is dropped if it was in the removed subtree.
+     */
+    public void remove() {
+        if (lastReturned == null) {
+            throw new IllegalStateException();
+        }
+        int frame = lastParentFrame;
+        if (depth > frame + 1 && parents[frame + 1] == lastReturned) {
+            // still in the subtree of the removed element, anything found there is gone with it
+            while (depth > frame + 1) {
+                pop();
+            }
+            next = null;
+        }
+        TagNode parent = lastReturned.getParent();
+        if (frame >= 0 && depth > frame && parents[frame] == parent) {
+            // children before the next one to visit are not changed by looking ahead
+            parent.getAllChildren().remove(lastChildIndex);
+            nextChildren[frame]--;
+            if (ends[frame] >= 0) {
+                ends[frame]--;
+            }
+        } else if (parent != null) {
+            // iteration has already left the parent
+            parent.removeChild(lastReturned);
+        }
+        lastReturned = null;
+    }
+
+    /**
+     * Splits off the first part of the remaining elements, by dividing the children of the
+     * outermost node which has at least two children left to visit.
+     *
+     * @return Iterator over the elements preceding all the elements left to this iterator, or
+     *         null if the remaining elements cannot be split.
+     */
+    public TagNodeIterator trySplit() {
+        if (next != null) {
+            return null;
+        }
+        for (int i = 0; i < depth; i++) {
+            int end = ends[i] >= 0 ? ends[i] : parents[i].getAllChildren().size();
+            if (end - nextChildren[i] >= 2) {
+                int middle = nextChildren[i] + (end - nextChildren[i]) / 2;
+                TagNodeIterator prefix = new TagNodeIterator(condition, Math.max(8, depth - i));
+                prefix.push(parents[i], nextChildren[i], middle);
+                for (int j = i + 1; j < depth; j++) {
+                    prefix.push(parents[j], nextChildren[j], ends[j]);
+                }
+                while (depth > i + 1) {
+                    pop();
+                }
+                nextChildren[i] = middle;
+                ends[i] = end;
+                lastReturned = null;
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private TagNode findNext() {
+        while (depth > 0) {
+            int top = depth - 1;
+            TagNode parent = parents[top];
+            int end = ends[top] >= 0 ? ends[top] : parent.getAllChildren().size();
+            if (nextChildren[top] >= end) {
+                pop();
+                continue;
+            }
+            BaseToken child = parent.getAllChildren().get(nextChildren[top]++);
+            if (child instanceof TagNode) {
+                TagNode tagNode = (TagNode) child;
+                push(tagNode, 0, -1);
+                if (condition == null || condition.satisfy(tagNode)) {
+                    return tagNode;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void push(TagNode parent, int nextChild, int end) {
+        if (depth == parents.length) {
+            parents = Arrays.copyOf(parents, depth * 2);
+            nextChildren = Arrays.copyOf(nextChildren, depth * 2);
+            ends = Arrays.copyOf(ends, depth * 2);
+        }
+        parents[depth] = parent;
+        nextChildren[depth] = nextChild;
+        ends[depth] = end;
+        depth++;
+    }
+
+    private void pop() {
+        parents[--depth] = null;
+    }
+
+}
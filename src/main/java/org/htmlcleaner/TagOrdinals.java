@@ -0,0 +1,94 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+package org.htmlcleaner;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Registry of tag ordinals - small integers assigned to tag names, so that relations
+ * between tags can be kept in bit sets indexed by ordinal instead of sets of names.</p>
+ *
+ * <p>Ordinals are assigned only to names used in tag definitions (names of {@link TagInfo}
+ * instances and tags they refer to), never to names that merely occur in the cleaned content,
+ * so the registry stays as small as the tag definitions. Once assigned, the ordinal of a
+ * name never changes. The registry is shared by all tag info providers and is thread safe.</p>
+ */
+final class TagOrdinals {
+
+    private static final ConcurrentMap<String, Integer> ordinals = new ConcurrentHashMap<String, Integer>();
+    private static volatile int size;
+
+    private TagOrdinals() {
+    }
+
+    /**
+     * @param tagName
+     * @return Ordinal of the tag name, assigned if the name doesn't have one yet.
+     */
+    static int register(String tagName) {
+        Integer ordinal = ordinals.get(tagName);
+        if (ordinal == null) {
+            synchronized (ordinals) {
+                ordinal = ordinals.get(tagName);
+                if (ordinal == null) {
+                    ordinal = Integer.valueOf(size);
+                    ordinals.put(tagName, ordinal);
+                    size++;
+                }
+            }
+        }
+        return ordinal.intValue();
+    }
+
+    /**
+     * @param tagName
+     * @return Ordinal of the tag name, or -1 if the name is not used by any tag definition.
+     */
+    static int find(String tagName) {
+        if (tagName == null) {
+            return -1;
+        }
+        Integer ordinal = ordinals.get(tagName);
+        return ordinal == null ? -1 : ordinal.intValue();
+    }
+
+    /**
+     * @return Number of assigned ordinals. Since ordinals are never removed, a name that was not
+     * found keeps having no ordinal for as long as this number doesn't change.
+     */
+    static int size() {
+        return size;
+    }
+
+}
@@ -45,6 +45,13 @@ public abstract class TagToken extends BaseTokenImpl {
 
     protected String name;
 
+    private transient ITagInfoProvider tagInfoProvider;
+    private transient String tagInfoName;
+    private transient TagInfo tagInfo;
+    private transient String ordinalName;
+    private transient int ordinal = -1;
+    private transient int ordinalsCount = -1;
+
 	public TagToken() {
 	}
 
@@ -63,4 +70,44 @@ public abstract class TagToken extends BaseTokenImpl {
 
     abstract void addAttribute(String attName, String attValue);
 
+    /**
+     * Returns info of the tag with specified name, remembering it for subsequent calls with
+     * the same provider and name.
+     * @param provider
+     * @param tagName name of this tag, as used for the lookup
+     * @return Info given by the provider, or null if tag is unknown.
+     */
+    TagInfo getTagInfo(ITagInfoProvider provider, String tagName) {
+        if ( provider != tagInfoProvider || tagInfoName == null || !tagInfoName.equals(tagName) ) {
+            setTagInfo(provider, tagName, provider.getTagInfo(tagName));
+        }
+        return tagInfo;
+    }
+
+    /**
+     * Remembers info of the tag which was already resolved, i.e. by the tokenizer.
+     * @param provider
+     * @param tagName
+     * @param info
+     */
+    void setTagInfo(ITagInfoProvider provider, String tagName, TagInfo info) {
+        this.tagInfoProvider = provider;
+        this.tagInfoName = tagName;
+        this.tagInfo = info;
+    }
+
+    /**
+     * @return {@link TagOrdinals Ordinal} of this tag's name, or -1 if the name is not used by
+     * any tag definition. It is remembered until the name changes.
+     */
+    int getOrdinal() {
+        String tagName = getName();
+        if ( tagName != ordinalName || (ordinal < 0 && ordinalsCount != TagOrdinals.size()) ) {
+            ordinalsCount = TagOrdinals.size();
+            ordinal = TagOrdinals.find(tagName);
+            ordinalName = tagName;
+        }
+        return ordinal;
+    }
+
 }
\ No newline at end of file
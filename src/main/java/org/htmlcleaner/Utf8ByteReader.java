@@ -0,0 +1,210 @@
+/*  Copyright (c) 2006-2014, The HtmlCleaner Project
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * <p>Reader of UTF-8 encoded bytes, optimized for markup which is mostly ASCII.</p>
+ *
+ * <p>Runs of ASCII bytes are copied to the caller's buffer directly, and well formed multi-byte
+ * sequences are decoded in place, so no {@link CharsetDecoder} is involved in the common case.
+ * Malformed sequences are delegated to the JDK decoder, in order to be replaced exactly the
+ * same way {@link java.io.InputStreamReader} replaces them. Therefore produced characters
+ * are always the same as if the bytes were read through the standard reader.</p>
+ */
+class Utf8ByteReader extends Reader {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private ByteBuffer buffer;
+    private byte[] array;
+    private int pos;
+    private int limit;
+    private int arrayOffset;
+    private char pendingLowSurrogate;
+    private CharsetDecoder decoder;
+
+    /**
+     * @param bytes Content to read, from its position to the limit. Buffer's position is not changed.
+     */
+    Utf8ByteReader(ByteBuffer bytes) {
+        this.buffer = bytes;
+        if ( bytes.hasArray() ) {
+            this.array = bytes.array();
+            this.arrayOffset = bytes.arrayOffset();
+        }
+        this.pos = bytes.position();
+        this.limit = bytes.limit();
+    }
+
+    /**
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    Utf8ByteReader(byte[] bytes, int offset, int length) {
+        this( ByteBuffer.wrap(bytes, offset, length) );
+    }
+
+    private int byteAt(int index) {
+        return array != null ? array[arrayOffset + index] : buffer.get(index);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int count = off;
+        int end = off + len;
+        if (pendingLowSurrogate != 0) {
+            cbuf[count++] = pendingLowSurrogate;
+            pendingLowSurrogate = 0;
+        }
+        if (pos >= limit) {
+            return count > off ? count - off : -1;
+        }
+
+        while (count < end && pos < limit) {
+            // fast path - copy ASCII run
+            if (array != null) {
+                int base = arrayOffset;
+                byte[] bytes = array;
+                int max = Math.min(limit, pos + end - count);
+                while (pos < max) {
+                    byte b = bytes[base + pos];
+                    if (b < 0) {
+                        break;
+                    }
+                    cbuf[count++] = (char) b;
+                    pos++;
+                }
+            } else {
+                int max = Math.min(limit, pos + end - count);
+                while (pos < max) {
+                    byte b = buffer.get(pos);
+                    if (b < 0) {
+                        break;
+                    }
+                    cbuf[count++] = (char) b;
+                    pos++;
+                }
+            }
+            if (count >= end || pos >= limit) {
+                break;
+            }
+
+            int b1 = byteAt(pos) & 0xFF;
+            if (b1 >= 0xC2 && b1 <= 0xDF && pos + 1 < limit) {
+                int b2 = byteAt(pos + 1);
+                if ( isContinuation(b2) ) {
+                    cbuf[count++] = (char) (((b1 & 0x1F) << 6) | (b2 & 0x3F));
+                    pos += 2;
+                    continue;
+                }
+            } else if (b1 >= 0xE0 && b1 <= 0xEF && pos + 2 < limit) {
+                int b2 = byteAt(pos + 1) & 0xFF;
+                int b3 = byteAt(pos + 2);
+                boolean valid = (b1 == 0xE0 ? b2 >= 0xA0 && b2 <= 0xBF : b1 == 0xED ? b2 >= 0x80 && b2 <= 0x9F : isContinuation(b2))
+                        && isContinuation(b3);
+                if (valid) {
+                    cbuf[count++] = (char) (((b1 & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+                    pos += 3;
+                    continue;
+                }
+            } else if (b1 >= 0xF0 && b1 <= 0xF4 && pos + 3 < limit) {
+                int b2 = byteAt(pos + 1) & 0xFF;
+                int b3 = byteAt(pos + 2);
+                int b4 = byteAt(pos + 3);
+                boolean valid = (b1 == 0xF0 ? b2 >= 0x90 && b2 <= 0xBF : b1 == 0xF4 ? b2 >= 0x80 && b2 <= 0x8F : isContinuation(b2))
+                        && isContinuation(b3) && isContinuation(b4);
+                if (valid) {
+                    int codePoint = ((b1 & 0x07) << 18) | ((b2 & 0x3F) << 12) | ((b3 & 0x3F) << 6) | (b4 & 0x3F);
+                    char high = Character.highSurrogate(codePoint);
+                    char low = Character.lowSurrogate(codePoint);
+                    pos += 4;
+                    cbuf[count++] = high;
+                    if (count < end) {
+                        cbuf[count++] = low;
+                    } else {
+                        pendingLowSurrogate = low;
+                    }
+                    continue;
+                }
+            }
+
+            // malformed or truncated sequence
+            pos += malformedLength();
+            cbuf[count++] = REPLACEMENT;
+        }
+
+        return count - off;
+    }
+
+    private static boolean isContinuation(int b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * Asks the JDK decoder how many bytes at the current position form single malformed sequence.
+     */
+    private int malformedLength() {
+        if (decoder == null) {
+            decoder = Charset.forName("UTF-8").newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit( Math.min(limit, pos + 4) );
+        slice.position(pos);
+        decoder.reset();
+        CoderResult result = decoder.decode(slice, CharBuffer.allocate(4), slice.limit() == limit);
+        return result.isError() ? result.length() : 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pos = limit;
+        pendingLowSurrogate = 0;
+    }
+
+}
@@ -155,7 +155,7 @@ public class Utils {
     				if ( (advanced || recognizeUnicodeChars) && (i < len-1) && (s.charAt(i+1) == '#') ) {
     					i = convertToUnicode(s, isDomCreation, recognizeUnicodeChars, translateSpecialEntitiesToNCR, result, i+2);
     				} else if ((translateSpecialEntities || advanced) &&
-				        (code = SpecialEntities.INSTANCE.getSpecialEntity(s.substring(i, i+Math.min(10, len-i)))) != null) {
+				        (code = SpecialEntities.INSTANCE.matchSpecialEntity(s, i+1)) != null) {
 			            if (translateSpecialEntities && code.isHtmlSpecialEntity()) {
                             if (recognizeUnicodeChars) {
                                 result.append( (char)code.intValue() );
@@ -178,7 +178,7 @@ public class Utils {
 			        // known HTML entity such as &nbsp;, we output it as-is (see bug #118)
 			        //
 					} else if ((isHtmlOutput &&
-						(code = SpecialEntities.INSTANCE.getSpecialEntity(s.substring(i, i+Math.min(10, len-i)))) != null)){
+						(code = SpecialEntities.INSTANCE.matchSpecialEntity(s, i+1)) != null)){
 						result.append("&");
     				} else {
     				    result.append(transResCharsToNCR ? getAmpNcr() : "&amp;");
@@ -101,7 +101,26 @@ public class XPather {
         if (node == null) {
             throw new XPatherException("Cannot evaluate XPath expression against null value!");
         }
+        return evaluate(node);
+    }
+
+    /**
+     * Executes XPath expression against the root element of specified frozen document. Elements
+     * in the result are {@link FrozenDocument.Element} handles.
+     * @param document
+     */
+    public Object[] evaluateAgainstDocument(FrozenDocument document) throws XPatherException {
+        if (document == null) {
+            throw new XPatherException("Cannot evaluate XPath expression against null value!");
+        }
+        return evaluate(document.getRootElement());
+    }
+
+    Object[] evaluateAgainstElement(FrozenDocument.Element element) throws XPatherException {
+        return evaluate(element);
+    }
 
+    private Object[] evaluate(Object node) throws XPatherException {
         Collection collectionResult = evaluateAgainst(singleton(node), 0, tokenArray.length - 1, false, 1, 0, false, null);
         Object[] array = new Object[collectionResult.size()];
 
@@ -312,8 +331,8 @@ public class XPather {
             } else if ( "position".equals(name) ) {
                 result.add( Integer.valueOf(isFilterContext ? position : index) );
             } else if ( "text".equals(name) ) {
-                if (curr instanceof TagNode) {
-                    result.add( ((TagNode)curr).getText() );
+                if ( isElement(curr) ) {
+                    result.add( getText(curr) );
                 } else if (curr instanceof String) {
                     result.add( curr.toString() );
                 }
@@ -326,8 +345,8 @@ public class XPather {
                 Iterator it = argumentEvaluated.iterator();
                 while (it.hasNext()) {
                     Object elem = it.next();
-                    if (elem instanceof TagNode) {
-                        result.add( ((TagNode)elem).getText() );
+                    if ( isElement(elem) ) {
+                        result.add( getText(elem) );
                     } else if (elem instanceof String) {
                         result.add( elem.toString() );
                     }
@@ -477,6 +496,8 @@ public class XPather {
                     if (next instanceof TagNode) {
                         TagNode node = (TagNode) next;
                         nodes.addAll( node.getAllElementsList(true) );
+                    } else if (next instanceof FrozenDocument.Element) {
+                        nodes.addAll( ((FrozenDocument.Element) next).getAllElements(true) );
                     }
                 }
             } else {
@@ -489,13 +510,23 @@ public class XPather {
                 if (next instanceof TagNode) {
                     TagNode node = (TagNode) next;
                     if ("*".equals(name)) {
-                        result.addAll( evaluateAgainst(node.getAttributes().values(), from + 1, to, false, 1, 1, isFilterContext, null) );
+                        result.addAll( evaluateAgainst(node.getAttributesView().values(), from + 1, to, false, 1, 1, isFilterContext, null) );
                     } else {
                         String attValue = node.getAttributeByName(name);
                         if (attValue != null) {
                             result.addAll( evaluateAgainst(singleton(attValue), from + 1, to, false, 1, 1, isFilterContext, null) );
                         }
                     }
+                } else if (next instanceof FrozenDocument.Element) {
+                    FrozenDocument.Element element = (FrozenDocument.Element) next;
+                    if ("*".equals(name)) {
+                        result.addAll( evaluateAgainst(element.getAttributes().values(), from + 1, to, false, 1, 1, isFilterContext, null) );
+                    } else {
+                        String attValue = element.getAttributeByName(name);
+                        if (attValue != null) {
+                            result.addAll( evaluateAgainst(singleton(attValue), from + 1, to, false, 1, 1, isFilterContext, null) );
+                        }
+                    }
                 } else {
                     throwStandardException();
                 }
@@ -507,34 +538,40 @@ public class XPather {
             int index = 0;
             while (iterator.hasNext()) {
                 final Object next = iterator.next();
-                if (next instanceof TagNode) {
-                    TagNode node = (TagNode) next;
+                if ( isElement(next) ) {
                     index++;
                     boolean isSelf = ".".equals(name);
                     boolean isParent = "..".equals(name);
                     boolean isAll = "*".equals(name);
 
+                    if ( isRecursive && from == to && !isSelf && !isParent && !isAll
+                            && next instanceof TagNode && ((TagNode) next).isIndexed() ) {
+                        // all the descendants with the name, in document order, taken from the index
+                        result.addAll( ((TagNode) next).getElementListByName(name, true) );
+                        continue;
+                    }
+
                     Collection subnodes;
                     if (isSelf) {
-                        subnodes = singleton(node);
+                        subnodes = singleton(next);
                     } else if (isParent) {
-                        TagNode parent = node.getParent();
+                        Object parent = getParent(next);
                         subnodes = parent != null ? singleton(parent) : new ArrayList();
                     } else {
-                        subnodes = isAll ? node.getChildTagList() : node.getElementListByName(name, false);
+                        subnodes = isAll ? getChildElements(next) : getChildElementsByName(next, name);
                     }
 
                     LinkedHashSet nodeSet = new LinkedHashSet(subnodes);
                     Collection refinedSubnodes = evaluateAgainst(nodeSet, from + 1, to, false, index, nodeSet.size(), isFilterContext, null);
 
                     if (isRecursive) {
-                        List childTags = node.getChildTagList();
+                        List<?> childTags = getChildElements(next);
                         if (isSelf || isParent || isAll) {
                             result.addAll(refinedSubnodes);
                         }
                         Iterator childIterator = childTags.iterator();
                         while (childIterator.hasNext()) {
-                            TagNode childTag = (TagNode) childIterator.next();
+                            Object childTag = childIterator.next();
                             Collection childrenByName = getElementsByName(singleton(childTag), from, to, isRecursive, isFilterContext);
                             if ( !isSelf && !isParent && !isAll && refinedSubnodes.contains(childTag) ) {
                                 result.add(childTag);
@@ -552,6 +589,32 @@ public class XPather {
         }
     }
 
+    /**
+     * Elements are either tag nodes or elements of a frozen document.
+     * @param o
+     */
+    private boolean isElement(Object o) {
+        return o instanceof TagNode || o instanceof FrozenDocument.Element;
+    }
+
+    private Object getParent(Object element) {
+        return element instanceof TagNode ? ((TagNode) element).getParent() : ((FrozenDocument.Element) element).getParent();
+    }
+
+    private List<?> getChildElements(Object element) {
+        return element instanceof TagNode ? ((TagNode) element).getChildTagList() : ((FrozenDocument.Element) element).getChildElements();
+    }
+
+    private List<?> getChildElementsByName(Object element, String name) {
+        return element instanceof TagNode
+                ? ((TagNode) element).getElementListByName(name, false)
+                : ((FrozenDocument.Element) element).getElementsByName(name, false);
+    }
+
+    private CharSequence getText(Object element) {
+        return element instanceof TagNode ? ((TagNode) element).getText() : ((FrozenDocument.Element) element).getText();
+    }
+
     /**
      * Evaluates logic operation on two collections.
      * @param first
@@ -602,8 +665,8 @@ public class XPather {
     private String toText(Object o) {
         if (o == null) {
             return "";
-        } if (o instanceof TagNode) {
-            return ((TagNode)o).getText().toString();
+        } if ( isElement(o) ) {
+            return getText(o).toString();
         } else {
             return o.toString();
         }
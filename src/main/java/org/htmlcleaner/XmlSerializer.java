@@ -174,10 +174,29 @@ public abstract class XmlSerializer extends Serializer {
 		}     
 	}
 
+    /**
+     * Serializes children of the node, escaping the content unless the node is script or
+     * style written as CDATA.
+     * @param tagNode Node which children are serialized
+     * @param writer Writer instance
+     * @throws IOException
+     */
+    @Override
+    protected void serializeChildren(TagNode tagNode, Writer writer) throws IOException {
+        for (BaseToken item: tagNode.getAllChildren()) {
+            if (item instanceof CData) {
+                serializeCData((CData) item, tagNode, writer);
+            } else if (item instanceof ContentNode) {
+                serializeContentToken((ContentNode) item, tagNode, writer);
+            } else if (item != null) {
+                item.serialize(this, writer);
+            }
+        }
+    }
+
     protected void serializeOpenTag(TagNode tagNode, Writer writer, boolean newLine) throws IOException {
         if ( !isForbiddenTag(tagNode)) {
             String tagName = tagNode.getName();
-            Map<String, String> tagAtttributes = tagNode.getAttributes();
 
             // always have head and body in newline
             if (props.isAddNewlineToHeadAndBody() && isHeadOrBody(tagName)) {
@@ -185,12 +204,8 @@ public abstract class XmlSerializer extends Serializer {
             }
 
             writer.write("<" + tagName);
-            Iterator<Map.Entry<String, String>> it = tagAtttributes.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, String> entry = (Map.Entry<String,String>) it.next();
-                String attName = (String) entry.getKey();
-                String attValue = (String) entry.getValue();
-                serializeAttribute(tagNode, writer, attName, attValue);
+            for (int i = 0; i < tagNode.getAttributeCount(); i++) {
+                serializeAttribute(tagNode, writer, tagNode.getAttributeName(i), tagNode.getAttributeValue(i));
             }
 
             if ( isMinimizedTagSyntax(tagNode) ) {
@@ -243,7 +258,11 @@ public abstract class XmlSerializer extends Serializer {
      */
     protected void serializeAttribute(TagNode tagNode, Writer writer, String attName, String attValue) throws IOException {
         if (!isForbiddenAttribute(tagNode, attName, attValue)) {
-            writer.write(" " + attName + "=\"" + escapeXml(attValue) + "\"");
+            writer.write(' ');
+            writer.write(attName);
+            writer.write("=\"");
+            writer.write( escapeXml(attValue) );
+            writer.write('"');
         }
     }
     
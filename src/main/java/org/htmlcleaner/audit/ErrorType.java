@@ -120,5 +120,11 @@ public enum ErrorType {
      * <li>....
      * </ul>
      */
-    Unknown
+    Unknown,
+
+    /**
+     * One of the {@link org.htmlcleaner.CleanerLimits} was reached, so the content was flattened, truncated or
+     * cut off.
+     */
+    LimitExceeded
 }
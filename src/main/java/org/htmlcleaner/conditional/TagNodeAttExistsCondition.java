@@ -13,6 +13,6 @@ public class TagNodeAttExistsCondition implements ITagNodeCondition {
     }
 
     public boolean satisfy(TagNode tagNode) {
-        return tagNode == null ? false : tagNode.getAttributes().containsKey( attName.toLowerCase() );
+        return tagNode == null ? false : tagNode.getAttributesView().containsKey( attName.toLowerCase() );
     }
 }
\ No newline at end of file
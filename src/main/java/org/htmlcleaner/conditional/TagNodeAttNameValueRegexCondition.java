@@ -1,6 +1,5 @@
 package org.htmlcleaner.conditional;
 
-import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.htmlcleaner.TagNode;
@@ -19,8 +18,8 @@ public class TagNodeAttNameValueRegexCondition implements ITagNodeCondition {
 
     public boolean satisfy(TagNode tagNode) {
         if (tagNode != null ) {
-            for(Map.Entry<String, String>entry: tagNode.getAttributes().entrySet()) {
-                if ( (attNameRegex == null || attNameRegex.matcher(entry.getKey()).find()) && (attValueRegex == null || attValueRegex.matcher( entry.getValue() ).find())) {
+            for (int i = 0; i < tagNode.getAttributeCount(); i++) {
+                if ( (attNameRegex == null || attNameRegex.matcher(tagNode.getAttributeName(i)).find()) && (attValueRegex == null || attValueRegex.matcher( tagNode.getAttributeValue(i) ).find())) {
                     return true;
                 }
             }
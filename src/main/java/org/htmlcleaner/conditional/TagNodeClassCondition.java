@@ -0,0 +1,41 @@
+package org.htmlcleaner.conditional;
+
+import org.htmlcleaner.TagNode;
+
+/**
+ * Checks if node has specified class among the white space separated tokens of its class attribute.
+ * Classes are compared case sensitively.
+ */
+public class TagNodeClassCondition implements ITagNodeCondition {
+    private String className;
+
+    public TagNodeClassCondition(String className) {
+        this.className = className;
+    }
+
+    public boolean satisfy(TagNode tagNode) {
+        if (tagNode == null || className == null || className.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < className.length(); i++) {
+            if (Character.isWhitespace(className.charAt(i))) {
+                return false;
+            }
+        }
+        String classes = tagNode.getAttributeByName("class");
+        if (classes == null) {
+            return false;
+        }
+        int length = className.length();
+        int index = classes.indexOf(className);
+        while (index >= 0) {
+            boolean startsToken = index == 0 || Character.isWhitespace(classes.charAt(index - 1));
+            boolean endsToken = index + length == classes.length() || Character.isWhitespace(classes.charAt(index + length));
+            if (startsToken && endsToken) {
+                return true;
+            }
+            index = classes.indexOf(className, index + 1);
+        }
+        return false;
+    }
+}
@@ -1,7 +1,6 @@
 package org.htmlcleaner.conditional;
 
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 import org.htmlcleaner.ContentNode;
@@ -87,8 +86,7 @@ public class TagNodeEmptyContentCondition implements ITagNodeCondition {
     }
 
     private boolean hasIdAttributeSet(TagNode tagNode) {
-        Map < String, String > attributes = tagNode.getAttributes();
-        return !isEmptyString(attributes.get(ID_ATTRIBUTE_NAME));
+        return !isEmptyString(tagNode.getAttributesView().get(ID_ATTRIBUTE_NAME));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for cleaning of document batches in parallel.
+ */
+public class BatchCleaningTest extends AbstractHtmlCleanerTest {
+
+    private List<String> createDocuments() throws IOException {
+        String large = readFile("src/test/resources/Real_1.html");
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            documents.add(i % 50 == 0 ? large : "<p>document " + i + "<table><td>cell " + i + "</table>");
+        }
+        return documents;
+    }
+
+    private void assertSameAsSequential(List<String> documents, List<CleanResult> results) {
+        assertEquals(documents.size(), results.size());
+        for (int i = 0; i < documents.size(); i++) {
+            CleanResult result = results.get(i);
+            assertTrue(result.isSuccessful());
+            assertSame(documents.get(i), result.getSource());
+            assertEquals(serializer.getAsString(cleaner.clean(documents.get(i))), serializer.getAsString(result.getDocument()));
+        }
+    }
+
+    @Test
+    public void testDefaultPool() throws IOException {
+        List<String> documents = createDocuments();
+        assertSameAsSequential(documents, cleaner.cleanAll(documents));
+    }
+
+    @Test
+    public void testExecutors() throws IOException {
+        List<String> documents = createDocuments();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        ExecutorService threadPool = Executors.newFixedThreadPool(3);
+        try {
+            assertSameAsSequential(documents, cleaner.cleanAll(documents, pool));
+            assertSameAsSequential(documents, cleaner.cleanAll(documents, threadPool));
+        } finally {
+            pool.shutdown();
+            threadPool.shutdown();
+        }
+        Executor callerThread = new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        assertSameAsSequential(documents, cleaner.cleanAll(documents, callerThread));
+    }
+
+    @Test
+    public void testCalledFromWorker() throws Exception {
+        final List<String> documents = createDocuments();
+        final ExecutorService threadPool = Executors.newFixedThreadPool(1);
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            // the only thread of the executor is the one waiting for the batch
+            List<CleanResult> results = threadPool.submit(new Callable<List<CleanResult>>() {
+                public List<CleanResult> call() {
+                    return cleaner.cleanAll(documents, threadPool);
+                }
+            }).get(60, TimeUnit.SECONDS);
+            assertSameAsSequential(documents, results);
+
+            results = pool.submit(new Callable<List<CleanResult>>() {
+                public List<CleanResult> call() {
+                    return cleaner.cleanAll(documents, pool);
+                }
+            }).get(60, TimeUnit.SECONDS);
+            assertSameAsSequential(documents, results);
+        } finally {
+            pool.shutdown();
+            threadPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSourceTypes() throws IOException {
+        String html = "<p>paragraph<div>block &amp; text";
+        File file = new File("src/test/resources/test1.html");
+        byte[] bytes = html.getBytes(cleaner.getProperties().getCharset());
+        List<Object> sources = Arrays.<Object>asList(html, new StringBuilder(html), new StringReader(html), bytes, ByteBuffer.wrap(bytes), file);
+        List<CleanResult> results = cleaner.cleanAll(sources);
+
+        String expected = serializer.getAsString(cleaner.clean(html));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected, serializer.getAsString(results.get(i).getDocument()));
+        }
+        assertEquals(serializer.getAsString(cleaner.clean(file)), serializer.getAsString(results.get(5).getDocument()));
+
+        cleaner.getProperties().setUseMemoryMappedFiles(true);
+        results = cleaner.cleanAll(Arrays.<Object>asList(file, file));
+        assertEquals(serializer.getAsString(cleaner.clean(file)), serializer.getAsString(results.get(1).getDocument()));
+    }
+
+    @Test
+    public void testErrorsAreCaptured() {
+        File missing = new File("src/test/resources/missing.html");
+        List<Object> sources = Arrays.<Object>asList("<p>first", missing, Integer.valueOf(1), null, "<p>last");
+        List<CleanResult> results = cleaner.cleanAll(sources);
+        assertEquals(5, results.size());
+        assertTrue(results.get(0).isSuccessful());
+        assertTrue(results.get(1).getException() instanceof IOException);
+        assertNull(results.get(1).getDocument());
+        assertSame(missing, results.get(1).getSource());
+        assertTrue(results.get(2).getException() instanceof IllegalArgumentException);
+        assertFalse(results.get(3).isSuccessful());
+        assertEquals("last", results.get(4).getDocument().findElementByName("p", true).getText().toString());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertTrue(cleaner.cleanAll(Collections.emptyList()).isEmpty());
+    }
+
+}
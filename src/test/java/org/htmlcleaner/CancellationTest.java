@@ -0,0 +1,93 @@
+package org.htmlcleaner;
+
+import java.util.concurrent.TimeUnit;
+
+import org.htmlcleaner.audit.ErrorType;
+import org.htmlcleaner.audit.HtmlModificationListener;
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for stopping the cleaning by cancellation token.
+ */
+public class CancellationTest extends AbstractHtmlCleanerTest {
+
+    private static final String HTML = "<p>one<table><tr><td>cell</td></tr></table><div>two</div><script>x</script><div>three</div>";
+
+    /**
+     * Cancels the token when the table closes the paragraph.
+     */
+    private void cancelOnUnpermittedChild(final CancellationToken token) {
+        cleaner.getProperties().addHtmlModificationListener(new HtmlModificationListener() {
+            public void fireHtmlError(boolean safety, TagNode tagNode, ErrorType errorType) {
+                if (errorType == ErrorType.UnpermittedChild) {
+                    token.cancel();
+                }
+            }
+            public void fireUglyHtml(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+            public void fireConditionModification(ITagNodeCondition condition, TagNode tagNode) {
+            }
+            public void fireUserDefinedModification(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+        });
+    }
+
+    @Test
+    public void testNotCancelled() {
+        CancellationToken token = new CancellationToken();
+        assertEquals(serializer.getAsString(cleaner.clean(HTML)), serializer.getAsString(cleaner.clean(HTML, token)));
+        assertFalse(token.isCancelled());
+    }
+
+    @Test
+    public void testCancelled() {
+        CancellationToken token = new CancellationToken();
+        cancelOnUnpermittedChild(token);
+        try {
+            cleaner.clean(HTML, token);
+            fail("CleaningCancelledException expected");
+        } catch (CleaningCancelledException e) {
+            assertTrue(token.isCancelled());
+        }
+    }
+
+    @Test
+    public void testPartialResult() {
+        CancellationToken token = new CancellationToken();
+        token.setReturnPartialResult(true);
+        cancelOnUnpermittedChild(token);
+        TagNode node = cleaner.clean(HTML + HTML, token);
+        assertTrue(token.isCancelled());
+        assertEquals("one", node.findElementByName("p", true).getText().toString());
+        assertNotNull(node.findElementByName("table", true));
+        assertNull(node.findElementByName("div", true));
+    }
+
+    @Test
+    public void testDeadline() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            html.append("<p>paragraph ").append(i);
+        }
+        CancellationToken token = CancellationToken.withTimeout(0, TimeUnit.MILLISECONDS);
+        try {
+            cleaner.clean(html.toString(), token);
+            fail("CleaningCancelledException expected");
+        } catch (CleaningCancelledException e) {
+            assertTrue(token.isCancelled());
+        }
+
+        token = CancellationToken.withTimeout(1, TimeUnit.HOURS);
+        cleaner.clean(html.toString(), token);
+        assertFalse(token.isCancelled());
+    }
+
+}
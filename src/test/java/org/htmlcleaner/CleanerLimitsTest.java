@@ -0,0 +1,155 @@
+package org.htmlcleaner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.htmlcleaner.audit.ErrorType;
+import org.htmlcleaner.audit.HtmlModificationListener;
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for limits protecting the cleaner from hostile content.
+ */
+public class CleanerLimitsTest extends AbstractHtmlCleanerTest {
+
+    private List<ErrorType> addListener() {
+        final List<ErrorType> errors = new ArrayList<ErrorType>();
+        cleaner.getProperties().addHtmlModificationListener(new HtmlModificationListener() {
+            public void fireHtmlError(boolean safety, TagNode tagNode, ErrorType errorType) {
+                if (errorType == ErrorType.LimitExceeded) {
+                    errors.add(errorType);
+                }
+            }
+            public void fireUglyHtml(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+            public void fireConditionModification(ITagNodeCondition condition, TagNode tagNode) {
+            }
+            public void fireUserDefinedModification(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+        });
+        return errors;
+    }
+
+    private CleanerLimits limits() {
+        return cleaner.getProperties().getLimits();
+    }
+
+    @Test
+    public void testNoLimitsByDefault() {
+        assertEquals(0, limits().getMaxDepth());
+        assertEquals(0, limits().getMaxNodes());
+        limits().setMaxNodes(10);
+        cleaner.getProperties().reset();
+        assertEquals(0, limits().getMaxNodes());
+    }
+
+    @Test
+    public void testDepth() {
+        limits().setMaxDepth(10);
+        List<ErrorType> errors = addListener();
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            html.append("<div>");
+        }
+        html.append("text");
+        for (int i = 0; i < 100; i++) {
+            html.append("</div>");
+        }
+        html.append("<p>after</p>");
+        TagNode body = cleaner.clean(html.toString()).findElementByName("body", false);
+        assertEquals(10, body.getElementsByName("div", true).length);
+        assertEquals("text", body.getElementsByName("div", true)[9].getText().toString());
+        // end tags of the dropped tags don't close the outer ones
+        assertEquals("p", body.getChildTags()[1].getName());
+        assertEquals(90, errors.size());
+    }
+
+    @Test
+    public void testNodes() {
+        limits().setMaxNodes(5);
+        List<ErrorType> errors = addListener();
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            html.append("<p>paragraph ").append(i).append("</p>");
+        }
+        TagNode body = cleaner.clean(html.toString()).findElementByName("body", false);
+        assertEquals(5, body.getChildTags().length);
+        assertEquals("paragraph 4", body.getChildTags()[4].getText().toString());
+        assertEquals(1, errors.size());
+    }
+
+    @Test
+    public void testNodesInPieces() {
+        limits().setMaxNodes(5);
+        IncrementalCleaner incremental = cleaner.createIncrementalCleaner();
+        for (int i = 0; i < 100; i++) {
+            incremental.feed("<p>paragraph " + i + "</p>");
+        }
+        assertEquals(5, incremental.finish().findElementByName("body", false).getChildTags().length);
+    }
+
+    @Test
+    public void testAttributes() {
+        limits().setMaxAttributesPerTag(2);
+        limits().setMaxAttributeValueLength(3);
+        List<ErrorType> errors = addListener();
+        TagNode div = cleaner.clean("<div a=1 b=abcdef c=3 d=4>text</div>").findElementByName("div", true);
+        assertEquals(2, div.getAttributes().size());
+        assertEquals("1", div.getAttributeByName("a"));
+        assertEquals("abc", div.getAttributeByName("b"));
+        assertNull(div.getAttributeByName("c"));
+        assertEquals(2, errors.size());
+    }
+
+    @Test
+    public void testTextLength() {
+        limits().setMaxTextLength(10);
+        List<ErrorType> errors = addListener();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append("text/text ");
+        }
+        TagNode body = cleaner.clean("<p>" + text + "</p><!--" + text + "--><p>short</p>").findElementByName("body", false);
+        assertEquals("text/text ", body.getChildTags()[0].getText().toString());
+        assertEquals("text/text ", ((CommentNode) body.getAllChildren().get(1)).getContent());
+        assertEquals("short", body.getChildTags()[1].getText().toString());
+        assertEquals(2, errors.size());
+    }
+
+    @Test
+    public void testCopies() {
+        StringBuilder html = new StringBuilder("<b>");
+        for (int i = 0; i < 100; i++) {
+            html.append("<p>paragraph ").append(i);
+        }
+        assertTrue(cleaner.clean(html.toString()).getElementsByName("b", true).length > 100);
+
+        limits().setMaxCopies(10);
+        List<ErrorType> errors = addListener();
+        TagNode body = cleaner.clean(html.toString()).findElementByName("body", false);
+        assertEquals(11, body.getElementsByName("b", true).length);
+        assertEquals(100, body.getElementsByName("p", true).length);
+        assertEquals(1, errors.size());
+    }
+
+    @Test
+    public void testFailOnLimit() {
+        limits().setMaxDepth(2);
+        limits().setFailOnLimit(true);
+        cleaner.clean("<div><div>text</div></div>");
+        try {
+            cleaner.clean("<div><div><div>text</div></div></div>");
+            fail("CleanerLimitExceededException expected");
+        } catch (CleanerLimitExceededException e) {
+            assertSame(CleanerLimits.Limit.Depth, e.getLimit());
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the read - clean - serialize pipeline.
+ */
+public class CleaningPipelineTest extends AbstractHtmlCleanerTest {
+
+    private static class CollectingOutput implements CleaningPipeline.Output {
+        private final Map<Object, StringWriter> writers = new ConcurrentHashMap<Object, StringWriter>();
+
+        public Writer open(Object source) {
+            StringWriter writer = new StringWriter();
+            writers.put(source, writer);
+            return writer;
+        }
+    }
+
+    @Test
+    public void testSameAsSequential() throws IOException {
+        String large = readFile("src/test/resources/Real_1.html");
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 300; i++) {
+            documents.add(i % 50 == 0 ? large + "<!-- " + i + " -->" : "<p>document " + i + "<table><td>cell " + i + "</table>");
+        }
+        CleaningPipeline pipeline = new CleaningPipeline(cleaner, serializer);
+        pipeline.setCleaningThreads(3);
+        pipeline.setReadingThreads(2);
+        pipeline.setWritingThreads(2);
+        pipeline.setQueueCapacity(4);
+        CollectingOutput output = new CollectingOutput();
+        CleaningPipeline.Statistics statistics = pipeline.run(documents, output);
+
+        assertSame(statistics, pipeline.getStatistics());
+        assertEquals(300, statistics.getDocumentsRead());
+        assertEquals(300, statistics.getDocumentsCleaned());
+        assertEquals(300, statistics.getDocumentsWritten());
+        assertEquals(0, statistics.getDocumentsFailed());
+        assertTrue(statistics.getMaxCleanQueueDepth() <= 4);
+        assertTrue(statistics.getMaxWriteQueueDepth() <= 4);
+        assertEquals(0, statistics.getCleanQueueDepth());
+        assertEquals(0, statistics.getWriteQueueDepth());
+        long characters = 0;
+        for (String document: documents) {
+            characters += document.length();
+            StringWriter written = output.writers.get(document);
+            assertNotNull(written);
+            assertEquals(serializer.getAsString(cleaner.clean(document)), written.toString());
+        }
+        assertEquals(characters, statistics.getCharactersRead());
+    }
+
+    @Test
+    public void testFailures() {
+        CleaningPipeline pipeline = new CleaningPipeline(cleaner, serializer);
+        Object unsupported = Integer.valueOf(1);
+        final String failing = "<p>cannot be written";
+        CleaningPipeline.Statistics statistics = pipeline.run(Arrays.asList("<p>one", unsupported, failing, "<p>two"), new CleaningPipeline.Output() {
+            public Writer open(Object source) throws IOException {
+                if (source == failing) {
+                    throw new IOException("no space left");
+                }
+                return new StringWriter();
+            }
+        });
+        assertEquals(3, statistics.getDocumentsRead());
+        assertEquals(3, statistics.getDocumentsCleaned());
+        assertEquals(2, statistics.getDocumentsWritten());
+        assertEquals(2, statistics.getDocumentsFailed());
+        assertEquals(2, statistics.getFailures().size());
+        for (CleanResult failure: statistics.getFailures()) {
+            if (failure.getSource() == unsupported) {
+                assertTrue(failure.getException() instanceof IllegalArgumentException);
+            } else {
+                assertSame(failing, failure.getSource());
+                assertTrue(failure.getException() instanceof IOException);
+            }
+        }
+    }
+
+    @Test
+    public void testErrorsOfDocuments() {
+        CleaningPipeline pipeline = new CleaningPipeline(cleaner, serializer);
+        pipeline.setWritingThreads(1);
+        final String failing = "<p>overflows";
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            documents.add(i == 10 ? failing : "<p>document " + i);
+        }
+        // the only writing thread survives the error and writes the rest of the documents
+        CleaningPipeline.Statistics statistics = pipeline.run(documents, new CleaningPipeline.Output() {
+            public Writer open(Object source) {
+                if (source == failing) {
+                    throw new StackOverflowError();
+                }
+                return new StringWriter();
+            }
+        });
+        assertEquals(19, statistics.getDocumentsWritten());
+        assertEquals(1, statistics.getDocumentsFailed());
+        CleanResult failure = statistics.getFailures().get(0);
+        assertSame(failing, failure.getSource());
+        assertTrue(failure.getException().getCause() instanceof StackOverflowError);
+    }
+
+    @Test(timeout = 20000)
+    public void testFailedStage() {
+        final Error error = new OutOfMemoryError("no session");
+        HtmlCleaner failing = new HtmlCleaner() {
+            public CleaningSession getThreadSession() {
+                throw error;
+            }
+        };
+        // cleaning threads die at start, the readers must not wait for them forever
+        CleaningPipeline pipeline = new CleaningPipeline(failing, serializer);
+        pipeline.setQueueCapacity(1);
+        List<String> documents = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            documents.add("<p>document " + i);
+        }
+        try {
+            pipeline.run(documents, new CollectingOutput());
+            fail("Error expected");
+        } catch (OutOfMemoryError e) {
+            assertSame(error, e);
+        }
+        assertEquals(0, pipeline.getStatistics().getDocumentsWritten());
+        assertEquals(0, pipeline.getStatistics().getCleanQueueDepth());
+    }
+
+    @Test
+    public void testFilesToDirectory() throws IOException {
+        File in = File.createTempFile("pipeline", ".html");
+        File outDir = new File(in.getParentFile(), "pipeline-out-" + System.nanoTime());
+        assertTrue(outDir.mkdir());
+        try {
+            FileOutputStream out = new FileOutputStream(in);
+            out.write("<p>déjà vu<td>cell".getBytes("UTF-8"));
+            out.close();
+            cleaner.getProperties().setCharset("UTF-8");
+            CleaningPipeline pipeline = new CleaningPipeline(cleaner, serializer);
+            CleaningPipeline.Statistics statistics = pipeline.run(Arrays.asList(in), pipeline.toDirectory(outDir));
+            assertEquals(1, statistics.getDocumentsWritten());
+            File result = new File(outDir, in.getName());
+            assertEquals(serializer.getAsString(cleaner.clean("<p>déjà vu<td>cell")), readFile(result.getPath()));
+            result.delete();
+        } finally {
+            in.delete();
+            outDir.delete();
+        }
+    }
+
+    @Test
+    public void testIoThreadFactory() throws InterruptedException {
+        final String[] name = new String[1];
+        Thread thread = CleaningPipeline.createIoThreadFactory().newThread(new Runnable() {
+            public void run() {
+                name[0] = Thread.currentThread().getName();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertTrue(name[0].startsWith("htmlcleaner-io-"));
+    }
+
+}
@@ -0,0 +1,124 @@
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.htmlcleaner.audit.ErrorType;
+import org.htmlcleaner.audit.HtmlModificationListener;
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for cleaning of many documents in the same session.
+ */
+public class CleaningSessionTest extends AbstractHtmlCleanerTest {
+
+    private static final String[] SNIPPETS = {
+        "<p>first <b>bold</p><p>second",
+        "<table><td>cell<td>other cell</table>",
+        "<html><head><title>Title</title><body onload=\"x()\">text &amp; entity",
+        "<ul><li>one<li>two</ul><!-- comment --><script>if (a < b) {}</script>",
+        "<svg:rect width=\"10\"/><font color=red><div>copied font</div>",
+        "",
+        "plain text only"
+    };
+
+    @Test
+    public void testSameAsCleaner() throws IOException {
+        CleaningSession session = cleaner.createSession();
+        List<TagNode> documents = new ArrayList<TagNode>();
+        for (int i = 0; i < 3; i++) {
+            for (String snippet: SNIPPETS) {
+                TagNode document = session.clean(snippet);
+                assertEquals(snippet, serializer.getAsString(cleaner.clean(snippet)), serializer.getAsString(document));
+                documents.add(document);
+            }
+        }
+        String html = readFile("src/test/resources/Real_1.html");
+        assertEquals(serializer.getAsString(cleaner.clean(html)), serializer.getAsString(session.clean(new StringReader(html))));
+
+        // documents are not changed by the later ones, although their text shares the buffer
+        for (int i = 0; i < documents.size(); i++) {
+            String snippet = SNIPPETS[i % SNIPPETS.length];
+            assertEquals(snippet, serializer.getAsString(cleaner.clean(snippet)), serializer.getAsString(documents.get(i)));
+        }
+    }
+
+    @Test
+    public void testStateIsReset() {
+        cleaner.getProperties().getLimits().setMaxNodes(3);
+        CleaningSession session = cleaner.createSession();
+        assertEquals(3, session.clean("<p>1</p><p>2</p><p>3</p><p>4</p>").findElementByName("body", false).getChildTags().length);
+        assertEquals(3, session.clean("<p>1</p><p>2</p><p>3</p><p>4</p>").findElementByName("body", false).getChildTags().length);
+
+        // unique title in the previous document doesn't prevent the next one
+        session.clean("<title>one</title>");
+        assertEquals("two", session.clean("<title>two</title>").findElementByName("title", true).getText().toString());
+    }
+
+    @Test
+    public void testAfterCancellation() throws IOException {
+        CleaningSession session = cleaner.createSession();
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        try {
+            session.clean(new StringReader("<div><span>never finished"), token);
+            fail("CleaningCancelledException expected");
+        } catch (CleaningCancelledException e) {
+            assertTrue(true);
+        }
+        assertEquals(serializer.getAsString(cleaner.clean(SNIPPETS[0])), serializer.getAsString(session.clean(SNIPPETS[0])));
+    }
+
+    @Test
+    public void testUsedWhileCleaning() {
+        final CleaningSession session = cleaner.getThreadSession();
+        final List<String> nested = new ArrayList<String>();
+        cleaner.getProperties().addHtmlModificationListener(new HtmlModificationListener() {
+            public void fireHtmlError(boolean safety, TagNode tagNode, ErrorType errorType) {
+                if (nested.isEmpty()) {
+                    // nested cleaning notifies this listener as well
+                    nested.add(null);
+                    nested.set( 0, serializer.getAsString(session.clean("<b>nested")) );
+                }
+            }
+            public void fireUglyHtml(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+            public void fireConditionModification(ITagNodeCondition condition, TagNode tagNode) {
+            }
+            public void fireUserDefinedModification(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+        });
+        TagNode document = session.clean("<p>outer<div>block</div>");
+        assertEquals(1, nested.size());
+        assertEquals(serializer.getAsString(new HtmlCleaner().clean("<b>nested")), nested.get(0));
+        assertEquals(2, document.findElementByName("body", false).getChildTags().length);
+    }
+
+    @Test
+    public void testThreadSession() throws InterruptedException {
+        final CleaningSession session = cleaner.getThreadSession();
+        assertSame(session, cleaner.getThreadSession());
+        assertSame(cleaner, session.getCleaner());
+        final CleaningSession[] other = new CleaningSession[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other[0] = cleaner.getThreadSession();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotSame(session, other[0]);
+        assertNotSame(session, new HtmlCleaner().getThreadSession());
+    }
+
+}
@@ -162,6 +162,24 @@ public class CollapseHtmlTest extends TestCase {
         assertEquals("<p>Some text</p>", serializer.getAsString(collapsed));
     }
 
+    /**
+     * Long chains of collapsible elements in many paragraphs are all collapsed.
+     */
+    public void testCollapseLongChains() throws IOException {
+        StringBuilder html = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            html.append("<p>text ").append(i);
+            for (int j = 0; j < 50; j++) {
+                html.append(j % 2 == 0 ? "<br/>" : "<span><u></u></span>");
+            }
+            html.append("</p>");
+            expected.append("<p>text ").append(i).append("</p>");
+        }
+        TagNode collapsed = cleaner.clean(html.toString());
+        assertEquals(expected.toString(), serializer.getAsString(collapsed));
+    }
+
     /**
      * because elements with ids can be referred to by javascript, don't assume
      * that such elements can be eliminated.
@@ -0,0 +1,94 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for tag providers compiled to perfect hash tables.
+ */
+public class CompiledTagProviderTest extends TestCase {
+
+    private static final File CONFIG_FILE = new File("src/main/java/org/htmlcleaner/example.xml");
+
+    public void testSameAsConfigFile() {
+        ConfigFileTagProvider provider = new ConfigFileTagProvider(CONFIG_FILE);
+        CompiledTagProvider compiled = provider.compile();
+        assertEquals(provider.size(), compiled.size());
+        assertEquals(provider.keySet(), compiled.getTagNames());
+        for (Object name: provider.keySet()) {
+            assertSame(provider.getTagInfo((String) name), compiled.getTagInfo((String) name));
+        }
+        assertNull(compiled.getTagInfo("DIV"));
+        assertNull(compiled.getTagInfo("unknown"));
+        assertNull(compiled.getTagInfo(""));
+        assertNull(compiled.getTagInfo(null));
+    }
+
+    public void testCleaning() throws IOException {
+        ConfigFileTagProvider provider = new ConfigFileTagProvider(CONFIG_FILE);
+        HtmlCleaner cleaner1 = new HtmlCleaner(provider);
+        HtmlCleaner cleaner2 = new HtmlCleaner(provider.compile());
+        SimpleXmlSerializer serializer = new SimpleXmlSerializer(cleaner1.getProperties());
+        for (String file: new String[] {"test1.html", "test2.html", "test3.html", "test5.html", "Real_1.html"}) {
+            File html = new File("src/test/resources/" + file);
+            assertEquals(file, serializer.getAsString(cleaner1.clean(html)), serializer.getAsString(cleaner2.clean(html)));
+        }
+    }
+
+    public void testManyTags() {
+        Map<String, TagInfo> tagInfos = new HashMap<String, TagInfo>();
+        for (int i = 0; i < 5000; i++) {
+            String name = "tag" + i;
+            tagInfos.put(name, new TagInfo(name, ContentType.all, BelongsTo.BODY, false, false, false, CloseTag.required, Display.block));
+        }
+        CompiledTagProvider compiled = CompiledTagProvider.compile(tagInfos);
+        assertEquals(5000, compiled.size());
+        for (Map.Entry<String, TagInfo> entry: tagInfos.entrySet()) {
+            assertSame(entry.getValue(), compiled.getTagInfo(entry.getKey()));
+        }
+        assertNull(compiled.getTagInfo("tag5000"));
+
+        assertEquals(0, CompiledTagProvider.compile(new HashMap<String, TagInfo>()).size());
+        assertNull(CompiledTagProvider.compile(new HashMap<String, TagInfo>()).getTagInfo("div"));
+    }
+
+    public void testGeneratedSource() throws IOException {
+        Map<String, TagInfo> tagInfos = new HashMap<String, TagInfo>();
+        TagInfo tr = new TagInfo("tr", ContentType.all, BelongsTo.BODY, false, false, false, CloseTag.optional, Display.block);
+        tr.defineFatalTags("table");
+        tr.defineRequiredEnclosingTags("tbody");
+        tr.defineAllowedChildrenTags("td,th");
+        tagInfos.put("tr", tr);
+        tagInfos.put("row", tr);
+        CompiledTagProvider compiled = CompiledTagProvider.compile(tagInfos);
+
+        StringBuilder source = new StringBuilder();
+        compiled.writeSource(source, "com.example", "TableTagProvider");
+        String code = source.toString();
+        assertTrue(code.startsWith("package com.example;"));
+        assertTrue(code.contains("public class TableTagProvider extends CompiledTagProvider {"));
+        // tables are initialized before the instance which uses them
+        assertTrue(code.indexOf("SEEDS = {") < code.indexOf("INSTANCE = new TableTagProvider();"));
+        assertTrue(code.contains("new TagInfo(\"tr\", ContentType.all, BelongsTo.BODY, false, false, false, CloseTag.optional, Display.block);"));
+        assertTrue(code.contains("tagInfo.setChildTags(tags(\"td\", \"th\"));"));
+        assertTrue(code.contains("tagInfo.setHigherTags(tags(\"table\", \"tbody\"));"));
+        assertTrue(code.contains("tagInfo.setFatalTag(\"table\");"));
+        assertTrue(code.contains("tagInfo.setRequiredParent(\"tbody\");"));
+        // shared tag info is created only once
+        assertEquals(code.indexOf("new TagInfo("), code.lastIndexOf("new TagInfo("));
+    }
+
+    public void testInvalidTable() {
+        try {
+            new CompiledTagProvider(new String[] {"a", "b"}, new TagInfo[1], new int[] {0});
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the element index used by recursive queries.
+ */
+public class DocumentIndexTest extends AbstractHtmlCleanerTest {
+
+    @Test
+    public void testSameResultsAsWithoutIndex() throws IOException, XPatherException {
+        TagNode plain = cleaner.clean( new File("src/test/resources/test5.html") );
+        TagNode indexed = cleaner.clean( new File("src/test/resources/test5.html") );
+        indexed.setIndexed(true);
+        assertTrue(indexed.isIndexed());
+
+        for (String name: new String[] {"div", "A", "li", "span", "nonexistent"}) {
+            assertSameNodes(plain.getElementListByName(name, true), indexed.getElementListByName(name, true));
+            assertSameNodes(Arrays.asList(plain.getElementsByName(name, false)), Arrays.asList(indexed.getElementsByName(name, false)));
+            assertSameNodes(Collections.singletonList(plain.findElementByName(name, true)), Collections.singletonList(indexed.findElementByName(name, true)));
+        }
+        for (String attName: new String[] {"id", "CLASS", "style", "href"}) {
+            assertSameNodes(plain.getElementListHavingAttribute(attName, true), indexed.getElementListHavingAttribute(attName, true));
+        }
+        assertSameNodes(plain.getElementListByAttValue("id", "featured4ct", true, true), indexed.getElementListByAttValue("id", "featured4ct", true, true));
+        assertSameNodes(plain.getElementListByAttValue("class", "video", true, false), indexed.getElementListByAttValue("class", "video", true, false));
+        assertSameNodes(plain.getElementListByClass("video", true), indexed.getElementListByClass("video", true));
+        assertFalse(indexed.getElementListByClass("video", true).isEmpty());
+
+        for (String expression: new String[] {"//div//a", "//div", "//a[@id]", "//div[3]//a[@id][@href='r/n4']", "//div//@class", "count(//li)"}) {
+            Object[] expected = plain.evaluateXPath(expression);
+            Object[] actual = indexed.evaluateXPath(expression);
+            assertEquals(expression, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] instanceof TagNode) {
+                    assertEquals(expression, serializer.getAsString((TagNode) expected[i]), serializer.getAsString((TagNode) actual[i]));
+                } else {
+                    assertEquals(expression, expected[i].toString(), actual[i].toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIndexFollowsChanges() {
+        TagNode root = cleaner.clean("<div id=\"a\" class=\"x  y\"><p>one</p></div><div id=\"b\"></div>");
+        root.setIndexed(true);
+        TagNode a = root.findElementByAttValue("id", "a", true, true);
+        TagNode b = root.findElementByAttValue("id", "b", true, true);
+        assertSame(a, root.findElementByClass("y", true));
+        assertNull(root.findElementByClass("x y", true));
+
+        TagNode span = new TagNode("span");
+        span.addAttribute("id", "c");
+        b.addChild(span);
+        assertSame(span, root.findElementByAttValue("id", "c", true, true));
+        assertArrayEquals(new TagNode[] {a, b}, root.getElementsByName("div", true));
+
+        span.addAttribute("class", "x");
+        assertArrayEquals(new TagNode[] {a, span}, root.getElementsByClass("x", true));
+        span.removeAttribute("class");
+        assertArrayEquals(new TagNode[] {a}, root.getElementsByClass("x", true));
+
+        a.removeFromTree();
+        assertNull(root.findElementByAttValue("id", "a", true, true));
+        assertNull(root.findElementByName("p", true));
+
+        b.setAttributes(Collections.singletonMap("id", "d"));
+        assertSame(b, root.findElementByAttValue("id", "d", true, true));
+
+        // changes made through the live list of children are seen as well
+        b.getAllChildren().clear();
+        assertNull(root.findElementByName("span", true));
+        assertEquals(0, root.getElementListHavingAttribute("class", true).size());
+
+        root.setIndexed(false);
+        assertFalse(root.isIndexed());
+        assertSame(b, root.findElementByAttValue("id", "d", true, true));
+    }
+
+    @Test
+    public void testChangesUnderReplacedChildren() {
+        TagNode root = cleaner.clean("<div id=\"a\"><p>one</p></div><ul></ul>");
+        root.setIndexed(true);
+        TagNode div = root.findElementByAttValue("id", "a", true, true);
+        TagNode p = root.findElementByName("p", true);
+
+        // children set as a whole, then changed
+        TagNode span = new TagNode("span");
+        div.setChildren(Arrays.asList(span));
+        assertSame(div, span.getParent());
+        span.addAttribute("id", "b");
+        span.addAttribute("class", "x");
+        assertSame(span, root.findElementByAttValue("id", "b", true, true));
+        assertEquals(1, root.getElementsByClass("x", true).length);
+        assertNull(root.findElementByName("p", true));
+
+        // the replaced child is no longer part of the indexed tree
+        p.addAttribute("id", "c");
+        assertNull(root.findElementByAttValue("id", "c", true, true));
+
+        // inner html replaced, then changed
+        TagNode ul = root.findElementByName("ul", true);
+        cleaner.setInnerHtml(ul, "<li>one</li><li>two</li>");
+        TagNode[] items = root.getElementsByName("li", true);
+        assertEquals(2, items.length);
+        items[1].addAttribute("class", "x");
+        assertArrayEquals(new TagNode[] {span, items[1]}, root.getElementsByClass("x", true));
+
+        // children added through the live list, then changed
+        TagNode em = new TagNode("em");
+        // the live list is typed by its elements, which are all tokens
+        @SuppressWarnings("unchecked")
+        List<BaseToken> children = (List<BaseToken>) items[0].getAllChildren();
+        children.add(em);
+        em.addAttribute("id", "d");
+        assertSame(em, root.findElementByAttValue("id", "d", true, true));
+        TagNode b = new TagNode("b");
+        children.set(children.indexOf(em), b);
+        b.addAttribute("id", "e");
+        assertSame(b, root.findElementByAttValue("id", "e", true, true));
+        assertNull(root.findElementByAttValue("id", "d", true, true));
+    }
+
+    private static void assertSameNodes(List<? extends TagNode> expected, List<? extends TagNode> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TagNode expectedNode = expected.get(i);
+            TagNode actualNode = actual.get(i);
+            if (expectedNode == null) {
+                assertNull(actualNode);
+            } else {
+                assertEquals(expectedNode.getName(), actualNode.getName());
+                assertEquals(expectedNode.getAttributes(), actualNode.getAttributes());
+                assertEquals(expectedNode.getText().toString(), actualNode.getText().toString());
+            }
+        }
+    }
+
+}
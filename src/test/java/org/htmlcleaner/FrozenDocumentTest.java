@@ -0,0 +1,129 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the read-only frozen form of cleaned documents.
+ */
+public class FrozenDocumentTest extends AbstractHtmlCleanerTest {
+
+    private static final String[] EXPRESSIONS = {
+        "//div//a",
+        "//div//a[@id][@class]",
+        "/body/*[1]/@type",
+        "//div[3]//a[@id][@href='r/n4']",
+        "//div[3]//a[@style]/..//li[a]",
+        "(//body//div[3][@class]/span)[4]/@id",
+        "(//div[last() >= 4]//./div[position() = last()])[position() > 22]//li[2]//a",
+        "//*[@class][@id]//*[@style]",
+        "//div//@class",
+        "//div[2]/@*",
+        "//div[2]//a[. = \"Images\"]/@href",
+        "count(//div//img)",
+        "data(//div//a[@id][@class])",
+        "//p/last()",
+        "//div//../span[position() = 2]/@id",
+        "data(//a['v' < @id])",
+    };
+
+    @Test
+    public void testSerialization() throws IOException {
+        for (String file: new String[] {"src/test/resources/Real_1.html", "src/test/resources/test5.html", "src/test/resources/test1.html"}) {
+            TagNode node = cleaner.clean( readFile(file) );
+            String expected = serializer.getAsString(node);
+            FrozenDocument document = node.freeze();
+            assertEquals(file, expected, serializer.getAsString(document));
+
+            StringWriter writer = new StringWriter();
+            serializer.write(document, writer, "UTF-8");
+            assertEquals(file, expected, writer.toString());
+            assertEquals(file, node.getText().toString(), document.getText(0).toString());
+        }
+    }
+
+    @Test
+    public void testEndTagsKept() {
+        CompactXmlSerializer compact = new CompactXmlSerializer(cleaner.getProperties());
+        for (String html: new String[] {"<body>\n \n</body>", "<div>a</span>b</div>"}) {
+            TagNode node = cleaner.clean(html);
+            FrozenDocument document = node.freeze();
+            // unmatched end tags are not written, but keep the elements from being minimized
+            // and separate the text around them
+            assertEquals(html, compact.getAsString(node), compact.getAsString(document));
+            assertEquals(html, compact.getAsString(node), compact.getAsString(document.toTagNode()));
+        }
+
+        FrozenDocument document = cleaner.clean("<div>a</span>b</div>").freeze();
+        int child = document.getNextSibling( document.getFirstChild(document.getRootElement().getElementsByName("div", true).get(0).getNode()) );
+        assertEquals(FrozenDocument.END_TAG, document.getKind(child));
+        assertEquals("span", document.getName(child));
+        assertNull(document.getContent(child));
+        assertEquals("ab", document.getText(0).toString());
+    }
+
+    @Test
+    public void testXPath() throws IOException, XPatherException {
+        TagNode node = cleaner.clean( new File("src/test/resources/test5.html") );
+        FrozenDocument document = node.freeze();
+        for (String expression: EXPRESSIONS) {
+            Object[] expected = node.evaluateXPath(expression);
+            Object[] actual = document.evaluateXPath(expression);
+            assertEquals(expression, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                if (expected[i] instanceof TagNode) {
+                    FrozenDocument.Element element = (FrozenDocument.Element) actual[i];
+                    assertEquals(expression, serializer.getAsString((TagNode) expected[i]), serializer.getAsString(element.toTagNode()));
+                } else {
+                    assertEquals(expression, expected[i].toString(), actual[i].toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNavigation() {
+        TagNode node = cleaner.clean("<div id=\"main\" class=\"a\">text<!-- note --><p>para</p><br></div>");
+        FrozenDocument document = node.freeze();
+        FrozenDocument.Element div = document.getRootElement().getElementsByName("div", true).get(0);
+        assertEquals("main", div.getAttributeByName("ID"));
+        assertEquals(2, div.getAttributes().size());
+        assertEquals("body", div.getParent().getName());
+
+        int child = document.getFirstChild(div.getNode());
+        assertEquals(FrozenDocument.TEXT, document.getKind(child));
+        assertEquals("text", document.getContent(child));
+        child = document.getNextSibling(child);
+        assertEquals(FrozenDocument.COMMENT, document.getKind(child));
+        assertEquals(" note ", document.getContent(child));
+        child = document.getNextSibling(child);
+        assertEquals("p", document.getName(child));
+        assertEquals(div.getNode(), document.getParent(child));
+        child = document.getNextSibling(child);
+        assertEquals("br", document.getName(child));
+        assertEquals(-1, document.getFirstChild(child));
+        assertEquals(-1, document.getNextSibling(child));
+
+        List<FrozenDocument.Element> children = div.getChildElements();
+        assertEquals(2, children.size());
+        assertEquals(document.getElement(children.get(0).getNode()), children.get(0));
+        assertEquals("textpara", div.getText().toString());
+        assertNull(document.getRootElement().getParent());
+
+        // thawed trees are independent of the document and of each other
+        TagNode thawed = div.toTagNode();
+        thawed.removeAllChildren();
+        assertTrue(div.toTagNode().hasChildren());
+        assertFalse(document.getNodeCount() < node.getAllElementsList(true).size());
+    }
+
+}
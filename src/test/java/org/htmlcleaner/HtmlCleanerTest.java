@@ -1,7 +1,9 @@
 package org.htmlcleaner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.junit.Test;
@@ -151,4 +153,88 @@ public class HtmlCleanerTest extends AbstractHtmlCleanerTest {
 		
 		assertCleaned(initial,expected);
 	}
+
+    /**
+     * Memory mapped file input must give the same result as the stream based one.
+     * @throws IOException
+     */
+    @Test
+    public void testMemoryMappedFile() throws IOException {
+        File file = new File("src/test/resources/test-chinese-issue-64.html");
+        String expected = serializer.getAsString(cleaner.clean(file));
+        cleaner.getProperties().setUseMemoryMappedFiles(true);
+        assertEquals(expected, serializer.getAsString(cleaner.clean(file)));
+
+        file = new File("src/test/resources/Real_1.html");
+        cleaner.getProperties().setUseMemoryMappedFiles(false);
+        expected = serializer.getAsString(cleaner.clean(file));
+        cleaner.getProperties().setUseMemoryMappedFiles(true);
+        assertEquals(expected, serializer.getAsString(cleaner.clean(file)));
+    }
+
+    /**
+     * Text and comments kept in shared buffers must be cleaned and serialized the same way as strings.
+     * @throws IOException
+     */
+    @Test
+    public void testSharedContentBuffer() throws IOException {
+        cleaner.getProperties().setOmitComments(false);
+        for (String name: new String[] {"Real_1.html", "test-chinese-issue-64.html", "test1.html"}) {
+            File file = new File("src/test/resources/" + name);
+            cleaner.getProperties().setUseSharedContentBuffer(false);
+            String expected = serializer.getAsString(cleaner.clean(file));
+            cleaner.getProperties().setUseSharedContentBuffer(true);
+            assertEquals(expected, serializer.getAsString(cleaner.clean(file)));
+        }
+
+        TagNode node = cleaner.clean("<p>  </p><p>a&amp;b</p><!--c-->");
+        TagNode[] paragraphs = node.getElementsByName("p", true);
+        assertTrue( ((ContentNode) paragraphs[0].getAllChildren().get(0)).isBlank() );
+        assertEquals("a&amp;b", paragraphs[1].getText().toString());
+        assertEquals("<!--c-->", node.findElementByName("body", false).getAllChildren().get(2).toString());
+    }
+
+    /**
+     * Unmatched end tags inside of deeply nested unclosed tags are ignored.
+     */
+    @Test
+    public void testManyUnclosedTags() {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            html.append("<div><span>text ").append(i).append("</em>");
+        }
+        TagNode node = cleaner.clean(html.toString()).findElementByName("body", false);
+        int depth = 0;
+        while ( (node = node.findElementByName("div", false)) != null ) {
+            TagNode span = node.findElementByName("span", false);
+            assertEquals("text " + depth, ((ContentNode) span.getAllChildren().get(0)).getContent());
+            node = span;
+            depth++;
+        }
+        assertEquals(2000, depth);
+    }
+
+    /**
+     * Tags allowing anything closed out of the order they were opened in still leave misplaced
+     * content in the right tag.
+     */
+    @Test
+    public void testTagsAllowingAnythingClosedOutOfOrder() {
+        cleaner.getProperties().setOmitHtmlEnvelope(true);
+        Serializer htmlSerializer = new SimpleHtmlSerializer(cleaner.getProperties());
+        assertEquals("<font></font><div><font><font></font></font><font><font></font></font><table><tbody><tr>ab<td>c</td></tr></tbody></table></div><font>d</font>e",
+                htmlSerializer.getAsString(cleaner.clean("<font><div><font><table><tr>a</font>b<td>c</div>d</font>e")));
+
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            html.append("<div><font><span>");
+        }
+        for (int i = 0; i < 2000; i++) {
+            html.append("</div>text<table><tr>rubbish").append(i).append("</table>");
+        }
+        TagNode node = cleaner.clean(html.toString());
+        assertEquals(2000, node.getElementsByName("div", true).length);
+        assertEquals(2000, node.getElementsByName("table", true).length);
+        assertTrue(node.getText().toString().contains("rubbish1999"));
+    }
 }
@@ -0,0 +1,281 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.htmlcleaner.conditional.TagNodeEmptyContentCondition;
+import org.htmlcleaner.conditional.TagNodeInsignificantBrCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for pull based stream reader.
+ */
+public class HtmlStreamReaderTest extends AbstractHtmlCleanerTest {
+
+    private String stream(String html) throws IOException {
+        StringBuilder result = new StringBuilder();
+        HtmlStreamReader reader = cleaner.createStreamReader(html);
+        int depth = 0;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case HtmlStreamReader.START_ELEMENT:
+                    depth++;
+                    assertEquals(depth, reader.getDepth());
+                    result.append('<').append(reader.getName());
+                    for (String attName: reader.getAttributes().keySet()) {
+                        result.append(' ').append(attName).append("='").append(reader.getAttribute(attName)).append('\'');
+                    }
+                    result.append('>');
+                    break;
+                case HtmlStreamReader.END_ELEMENT:
+                    assertEquals(depth, reader.getDepth());
+                    depth--;
+                    result.append("</").append(reader.getName()).append('>');
+                    break;
+                case HtmlStreamReader.CHARACTERS:
+                case HtmlStreamReader.CDATA:
+                    result.append(reader.getText());
+                    break;
+                case HtmlStreamReader.COMMENT:
+                    result.append("<!--").append(reader.getText()).append("-->");
+                    break;
+            }
+        }
+        assertEquals(0, depth);
+        return result.toString();
+    }
+
+    @Test
+    public void testEnvelope() throws IOException {
+        assertEquals("<html><head></head><body></body></html>", stream(""));
+        assertEquals("<html lang='en'><head><title>T</title></head><body class='c'><p>text</p></body></html>",
+                stream("<html lang=en><head><title>T</title></head><body class=c><p>text</p></body></html>"));
+        assertEquals("<html><head><title>T</title></head><body>text</body></html>", stream("<title>T</title>text"));
+    }
+
+    @Test
+    public void testOmitEnvelope() throws IOException {
+        cleaner.getProperties().setOmitHtmlEnvelope(true);
+        assertEquals("<div>a<b>b</b></div>", stream("<div>a<b>b</div>"));
+    }
+
+    @Test
+    public void testBalancing() throws IOException {
+        assertEquals("<html><head></head><body><p>a</p><p>b</p></body></html>", stream("<p>a<p>b"));
+        assertEquals("<html><head></head><body><table><tbody><tr><td>1</td></tr></tbody></table></body></html>",
+                stream("<table><td>1</table>"));
+        assertEquals("<html><head></head><body><ul><li>a</li><li>b</li></ul></body></html>",
+                stream("<ul><li>a<li>b</ul>"));
+        assertEquals("<html><head></head><body><b>a<i>b</i></b><i>c</i></body></html>", stream("<b>a<i>b</b>c</i>"));
+        assertEquals("<html><head></head><body><div>a</div>b</body></html>", stream("<div>a</div></span>b"));
+    }
+
+    @Test
+    public void testSameAsTree() throws IOException {
+        String html = "<html><head><title>Title</title><meta name=x content=y></head>" +
+                "<body><h1 id=top>Header</h1><p>Some <b>bold <i>and italic</b> text.</p><div>Second<br>line</div>" +
+                "<ul><li>one<li>two</ul><!-- remark --><table><tr><td>cell<td>cell</table></body></html>";
+        cleaner.getProperties().setOmitComments(false);
+        cleaner.getProperties().setUseEmptyElementTags(false);
+        String expected = new SimpleXmlSerializer(cleaner.getProperties()).getAsString(cleaner.clean(html));
+        String actual = stream(html).replace("<br></br>", "<br />").replace("<meta name='x' content='y'></meta>", "<meta name=\"x\" content=\"y\" />")
+                .replace("id='top'", "id=\"top\"");
+        assertEquals(expected.substring(expected.indexOf("<html")).replace("\n", ""), actual);
+    }
+
+    /**
+     * Compares content of the body given by the reader with the tree, for all the test documents
+     * and few different settings. Head elements and top level whitespace and comments are
+     * left out, since the reader doesn't move them to head once the body content has started.
+     */
+    @Test
+    public void testSameAsTreeForResources() throws IOException {
+        File[] files = new File("src/test/resources").listFiles();
+        Arrays.sort(files);
+        for (File file: files) {
+            String name = file.getName();
+            if ( !name.endsWith(".html") || name.contains("expected") || name.contains("cleaned") || name.startsWith("Expected") ) {
+                continue;
+            }
+            String html = readFile( file.getPath() );
+            for (int mode = 0; mode < 5; mode++) {
+                setup();
+                CleanerProperties properties = cleaner.getProperties();
+                if (mode == 1) {
+                    properties.setOmitComments(true);
+                    properties.setPruneTags("script,style");
+                    properties.setNamespacesAware(false);
+                } else if (mode == 2) {
+                    properties.setTreatUnknownTagsAsContent(true);
+                    properties.setOmitUnknownTags(false);
+                    properties.setDeserializeEntities(true);
+                } else if (mode == 3) {
+                    CleanerTransformations transformations = properties.getCleanerTransformations();
+                    transformations.addTransformation( new TagTransformation("blockquote") );
+                    TagTransformation transformation = new TagTransformation("table", "table", false);
+                    transformation.addAttributeTransformation("style", "${style};background:${bgcolor};border:solid ${border};");
+                    transformations.addTransformation(transformation);
+                    transformation = new TagTransformation("font", "span", true);
+                    transformation.addAttributeTransformation("style", "${style};font-family:${face};font-size:${size};color:${color};");
+                    transformation.addAttributeTransformation("face");
+                    transformations.addTransformation(transformation);
+                } else if (mode == 4) {
+                    properties.addPruneTagNodeCondition( new TagNodeInsignificantBrCondition() );
+                    properties.addPruneTagNodeCondition( new TagNodeEmptyContentCondition(cleaner.getTagInfoProvider()) );
+                }
+
+                StringBuilder expected = new StringBuilder();
+                describeBody(cleaner.clean(html).findElementByName("body", false), expected);
+                assertEquals(name + " in mode " + mode, expected.toString(), describeStreamedBody(html));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsTreeForLongDocument() throws IOException {
+        // reported items are released from the list of nodes while the tags closed by a child wait for reopening
+        StringBuilder html = new StringBuilder("<div id=all>");
+        for (int i = 0; i < 2000; i++) {
+            html.append("<p>").append(i).append("<div>block</div>rest<b>a<i>b</b>c</i><table><tr><td>x<br><td>y</table>");
+            html.append("<ul><li>one<p>two<li>three</ul><table>in<tr><td>z</td></tr></table>");
+        }
+        StringBuilder expected = new StringBuilder();
+        describeBody(cleaner.clean(html.toString()).findElementByName("body", false), expected);
+        assertEquals(expected.toString(), describeStreamedBody(html.toString()));
+    }
+
+    private void describeBody(TagNode tagNode, StringBuilder result) {
+        for (BaseToken child: tagNode.getAllChildren()) {
+            boolean topLevel = "body".equals( tagNode.getName() );
+            if (child instanceof TagNode) {
+                TagNode childNode = (TagNode) child;
+                if ( !isHeadElement(childNode.getName()) ) {
+                    result.append('<').append( childNode.getName() ).append( childNode.getAttributes() ).append('>');
+                    describeBody(childNode, result);
+                    result.append("</").append( childNode.getName() ).append('>');
+                }
+            } else if (child instanceof CommentNode) {
+                if (!topLevel) {
+                    result.append("<!--").append( ((CommentNode) child).getContent() ).append("-->");
+                }
+            } else if (child instanceof ContentNode) {
+                String text = ((ContentNode) child).getContent();
+                if ( !topLevel || !ContentNode.isBlank(text) ) {
+                    result.append(text);
+                }
+            }
+        }
+    }
+
+    private String describeStreamedBody(String html) throws IOException {
+        StringBuilder result = new StringBuilder();
+        HtmlStreamReader reader = cleaner.createStreamReader(html);
+        boolean inBody = false;
+        int skippedDepth = 0;
+        while (reader.hasNext()) {
+            int type = reader.next();
+            int depth = reader.getDepth();
+            if (!inBody) {
+                inBody = type == HtmlStreamReader.START_ELEMENT && "body".equals( reader.getName() );
+            } else if (type == HtmlStreamReader.END_ELEMENT && depth == 2) {
+                inBody = false;
+            } else if (skippedDepth > 0) {
+                if (type == HtmlStreamReader.END_ELEMENT && depth == skippedDepth) {
+                    skippedDepth = 0;
+                }
+            } else if (type == HtmlStreamReader.START_ELEMENT) {
+                if ( isHeadElement(reader.getName()) ) {
+                    skippedDepth = depth;
+                } else {
+                    result.append('<').append( reader.getName() ).append( reader.getAttributes() ).append('>');
+                }
+            } else if (type == HtmlStreamReader.END_ELEMENT) {
+                result.append("</").append( reader.getName() ).append('>');
+            } else if (type == HtmlStreamReader.COMMENT) {
+                if (depth > 3) {
+                    result.append("<!--").append( reader.getText() ).append("-->");
+                }
+            } else if ( depth > 3 || !ContentNode.isBlank(reader.getText()) ) {
+                result.append( reader.getText() );
+            }
+        }
+        return result.toString();
+    }
+
+    private boolean isHeadElement(String tagName) {
+        TagInfo info = cleaner.getTagInfoProvider().getTagInfo(tagName);
+        return info != null && (info.isHeadTag() || info.isHeadAndBodyTag());
+    }
+
+    @Test
+    public void testPruning() throws IOException {
+        cleaner.getProperties().addPruneTagNodeCondition(new TagNodeNameCondition("script"));
+        assertEquals("<html><head></head><body><div>ab</div></body></html>", stream("<div>a<script>x<b>y</b></script>b</div>"));
+    }
+
+    @Test
+    public void testPruningByCustomCondition() throws IOException {
+        // custom condition may inspect the content, so the element is held back until it closes
+        cleaner.getProperties().addPruneTagNodeCondition(new ITagNodeCondition() {
+            public boolean satisfy(TagNode tagNode) {
+                return "div".equals( tagNode.getName() ) && tagNode.hasChildren();
+            }
+        });
+        String html = "<div>kept</div><div></div><p>x</p>";
+        assertEquals("<html><head></head><body><div></div><p>x</p></body></html>", stream(html));
+        StringBuilder expected = new StringBuilder();
+        describeBody(cleaner.clean(html).findElementByName("body", false), expected);
+        assertEquals(expected.toString(), describeStreamedBody(html));
+    }
+
+    @Test
+    public void testPruningEmptyContent() throws IOException {
+        cleaner.getProperties().addPruneTagNodeCondition( new TagNodeEmptyContentCondition(cleaner.getTagInfoProvider()) );
+        String html = "<div id=wrapper><p></p><p>x</p><div> <span></span></div><div><b>y</b></div></div><div></div>";
+        assertEquals("<html><head></head><body><div id='wrapper'><p>x</p><div><b>y</b></div></div></body></html>", stream(html));
+        StringBuilder expected = new StringBuilder();
+        describeBody(cleaner.clean(html).findElementByName("body", false), expected);
+        assertEquals(expected.toString(), describeStreamedBody(html));
+    }
+
+    @Test
+    public void testPruningInsignificantBr() throws IOException {
+        cleaner.getProperties().addPruneTagNodeCondition( new TagNodeInsignificantBrCondition() );
+        String html = "<br>a<br>b<div><br><br>c<br><script></script><br>d<br><br></div><br><p>e<br></p>";
+        assertEquals("<html><head></head><body>a<br></br>b<div>c<br></br><script></script><br></br>d</div><br></br><p>e</p></body></html>", stream(html));
+        StringBuilder expected = new StringBuilder();
+        describeBody(cleaner.clean(html).findElementByName("body", false), expected);
+        assertEquals(expected.toString(), describeStreamedBody(html));
+    }
+
+    @Test
+    public void testEmptyAutoGeneratedDropped() throws IOException {
+        assertEquals("<html><head></head><body><b>a<i>b</i></b></body></html>", stream("<b>a<i>b</b></i>"));
+    }
+
+    @Test
+    public void testEndOfDocument() throws IOException {
+        HtmlStreamReader reader = cleaner.createStreamReader("<p>text");
+        assertEquals(HtmlStreamReader.START_DOCUMENT, reader.getEventType());
+        while (reader.hasNext()) {
+            reader.next();
+        }
+        assertEquals(HtmlStreamReader.END_DOCUMENT, reader.getEventType());
+        assertFalse(reader.hasNext());
+        try {
+            reader.next();
+            fail("NoSuchElementException expected");
+        } catch (NoSuchElementException e) {
+            assertTrue(true);
+        }
+    }
+}
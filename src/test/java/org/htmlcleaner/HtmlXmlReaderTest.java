@@ -0,0 +1,170 @@
+package org.htmlcleaner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXSource;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Tests for SAX reader producing cleaned HTML.
+ */
+public class HtmlXmlReaderTest extends TestCase {
+
+    private List<String> parse(HtmlXmlReader reader, String html) throws Exception {
+        final List<String> events = new ArrayList<String>();
+        DefaultHandler2 handler = new DefaultHandler2() {
+            public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+                StringBuilder event = new StringBuilder("start:" + qName);
+                if (uri.length() > 0) {
+                    event.append('{').append(uri).append('}');
+                }
+                for (int i = 0; i < atts.getLength(); i++) {
+                    event.append(' ').append(atts.getQName(i)).append('=').append(atts.getValue(i));
+                }
+                events.add(event.toString());
+            }
+            public void endElement(String uri, String localName, String qName) throws SAXException {
+                events.add("end:" + qName);
+            }
+            public void characters(char[] ch, int start, int length) throws SAXException {
+                events.add("text:" + new String(ch, start, length));
+            }
+            public void comment(char[] ch, int start, int length) throws SAXException {
+                events.add("comment:" + new String(ch, start, length));
+            }
+        };
+        reader.setContentHandler(handler);
+        reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+        reader.parse(new InputSource(new StringReader(html)));
+        return events;
+    }
+
+    public void testEvents() throws Exception {
+        HtmlXmlReader reader = new HtmlXmlReader();
+        List<String> events = parse(reader, "<p class=a>one<!--c--><p>two");
+        assertEquals("[start:html, start:head, end:head, start:body, start:p class=a, text:one, comment:c, end:p, " +
+                "start:p, text:two, end:p, end:body, end:html]", events.toString());
+    }
+
+    public void testNamespaces() throws Exception {
+        CleanerProperties props = new CleanerProperties();
+        props.setNamespacesAware(true);
+        HtmlXmlReader reader = new HtmlXmlReader(new HtmlCleaner(props));
+        List<String> events = parse(reader, "<div><svg xmlns=\"http://www.w3.org/2000/svg\"><rect/></svg></div>");
+        assertTrue(events.toString(), events.contains("start:svg{http://www.w3.org/2000/svg}"));
+        assertTrue(events.toString(), events.contains("start:rect{http://www.w3.org/2000/svg}"));
+
+        reader.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+        events = parse(reader, "<div><svg xmlns=\"http://www.w3.org/2000/svg\"><rect/></svg></div>");
+        assertTrue(events.toString(), events.contains("start:svg{http://www.w3.org/2000/svg} xmlns=http://www.w3.org/2000/svg"));
+    }
+
+    public void testAsTransformerSource() throws Exception {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        DOMResult result = new DOMResult();
+        transformer.transform(new SAXSource(new HtmlXmlReader(), new InputSource(new StringReader("<table><td>1<td>2</table>"))), result);
+        Document document = (Document) result.getNode();
+        Element html = document.getDocumentElement();
+        assertEquals("html", html.getNodeName());
+        assertEquals(2, document.getElementsByTagName("td").getLength());
+        assertEquals(1, document.getElementsByTagName("tr").getLength());
+        assertEquals("12", document.getElementsByTagName("table").item(0).getTextContent());
+    }
+
+    public void testInvalidElementNames() throws Exception {
+        CleanerProperties props = new CleanerProperties();
+        props.setNamespacesAware(false);
+        props.setOmitHtmlEnvelope(true);
+        HtmlXmlReader reader = new HtmlXmlReader(new HtmlCleaner(props));
+        List<String> events = parse(reader, "<div><x:1 a=b>one<b>two</b></x:1>three</div>");
+        assertEquals("[start:div, text:one, start:b, text:two, end:b, text:three, end:div]", events.toString());
+    }
+
+    public void testEntityResolverAndClosedStreams() throws Exception {
+        final List<String> resolved = new ArrayList<String>();
+        final boolean[] closed = new boolean[1];
+        HtmlXmlReader reader = new HtmlXmlReader();
+        reader.setEntityResolver(new EntityResolver() {
+            public InputSource resolveEntity(String publicId, String systemId) {
+                resolved.add(systemId);
+                return new InputSource(new ByteArrayInputStream("<p>resolved".getBytes()) {
+                    public void close() throws IOException {
+                        closed[0] = true;
+                        super.close();
+                    }
+                });
+            }
+        });
+        final List<String> events = new ArrayList<String>();
+        reader.setContentHandler(new DefaultHandler2() {
+            public void characters(char[] ch, int start, int length) {
+                events.add(new String(ch, start, length));
+            }
+        });
+        reader.parse("http://example.com/page.html");
+        assertEquals("[http://example.com/page.html]", resolved.toString());
+        assertEquals("[resolved]", events.toString());
+        assertTrue(closed[0]);
+    }
+
+    public void testFatalErrors() throws Exception {
+        final List<SAXParseException> errors = new ArrayList<SAXParseException>();
+        ErrorHandler errorHandler = new DefaultHandler2() {
+            public void fatalError(SAXParseException e) {
+                errors.add(e);
+            }
+        };
+
+        CleanerProperties props = new CleanerProperties();
+        props.getLimits().setMaxTextLength(5);
+        props.getLimits().setFailOnLimit(true);
+        HtmlXmlReader reader = new HtmlXmlReader(new HtmlCleaner(props));
+        reader.setErrorHandler(errorHandler);
+        try {
+            parse(reader, "<div>too long text</div>");
+            fail("SAXParseException expected");
+        } catch (SAXParseException e) {
+            assertTrue(e.getException() instanceof CleanerLimitExceededException);
+            assertEquals(1, errors.size());
+            assertSame(e, errors.get(0));
+        }
+
+        final IOException failure = new IOException("broken");
+        reader = new HtmlXmlReader();
+        reader.setErrorHandler(errorHandler);
+        try {
+            reader.parse(new InputSource(new Reader() {
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    throw failure;
+                }
+                public void close() {
+                }
+            }));
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertSame(failure, e);
+            assertEquals(2, errors.size());
+            assertSame(failure, errors.get(1).getException());
+        }
+    }
+
+}
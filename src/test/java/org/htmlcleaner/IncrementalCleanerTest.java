@@ -0,0 +1,162 @@
+package org.htmlcleaner;
+
+import java.io.IOException;
+
+import org.htmlcleaner.audit.ErrorType;
+import org.htmlcleaner.audit.HtmlModificationListener;
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for cleaning of the content fed piece by piece.
+ */
+public class IncrementalCleanerTest extends AbstractHtmlCleanerTest {
+
+    private String feedInPieces(String html, int pieceLength) {
+        IncrementalCleaner incremental = cleaner.createIncrementalCleaner();
+        char[] chars = html.toCharArray();
+        for (int i = 0; i < chars.length; i += pieceLength) {
+            incremental.feed(chars, i, Math.min(pieceLength, chars.length - i));
+        }
+        return serializer.getAsString(incremental.finish());
+    }
+
+    @Test
+    public void testSameAsWholeContent() throws IOException {
+        String[] files = {"src/test/resources/Real_1.html", "src/test/resources/test1.html", "src/test/resources/script_test.html"};
+        for (String file: files) {
+            String html = readFile(file);
+            String expected = serializer.getAsString(cleaner.clean(html));
+            for (int pieceLength: new int[] {1, 7, 100, 1023, 5000, html.length()}) {
+                assertEquals(file + " in pieces of " + pieceLength, expected, feedInPieces(html, pieceLength));
+            }
+        }
+    }
+
+    @Test
+    public void testTokensCutBetweenPieces() {
+        IncrementalCleaner incremental = cleaner.createIncrementalCleaner();
+        incremental.feed("<div cla");
+        incremental.feed("ss=\"a\">te");
+        incremental.feed("xt<!-- com");
+        incremental.feed("ment --></d");
+        incremental.feed("iv>");
+        assertEquals(serializer.getAsString(cleaner.clean("<div class=\"a\">text<!-- comment --></div>")),
+                serializer.getAsString(incremental.finish()));
+    }
+
+    @Test(timeout = 20000)
+    public void testTokensLongerThanPieces() {
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            longText.append(i % 10 == 0 ? ' ' : (char) ('a' + i % 26));
+        }
+        String[] documents = {
+            "<div title=\"" + longText + "\">text</div>",
+            "<p>" + longText + "</p><b>bold</b>",
+            "<script>" + longText + "</script><p>after",
+            "<!--" + longText + "--><p>after",
+        };
+        for (String html: documents) {
+            // each token is parsed again only a few times, so this doesn't take long
+            assertEquals(html.substring(0, 10), serializer.getAsString(cleaner.clean(html)), feedInPieces(html, 512));
+        }
+    }
+
+    @Test
+    public void testLimitReportedOnce() {
+        final int[] exceeded = new int[1];
+        cleaner.getProperties().addHtmlModificationListener(new HtmlModificationListener() {
+            public void fireHtmlError(boolean safety, TagNode tagNode, ErrorType errorType) {
+                if (errorType == ErrorType.LimitExceeded) {
+                    exceeded[0]++;
+                }
+            }
+            public void fireUglyHtml(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+            public void fireConditionModification(ITagNodeCondition condition, TagNode tagNode) {
+            }
+            public void fireUserDefinedModification(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+        });
+        cleaner.getProperties().getLimits().setMaxAttributeValueLength(10);
+        StringBuilder html = new StringBuilder("<p a=\"value over the limit\" b=\"");
+        for (int i = 0; i < 5000; i++) {
+            html.append('x');
+        }
+        html.append("\">text");
+        // the tag is parsed again for many pieces after its first attribute is complete
+        feedInPieces(html.toString(), 10);
+        assertEquals(2, exceeded[0]);
+    }
+
+    @Test
+    public void testSnapshot() {
+        StringBuilder html = new StringBuilder("<html><head><title>Title</title></head><body><table>");
+        for (int i = 0; i < 200; i++) {
+            html.append("<tr><td>cell ").append(i).append("<td><b>bold");
+        }
+        IncrementalCleaner incremental = cleaner.createIncrementalCleaner();
+        incremental.feed(html.toString());
+
+        TagNode snapshot = incremental.snapshot();
+        assertNotNull(snapshot.findElementByName("title", true));
+        TagNode table = snapshot.findElementByName("table", true);
+        assertNotNull(table);
+        assertTrue(table.getElementsByName("tr", true).length > 100);
+
+        // snapshot is independent of further cleaning
+        snapshot.findElementByName("body", true).removeAllChildren();
+        incremental.feed("</table><p>end</p>");
+        TagNode document = incremental.finish();
+        assertEquals(serializer.getAsString(cleaner.clean(html + "</table><p>end</p>")), serializer.getAsString(document));
+        assertSame(document, incremental.snapshot());
+        assertNull(snapshot.findElementByName("table", true));
+    }
+
+    @Test
+    public void testSnapshotDoesNotNotifyListeners() {
+        final int[] unclosed = new int[1];
+        cleaner.getProperties().addHtmlModificationListener(new HtmlModificationListener() {
+            public void fireHtmlError(boolean safety, TagNode tagNode, ErrorType errorType) {
+                if (errorType == ErrorType.UnclosedTag) {
+                    unclosed[0]++;
+                }
+            }
+            public void fireUglyHtml(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+            public void fireConditionModification(ITagNodeCondition condition, TagNode tagNode) {
+            }
+            public void fireUserDefinedModification(boolean safety, TagNode tagNode, ErrorType errorType) {
+            }
+        });
+        IncrementalCleaner incremental = cleaner.createIncrementalCleaner();
+        incremental.feed("<div><span>open tags");
+        incremental.snapshot();
+        assertEquals(0, unclosed[0]);
+        incremental.finish();
+        assertEquals(2, unclosed[0]);
+    }
+
+    @Test
+    public void testFeedAfterFinish() {
+        IncrementalCleaner incremental = cleaner.createIncrementalCleaner();
+        incremental.feed("<p>text");
+        incremental.finish();
+        assertTrue(incremental.isFinished());
+        try {
+            incremental.feed("more");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+
+}
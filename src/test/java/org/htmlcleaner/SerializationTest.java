@@ -4,6 +4,7 @@ import junit.framework.TestCase;
 
 import java.io.IOException;
 import java.io.File;
+import java.io.StringWriter;
 
 import org.junit.Test;
 import org.w3c.dom.Document;
@@ -128,4 +129,24 @@ public class SerializationTest extends TestCase {
 
     }
 
-}
\ No newline at end of file
+    public void testWriteChildren() throws IOException {
+        TagNode node = cleaner.clean("<div id=\"d\"><p>a &amp; b</p><script>if (a < b) x();</script><br></div>");
+        TagNode div = node.findElementByName("div", true);
+        StringWriter writer = new StringWriter();
+        new SimpleXmlSerializer(properties).writeChildren(div, writer);
+        assertEquals("<p>a &amp; b</p><script>/*<![CDATA[*/\nif (a < b) x();\n/*]]>*/</script><br />", writer.toString());
+
+        writer = new StringWriter();
+        new SimpleHtmlSerializer(properties).writeChildren(div, writer);
+        assertEquals("<p>a &amp; b</p><script>if (a < b) x();</script><br />", writer.toString());
+
+        // script content is not escaped in the context of the script itself
+        writer = new StringWriter();
+        new SimpleXmlSerializer(properties).writeChildren(node.findElementByName("script", true), writer);
+        assertEquals("if (a < b) x();", writer.toString());
+
+        // tree is not changed
+        assertSame(div, node.findElementByName("p", true).getParent());
+    }
+
+}
@@ -33,6 +33,8 @@
 package org.htmlcleaner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
@@ -85,4 +87,44 @@ public class SpecialEntitiesTest extends AbstractHtmlCleanerTest {
 		
 	}
 
+	/*
+	 * Check that entities matched directly in the text are the same as the ones found by key
+	 */
+	@Test
+	public void matchInText() {
+		SpecialEntities entities = SpecialEntities.INSTANCE;
+		String text = "a &nbsp; b &thetasym; c &theta;&notin;&not &amp";
+		assertSame(entities.getSpecialEntity("nbsp"), entities.matchSpecialEntity(text, 3));
+		assertSame(entities.getSpecialEntity("thetasym"), entities.matchSpecialEntity(text, 12));
+		assertSame(entities.getSpecialEntity("theta"), entities.matchSpecialEntity(text, 25));
+		assertSame(entities.getSpecialEntity("notin"), entities.matchSpecialEntity(text, 32));
+		assertSame(entities.getSpecialEntity("amp"), entities.matchSpecialEntity(text, 44));
+		// not terminated by ;
+		assertNull(entities.matchSpecialEntity(text, 39));
+		// empty and partial keys
+		assertNull(entities.matchSpecialEntity("&;", 1));
+		assertNull(entities.matchSpecialEntity("&nbs;", 1));
+		assertNull(entities.matchSpecialEntity("&NBSP;", 1));
+
+		assertSame(entities.getSpecialEntity("theta"), entities.getSpecialEntity(text, 25, 30));
+		assertNull(entities.getSpecialEntity(text, 25, 29));
+		assertNull(entities.getSpecialEntity(text, 3, 3));
+	}
+
+	@Test
+	public void matchAddedEntity() {
+		SpecialEntities entities = new SpecialEntities(false, false);
+		entities.put(new SpecialEntity("nbspx", 0xE000, null, true));
+		assertSame(entities.getSpecialEntity("nbspx"), entities.matchSpecialEntity("&nbspx;", 1));
+		assertSame(entities.getSpecialEntity("nbsp"), entities.matchSpecialEntity("&nbsp;", 1));
+	}
+
+	@Test
+	public void decodeEntities() throws IOException {
+		cleaner.getProperties().setDeserializeEntities(true);
+		TagNode cleaned = cleaner.clean("<p>&lt;&amp;lt; &#38;&#x26; &unknown; &nbsp;&nbsp x&</p>");
+		TagNode p = cleaned.findElementByName("p", true);
+		assertEquals("<&lt; && &unknown; \u00a0&nbsp x&", p.getText().toString());
+	}
+
 }
@@ -0,0 +1,57 @@
+package org.htmlcleaner;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for interning of tag and attribute names.
+ */
+public class SymbolTableTest extends TestCase {
+
+    public void testInterning() {
+        SymbolTable table = new SymbolTable();
+        char[] buffer = "<div><DIV><Div>".toCharArray();
+        SymbolTable.Symbol lower = table.lookup(buffer, 1, 3);
+        SymbolTable.Symbol upper = table.lookup(buffer, 6, 3);
+        SymbolTable.Symbol mixed = table.lookup(buffer, 11, 3);
+
+        assertEquals("div", lower.name);
+        assertEquals("DIV", upper.name);
+        assertEquals("Div", mixed.name);
+        assertSame(lower, table.lookup("div"));
+        assertSame(lower.name, table.lookup(buffer, 1, 3).name);
+        assertSame(lower, lower.lowerCase);
+        assertSame(lower, upper.lowerCase);
+        assertSame(lower, mixed.lowerCase);
+        assertEquals(3, table.size());
+    }
+
+    public void testGrowing() {
+        SymbolTable table = new SymbolTable();
+        for (int i = 0; i < 1000; i++) {
+            table.lookup("name" + i);
+        }
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("name" + i, table.lookup("name" + i).name);
+        }
+        assertEquals(1000, table.size());
+    }
+
+    public void testTagInfo() {
+        SymbolTable table = new SymbolTable();
+        ITagInfoProvider provider = DefaultTagProvider.INSTANCE;
+        SymbolTable.Symbol symbol = table.lookup("TABLE");
+        assertNull(symbol.getTagInfo(provider));
+        assertSame(provider.getTagInfo("table"), symbol.lowerCase.getTagInfo(provider));
+        assertNull(table.lookup("foo").getTagInfo(provider));
+    }
+
+    public void testTokensCarryTagInfo() {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        TagNode root = cleaner.clean("<TABLE><TR><TD>1</TD></TR></TABLE><svg:rect/>");
+        TagNode td = root.findElementByName("td", true);
+        assertNotNull(td);
+        assertSame(cleaner.getTagInfoProvider().getTagInfo("td"), td.getTagInfo(cleaner.getTagInfoProvider(), "td"));
+    }
+
+}
@@ -0,0 +1,100 @@
+package org.htmlcleaner;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for attribute storage of tag nodes.
+ */
+public class TagAttributesTest extends TestCase {
+
+    public void testOrderAndReplacing() {
+        TagAttributes attributes = new TagAttributes();
+        attributes.put("id", "1");
+        attributes.put("class", "a");
+        attributes.put("title", "t");
+        attributes.put("class", "b");
+        assertEquals(3, attributes.size());
+        assertEquals("class", attributes.getName(1));
+        assertEquals("b", attributes.getValue(1));
+
+        attributes.remove("id");
+        assertEquals(2, attributes.size());
+        assertEquals("class", attributes.getName(0));
+        assertEquals("title", attributes.getName(1));
+        assertNull(attributes.get("id"));
+        try {
+            attributes.getName(2);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            assertTrue(true);
+        }
+    }
+
+    public void testManyAttributes() {
+        TagAttributes attributes = new TagAttributes();
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 500; i++) {
+            attributes.put("att" + i, "value" + i);
+            expected.put("att" + i, "value" + i);
+        }
+        for (int i = 0; i < 500; i += 3) {
+            attributes.remove("att" + i);
+            expected.remove("att" + i);
+        }
+        attributes.put("att1", "changed");
+        expected.put("att1", "changed");
+        assertEquals(expected, attributes.toMap());
+        assertEquals(expected, attributes.asMap());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(expected.get("att" + i), attributes.get("att" + i));
+        }
+    }
+
+    public void testLowerCase() {
+        TagAttributes attributes = new TagAttributes();
+        attributes.put("ID", "1");
+        attributes.put("Class", "a");
+        attributes.put("id", "2");
+        attributes.toLowerCase();
+        assertEquals(Arrays.asList("id", "class"), Arrays.asList(attributes.getName(0), attributes.getName(1)));
+        assertEquals("2", attributes.get("id"));
+        assertEquals(2, attributes.size());
+    }
+
+    public void testTagNodeViews() {
+        TagNode tagNode = new HtmlCleaner().clean("<div ID=\"main\" class=\"c\">text</div>").findElementByName("div", true);
+        assertEquals(2, tagNode.getAttributeCount());
+        assertEquals("id", tagNode.getAttributeName(0));
+        assertEquals("main", tagNode.getAttributeValue(0));
+        assertEquals("main", tagNode.getAttributeByName("ID"));
+
+        Map<String, String> view = tagNode.getAttributesView();
+        Map<String, String> copy = tagNode.getAttributes();
+        assertEquals(copy, view);
+        try {
+            view.put("title", "t");
+            fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+
+        // view reflects the changes, the copy doesn't
+        tagNode.addAttribute("title", "t");
+        tagNode.removeAttribute("class");
+        assertEquals("t", view.get("title"));
+        assertFalse(view.containsKey("class"));
+        assertEquals(2, copy.size());
+        copy.put("lang", "en");
+        assertFalse(tagNode.hasAttribute("lang"));
+
+        // attributes may be set from their own view
+        tagNode.setAttributes(tagNode.getAttributesView());
+        assertEquals("main", tagNode.getAttributeByName("id"));
+        assertEquals(2, tagNode.getAttributeCount());
+    }
+
+}
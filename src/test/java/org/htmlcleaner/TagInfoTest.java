@@ -0,0 +1,88 @@
+package org.htmlcleaner;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for tag relations kept as bit sets indexed by tag ordinal.
+ */
+public class TagInfoTest extends TestCase {
+
+    private TagInfo newTagInfo(String name) {
+        return new TagInfo(name, ContentType.all, BelongsTo.BODY, false, false, false, CloseTag.required, Display.block);
+    }
+
+    public void testOrdinals() {
+        TagInfo div = DefaultTagProvider.INSTANCE.getTagInfo("div");
+        assertEquals(TagOrdinals.find("div"), div.getOrdinal());
+        assertEquals(div.getOrdinal(), new TagNode("DIV").getOrdinal());
+        assertEquals(-1, TagOrdinals.find("not-a-defined-tag"));
+        assertEquals(-1, new TagNode("not-a-defined-tag").getOrdinal());
+    }
+
+    public void testRelations() {
+        TagInfo tagInfo = newTagInfo("test-block");
+        tagInfo.defineCloseBeforeCopyInsideTags("b,I");
+        tagInfo.defineCloseInsideCopyAfterTags("u");
+        tagInfo.defineHigherLevelTags("test-container");
+
+        assertTrue(tagInfo.isCopy("b"));
+        assertTrue(tagInfo.isCopy(new TagNode("B").getOrdinal()));
+        assertTrue(tagInfo.isCopy("i"));
+        assertFalse(tagInfo.isCopy("u"));
+        assertFalse(tagInfo.isCopy("unknown-tag"));
+        assertTrue(tagInfo.isContinueAfter("u"));
+        assertTrue(tagInfo.isHigher("test-container"));
+        assertTrue(tagInfo.isMustCloseTag(DefaultTagProvider.INSTANCE.getTagInfo("b")));
+        assertFalse(tagInfo.isMustCloseTag(DefaultTagProvider.INSTANCE.getTagInfo("div")));
+        // text only tags are always closed
+        assertTrue(tagInfo.isMustCloseTag(DefaultTagProvider.INSTANCE.getTagInfo("title")));
+    }
+
+    public void testRelationsChangedAfterUse() {
+        TagInfo tagInfo = newTagInfo("test-list");
+        assertFalse(tagInfo.isCopy("test-item"));
+        assertTrue(tagInfo.allowsItem(new TagNode("test-item")));
+
+        tagInfo.defineCloseBeforeCopyInsideTags("test-item");
+        assertTrue(tagInfo.isCopy("test-item"));
+
+        tagInfo.defineAllowedChildrenTags("test-other-item");
+        assertFalse(tagInfo.allowsItem(new TagNode("test-item")));
+        assertTrue(tagInfo.allowsItem(new TagNode("test-other-item")));
+
+        tagInfo.setCopyTags(Collections.<String>emptySet());
+        assertFalse(tagInfo.isCopy("test-item"));
+    }
+
+    public void testRelationsChangedThroughGetters() {
+        TagInfo tagInfo = newTagInfo("test-menu");
+        assertTrue(tagInfo.allowsItem(new TagNode("div")));
+
+        tagInfo.getChildTags().add("li");
+        assertTrue(tagInfo.getChildTags().contains("li"));
+        assertTrue(tagInfo.allowsItem(new TagNode("li")));
+        assertFalse(tagInfo.allowsItem(new TagNode("div")));
+
+        tagInfo.getHigherTags().add("test-menubar");
+        assertTrue(tagInfo.isHigher("test-menubar"));
+        Iterator<String> iterator = tagInfo.getHigherTags().iterator();
+        iterator.next();
+        iterator.remove();
+        assertFalse(tagInfo.isHigher("test-menubar"));
+
+        tagInfo.getChildTags().clear();
+        assertTrue(tagInfo.allowsItem(new TagNode("div")));
+    }
+
+    public void testPermittedTags() {
+        TagInfo tagInfo = newTagInfo("test-form");
+        tagInfo.defineForbiddenTags("test-form");
+        assertFalse(tagInfo.allowsItem(new TagNode("test-form")));
+        assertTrue(tagInfo.allowsItem(new TagNode("div")));
+        assertTrue(tagInfo.allowsItem(new TagNode("undefined-tag")));
+    }
+
+}
@@ -4,6 +4,8 @@ import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
 
 /**
  * Testing node manipulation after cleaning.
@@ -25,6 +27,70 @@ public class TagManipulationTest extends TestCase {
                 "<tbody><tr><td>row1</td><td>row2</td><td>row3</td></tr></tbody>");
     }
 
+    public void testInnerHtmlToAppendable() {
+        TagNode node = cleaner.clean("<ul id=\"list\"><li>one &lt; two</li><li><br></li></ul>");
+        TagNode ul = node.findElementByName("ul", true);
+        StringBuilder content = new StringBuilder("content: ");
+        cleaner.getInnerHtml(ul, content);
+        assertEquals("content: <li>one &lt; two</li><li><br /></li>", content.toString());
+        StringWriter writer = new StringWriter();
+        cleaner.getInnerHtml(ul, writer);
+        assertEquals(cleaner.getInnerHtml(ul), writer.toString());
+        assertEquals("", cleaner.getInnerHtml(node.findElementByName("br", true)));
+    }
+
+    public void testCleanFragment() throws XPatherException {
+        TagNode node = cleaner.clean("<table><tr><td>cell</td></tr></table><p>para</p><script>var a;</script>");
+        TagNode tr = (TagNode) node.evaluateXPath("//tr")[0];
+        List<? extends BaseToken> children = cleaner.cleanFragment("<td>1<td><b>2", tr);
+        assertEquals(2, children.size());
+        assertEquals("td", ((TagNode) children.get(0)).getName());
+        assertEquals("<b>2</b>", cleaner.getInnerHtml((TagNode) children.get(1)));
+
+        // context is not changed
+        assertEquals(1, tr.getChildTags().length);
+        assertEquals("cell", tr.getText().toString());
+
+        // elements not allowed in the context are moved out of it, like in the whole document
+        TagNode p = (TagNode) node.evaluateXPath("//p")[0];
+        children = cleaner.cleanFragment("text<div>block</div>", p);
+        assertEquals(1, children.size());
+        assertEquals("text", children.get(0).toString());
+
+        // content of the script context is not parsed as tags
+        TagNode script = (TagNode) node.evaluateXPath("//script")[0];
+        children = cleaner.cleanFragment("if (a < b) { document.write('<b>'); }", script);
+        for (BaseToken child: children) {
+            assertTrue(child instanceof ContentNode);
+        }
+
+        TagNode body = (TagNode) node.evaluateXPath("//body")[0];
+        children = cleaner.cleanFragment("<p>one<p>two", body);
+        assertEquals(2, children.size());
+        assertEquals("two", ((TagNode) children.get(1)).getText().toString());
+
+        try {
+            cleaner.cleanFragment("text", null);
+            fail("HtmlCleanerException expected");
+        } catch (HtmlCleanerException e) {
+            assertTrue(true);
+        }
+    }
+
+    public void testInnerHtmlWithoutEnvelope() {
+        cleaner.getProperties().setOmitHtmlEnvelope(true);
+        TagNode node = cleaner.clean("<div><ul><li>one</li></ul></div>");
+        TagNode ul = node.findElementByName("ul", true);
+        cleaner.setInnerHtml(ul, "<li>two<li>three");
+        assertEquals(2, ul.getChildTags().length);
+        assertEquals("<li>two</li><li>three</li>", cleaner.getInnerHtml(ul));
+
+        // root without envelope has no name, fragment is cleaned as the body of a document
+        cleaner.setInnerHtml(node, "<b>y</b>");
+        assertEquals(1, node.getChildTags().length);
+        assertEquals("<b>y</b>", cleaner.getInnerHtml(node));
+    }
+
     public void testManipulation() throws XPatherException, IOException {
         TagNode node9 = cleaner.clean(new File("src/test/resources/test9.html"));
         TagNode pNode = (TagNode) node9.evaluateXPath("//p[1]")[0];
@@ -47,6 +113,73 @@ public class TagManipulationTest extends TestCase {
         String pNodeAsString = new CompactXmlSerializer(props).getAsString(pNode);
         pNodeAsString = pNodeAsString.replaceAll("\n", "");
         assertEquals("<p><h2></h2>TEST BEFORE H3 AND AFTER H2<h3></h3><h4></h4>LAST_ONE</p>", pNodeAsString);
+
+        assertSame(testContent, h2.getNextSibling());
+        assertSame(h3, h4.getPreviousSibling());
+        assertNull(h2.getPreviousSibling());
+        assertNull(pNode.getParent().getParent().getNextSibling());
+    }
+
+    public void testWideParent() {
+        StringBuilder html = new StringBuilder("<table>");
+        for (int i = 0; i < 5000; i++) {
+            html.append("<tr><td>").append(i).append("</td></tr>");
+        }
+        TagNode tbody = cleaner.clean(html.append("</table>").toString()).findElementByName("tbody", true);
+        TagNode[] rows = tbody.getChildTags();
+        assertEquals(5000, rows.length);
+
+        for (int i = 0; i < rows.length; i += 2) {
+            assertTrue(rows[i].removeFromTree());
+        }
+        assertFalse(tbody.removeChild(rows[0]));
+        assertEquals(2500, tbody.getAllChildren().size());
+        for (int i = 1; i < rows.length; i += 2) {
+            assertEquals(i / 2, tbody.getChildIndex(rows[i]));
+            assertSame(i + 2 < rows.length ? rows[i + 2] : null, rows[i].getNextSibling());
+        }
+
+        TagNode last = rows[rows.length - 1];
+        TagNode moved = rows[1];
+        moved.removeFromTree();
+        tbody.insertChildAfter(last, moved);
+        assertSame(moved, last.getNextSibling());
+        assertSame(last, moved.getPreviousSibling());
+        assertEquals(2499, tbody.getChildIndex(moved));
+        assertEquals(0, tbody.getChildIndex(rows[3]));
+
+        // the live list of children stays in sync
+        List<? extends BaseToken> children = tbody.getAllChildren();
+        assertSame(rows[3], children.get(0));
+        assertSame(moved, children.get(children.size() - 1));
+        children.remove(0);
+        assertEquals(-1, tbody.getChildIndex(rows[3]));
+        assertEquals(0, tbody.getChildIndex(rows[5]));
+    }
+
+    public void testDuplicateChild() {
+        TagNode div = new TagNode("div");
+        TagNode other = new TagNode("div");
+        TagNode span = new TagNode("span");
+        TagNode b = new TagNode("b");
+        div.addChild(span);
+        div.addChild(b);
+        div.addChild(span);
+        // the first occurrence is found and removed, like by indexOf() and remove(Object)
+        assertEquals(0, div.getChildIndex(span));
+        assertTrue(div.removeChild(span));
+        assertEquals(1, div.getChildIndex(span));
+        assertSame(b, div.getAllChildren().get(0));
+
+        // the same when the child was placed in another list in between
+        div.insertChild(0, b);
+        other.addChild(b);
+        div.addChild(b);
+        assertEquals(0, div.getChildIndex(b));
+        assertTrue(div.removeChild(b));
+        assertEquals(0, div.getChildIndex(b));
+        assertEquals(3, div.getAllChildren().size());
+        assertEquals(0, other.getChildIndex(b));
     }
 
 }
\ No newline at end of file
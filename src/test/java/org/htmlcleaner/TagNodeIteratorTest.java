@@ -0,0 +1,142 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.htmlcleaner.conditional.ITagNodeCondition;
+import org.htmlcleaner.conditional.TagNodeNameCondition;
+
+/**
+ * Tests for lazy iteration of elements.
+ */
+public class TagNodeIteratorTest extends TestCase {
+
+    private TagNode rootNode;
+
+    @Override
+    protected void setUp() throws Exception {
+        rootNode = new HtmlCleaner().clean( new File("src/test/resources/test5.html") );
+    }
+
+    public void testSameAsElementList() {
+        ITagNodeCondition[] conditions = {null, new TagNodeNameCondition("div"), new TagNodeNameCondition("a")};
+        for (ITagNodeCondition condition: conditions) {
+            List<? extends TagNode> expected = condition == null ? rootNode.getAllElementsList(true) : rootNode.getElementList(condition, true);
+            List<TagNode> actual = new ArrayList<TagNode>();
+            for (TagNode node: rootNode.elements(condition)) {
+                actual.add(node);
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    public void testStopsEarly() {
+        final int[] visited = new int[1];
+        ITagNodeCondition condition = new ITagNodeCondition() {
+            public boolean satisfy(TagNode tagNode) {
+                visited[0]++;
+                return "a".equals(tagNode.getName());
+            }
+        };
+        Iterator<TagNode> iterator = rootNode.elementIterator(condition);
+        assertSame(rootNode.findElementByName("a", true), iterator.next());
+        assertTrue(visited[0] < rootNode.getAllElements(true).length / 2);
+    }
+
+    public void testDeepTree() {
+        TagNode root = new TagNode("div");
+        TagNode parent = root;
+        for (int i = 0; i < 100000; i++) {
+            TagNode child = new TagNode(i % 2 == 0 ? "span" : "b");
+            parent.addChild(child);
+            parent = child;
+        }
+        int count = 0;
+        for (TagNode node: root.elements(new TagNodeNameCondition("b"))) {
+            count++;
+        }
+        assertEquals(50000, count);
+        assertEquals(50000, root.getElementListByName("span", true).size());
+    }
+
+    public void testRemove() throws IOException {
+        int divs = rootNode.getElementsByName("div", true).length;
+        int links = rootNode.getElementsByName("a", true).length;
+        int linksInDivs = 0;
+        Iterator<TagNode> iterator = rootNode.elementIterator(new TagNodeNameCondition("div"));
+        while (iterator.hasNext()) {
+            TagNode div = iterator.next();
+            if (div.getParent().getName().equals("body")) {
+                linksInDivs += div.getElementsByName("a", true).length;
+                iterator.remove();
+                divs -= div.getElementsByName("div", true).length + 1;
+            }
+        }
+        assertEquals(divs, rootNode.getElementsByName("div", true).length);
+        assertEquals(links - linksInDivs, rootNode.getElementsByName("a", true).length);
+        try {
+            iterator.remove();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+
+    public void testRemoveAfterHasNext() {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        TagNode body = cleaner.clean("<div><p>a</p><div><b>x</b></div></div><p>one<span>x</span></p><i>y</i>"
+                + "<p><span>z</span><em>w</em></p><div></div>").findElementByName("body", true);
+        List<String> visited = new ArrayList<String>();
+        Iterator<TagNode> iterator = body.elementIterator(null);
+        while (iterator.hasNext()) {
+            TagNode node = iterator.next();
+            visited.add(node.getName());
+            // looks ahead before removing, into the subtree, into the same parent or out of it
+            iterator.hasNext();
+            if ("div".equals(node.getName()) || "span".equals(node.getName())) {
+                iterator.remove();
+            }
+        }
+        assertEquals("[div, p, span, i, p, span, em, div]", visited.toString());
+        assertEquals("<p>one</p><i>y</i><p><em>w</em></p>", cleaner.getInnerHtml(body));
+    }
+
+    public void testSplit() {
+        List<TagNode> expected = new ArrayList<TagNode>();
+        for (TagNode node: rootNode.elements(null)) {
+            expected.add(node);
+        }
+
+        TagNodeIterator iterator = rootNode.elementIterator(null);
+        // take a few elements before splitting, the rest is split into parts as small as possible
+        List<TagNode> actual = new ArrayList<TagNode>();
+        for (int i = 0; i < 5; i++) {
+            actual.add(iterator.next());
+        }
+        List<TagNodeIterator> parts = new ArrayList<TagNodeIterator>();
+        split(iterator, parts);
+        assertTrue(parts.size() > 10);
+        for (TagNodeIterator part: parts) {
+            while (part.hasNext()) {
+                actual.add(part.next());
+            }
+        }
+        assertEquals(expected, actual);
+    }
+
+    private static void split(TagNodeIterator iterator, List<TagNodeIterator> parts) {
+        TagNodeIterator prefix = iterator.trySplit();
+        if (prefix != null) {
+            split(prefix, parts);
+            split(iterator, parts);
+        } else {
+            parts.add(iterator);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.htmlcleaner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Simple throughput benchmark of tokenizing and cleaning text heavy pages. It is not run
+ * as a part of the test suite, start it with the page to parse as an optional argument:
+ * <code>java org.htmlcleaner.TokenizerBenchmark [file [iterations]]</code>
+ */
+public class TokenizerBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        File file = new File(args.length > 0 ? args[0] : "src/test/resources/Real_1.html");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        String html = readFile(file);
+        HtmlCleaner cleaner = new HtmlCleaner();
+
+        // warm up - cleaning first also initializes transformations used by the tokenizer
+        for (int i = 0; i < iterations; i++) {
+            cleaner.clean(html);
+            tokenize(cleaner, html);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            tokenize(cleaner, html);
+        }
+        report("tokenize", html.length(), iterations, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            cleaner.clean(html);
+        }
+        report("clean", html.length(), iterations, System.nanoTime() - start);
+    }
+
+    private static String readFile(File file) throws IOException {
+        StringBuilder content = new StringBuilder();
+        Reader reader = new InputStreamReader( new FileInputStream(file), "UTF-8" );
+        try {
+            char[] buffer = new char[4096];
+            int count;
+            while ( (count = reader.read(buffer)) >= 0 ) {
+                content.append(buffer, 0, count);
+            }
+        } finally {
+            reader.close();
+        }
+        return content.toString();
+    }
+
+    private static void tokenize(HtmlCleaner cleaner, String html) throws IOException {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        HtmlTokenizer tokenizer = new HtmlTokenizer(cleaner, new StringReader(html), cleanTimeValues, html.length()) {
+            @Override
+            void handleToken(BaseToken token) {
+                // tokens are dropped, only tokenizer itself is measured
+            }
+        };
+        tokenizer.start();
+    }
+
+    private static void report(String name, int length, int iterations, long nanos) {
+        double seconds = nanos / 1e9;
+        double megabytes = (double) length * iterations / (1024 * 1024);
+        System.out.println(name + ": " + (nanos / iterations / 1000) + " us/page, " + Math.round(megabytes / seconds) + " MB/s");
+    }
+
+}
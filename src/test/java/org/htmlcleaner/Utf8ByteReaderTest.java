@@ -0,0 +1,72 @@
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that fast UTF-8 reader produces the same characters as the JDK decoder.
+ */
+public class Utf8ByteReaderTest extends TestCase {
+
+    private String readAll(Reader reader, int chunk) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[chunk];
+        int count;
+        while ( (count = reader.read(buffer, 0, chunk)) >= 0 ) {
+            assertTrue("Reader must not return empty chunks", count > 0);
+            result.append(buffer, 0, count);
+        }
+        return result.toString();
+    }
+
+    private void assertDecoded(byte[] bytes) throws IOException {
+        String expected = new String(bytes, "UTF-8");
+        assertEquals(expected, readAll(new Utf8ByteReader(bytes, 0, bytes.length), 1024));
+        assertEquals(expected, readAll(new Utf8ByteReader(bytes, 0, bytes.length), 1));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        assertEquals(expected, readAll(new Utf8ByteReader(direct), 7));
+    }
+
+    public void testValidContent() throws IOException {
+        assertDecoded("<p class=\"x\">plain ascii</p>".getBytes("UTF-8"));
+        assertDecoded("<p>čšćž 中文 😀 end</p>".getBytes("UTF-8"));
+        assertDecoded(new byte[0]);
+    }
+
+    public void testMalformedContent() throws IOException {
+        assertDecoded(new byte[] {'a', (byte) 0xC3});
+        assertDecoded(new byte[] {'a', (byte) 0xE2, (byte) 0x82, 'b'});
+        assertDecoded(new byte[] {(byte) 0xED, (byte) 0xA0, (byte) 0x80, 'c'});
+        assertDecoded(new byte[] {(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80});
+        assertDecoded(new byte[] {(byte) 0xC0, (byte) 0xAF, (byte) 0xFF, (byte) 0x80});
+
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] bytes = new byte[random.nextInt(64)];
+            random.nextBytes(bytes);
+            assertDecoded(bytes);
+        }
+    }
+
+    public void testCleanBytes() throws IOException {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        SimpleXmlSerializer serializer = new SimpleXmlSerializer(cleaner.getProperties());
+        String html = "<table><td>中文<td>&amp; 😀</table><p>text";
+        byte[] bytes = ("xx" + html + "yy").getBytes("UTF-8");
+        String expected = serializer.getAsString(cleaner.clean(html));
+        assertEquals(expected, serializer.getAsString(cleaner.clean(bytes, 2, bytes.length - 4)));
+
+        ByteBuffer buffer = ByteBuffer.wrap(html.getBytes("UTF-8"));
+        assertEquals(expected, serializer.getAsString(cleaner.clean(buffer)));
+        assertEquals(0, buffer.position());
+
+        cleaner.getProperties().setCharset("ISO-8859-2");
+        assertEquals(serializer.getAsString(cleaner.clean("<p>č</p>")),
+                serializer.getAsString(cleaner.clean(ByteBuffer.wrap(new byte[] {'<', 'p', '>', (byte) 0xE8}))));
+    }
+}